@@ -4,7 +4,8 @@ import javax.swing.*;
 import java.awt.event.*;
 import java.io.File;
 import java.util.logging.*;
-import hirondelle.stocks.portfolio.PortfolioDAO;
+import hirondelle.stocks.main.CentralLookup;
+import hirondelle.stocks.portfolio.PortfolioWriter;
 import hirondelle.stocks.util.Args;
 import hirondelle.stocks.util.ui.UiUtil;
 import hirondelle.stocks.util.Util;
@@ -44,6 +45,7 @@ public final class ExportAction extends AbstractAction {
         super("Export...", UiUtil.getEmptyIcon());
 //    Args.checkForNull(aFrame);
         fFrame = (JFrame) WindowManager.getDefault().getMainWindow();
+        fPortfolioWriter = CentralLookup.getDefault().lookup(PortfolioWriter.class);
 
         putValue(SHORT_DESCRIPTION, "Save all stored Portfolios as a single text file");
         putValue(
@@ -106,12 +108,12 @@ public final class ExportAction extends AbstractAction {
         }
 
         fLogger.fine("Attempting to write to export file");
-        PortfolioDAO dao = new PortfolioDAO();
-        dao.exportXML(file);
+        fPortfolioWriter.exportXML(file);
     }
 
     // PRIVATE
     private JFrame fFrame;
+    private PortfolioWriter fPortfolioWriter;
 
     /**
      * The directory which the user last expressed an interest.
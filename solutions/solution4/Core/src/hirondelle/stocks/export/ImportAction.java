@@ -5,7 +5,8 @@ import java.awt.event.*;
 import java.io.File;
 import java.util.logging.*;
 
-import hirondelle.stocks.portfolio.PortfolioDAO;
+import hirondelle.stocks.main.CentralLookup;
+import hirondelle.stocks.portfolio.PortfolioWriter;
 import hirondelle.stocks.util.Args;
 import hirondelle.stocks.util.ui.UiUtil;
 import hirondelle.stocks.util.Util;
@@ -40,6 +41,7 @@ public final class ImportAction extends AbstractAction {
     super("Import...", UiUtil.getEmptyIcon()); 
 //    Args.checkForNull(aFrame);
     fFrame = (JFrame) WindowManager.getDefault().getMainWindow();
+    fPortfolioWriter = CentralLookup.getDefault().lookup(PortfolioWriter.class);
     putValue(SHORT_DESCRIPTION, "Import the result of a previous Export operation.");
     putValue(
       LONG_DESCRIPTION, "Replace all Portfolios with those defined in a text file."
@@ -92,12 +94,12 @@ public final class ImportAction extends AbstractAction {
     }
     
     fLogger.fine("Attempting to import file");
-    PortfolioDAO dao = new PortfolioDAO();
-    dao.importXML(file);
+    fPortfolioWriter.importXML(file);
   }
   
   // PRIVATE 
   private JFrame fFrame;
+  private PortfolioWriter fPortfolioWriter;
   
   /**
   * The directory which the user last expressed an interest.
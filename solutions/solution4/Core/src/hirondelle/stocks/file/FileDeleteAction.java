@@ -8,7 +8,7 @@ import java.util.logging.*;
 
 import hirondelle.stocks.portfolio.Portfolio;
 import hirondelle.stocks.portfolio.CurrentPortfolio;
-import hirondelle.stocks.portfolio.PortfolioDAO;
+import hirondelle.stocks.portfolio.PortfolioWriter;
 import hirondelle.stocks.util.ui.UiUtil;
 import hirondelle.stocks.util.Util;
 import org.openide.awt.ActionID;
@@ -53,6 +53,7 @@ public final class FileDeleteAction extends AbstractAction implements Observer {
 //    Args.checkForNull(aParentFrame);
         fCurrentPortfolio = CentralLookup.getDefault().lookup(CurrentPortfolio.class);
         fCurrentPortfolio.addObserver(this);
+        fPortfolioWriter = CentralLookup.getDefault().lookup(PortfolioWriter.class);
         fFrame = (JFrame) WindowManager.getDefault().getMainWindow();
         putValue(SHORT_DESCRIPTION, "Delete the current portfolio");
         putValue(
@@ -81,6 +82,7 @@ public final class FileDeleteAction extends AbstractAction implements Observer {
 
     // PRIVATE 
     private CurrentPortfolio fCurrentPortfolio;
+    private PortfolioWriter fPortfolioWriter;
     private JFrame fFrame;
     private static final Logger fLogger = Util.getLogger(FileDeleteAction.class);
 
@@ -122,8 +124,7 @@ public final class FileDeleteAction extends AbstractAction implements Observer {
     }
 
     private void deleteCurrentPortfolio() {
-        PortfolioDAO portfolioDAO = new PortfolioDAO();
-        portfolioDAO.delete(fCurrentPortfolio.getPortfolio());
+        fPortfolioWriter.delete(fCurrentPortfolio.getPortfolio());
         fCurrentPortfolio.setPortfolio(Portfolio.getUntitledPortfolio());
         fCurrentPortfolio.notifyObservers();
     }
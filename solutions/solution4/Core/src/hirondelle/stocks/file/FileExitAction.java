@@ -6,6 +6,7 @@ import java.util.logging.*;
 
 import hirondelle.stocks.portfolio.CurrentPortfolio;
 import hirondelle.stocks.portfolio.PortfolioDAO;
+import hirondelle.stocks.portfolio.PortfolioWriter;
 import hirondelle.stocks.util.Args;
 import hirondelle.stocks.util.ui.UiUtil;
 import hirondelle.stocks.portfolio.EditSaver;
@@ -19,6 +20,9 @@ import hirondelle.stocks.util.Util;
 * 
 *<P>When the application is closed, the <tt>CurrentPortfolio</tt> is 
 * saved as the default, and will be automatically loaded upon any re-launch.
+*
+*<P>The application waits for the {@link PortfolioWriter} to finish any saves 
+* still pending, for at most {@link PortfolioWriter#FLUSH_TIMEOUT} milliseconds.
 */
 public final class FileExitAction extends AbstractAction {
   
@@ -26,13 +30,18 @@ public final class FileExitAction extends AbstractAction {
   * Constructor.  
   * @param aCurrentPortfolio may have unsaved edits when this action is taken.
   * @param aEditSaver allows the user to save any unsaved edits.
+  * @param aPortfolioWriter performs any saves.
   */
-  public FileExitAction(CurrentPortfolio aCurrentPortfolio, EditSaver aEditSaver) {
+  public FileExitAction(
+    CurrentPortfolio aCurrentPortfolio, EditSaver aEditSaver, PortfolioWriter aPortfolioWriter
+  ) {
     super("Exit", UiUtil.getEmptyIcon()); 
     Args.checkForNull(aCurrentPortfolio);
     Args.checkForNull(aEditSaver);
+    Args.checkForNull(aPortfolioWriter);
     fEditSaver = aEditSaver;
     fCurrentPortfolio = aCurrentPortfolio;
+    fPortfolioWriter = aPortfolioWriter;
     putValue(SHORT_DESCRIPTION, "Close the application");
     //the windows ALT+F4 for File->Exit does not form part of the Java Look&Feel
     //putValue(
@@ -46,11 +55,15 @@ public final class FileExitAction extends AbstractAction {
     fEditSaver.save(fCurrentPortfolio, event);
     PortfolioDAO dao = new PortfolioDAO();
     dao.saveAsDefault( fCurrentPortfolio.getPortfolio() );
+    if ( ! fPortfolioWriter.flush(PortfolioWriter.FLUSH_TIMEOUT) ) {
+      fLogger.severe("Exiting before all portfolios were saved.");
+    }
     System.exit(0);
   }
   
   // PRIVATE
   private CurrentPortfolio fCurrentPortfolio;
   private EditSaver fEditSaver;
+  private PortfolioWriter fPortfolioWriter;
   private static final Logger fLogger = Util.getLogger(FileExitAction.class); 
 }
\ No newline at end of file
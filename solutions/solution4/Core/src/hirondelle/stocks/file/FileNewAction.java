@@ -3,6 +3,7 @@ package hirondelle.stocks.file;
 import hirondelle.stocks.main.CentralLookup;
 import hirondelle.stocks.portfolio.CurrentPortfolio;
 import hirondelle.stocks.portfolio.PortfolioDAO;
+import hirondelle.stocks.portfolio.PortfolioWriter;
 import hirondelle.stocks.quotes.Stock;
 import hirondelle.stocks.util.Consts;
 import hirondelle.stocks.util.Util;
@@ -67,6 +68,7 @@ public final class FileNewAction extends AbstractAction {
 //    Args.checkForNull(aFrame);
 //    Args.checkForNull(aEditSaver);
         fCurrentPortfolio = CentralLookup.getDefault().lookup(CurrentPortfolio.class);
+        fPortfolioWriter = CentralLookup.getDefault().lookup(PortfolioWriter.class);
 //    fFrame = aFrame;
 //    fEditSaver = aEditSaver;
         putValue(SHORT_DESCRIPTION, "Create a new portfolio");
@@ -105,6 +107,7 @@ public final class FileNewAction extends AbstractAction {
     private CurrentPortfolio fCurrentPortfolio;
     private JFrame fFrame;
     private PortfolioDAO fPortfolioDAO;
+    private PortfolioWriter fPortfolioWriter;
 //  private EditSaver fEditSaver;
     private static final Logger fLogger = Util.getLogger(FileNewAction.class);
 
@@ -148,7 +151,7 @@ public final class FileNewAction extends AbstractAction {
         fCurrentPortfolio.setStocks(new TreeSet<Stock>());
         fCurrentPortfolio.setName(aNewName);
         fCurrentPortfolio.setNeedsSave(false);
-        fPortfolioDAO.saveAs(fCurrentPortfolio.getPortfolio());
+        fPortfolioWriter.saveAs(fCurrentPortfolio.getPortfolio());
         fCurrentPortfolio.notifyObservers();
     }
 }
@@ -2,9 +2,12 @@ package hirondelle.stocks.file;
 
 import hirondelle.stocks.main.CentralLookup;
 import java.awt.event.*;
+import java.text.DateFormat;
+import java.util.*;
 import javax.swing.*;
-import hirondelle.stocks.portfolio.Portfolio;
 import hirondelle.stocks.portfolio.PortfolioDAO;
+import hirondelle.stocks.portfolio.PortfolioLoader;
+import hirondelle.stocks.portfolio.PortfolioSummary;
 import hirondelle.stocks.util.Args;
 import hirondelle.stocks.util.ui.UiUtil;
 import hirondelle.stocks.portfolio.CurrentPortfolio;
@@ -21,6 +24,12 @@ import org.openide.util.NbBundle;
  * Present an alphabetical list of <tt>Portfolio</tt> names, from which the user
  * may choose one, which is then presented to the user as the
  * <tt>CurrentPortfolio</tt>.
+ *
+* <P>
+ * The list shows the number of stocks in each <tt>Portfolio</tt>, and when it
+ * was last saved, without reading any of them. The chosen <tt>Portfolio</tt> is
+ * opened by the {@link PortfolioLoader}, which shows its first stocks at once,
+ * and reads the rest in the background.
  * 
 * <P>
  * If the <tt>CurrentPortfolio</tt> being replaced has unsaved edits, then the
@@ -62,6 +71,7 @@ public final class FileOpenAction extends AbstractAction {
 //    Args.checkForNull(aFrame);
 //    Args.checkForNull(aEditSaver);
         fCurrentPortfolio = CentralLookup.getDefault().lookup(CurrentPortfolio.class);
+        fPortfolioLoader = CentralLookup.getDefault().lookup(PortfolioLoader.class);
 //    fFrame = aFrame;
 //    fEditSaver = aEditSaver;
         putValue(SHORT_DESCRIPTION, "Open an existing portfolio");
@@ -83,6 +93,7 @@ public final class FileOpenAction extends AbstractAction {
     // PRIVATE 
     private CurrentPortfolio fCurrentPortfolio;
     private PortfolioDAO fPortfolioDAO;
+    private PortfolioLoader fPortfolioLoader;
 //  private JFrame fFrame;
 //  private EditSaver fEditSaver;
     private static final Logger fLogger = Util.getLogger(FileOpenAction.class);
@@ -106,19 +117,24 @@ public final class FileOpenAction extends AbstractAction {
      * list is returned.
      */
     private String askForSelectedPortfolio() {
-        Object[] portfolioNames = fPortfolioDAO.fetchAllPortfolioNames().toArray();
+        //the text shown for each portfolio, mapped to its name
+        Map<String, String> names = new LinkedHashMap<>();
+        DateFormat format = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+        for (PortfolioSummary summary : fPortfolioDAO.fetchCatalog()) {
+            String text
+                    = summary.getName() + "  (" + summary.getNumStocks() + " stocks, saved "
+                    + format.format(new Date(summary.getLastModified())) + ")";
+            names.put(text, summary.getName());
+        }
         String title = UiUtil.getDialogTitle("Open Portfolio");
         Object result = JOptionPane.showInputDialog(
                 null, "Please select a Portfolio:", title,
-                JOptionPane.QUESTION_MESSAGE, null, portfolioNames, null
+                JOptionPane.QUESTION_MESSAGE, null, names.keySet().toArray(), null
         );
-        return (result == null ? null : result.toString());
+        return (result == null ? null : names.get(result.toString()));
     }
 
     private void openPortfolio(String aSelectedName) {
-        Portfolio selectedPortfolio = fPortfolioDAO.fetch(aSelectedName);
-        fCurrentPortfolio.setPortfolio(selectedPortfolio);
-        fCurrentPortfolio.setNeedsSave(false);
-        fCurrentPortfolio.notifyObservers();
+        fPortfolioLoader.open(aSelectedName);
     }
 }
@@ -4,7 +4,7 @@ import hirondelle.stocks.main.CentralLookup;
 import java.awt.event.*;
 import javax.swing.*;
 import java.util.*;
-import hirondelle.stocks.portfolio.PortfolioDAO;
+import hirondelle.stocks.portfolio.PortfolioWriter;
 import hirondelle.stocks.portfolio.CurrentPortfolio;
 import hirondelle.stocks.util.ui.UiUtil;
 import java.util.logging.Logger;
@@ -18,6 +18,9 @@ import org.openide.util.NbBundle;
 /**
  * Save the edits performed on the {@link CurrentPortfolio}, and update the
  * display to show that the <tt>CurrentPortfolio</tt> no longer needs a save.
+ *
+ * <P>The save is done by the {@link PortfolioWriter}, on a background thread.
+ * If it fails, the <tt>CurrentPortfolio</tt> again needs a save.
  */
 @ActionID(
         category = "File",
@@ -43,6 +46,7 @@ public final class FileSaveAction extends AbstractAction implements Observer {
         super("Save", UiUtil.getImageIcon("/toolbarButtonGraphics/general/Save"));
         fCurrentPortfolio = CentralLookup.getDefault().lookup(CurrentPortfolio.class);
         fCurrentPortfolio.addObserver(this);
+        fPortfolioWriter = CentralLookup.getDefault().lookup(PortfolioWriter.class);
         putValue(SHORT_DESCRIPTION, "Save edits to the current portfolio");
         putValue(
                 ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_S, ActionEvent.CTRL_MASK)
@@ -54,8 +58,7 @@ public final class FileSaveAction extends AbstractAction implements Observer {
     @Override
     public void actionPerformed(ActionEvent e) {
         fLogger.info("Saving edits to the current portfolio.");
-        PortfolioDAO portfolioDAO = new PortfolioDAO();
-        portfolioDAO.save(fCurrentPortfolio.getPortfolio());
+        fPortfolioWriter.save(fCurrentPortfolio.getPortfolio());
         fCurrentPortfolio.setNeedsSave(false);
         fCurrentPortfolio.notifyObservers();
     }
@@ -74,5 +77,6 @@ public final class FileSaveAction extends AbstractAction implements Observer {
 
     // PRIVATE 
     private CurrentPortfolio fCurrentPortfolio;
+    private PortfolioWriter fPortfolioWriter;
     private static final Logger fLogger = Util.getLogger(FileSaveAction.class);
 }
@@ -4,6 +4,8 @@ import hirondelle.stocks.main.CentralLookup;
 import java.awt.event.*;
 import javax.swing.*;
 import hirondelle.stocks.portfolio.PortfolioDAO;
+import hirondelle.stocks.portfolio.PortfolioLoader;
+import hirondelle.stocks.portfolio.PortfolioWriter;
 import hirondelle.stocks.util.Consts;
 import hirondelle.stocks.util.ui.UiUtil;
 import hirondelle.stocks.portfolio.CurrentPortfolio;
@@ -50,6 +52,8 @@ public final class FileSaveAsAction extends AbstractAction {
 //    Args.checkForNull(aCurrentPortfolio);
 //    Args.checkForNull(aFrame);
         fCurrentPortfolio = CentralLookup.getDefault().lookup(CurrentPortfolio.class);
+        fPortfolioWriter = CentralLookup.getDefault().lookup(PortfolioWriter.class);
+        fPortfolioLoader = CentralLookup.getDefault().lookup(PortfolioLoader.class);
 //    fFrame = aFrame;
         putValue(SHORT_DESCRIPTION, "Save the current portfolio under a new name");
         putValue(LONG_DESCRIPTION, "Save the current portfolio under a new given name");
@@ -74,6 +78,8 @@ public final class FileSaveAsAction extends AbstractAction {
   // PRIVATE 
     private CurrentPortfolio fCurrentPortfolio;
     private PortfolioDAO fPortfolioDAO;
+    private PortfolioWriter fPortfolioWriter;
+    private PortfolioLoader fPortfolioLoader;
     private JFrame fFrame = (JFrame) WindowManager.getDefault().getMainWindow();
     private static final Logger fLogger = Util.getLogger(FileSaveAsAction.class);
 
@@ -116,9 +122,11 @@ public final class FileSaveAsAction extends AbstractAction {
     }
 
     private void savePortfolio(String aNewName) {
+        //all of the stocks must be saved, not just those shown so far
+        fPortfolioLoader.finish();
         fCurrentPortfolio.setName(aNewName);
         fCurrentPortfolio.setNeedsSave(false);
-        fPortfolioDAO.saveAs(fCurrentPortfolio.getPortfolio());
+        fPortfolioWriter.saveAs(fCurrentPortfolio.getPortfolio());
         fCurrentPortfolio.notifyObservers();
     }
 }
@@ -0,0 +1,82 @@
+package hirondelle.stocks.history;
+
+import java.util.Date;
+
+import hirondelle.stocks.util.Money;
+
+/**
+* The opening, highest, lowest, and closing prices of a stock over one
+* {@link BarInterval}, and the number of shares traded.
+*
+* <P>Built from the ticks recorded by a {@link TickStore}; see
+* {@link TickStore#getBars}. The volume is only that seen by the ticks; if
+* quotes were not received for part of the interval, then it is too low.
+*
+* <P>Immutable.
+*/
+public final class Bar {
+
+  /** Return the length of time covered by this bar. */
+  public BarInterval getInterval(){
+    return fInterval;
+  }
+
+  /** Return the start of this bar, in milliseconds. */
+  public long getStart(){
+    return fStart;
+  }
+
+  /** Return the price of the first tick in this bar. */
+  public Money getOpen(){
+    return Money.fromUnscaled(fOpen);
+  }
+
+  /** Return the highest price of the ticks in this bar. */
+  public Money getHigh(){
+    return Money.fromUnscaled(fHigh);
+  }
+
+  /** Return the lowest price of the ticks in this bar. */
+  public Money getLow(){
+    return Money.fromUnscaled(fLow);
+  }
+
+  /** Return the price of the last tick in this bar. */
+  public Money getClose(){
+    return Money.fromUnscaled(fClose);
+  }
+
+  /** Return the number of shares traded during this bar, as far as is known. */
+  public long getVolume(){
+    return fVolume;
+  }
+
+  /** Intended for debugging only. */
+  @Override public String toString(){
+    return
+      fInterval + " from " + new Date(fStart) + ": O " + getOpen() + " H " + getHigh() +
+      " L " + getLow() + " C " + getClose() + " V " + fVolume
+    ;
+  }
+
+  // PRIVATE
+
+  private final BarInterval fInterval;
+  private final long fStart;
+  private final long fOpen;
+  private final long fHigh;
+  private final long fLow;
+  private final long fClose;
+  private final long fVolume;
+
+  /** Prices are unscaled values, as held by {@link TickStore}. */
+  Bar(BarInterval aInterval, long aStart, long aOpen, long aHigh, long aLow, long aClose, long aVolume){
+    fInterval = aInterval;
+    fStart = aStart;
+    fOpen = aOpen;
+    fHigh = aHigh;
+    fLow = aLow;
+    fClose = aClose;
+    fVolume = aVolume;
+  }
+}
@@ -0,0 +1,223 @@
+package hirondelle.stocks.history;
+
+import java.io.*;
+import java.util.*;
+
+/**
+* Builds the {@link Bar}s of each {@link BarInterval} from ticks, as they are
+* appended to a {@link TickStore}, and stores them once they are complete.
+*
+* <P>For each ticker and interval, only the current bar is held in memory, as
+* primitive values in arrays indexed by ticker id. A tick updates it in constant
+* time, and creates no objects. When a tick falls after the end of the current
+* bar, that bar is sealed : it is appended to the single {@link BarSegment} of
+* its interval, which holds the bars of every ticker. Sealed bars are written by
+* {@link #commit}, once for each batch of ticks.
+*
+* <P>A quote carries the volume of the day so far. The volume of a bar is the
+* increase in that number over its ticks; a decrease is taken as the start of a
+* new day. The increase before the first tick seen for a ticker is not known.
+*
+* <P>When closed, the current bars are written as well, although not yet
+* complete. If a tick then arrives within such a bar, the bar resumes from its
+* stored record, which is replaced when the bar is sealed. Only the current bars,
+* and those sealed since the last commit, are lost if the application dies.
+*
+* <P>Not thread-safe.
+*/
+final class BarAggregator {
+
+  /** Constructor. Creates <tt>aDirectory</tt> if it does not exist. */
+  BarAggregator(File aDirectory) throws IOException {
+    if ( ! aDirectory.isDirectory() && ! aDirectory.mkdirs() ) {
+      throw new IOException("Cannot create directory for bars: " + aDirectory);
+    }
+    try {
+      for(BarInterval interval : BarInterval.values()){
+        fCurrent[interval.ordinal()] = new CurrentBars();
+        fSegments[interval.ordinal()] = BarSegment.open(aDirectory, interval);
+      }
+    }
+    catch (IOException | RuntimeException ex){
+      try {
+        closeSegments();
+      }
+      catch (IOException closeFailure){
+        ex.addSuppressed(closeFailure);
+      }
+      throw ex;
+    }
+  }
+
+  /**
+  * Add a tick. Its time must not be less than that of the previous tick for
+  * the same ticker.
+  *
+  * @param aVolume the volume of the day so far, or <tt>0</tt> if not known.
+  */
+  void add(int aTickerId, long aTime, long aPrice, long aVolume) throws IOException {
+    long volume = getVolumeIncrease(aTickerId, aVolume);
+    for(BarInterval interval : BarInterval.values()){
+      CurrentBars bars = fCurrent[interval.ordinal()];
+      bars.ensureCapacity(aTickerId);
+      long start = interval.getStart(aTime);
+      if ( bars.fStart[aTickerId] != start ) {
+        if ( bars.fStart[aTickerId] == NONE ) {
+          resume(aTickerId, interval, start);
+        }
+        else {
+          write(aTickerId, interval);
+        }
+        if ( bars.fStart[aTickerId] != start ) {
+          bars.begin(aTickerId, start, aPrice);
+        }
+      }
+      bars.fHigh[aTickerId] = Math.max(bars.fHigh[aTickerId], aPrice);
+      bars.fLow[aTickerId] = Math.min(bars.fLow[aTickerId], aPrice);
+      bars.fClose[aTickerId] = aPrice;
+      bars.fVolume[aTickerId] += volume;
+    }
+  }
+
+  /** Write the bars sealed since the last commit. */
+  void commit() throws IOException {
+    for(BarSegment segment : fSegments){
+      segment.commit();
+    }
+  }
+
+  /**
+  * Return the bars of <tt>aTickerId</tt> starting in <tt>[aFrom, aTo)</tt>, in
+  * order of time, including the current bar.
+  */
+  List<Bar> getBars(int aTickerId, BarInterval aInterval, long aFrom, long aTo) throws IOException {
+    List<Bar> result = fSegments[aInterval.ordinal()].getBars(aTickerId, aFrom, aTo);
+    CurrentBars bars = fCurrent[aInterval.ordinal()];
+    if ( bars.has(aTickerId) ) {
+      long start = bars.fStart[aTickerId];
+      if ( start >= aFrom && start < aTo ) {
+        //a resumed bar is also stored, in an earlier state
+        if ( ! result.isEmpty() && result.get(result.size() - 1).getStart() == start ) {
+          result.remove(result.size() - 1);
+        }
+        result.add(bars.toBar(aTickerId, aInterval));
+      }
+    }
+    return result;
+  }
+
+  /** Write the current bars, so that they may be resumed, and release all files. */
+  void close() throws IOException {
+    try {
+      for(BarInterval interval : BarInterval.values()){
+        CurrentBars bars = fCurrent[interval.ordinal()];
+        for(int id = 0; id < bars.fStart.length; ++id){
+          if ( bars.has(id) ) {
+            write(id, interval);
+          }
+        }
+      }
+    }
+    finally {
+      closeSegments();
+    }
+  }
+
+  // PRIVATE
+
+  private static final long NONE = Long.MIN_VALUE;
+
+  private final CurrentBars[] fCurrent = new CurrentBars[BarInterval.values().length];
+  private final BarSegment[] fSegments = new BarSegment[BarInterval.values().length];
+
+  /** The last known volume of the day for each ticker id, or 0 if not known. */
+  private long[] fLastVolume = new long[0];
+
+  /** The bar being built for each ticker id, for a single interval. */
+  private static final class CurrentBars {
+    long[] fStart = new long[0];
+    long[] fOpen = new long[0];
+    long[] fHigh = new long[0];
+    long[] fLow = new long[0];
+    long[] fClose = new long[0];
+    long[] fVolume = new long[0];
+    boolean has(int aTickerId){
+      return aTickerId < fStart.length && fStart[aTickerId] != NONE;
+    }
+    void ensureCapacity(int aTickerId){
+      if ( aTickerId < fStart.length ) return;
+      int oldLength = fStart.length;
+      int length = Math.max(aTickerId + 1, 2 * oldLength);
+      fStart = Arrays.copyOf(fStart, length);
+      Arrays.fill(fStart, oldLength, length, NONE);
+      fOpen = Arrays.copyOf(fOpen, length);
+      fHigh = Arrays.copyOf(fHigh, length);
+      fLow = Arrays.copyOf(fLow, length);
+      fClose = Arrays.copyOf(fClose, length);
+      fVolume = Arrays.copyOf(fVolume, length);
+    }
+    void begin(int aTickerId, long aStart, long aPrice){
+      fStart[aTickerId] = aStart;
+      fOpen[aTickerId] = aPrice;
+      fHigh[aTickerId] = aPrice;
+      fLow[aTickerId] = aPrice;
+      fClose[aTickerId] = aPrice;
+      fVolume[aTickerId] = 0;
+    }
+    Bar toBar(int aTickerId, BarInterval aInterval){
+      return new Bar(
+        aInterval, fStart[aTickerId], fOpen[aTickerId], fHigh[aTickerId],
+        fLow[aTickerId], fClose[aTickerId], fVolume[aTickerId]
+      );
+    }
+  }
+
+  private long getVolumeIncrease(int aTickerId, long aVolume){
+    if ( aTickerId >= fLastVolume.length ) {
+      fLastVolume = Arrays.copyOf(fLastVolume, Math.max(aTickerId + 1, 2 * fLastVolume.length));
+    }
+    if ( aVolume <= 0 ) return 0;
+    long last = fLastVolume[aTickerId];
+    fLastVolume[aTickerId] = aVolume;
+    if ( last == 0 ) return 0;
+    return aVolume >= last ? aVolume - last : aVolume;
+  }
+
+  /** Close each open segment, even if closing another fails. */
+  private void closeSegments() throws IOException {
+    IOException failure = null;
+    for(BarSegment segment : fSegments){
+      if ( segment == null ) continue;
+      try {
+        segment.close();
+      }
+      catch (IOException ex){
+        failure = ex;
+      }
+    }
+    if ( failure != null ) throw failure;
+  }
+
+  /** If the last stored bar starts at aStart, make it the current bar again. */
+  private void resume(int aTickerId, BarInterval aInterval, long aStart) throws IOException {
+    BarSegment segment = fSegments[aInterval.ordinal()];
+    if ( segment.getLastStart(aTickerId) != aStart ) return;
+    Bar bar = segment.getLastBar(aTickerId);
+    CurrentBars bars = fCurrent[aInterval.ordinal()];
+    bars.fStart[aTickerId] = bar.getStart();
+    bars.fOpen[aTickerId] = bar.getOpen().getUnscaledValue();
+    bars.fHigh[aTickerId] = bar.getHigh().getUnscaledValue();
+    bars.fLow[aTickerId] = bar.getLow().getUnscaledValue();
+    bars.fClose[aTickerId] = bar.getClose().getUnscaledValue();
+    bars.fVolume[aTickerId] = bar.getVolume();
+  }
+
+  /** Store the current bar of aTickerId, as in {@link BarSegment#write}. */
+  private void write(int aTickerId, BarInterval aInterval) throws IOException {
+    CurrentBars bars = fCurrent[aInterval.ordinal()];
+    fSegments[aInterval.ordinal()].write(
+      aTickerId, bars.fStart[aTickerId], bars.fOpen[aTickerId], bars.fHigh[aTickerId],
+      bars.fLow[aTickerId], bars.fClose[aTickerId], bars.fVolume[aTickerId]
+    );
+  }
+}
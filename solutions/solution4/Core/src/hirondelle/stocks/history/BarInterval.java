@@ -0,0 +1,48 @@
+package hirondelle.stocks.history;
+
+import hirondelle.stocks.util.Consts;
+
+/**
+* Enumeration of the lengths of time covered by a {@link Bar}.
+*
+* <P>Bars start at whole multiples of their length, in UTC. Daily bars therefore
+* run from midnight to midnight UTC, as do the files of a {@link TickStore}, and
+* not from the open to the close of an exchange.
+*/
+public enum BarInterval {
+
+  OneMinute("1 Minute", "1m", 1),
+  FiveMinutes("5 Minutes", "5m", 5),
+  OneHour("1 Hour", "1h", 60),
+  OneDay("1 Day", "1d", 24 * 60);
+
+  @Override public String toString() {
+    return fName;
+  }
+
+  /** Return the length of this interval, in milliseconds. */
+  public long getLength(){
+    return fLength;
+  }
+
+  /** Return the start of the bar containing <tt>aTime</tt>, in milliseconds. */
+  public long getStart(long aTime){
+    long result = aTime - (aTime % fLength);
+    return aTime < 0 && result != aTime ? result - fLength : result;
+  }
+
+  /** Short code, used in the names of files. */
+  String getCode(){
+    return fCode;
+  }
+
+  // PRIVATE
+  private final String fName;
+  private final String fCode;
+  private final long fLength;
+  private BarInterval(String aName, String aCode, int aMinutes){
+    fName = aName;
+    fCode = aCode;
+    fLength = (long)aMinutes * Consts.SECONDS_PER_MINUTE * Consts.MILLISECONDS_PER_SECOND;
+  }
+}
@@ -0,0 +1,360 @@
+package hirondelle.stocks.history;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.*;
+
+import hirondelle.stocks.util.Util;
+
+/**
+* The stored {@link Bar}s of all tickers for a single {@link BarInterval}, held
+* in one appendable file of fixed-width records, named as in <tt>bars/5m.bars</tt>.
+*
+* <P>Each record has {@link #RECORD_SIZE} bytes :
+*<ul>
+* <li>ticker id, <tt>int</tt>
+* <li>checksum of the other fields, <tt>int</tt>, never <tt>0</tt>
+* <li>number of the previous record of the same ticker, or <tt>-1</tt>, <tt>long</tt>
+* <li>start of the bar, <tt>long</tt>
+* <li>open, high, low and close, as unscaled {@link hirondelle.stocks.util.Money}
+* values, <tt>long</tt>
+* <li>volume, <tt>long</tt>
+*</ul>
+*
+* <P>The records of a ticker are thus linked from its last to its first, so
+* that its bars are read without visiting those of other tickers. The number of
+* the last record of each ticker is held in memory. When the segment is
+* closed, those numbers are written to a checkpoint file, named as in
+* <tt>bars/5m.last</tt>, so that the segment need not be read when it is opened
+* again. Records appended after the checkpoint, as when the application dies,
+* are read when the segment is opened; the first torn or empty record marks the
+* end.
+*
+* <P>Appended records are buffered, and written together by {@link #commit}.
+*
+* <P>Not thread-safe.
+*/
+final class BarSegment {
+
+  static final int RECORD_SIZE = 64;
+
+  /**
+  * Open or create the segment for <tt>aInterval</tt> in <tt>aDirectory</tt>,
+  * which must exist.
+  */
+  static BarSegment open(File aDirectory, BarInterval aInterval) throws IOException {
+    File file = new File(aDirectory, aInterval.getCode() + SUFFIX);
+    RandomAccessFile output = new RandomAccessFile(file, "rw");
+    try {
+      BarSegment result = new BarSegment(
+        file, new File(aDirectory, aInterval.getCode() + CHECKPOINT_SUFFIX), aInterval, output.getChannel()
+      );
+      result.recover();
+      return result;
+    }
+    catch (IOException | RuntimeException ex){
+      output.close();
+      throw ex;
+    }
+  }
+
+  /** Return the start of the last stored bar of <tt>aTickerId</tt>, or <tt>Long.MIN_VALUE</tt>. */
+  long getLastStart(int aTickerId){
+    return aTickerId < fLastStart.length ? fLastStart[aTickerId] : Long.MIN_VALUE;
+  }
+
+  /** Return the last stored bar of <tt>aTickerId</tt>, or <tt>null</tt> if it has none. */
+  Bar getLastBar(int aTickerId) throws IOException {
+    if ( aTickerId >= fLast.length || fLast[aTickerId] == NONE ) return null;
+    ByteBuffer record = read(fLast[aTickerId]);
+    return toBar(record);
+  }
+
+  /**
+  * Store a bar of <tt>aTickerId</tt>. If its last stored bar has the same start,
+  * then it is replaced, in place. A bar starting before that one is not stored.
+  */
+  void write(
+    int aTickerId, long aStart, long aOpen, long aHigh, long aLow, long aClose, long aVolume
+  ) throws IOException {
+    ensureCapacity(aTickerId);
+    long last = fLast[aTickerId];
+    long lastStart = fLastStart[aTickerId];
+    if ( last != NONE && lastStart > aStart ) {
+      fLogger.warning(
+        "Bar out of order, not stored: " + new Bar(fInterval, aStart, aOpen, aHigh, aLow, aClose, aVolume)
+      );
+      return;
+    }
+    if ( last != NONE && lastStart == aStart ) {
+      //the previous link of the record is kept
+      ByteBuffer record = read(last);
+      long previous = record.getLong(8);
+      if ( last >= fCommitted ) {
+        put(
+          fPending, (int)(last - fCommitted) * RECORD_SIZE,
+          aTickerId, previous, aStart, aOpen, aHigh, aLow, aClose, aVolume
+        );
+      }
+      else {
+        record.clear();
+        put(record, 0, aTickerId, previous, aStart, aOpen, aHigh, aLow, aClose, aVolume);
+        writeFully(fChannel, record, last * RECORD_SIZE);
+      }
+      return;
+    }
+    if ( fPending.position() == fPending.capacity() ) {
+      commit();
+    }
+    put(fPending, fPending.position(), aTickerId, last, aStart, aOpen, aHigh, aLow, aClose, aVolume);
+    fPending.position(fPending.position() + RECORD_SIZE);
+    fLast[aTickerId] = fSize;
+    fLastStart[aTickerId] = aStart;
+    ++fSize;
+  }
+
+  /** Write the records appended since the last commit. */
+  void commit() throws IOException {
+    if ( fPending.position() == 0 ) return;
+    fPending.flip();
+    writeFully(fChannel, fPending, fCommitted * RECORD_SIZE);
+    fPending.clear();
+    fCommitted = fSize;
+  }
+
+  /**
+  * Return the stored bars of <tt>aTickerId</tt> starting in <tt>[aFrom, aTo)</tt>,
+  * in order of time.
+  */
+  List<Bar> getBars(int aTickerId, long aFrom, long aTo) throws IOException {
+    commit();
+    List<Bar> result = new ArrayList<>();
+    long record = aTickerId < fLast.length ? fLast[aTickerId] : NONE;
+    while ( record != NONE ) {
+      ByteBuffer buffer = read(record);
+      long start = buffer.getLong(16);
+      if ( start < aFrom ) break;
+      if ( start < aTo ) {
+        result.add(toBar(buffer));
+      }
+      record = buffer.getLong(8);
+    }
+    Collections.reverse(result);
+    return result;
+  }
+
+  /** Commit, write the checkpoint, and release the file. */
+  void close() throws IOException {
+    try {
+      commit();
+      writeCheckpoint();
+    }
+    finally {
+      fChannel.close();
+    }
+  }
+
+  // PRIVATE
+
+  private static final String SUFFIX = ".bars";
+  private static final String CHECKPOINT_SUFFIX = ".last";
+  private static final int CHECKPOINT_MAGIC = 0x4241524C; // "BARL"
+  private static final int CHECKPOINT_VERSION = 1;
+  private static final int MAX_RECORDS_PER_READ = 4096;
+  private static final int MAX_PENDING_RECORDS = 1024;
+  private static final long NONE = -1;
+
+  private final File fFile;
+  private final File fCheckpoint;
+  private final BarInterval fInterval;
+  private final FileChannel fChannel;
+
+  /** Number of records, including those not yet committed. */
+  private long fSize;
+  /** Number of records written to the file. */
+  private long fCommitted;
+  /** Records numbered from fCommitted, not yet written. */
+  private final ByteBuffer fPending = ByteBuffer.allocate(MAX_PENDING_RECORDS * RECORD_SIZE);
+
+  /** The number of the last record of each ticker id, or NONE. */
+  private long[] fLast = new long[0];
+  /** The start of the last bar of each ticker id, if it has one. */
+  private long[] fLastStart = new long[0];
+
+  private static final Logger fLogger = Util.getLogger(BarSegment.class);
+
+  private BarSegment(File aFile, File aCheckpoint, BarInterval aInterval, FileChannel aChannel){
+    fFile = aFile;
+    fCheckpoint = aCheckpoint;
+    fInterval = aInterval;
+    fChannel = aChannel;
+  }
+
+  private void ensureCapacity(int aTickerId){
+    if ( aTickerId < fLast.length ) return;
+    int oldLength = fLast.length;
+    int length = Math.max(aTickerId + 1, 2 * oldLength);
+    fLast = Arrays.copyOf(fLast, length);
+    Arrays.fill(fLast, oldLength, length, NONE);
+    fLastStart = Arrays.copyOf(fLastStart, length);
+    Arrays.fill(fLastStart, oldLength, length, Long.MIN_VALUE);
+  }
+
+  /**
+  * Read the checkpoint, if it is usable, and then the intact records after it.
+  * Without a checkpoint, every record is read.
+  */
+  private void recover() throws IOException {
+    long count = fChannel.size() / RECORD_SIZE;
+    long record = readCheckpoint(count);
+    ByteBuffer buffer = ByteBuffer.allocate(MAX_RECORDS_PER_READ * RECORD_SIZE);
+    long numRead = 0;
+    read:
+    while ( record < count ) {
+      buffer.clear();
+      buffer.limit((int)Math.min(count - record, MAX_RECORDS_PER_READ) * RECORD_SIZE);
+      readFully(fChannel, buffer, record * RECORD_SIZE);
+      for(int offset = 0; offset < buffer.limit(); offset += RECORD_SIZE){
+        if ( ! isIntact(buffer, offset) ) break read;
+        int id = buffer.getInt(offset);
+        ensureCapacity(id);
+        fLast[id] = record;
+        fLastStart[id] = buffer.getLong(offset + 16);
+        ++record;
+        ++numRead;
+      }
+    }
+    fSize = record;
+    fCommitted = record;
+    //so that no stale record follows those appended later
+    fChannel.truncate(fSize * RECORD_SIZE);
+    fLogger.fine("Opened " + fFile + " with " + fSize + " bars, reading " + numRead + " of them.");
+  }
+
+  /**
+  * Return the number of records covered by the checkpoint, or 0 if it is
+  * missing, unreadable, or does not match the aCount records in the file.
+  */
+  private long readCheckpoint(long aCount){
+    if ( ! fCheckpoint.exists() ) return 0;
+    long result = 0;
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fCheckpoint)))) {
+      if ( input.readInt() != CHECKPOINT_MAGIC || input.readInt() != CHECKPOINT_VERSION ) {
+        throw new IOException("Not a checkpoint of bars: " + fCheckpoint);
+      }
+      result = input.readLong();
+      if ( result > aCount ) {
+        throw new IOException("Bars missing since the checkpoint: " + fFile);
+      }
+      int numTickers = input.readInt();
+      ensureCapacity(numTickers - 1);
+      for(int id = 0; id < numTickers; ++id){
+        fLast[id] = input.readLong();
+        fLastStart[id] = input.readLong();
+      }
+    }
+    catch (IOException ex){
+      fLogger.warning("Reading all of " + fFile + ", since its checkpoint cannot be used: " + ex);
+      fLast = new long[0];
+      fLastStart = new long[0];
+      result = 0;
+    }
+    return result;
+  }
+
+  /** Write the checkpoint to a new file, and then rename it over the old one. */
+  private void writeCheckpoint() throws IOException {
+    File temp = new File(fCheckpoint.getPath() + ".new");
+    try (FileOutputStream file = new FileOutputStream(temp)) {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file));
+      output.writeInt(CHECKPOINT_MAGIC);
+      output.writeInt(CHECKPOINT_VERSION);
+      output.writeLong(fSize);
+      output.writeInt(fLast.length);
+      for(int id = 0; id < fLast.length; ++id){
+        output.writeLong(fLast[id]);
+        output.writeLong(fLastStart[id]);
+      }
+      output.flush();
+      //the records it covers must be on the device before it is
+      fChannel.force(false);
+      file.getFD().sync();
+    }
+    Files.move(
+      temp.toPath(), fCheckpoint.toPath(),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+    );
+  }
+
+  /** Return the record numbered aRecord, which may not yet be committed. */
+  private ByteBuffer read(long aRecord) throws IOException {
+    ByteBuffer result = ByteBuffer.allocate(RECORD_SIZE);
+    if ( aRecord >= fCommitted ) {
+      int offset = (int)(aRecord - fCommitted) * RECORD_SIZE;
+      for(int idx = 0; idx < RECORD_SIZE; ++idx){
+        result.put(idx, fPending.get(offset + idx));
+      }
+    }
+    else {
+      readFully(fChannel, result, aRecord * RECORD_SIZE);
+    }
+    return result;
+  }
+
+  private Bar toBar(ByteBuffer aRecord){
+    return new Bar(
+      fInterval, aRecord.getLong(16), aRecord.getLong(24), aRecord.getLong(32),
+      aRecord.getLong(40), aRecord.getLong(48), aRecord.getLong(56)
+    );
+  }
+
+  private static void put(
+    ByteBuffer aBuffer, int aOffset, int aTickerId, long aPrevious,
+    long aStart, long aOpen, long aHigh, long aLow, long aClose, long aVolume
+  ){
+    aBuffer.putInt(aOffset, aTickerId);
+    aBuffer.putLong(aOffset + 8, aPrevious);
+    aBuffer.putLong(aOffset + 16, aStart);
+    aBuffer.putLong(aOffset + 24, aOpen);
+    aBuffer.putLong(aOffset + 32, aHigh);
+    aBuffer.putLong(aOffset + 40, aLow);
+    aBuffer.putLong(aOffset + 48, aClose);
+    aBuffer.putLong(aOffset + 56, aVolume);
+    aBuffer.putInt(aOffset + 4, checksum(aBuffer, aOffset));
+  }
+
+  private static boolean isIntact(ByteBuffer aBuffer, int aOffset){
+    int check = aBuffer.getInt(aOffset + 4);
+    return check != 0 && check == checksum(aBuffer, aOffset);
+  }
+
+  /** Over every field of the record at aOffset, other than the checksum. */
+  private static int checksum(ByteBuffer aBuffer, int aOffset){
+    long hash = aBuffer.getInt(aOffset) * 0x9E3779B97F4A7C15L;
+    for(int field = aOffset + 8; field < aOffset + RECORD_SIZE; field += 8){
+      hash = (hash ^ aBuffer.getLong(field)) * 0xC2B2AE3D27D4EB4FL;
+    }
+    int result = (int)(hash ^ (hash >>> 32));
+    return result == 0 ? 1 : result;
+  }
+
+  private static void readFully(FileChannel aChannel, ByteBuffer aBuffer, long aPosition) throws IOException {
+    long position = aPosition;
+    while ( aBuffer.hasRemaining() ) {
+      int count = aChannel.read(aBuffer, position);
+      if ( count < 0 ) throw new EOFException("Bar file ends unexpectedly.");
+      position += count;
+    }
+  }
+
+  private static void writeFully(FileChannel aChannel, ByteBuffer aBuffer, long aPosition) throws IOException {
+    long position = aPosition;
+    while ( aBuffer.hasRemaining() ) {
+      position += aChannel.write(aBuffer, position);
+    }
+  }
+}
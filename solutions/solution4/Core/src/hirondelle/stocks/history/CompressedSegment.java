@@ -0,0 +1,628 @@
+package hirondelle.stocks.history;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+* The ticks of a finished day, compressed, and grouped into blocks by ticker.
+*
+* <P>A {@link TickSegment} spends 32 bytes on every tick. Successive ticks of
+* the same stock differ very little, and this class stores only those
+* differences, in the manner of the Gorilla time-series format :
+*<ul>
+* <li>times are stored as the change in the interval between ticks (the delta
+* of the delta); for regular polling, this is usually zero, and takes a single
+* bit
+* <li>prices are stored as the change from the previous price
+* <li>the change in price is stored as the opening price implied by it
+* (price less change), as the change from the previous such value; within a
+* day, this is nearly always zero, and takes a single bit
+*</ul>
+* Each such difference is written with a variable number of bits, using a short
+* prefix to give its width. Prices are whole numbers of cents, so plain
+* differences are used, instead of the exclusive-or of floating point values
+* used by Gorilla.
+*
+* <P>The ticks of the day are taken in groups of {@link #GROUP_SIZE}, in order
+* of time. Within a group, the ticks of each ticker form one block, whose values
+* are held column by column. An index at the start of the file gives, for each
+* block, its ticker, number of ticks, and range of times and prices. A scan
+* decodes only the blocks of the requested ticker and time range; the others
+* are skipped without being read.
+*
+* <P>Immutable, once written. Thread-safe.
+*/
+final class CompressedSegment {
+
+  /**
+  * The number of ticks in a group, taken in order of time. A position within
+  * a group must fit in {@link #POSITION_BITS}.
+  */
+  static final int GROUP_SIZE = 1 << 18;
+
+  /**
+  * Write the ticks of <tt>aRaw</tt> to <tt>aTarget</tt>, in compressed form.
+  * The file is complete when it appears, since it is written under another
+  * name, written to the storage device, and then renamed.
+  */
+  static void write(TickSegment aRaw, File aTarget) throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    DataOutputStream indexOut = new DataOutputStream(index);
+    BitWriter bits = new BitWriter();
+    int size = aRaw.size();
+    int numBlocks = 0;
+    for(int group = 0; group * GROUP_SIZE < size; ++group){
+      int start = group * GROUP_SIZE;
+      int end = Math.min(size, start + GROUP_SIZE);
+      for(int[] records : partitionByTicker(aRaw, start, end)){
+        long minPrice = Long.MAX_VALUE;
+        long maxPrice = Long.MIN_VALUE;
+        for(int record : records){
+          minPrice = Math.min(minPrice, aRaw.getPrice(record));
+          maxPrice = Math.max(maxPrice, aRaw.getPrice(record));
+        }
+        indexOut.writeInt(group);
+        indexOut.writeInt(aRaw.getTickerId(records[0]));
+        indexOut.writeInt(records.length);
+        indexOut.writeInt(data.size());
+        indexOut.writeLong(aRaw.getTime(records[0]));
+        indexOut.writeLong(aRaw.getTime(records[records.length - 1]));
+        indexOut.writeLong(minPrice);
+        indexOut.writeLong(maxPrice);
+        encode(aRaw, records, bits);
+        bits.writeTo(data);
+        ++numBlocks;
+      }
+    }
+    if ( HEADER_SIZE + (long)index.size() + data.size() > Integer.MAX_VALUE ) {
+      throw new IOException("Too many ticks to compress: " + size);
+    }
+    File temp = new File(aTarget.getPath() + ".tmp");
+    try (FileOutputStream file = new FileOutputStream(temp)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(aRaw.getDayStart());
+      out.writeInt(numBlocks);
+      out.writeInt(size);
+      out.write(new byte[HEADER_SIZE - 24]);
+      index.writeTo(out);
+      data.writeTo(out);
+      out.flush();
+      file.getChannel().force(true);
+    }
+    if ( ! temp.renameTo(aTarget) ) {
+      temp.delete();
+      throw new IOException("Cannot rename " + temp + " to " + aTarget);
+    }
+  }
+
+  /** Open a file written by {@link #write}. */
+  static CompressedSegment open(File aFile) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(aFile, "r")) {
+      ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+      return new CompressedSegment(aFile, buffer);
+    }
+  }
+
+  /** Return the number of ticks. */
+  int size(){
+    return fSize;
+  }
+
+  /**
+  * As in {@link TickStore#scan}, for the ticks of this segment.
+  *
+  * @param aTickerId <tt>-1</tt> for all tickers.
+  * @param aTickers maps ticker ids to tickers.
+  */
+  void scan(int aTickerId, long aFrom, long aTo, String[] aTickers, TickVisitor aVisitor){
+    if ( aTickerId >= 0 ) {
+      scanTicker(aTickerId, aFrom, aTo, aTickers[aTickerId], aVisitor);
+    }
+    else {
+      for(int group = 0; group < fGroupStarts.length - 1; ++group){
+        scanGroup(group, aFrom, aTo, aTickers, aVisitor);
+      }
+    }
+  }
+
+  /**
+  * Widen <tt>aLowHigh</tt>, the lowest and highest price seen so far, with the
+  * prices of <tt>aTickerId</tt> in the range <tt>[aFrom, aTo)</tt>. Blocks lying
+  * entirely within the range are not decoded; their range is read from the index.
+  */
+  void addPriceRange(int aTickerId, long aFrom, long aTo, long[] aLowHigh){
+    for(int block : getBlocks(aTickerId)){
+      if ( fMaxTimes[block] < aFrom || fMinTimes[block] >= aTo ) continue;
+      if ( aFrom <= fMinTimes[block] && fMaxTimes[block] < aTo ) {
+        aLowHigh[0] = Math.min(aLowHigh[0], fMinPrices[block]);
+        aLowHigh[1] = Math.max(aLowHigh[1], fMaxPrices[block]);
+      }
+      else {
+        Columns columns = decode(block, new Columns(fCounts[block]), 0);
+        for(int idx = 0; idx < fCounts[block]; ++idx){
+          long time = columns.fTimes[idx];
+          if ( aFrom <= time && time < aTo ) {
+            aLowHigh[0] = Math.min(aLowHigh[0], columns.fPrices[idx]);
+            aLowHigh[1] = Math.max(aLowHigh[1], columns.fPrices[idx]);
+          }
+        }
+      }
+    }
+  }
+
+  // PRIVATE
+
+  private static final int MAGIC = 0x4354494B; // "CTIK"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int INDEX_ENTRY_SIZE = 48;
+
+  /** Sort keys for scanGroup : the position of a tick within its group, and a time. */
+  private static final int POSITION_BITS = 18;
+  private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+  private static final long MAX_KEY_TIME = 1L << (63 - POSITION_BITS);
+
+  private final ByteBuffer fBuffer;
+  private final int fSize;
+  private final int fDataStart;
+
+  /** The index, one element per block. Blocks are in order of group, then ticker. */
+  private final int[] fTickerIds;
+  private final int[] fCounts;
+  private final int[] fOffsets;
+  private final long[] fMinTimes;
+  private final long[] fMaxTimes;
+  private final long[] fMinPrices;
+  private final long[] fMaxPrices;
+
+  /** The first block of each group, and, at the end, the number of blocks. */
+  private final int[] fGroupStarts;
+
+  /** The blocks of each ticker id, in order of time. */
+  private final Map<Integer, int[]> fBlocksByTicker = new HashMap<>();
+
+  private CompressedSegment(File aFile, ByteBuffer aBuffer) throws IOException {
+    fBuffer = aBuffer;
+    if ( aBuffer.capacity() < HEADER_SIZE || aBuffer.getInt(0) != MAGIC || aBuffer.getInt(4) != VERSION ) {
+      throw new IOException("Not a compressed tick segment: " + aFile);
+    }
+    int numBlocks = aBuffer.getInt(16);
+    fSize = aBuffer.getInt(20);
+    fDataStart = HEADER_SIZE + numBlocks * INDEX_ENTRY_SIZE;
+    fTickerIds = new int[numBlocks];
+    fCounts = new int[numBlocks];
+    fOffsets = new int[numBlocks];
+    fMinTimes = new long[numBlocks];
+    fMaxTimes = new long[numBlocks];
+    fMinPrices = new long[numBlocks];
+    fMaxPrices = new long[numBlocks];
+    List<Integer> groupStarts = new ArrayList<>();
+    Map<Integer, List<Integer>> blocksByTicker = new HashMap<>();
+    for(int block = 0; block < numBlocks; ++block){
+      int entry = HEADER_SIZE + block * INDEX_ENTRY_SIZE;
+      int group = aBuffer.getInt(entry);
+      if ( group == groupStarts.size() ) {
+        groupStarts.add(block);
+      }
+      fTickerIds[block] = aBuffer.getInt(entry + 4);
+      fCounts[block] = aBuffer.getInt(entry + 8);
+      fOffsets[block] = aBuffer.getInt(entry + 12);
+      fMinTimes[block] = aBuffer.getLong(entry + 16);
+      fMaxTimes[block] = aBuffer.getLong(entry + 24);
+      fMinPrices[block] = aBuffer.getLong(entry + 32);
+      fMaxPrices[block] = aBuffer.getLong(entry + 40);
+      List<Integer> blocks = blocksByTicker.get(fTickerIds[block]);
+      if ( blocks == null ) {
+        blocks = new ArrayList<>();
+        blocksByTicker.put(fTickerIds[block], blocks);
+      }
+      blocks.add(block);
+    }
+    groupStarts.add(numBlocks);
+    fGroupStarts = toArray(groupStarts);
+    for(Map.Entry<Integer, List<Integer>> entry : blocksByTicker.entrySet()){
+      fBlocksByTicker.put(entry.getKey(), toArray(entry.getValue()));
+    }
+  }
+
+  private static int[] toArray(List<Integer> aList){
+    int[] result = new int[aList.size()];
+    for(int idx = 0; idx < result.length; ++idx){
+      result[idx] = aList.get(idx);
+    }
+    return result;
+  }
+
+  private int[] getBlocks(int aTickerId){
+    int[] result = fBlocksByTicker.get(aTickerId);
+    return result == null ? new int[0] : result;
+  }
+
+  /**
+  * Return the records from aStart to aEnd, split by ticker id, keeping their
+  * order within each ticker. A counting sort, since ids are small integers.
+  */
+  private static List<int[]> partitionByTicker(TickSegment aRaw, int aStart, int aEnd){
+    int maxId = 0;
+    for(int record = aStart; record < aEnd; ++record){
+      maxId = Math.max(maxId, aRaw.getTickerId(record));
+    }
+    int[] counts = new int[maxId + 1];
+    for(int record = aStart; record < aEnd; ++record){
+      ++counts[aRaw.getTickerId(record)];
+    }
+    int[][] recordsById = new int[maxId + 1][];
+    int[] filled = new int[maxId + 1];
+    for(int record = aStart; record < aEnd; ++record){
+      int id = aRaw.getTickerId(record);
+      if ( recordsById[id] == null ) {
+        recordsById[id] = new int[counts[id]];
+      }
+      recordsById[id][filled[id]++] = record;
+    }
+    List<int[]> result = new ArrayList<>();
+    for(int[] records : recordsById){
+      if ( records != null ) {
+        result.add(records);
+      }
+    }
+    return result;
+  }
+
+  /** Write the columns of one block : times, then prices, then opening prices. */
+  private static void encode(TickSegment aRaw, int[] aRecords, BitWriter aBits){
+    long previous = aRaw.getTime(aRecords[0]);
+    long previousDelta = 0;
+    aBits.write(previous, 64);
+    for(int idx = 1; idx < aRecords.length; ++idx){
+      long time = aRaw.getTime(aRecords[idx]);
+      long delta = time - previous;
+      aBits.writeDifference(delta - previousDelta);
+      previous = time;
+      previousDelta = delta;
+    }
+    previous = aRaw.getPrice(aRecords[0]);
+    aBits.write(previous, 64);
+    for(int idx = 1; idx < aRecords.length; ++idx){
+      long price = aRaw.getPrice(aRecords[idx]);
+      aBits.writeDifference(price - previous);
+      previous = price;
+    }
+    previous = aRaw.getPrice(aRecords[0]) - aRaw.getChange(aRecords[0]);
+    aBits.write(previous, 64);
+    for(int idx = 1; idx < aRecords.length; ++idx){
+      long open = aRaw.getPrice(aRecords[idx]) - aRaw.getChange(aRecords[idx]);
+      aBits.writeDifference(open - previous);
+      previous = open;
+    }
+  }
+
+  /** Decode aBlock into aColumns, starting at aStart, and return aColumns. */
+  private Columns decode(int aBlock, Columns aColumns, int aStart){
+    BitReader bits = new BitReader(fBuffer, fDataStart + fOffsets[aBlock]);
+    int end = aStart + fCounts[aBlock];
+    long[] times = aColumns.fTimes;
+    long[] prices = aColumns.fPrices;
+    long[] changes = aColumns.fChanges;
+    long value = bits.read(64);
+    long delta = 0;
+    times[aStart] = value;
+    for(int idx = aStart + 1; idx < end; ++idx){
+      delta = delta + bits.readDifference();
+      value = value + delta;
+      times[idx] = value;
+    }
+    value = bits.read(64);
+    prices[aStart] = value;
+    for(int idx = aStart + 1; idx < end; ++idx){
+      value = value + bits.readDifference();
+      prices[idx] = value;
+    }
+    value = bits.read(64);
+    changes[aStart] = prices[aStart] - value;
+    for(int idx = aStart + 1; idx < end; ++idx){
+      value = value + bits.readDifference();
+      changes[idx] = prices[idx] - value;
+    }
+    return aColumns;
+  }
+
+  private void scanTicker(int aTickerId, long aFrom, long aTo, String aTicker, TickVisitor aVisitor){
+    Columns columns = null;
+    for(int block : getBlocks(aTickerId)){
+      if ( fMaxTimes[block] < aFrom || fMinTimes[block] >= aTo ) continue;
+      if ( columns == null || columns.fTimes.length < fCounts[block] ) {
+        columns = new Columns(fCounts[block]);
+      }
+      decode(block, columns, 0);
+      for(int idx = 0; idx < fCounts[block]; ++idx){
+        long time = columns.fTimes[idx];
+        if ( aFrom <= time && time < aTo ) {
+          aVisitor.visit(aTicker, time, columns.fPrices[idx], columns.fChanges[idx]);
+        }
+      }
+    }
+  }
+
+  /**
+  * Decode all blocks of aGroup which overlap the range, then visit their ticks
+  * in order of time. The ticks are ordered by sorting primitive keys, each
+  * holding a time, relative to the earliest, above the position of its tick.
+  * Since the blocks are decoded in order of ticker, ties keep that order.
+  */
+  private void scanGroup(int aGroup, long aFrom, long aTo, String[] aTickers, TickVisitor aVisitor){
+    int first = fGroupStarts[aGroup];
+    int last = fGroupStarts[aGroup + 1];
+    int total = 0;
+    long minTime = Long.MAX_VALUE;
+    long maxTime = Long.MIN_VALUE;
+    for(int block = first; block < last; ++block){
+      if ( overlaps(block, aFrom, aTo) ) {
+        total = total + fCounts[block];
+        minTime = Math.min(minTime, fMinTimes[block]);
+        maxTime = Math.max(maxTime, fMaxTimes[block]);
+      }
+    }
+    if ( total == 0 ) return;
+    if ( maxTime - minTime >= MAX_KEY_TIME ) {
+      throw new IllegalStateException("Ticks of a group span too long a time: " + minTime + ".." + maxTime);
+    }
+    Columns columns = new Columns(total);
+    int[] tickerIds = new int[total];
+    int start = 0;
+    for(int block = first; block < last; ++block){
+      if ( ! overlaps(block, aFrom, aTo) ) continue;
+      decode(block, columns, start);
+      Arrays.fill(tickerIds, start, start + fCounts[block], fTickerIds[block]);
+      start = start + fCounts[block];
+    }
+    long[] keys = new long[total];
+    int numKeys = 0;
+    for(int idx = 0; idx < total; ++idx){
+      long time = columns.fTimes[idx];
+      if ( aFrom <= time && time < aTo ) {
+        keys[numKeys++] = ((time - minTime) << POSITION_BITS) | idx;
+      }
+    }
+    Arrays.sort(keys, 0, numKeys);
+    for(int key = 0; key < numKeys; ++key){
+      int idx = (int)(keys[key] & POSITION_MASK);
+      aVisitor.visit(aTickers[tickerIds[idx]], columns.fTimes[idx], columns.fPrices[idx], columns.fChanges[idx]);
+    }
+  }
+
+  private boolean overlaps(int aBlock, long aFrom, long aTo){
+    return fMaxTimes[aBlock] >= aFrom && fMinTimes[aBlock] < aTo;
+  }
+
+  /** Decoded values of one or more blocks. */
+  private static final class Columns {
+    Columns(int aSize){
+      fTimes = new long[aSize];
+      fPrices = new long[aSize];
+      fChanges = new long[aSize];
+    }
+    final long[] fTimes;
+    final long[] fPrices;
+    final long[] fChanges;
+  }
+
+  /*
+  * A difference is written with a prefix giving its width :
+  *   0                 zero
+  *   10   + 7 bits     -64..63
+  *   110  + 12 bits    -2048..2047
+  *   1110 + 20 bits    -524288..524287
+  *   1111 + 64 bits    anything else
+  */
+  private static final int[] WIDTHS = {7, 12, 20};
+
+  /** Appends bits to a growable array of bytes, most significant bit first. */
+  private static final class BitWriter {
+    /** Write the low aNumBits bits of aValue. */
+    void write(long aValue, int aNumBits){
+      int remaining = aNumBits;
+      while ( remaining > 0 ) {
+        int free = 8 - fNumBitsInByte;
+        int take = Math.min(free, remaining);
+        int bits = (int)(aValue >>> (remaining - take)) & ((1 << take) - 1);
+        fByte = (fByte << take) | bits;
+        fNumBitsInByte = fNumBitsInByte + take;
+        remaining = remaining - take;
+        if ( fNumBitsInByte == 8 ) {
+          flushByte();
+        }
+      }
+    }
+    void writeDifference(long aDifference){
+      if ( aDifference == 0 ) {
+        write(0, 1);
+        return;
+      }
+      for(int idx = 0; idx < WIDTHS.length; ++idx){
+        int width = WIDTHS[idx];
+        if ( fits(aDifference, width) ) {
+          //idx + 1 one-bits, then a zero-bit
+          write((1L << (idx + 2)) - 2, idx + 2);
+          write(aDifference, width);
+          return;
+        }
+      }
+      write(0xF, 4);
+      write(aDifference, 64);
+    }
+    /** Append the bits written so far, padded to a whole byte, and reset. */
+    void writeTo(OutputStream aOutput) throws IOException {
+      if ( fNumBitsInByte > 0 ) {
+        fByte = fByte << (8 - fNumBitsInByte);
+        fNumBitsInByte = 8;
+        flushByte();
+      }
+      aOutput.write(fBytes, 0, fNumBytes);
+      fNumBytes = 0;
+    }
+    private byte[] fBytes = new byte[4096];
+    private int fNumBytes;
+    private int fByte;
+    private int fNumBitsInByte;
+    private void flushByte(){
+      if ( fNumBytes == fBytes.length ) {
+        fBytes = Arrays.copyOf(fBytes, 2 * fBytes.length);
+      }
+      fBytes[fNumBytes++] = (byte)fByte;
+      fByte = 0;
+      fNumBitsInByte = 0;
+    }
+    private static boolean fits(long aValue, int aWidth){
+      long limit = 1L << (aWidth - 1);
+      return -limit <= aValue && aValue < limit;
+    }
+  }
+
+  /**
+  * Reads bits written by BitWriter, from a position in a buffer. Bytes are
+  * loaded into a 64 bit window, most significant bit first, several at a time.
+  */
+  private static final class BitReader {
+    BitReader(ByteBuffer aBuffer, int aPosition){
+      fBuffer = aBuffer;
+      fPosition = aPosition;
+    }
+    /** Read aNumBits bits, from 1 to 64, as an unsigned value. */
+    long read(int aNumBits){
+      if ( aNumBits > 32 ) {
+        long high = read(aNumBits - 32);
+        return (high << 32) | read(32);
+      }
+      if ( fNumBits < aNumBits ) {
+        fill();
+      }
+      long result = fWindow >>> (64 - aNumBits);
+      fWindow = fWindow << aNumBits;
+      fNumBits = fNumBits - aNumBits;
+      return result;
+    }
+    long readDifference(){
+      if ( fNumBits < 4 ) {
+        fill();
+      }
+      //the number of leading one-bits, up to 4, gives the width
+      int numOnes = Math.min(4, Long.numberOfLeadingZeros(~fWindow));
+      read(numOnes == 4 ? 4 : numOnes + 1);
+      if ( numOnes == 0 ) return 0;
+      if ( numOnes == 4 ) return read(64);
+      int width = WIDTHS[numOnes - 1];
+      //sign-extend
+      return (read(width) << (64 - width)) >> (64 - width);
+    }
+    private final ByteBuffer fBuffer;
+    private int fPosition;
+    private long fWindow;
+    private int fNumBits;
+    /** Load whole bytes until the window holds at least 57 bits, or the data ends. */
+    private void fill(){
+      int limit = fBuffer.limit();
+      while ( fNumBits <= 56 && fPosition < limit ) {
+        fWindow = fWindow | ((long)(fBuffer.get(fPosition++) & 0xFF) << (56 - fNumBits));
+        fNumBits = fNumBits + 8;
+      }
+    }
+  }
+
+  /**
+  * Developer tool. Builds a day of raw ticks for a large portfolio polled every
+  * minute, compresses it, and reports bytes per tick and scan throughput for
+  * both forms. Checks that the compressed ticks equal the raw ones.
+  */
+  private static void main(String... aArgs) throws IOException {
+    int numTickers = 2000;
+    int numPolls = 1000;
+    long dayStart = 1389744000000L; //2014-01-15 UTC
+    File dir = new File(System.getProperty("java.io.tmpdir"), "cticks-" + System.nanoTime());
+    dir.mkdirs();
+    File rawFile = new File(dir, "raw.ticks");
+    File compressedFile = new File(dir, "raw.cticks");
+    Random random = new Random(42);
+    long[] prices = new long[numTickers];
+    long[] opens = new long[numTickers];
+    for(int id = 0; id < numTickers; ++id){
+      opens[id] = 1000 + random.nextInt(20000);
+      prices[id] = opens[id];
+    }
+    TickSegment raw = TickSegment.openForAppend(rawFile, dayStart);
+    for(int poll = 0; poll < numPolls; ++poll){
+      //a poll every minute, with some jitter in the time of its arrival
+      long time = dayStart + poll * 60000L + random.nextInt(500);
+      for(int id = 0; id < numTickers; ++id){
+        if ( random.nextInt(4) == 0 ) {
+          prices[id] = Math.max(1, prices[id] + random.nextInt(21) - 10);
+        }
+        raw.append(id, time, prices[id], prices[id] - opens[id]);
+      }
+    }
+    raw.commit();
+    long numTicks = raw.size();
+
+    long start = System.nanoTime();
+    write(raw, compressedFile);
+    long compressNanos = System.nanoTime() - start;
+    CompressedSegment compressed = open(compressedFile);
+    System.out.println("Ticks: " + numTicks + ", compressed in " + compressNanos / 1000000 + "ms");
+    System.out.println("Raw bytes per tick: " + TickSegment.RECORD_SIZE);
+    System.out.printf("Compressed bytes per tick: %.2f%n", compressedFile.length() / (double)numTicks);
+
+    String[] tickers = new String[numTickers];
+    for(int id = 0; id < numTickers; ++id){
+      tickers[id] = "T" + id;
+    }
+    final long[] checksum = new long[2];
+    TickVisitor visitor = new TickVisitor() {
+      @Override public void visit(String aTicker, long aTime, long aPrice, long aChange) {
+        checksum[0] = 31 * checksum[0] + aTime + 7 * aPrice + 13 * aChange + aTicker.hashCode();
+        ++checksum[1];
+      }
+    };
+    for(int round = 0; round < 3; ++round){
+      checksum[0] = 0;
+      checksum[1] = 0;
+      start = System.nanoTime();
+      TickSegment frozen = raw.freeze();
+      for(int record = 0; record < frozen.size(); ++record){
+        visitor.visit(
+          tickers[frozen.getTickerId(record)], frozen.getTime(record),
+          frozen.getPrice(record), frozen.getChange(record)
+        );
+      }
+      long rawNanos = System.nanoTime() - start;
+      long rawChecksum = checksum[0];
+      checksum[0] = 0;
+      checksum[1] = 0;
+      start = System.nanoTime();
+      compressed.scan(-1, Long.MIN_VALUE, Long.MAX_VALUE, tickers, visitor);
+      long compressedNanos = System.nanoTime() - start;
+      System.out.println(
+        "Scan all, raw: " + numTicks * 1000 / rawNanos + "M ticks/s, compressed: " +
+        checksum[1] * 1000 / compressedNanos + "M ticks/s, same ticks: " + (rawChecksum == checksum[0])
+      );
+    }
+    checksum[1] = 0;
+    start = System.nanoTime();
+    compressed.scan(7, dayStart + 3600000L, dayStart + 7200000L, tickers, visitor);
+    System.out.println(
+      "One ticker for one hour: " + checksum[1] + " ticks in " +
+      (System.nanoTime() - start) / 1000 + "us"
+    );
+    long[] lowHigh = {Long.MAX_VALUE, Long.MIN_VALUE};
+    compressed.addPriceRange(7, dayStart, dayStart + 86400000L, lowHigh);
+    System.out.println("Price range of one ticker for the day: " + lowHigh[0] + ".." + lowHigh[1]);
+    raw.close();
+    rawFile.delete();
+    compressedFile.delete();
+    dir.delete();
+  }
+}
@@ -0,0 +1,480 @@
+package hirondelle.stocks.history;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.beans.*;
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.*;
+import javax.swing.*;
+
+import hirondelle.stocks.quotes.Quote;
+import hirondelle.stocks.quotes.Stock;
+import hirondelle.stocks.table.QuoteTable;
+import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Money;
+import hirondelle.stocks.util.Util;
+import hirondelle.stocks.util.ui.UiConsts;
+
+/**
+* Chart of the recent prices of the {@link Stock} selected in a {@link QuoteTable},
+* as recorded by a {@link TickStore}.
+*
+* <P>The user picks the period shown, from an hour to a year. A year of
+* one-minute quotes is only about 100,000 ticks for a stock, but a feed may
+* record many more, and drawing each of them would block the event-dispatch
+* thread for seconds at a time. Instead, the period is divided into one time
+* column for each pixel of width, and for each column only four ticks are kept :
+* the first, the last, the lowest and the highest. Drawing a vertical line from
+* the lowest to the highest, and joining the last of each column to the first of
+* the next, gives exactly the same pixels as drawing every tick. The work of
+* drawing is then proportional to the width of the chart, not to the number of
+* ticks.
+*
+* <P>The columns are filled, and the chart is drawn into an image, on a
+* background thread. Painting only copies the latest image. A new image is made
+* only when the stock, the period or the size changes, or when ticks are
+* appended for the stock shown; in the last case, only the new ticks are read.
+* Requests made while an image is being made are coalesced into one.
+*
+* <P>Whenever new ticks have been appended to the store, {@link #ticksAppended}
+* must be called.
+*/
+public final class PriceChart extends JPanel implements PropertyChangeListener {
+
+  /**
+  * Constructor.
+  *
+  * @param aTickStore source of the ticks to be charted; may be <tt>null</tt>, if
+  * the history could not be opened, in which case only a message is shown.
+  * @param aQuoteTable source of the selected {@link Stock}.
+  */
+  public PriceChart(TickStore aTickStore, QuoteTable aQuoteTable){
+    fTickStore = aTickStore;
+    fQuoteTable = aQuoteTable;
+    fQuoteTable.addPropertyChangeListener(QuoteTable.SELECTED_STOCK, this);
+    setLayout(new BorderLayout());
+    add(getControls(), BorderLayout.NORTH);
+    fCanvas.addComponentListener(new ComponentAdapter() {
+      @Override public void componentResized(ComponentEvent aEvent) {
+        requestImage();
+      }
+    });
+    add(fCanvas, BorderLayout.CENTER);
+  }
+
+  /**
+  * Chart the newly selected {@link Stock}.
+  *
+  * <P>Listens to the {@link QuoteTable} passed to the constructor.
+  */
+  @Override public void propertyChange(PropertyChangeEvent aEvent) {
+    requestImage();
+  }
+
+  /**
+  * Update the chart after ticks have been appended to the {@link TickStore}.
+  * Does nothing unless <tt>aQuotes</tt> include the stock shown.
+  *
+  * @param aQuotes the quotes which have just been appended.
+  */
+  public void ticksAppended(Collection<Quote> aQuotes){
+    Stock stock = fQuoteTable.getSelectedStock();
+    if ( stock == null ) return;
+    for(Quote quote : aQuotes){
+      if ( quote.getStock().equals(stock) ) {
+        requestImage();
+        return;
+      }
+    }
+  }
+
+  // PRIVATE
+
+  private final TickStore fTickStore;
+  private final QuoteTable fQuoteTable;
+  private final JComboBox<Period> fPeriod = new JComboBox<>(Period.values());
+  private final JLabel fTitle = new JLabel();
+  private final Canvas fCanvas = new Canvas();
+
+  /** The image currently painted. Confined to the event-dispatch thread. */
+  private BufferedImage fImage;
+
+  /** The latest request not yet taken by the background thread, if any. */
+  private final AtomicReference<Request> fPendingRequest = new AtomicReference<>();
+
+  /** The columns and height of the last image made. Confined to the background thread. */
+  private Columns fColumns;
+  private int fHeight;
+
+  private static final Color LINE_COLOR = new Color(0, 90, 160);
+  private static final Color GRID_COLOR = new Color(225, 225, 225);
+  private static final int NUM_PRICE_LINES = 5;
+
+  private static final long MILLIS_PER_HOUR =
+    60L * Consts.SECONDS_PER_MINUTE * Consts.MILLISECONDS_PER_SECOND
+  ;
+
+  /** Uses a daemon thread, so that it never prevents the application from exiting. */
+  private static final ExecutorService fPainter = Executors.newSingleThreadExecutor(
+    new ThreadFactory() {
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "PriceChart");
+        result.setDaemon(true);
+        return result;
+      }
+    }
+  );
+
+  private static final Logger fLogger = Util.getLogger(PriceChart.class);
+
+  /** The periods which may be charted, each ending shortly after the present time. */
+  private enum Period {
+    Hour("1 Hour", MILLIS_PER_HOUR),
+    Day("1 Day", 24 * MILLIS_PER_HOUR),
+    Week("1 Week", 7 * 24 * MILLIS_PER_HOUR),
+    Month("1 Month", 31 * 24 * MILLIS_PER_HOUR),
+    Year("1 Year", 366 * 24 * MILLIS_PER_HOUR);
+    Period(String aText, long aLength){
+      fText = aText;
+      fLength = aLength;
+    }
+    @Override public String toString(){
+      return fText;
+    }
+    long getLength(){
+      return fLength;
+    }
+    private final String fText;
+    private final long fLength;
+  }
+
+  /** What to chart, and at what size. Immutable. */
+  private static final class Request {
+    Request(String aTicker, Period aPeriod, int aWidth, int aHeight){
+      fTicker = aTicker;
+      fPeriod = aPeriod;
+      fWidth = aWidth;
+      fHeight = aHeight;
+    }
+    final String fTicker;
+    final Period fPeriod;
+    final int fWidth;
+    final int fHeight;
+  }
+
+  /**
+  * The first, last, lowest and highest price of the ticks in each time column,
+  * covering <tt>[fFrom, fFrom + fWidth * fColumnLength)</tt>. A column without
+  * ticks has a lowest price of <tt>Long.MAX_VALUE</tt>.
+  */
+  private static final class Columns implements TickVisitor {
+    Columns(String aTicker, Period aPeriod, int aWidth, long aNow){
+      fTicker = aTicker;
+      fPeriod = aPeriod;
+      fColumnLength = Math.max(1, (aPeriod.getLength() + aWidth - 1) / aWidth);
+      //the present time is 7/8 of the way along, to leave room for new ticks
+      long from = aNow - aPeriod.getLength() * 7 / 8;
+      fFrom = from - (from % fColumnLength);
+      fFirst = new long[aWidth];
+      fLast = new long[aWidth];
+      fLow = new long[aWidth];
+      fHigh = new long[aWidth];
+      Arrays.fill(fLow, Long.MAX_VALUE);
+      Arrays.fill(fHigh, Long.MIN_VALUE);
+      fScanned = fFrom;
+    }
+    /** Return true if these columns may be reused for aRequest at aNow. */
+    boolean isFor(Request aRequest, long aNow){
+      return
+        fTicker.equals(aRequest.fTicker) && fPeriod == aRequest.fPeriod &&
+        getWidth() == aRequest.fWidth && aNow < getTo()
+      ;
+    }
+    int getWidth(){
+      return fLow.length;
+    }
+    long getTo(){
+      return fFrom + getWidth() * fColumnLength;
+    }
+    /**
+    * Add the ticks appended since the last call, and return true if there were
+    * any. The ticks having the time of the last tick read are read again, since
+    * more may have been appended with that time; reading a tick twice changes
+    * nothing.
+    */
+    boolean update(TickStore aTickStore) throws IOException {
+      int numReread = fNumAtScanned;
+      fNumAtScanned = 0;
+      fNumVisited = 0;
+      aTickStore.scan(fTicker, fScanned, getTo(), this);
+      return fNumVisited > numReread;
+    }
+    @Override public void visit(String aTicker, long aTime, long aPrice, long aChange){
+      int column = (int)((aTime - fFrom) / fColumnLength);
+      if ( fLow[column] == Long.MAX_VALUE ) {
+        fFirst[column] = aPrice;
+      }
+      fLast[column] = aPrice;
+      fLow[column] = Math.min(fLow[column], aPrice);
+      fHigh[column] = Math.max(fHigh[column], aPrice);
+      if ( aTime != fScanned ) {
+        fScanned = aTime;
+        fNumAtScanned = 0;
+      }
+      ++fNumAtScanned;
+      ++fNumVisited;
+    }
+    final String fTicker;
+    final Period fPeriod;
+    final long fFrom;
+    final long fColumnLength;
+    final long[] fFirst;
+    final long[] fLast;
+    final long[] fLow;
+    final long[] fHigh;
+    /** The time of the last tick read, and the number of ticks read with that time. */
+    long fScanned;
+    int fNumAtScanned;
+    /** The number of ticks read by the last update. */
+    int fNumVisited;
+  }
+
+  /** Paints the latest image. */
+  private final class Canvas extends JComponent {
+    @Override protected void paintComponent(Graphics aGraphics) {
+      if ( fImage != null ) {
+        aGraphics.drawImage(fImage, 0, 0, null);
+      }
+    }
+  }
+
+  private JComponent getControls(){
+    JPanel result = new JPanel(new BorderLayout(UiConsts.ONE_SPACE, 0));
+    result.setBorder(BorderFactory.createEmptyBorder(
+      UiConsts.ONE_SPACE, UiConsts.ONE_SPACE, UiConsts.ONE_SPACE, UiConsts.ONE_SPACE
+    ));
+    fPeriod.setSelectedItem(Period.Day);
+    fPeriod.addActionListener(new ActionListener() {
+      @Override public void actionPerformed(ActionEvent aEvent) {
+        requestImage();
+      }
+    });
+    result.add(fTitle, BorderLayout.CENTER);
+    result.add(fPeriod, BorderLayout.EAST);
+    return result;
+  }
+
+  /**
+  * Ask for a new image, reflecting the current state of the controls. If a
+  * request is already pending, then it is replaced by this one.
+  */
+  private void requestImage(){
+    Stock stock = fQuoteTable.getSelectedStock();
+    fTitle.setText(getTitle(stock));
+    int width = fCanvas.getWidth();
+    int height = fCanvas.getHeight();
+    if ( fTickStore == null || stock == null || width <= 0 || height <= 0 ) {
+      fImage = null;
+      fCanvas.repaint();
+      return;
+    }
+    Request request = new Request(
+      stock.getQualifiedTicker(), (Period)fPeriod.getSelectedItem(), width, height
+    );
+    if ( fPendingRequest.getAndSet(request) == null ) {
+      fPainter.execute(new Runnable() {
+        @Override public void run() {
+          makeImage();
+        }
+      });
+    }
+  }
+
+  private String getTitle(Stock aStock){
+    String result = null;
+    if ( fTickStore == null ) {
+      result = "Quote history is not available.";
+    }
+    else if ( aStock == null ) {
+      result = "Select a stock to see its prices.";
+    }
+    else {
+      result = aStock.getName() + " (" + aStock.getTicker() + ")";
+    }
+    return result;
+  }
+
+  /** Called on the background thread. */
+  private void makeImage(){
+    Request request = fPendingRequest.getAndSet(null);
+    if ( request == null ) return;
+    long now = System.currentTimeMillis();
+    try {
+      boolean hasChanged = request.fHeight != fHeight;
+      if ( fColumns == null || ! fColumns.isFor(request, now) ) {
+        fColumns = new Columns(request.fTicker, request.fPeriod, request.fWidth, now);
+        hasChanged = true;
+      }
+      long start = System.nanoTime();
+      hasChanged |= fColumns.update(fTickStore);
+      fLogger.finest("Read " + fColumns.fNumVisited + " ticks in " + (System.nanoTime() - start) / 1000 + "us.");
+      if ( hasChanged ) {
+        fHeight = request.fHeight;
+        showImage(request, draw(fColumns, request.fHeight));
+      }
+    }
+    catch (IOException ex){
+      fLogger.severe("Cannot read quote history: " + ex);
+    }
+  }
+
+  /** Install the image on the event-dispatch thread, unless it is already stale. */
+  private void showImage(final Request aRequest, final BufferedImage aImage){
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override public void run() {
+        Stock stock = fQuoteTable.getSelectedStock();
+        boolean isCurrent =
+          stock != null && stock.getQualifiedTicker().equals(aRequest.fTicker) &&
+          fPeriod.getSelectedItem() == aRequest.fPeriod
+        ;
+        if ( isCurrent ) {
+          fImage = aImage;
+          fCanvas.repaint();
+        }
+      }
+    });
+  }
+
+  /** Draw aColumns, one pixel wide each, scaling the prices to aHeight. */
+  private static BufferedImage draw(Columns aColumns, int aHeight){
+    int width = aColumns.getWidth();
+    BufferedImage result = new BufferedImage(width, aHeight, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = result.createGraphics();
+    try {
+      graphics.setColor(Color.WHITE);
+      graphics.fillRect(0, 0, width, aHeight);
+      long low = Long.MAX_VALUE;
+      long high = Long.MIN_VALUE;
+      for(int column = 0; column < width; ++column){
+        low = Math.min(low, aColumns.fLow[column]);
+        high = Math.max(high, aColumns.fHigh[column]);
+      }
+      FontMetrics metrics = graphics.getFontMetrics();
+      int top = metrics.getHeight();
+      int bottom = aHeight - metrics.getHeight();
+      drawTimes(graphics, aColumns, aHeight, metrics);
+      if ( low > high || bottom <= top ) {
+        graphics.setColor(Color.GRAY);
+        graphics.drawString("No prices recorded for this period.", UiConsts.ONE_SPACE, top);
+        return result;
+      }
+      if ( low == high ) {
+        low = low - 1;
+        high = high + 1;
+      }
+      double scale = (double)(bottom - top) / (high - low);
+      drawPrices(graphics, low, high, top, bottom, width, metrics);
+      graphics.setColor(LINE_COLOR);
+      int lastY = -1;
+      for(int column = 0; column < width; ++column){
+        if ( aColumns.fLow[column] == Long.MAX_VALUE ) continue;
+        int firstY = bottom - (int)((aColumns.fFirst[column] - low) * scale);
+        if ( lastY >= 0 ) {
+          graphics.drawLine(column - 1, lastY, column, firstY);
+        }
+        graphics.drawLine(
+          column, bottom - (int)((aColumns.fLow[column] - low) * scale),
+          column, bottom - (int)((aColumns.fHigh[column] - low) * scale)
+        );
+        lastY = bottom - (int)((aColumns.fLast[column] - low) * scale);
+      }
+    }
+    finally {
+      graphics.dispose();
+    }
+    return result;
+  }
+
+  /** Draw evenly spaced horizontal lines, labelled with their price. */
+  private static void drawPrices(
+    Graphics2D aGraphics, long aLow, long aHigh, int aTop, int aBottom, int aWidth, FontMetrics aMetrics
+  ){
+    for(int line = 0; line < NUM_PRICE_LINES; ++line){
+      int y = aBottom - (aBottom - aTop) * line / (NUM_PRICE_LINES - 1);
+      long price = aLow + (aHigh - aLow) * line / (NUM_PRICE_LINES - 1);
+      aGraphics.setColor(GRID_COLOR);
+      aGraphics.drawLine(0, y, aWidth, y);
+      aGraphics.setColor(Color.GRAY);
+      String text = Money.fromUnscaled(price).toString();
+      aGraphics.drawString(text, aWidth - aMetrics.stringWidth(text) - UiConsts.ONE_SPACE, y - 2);
+    }
+  }
+
+  /** Label the start and end of the period, along the bottom. */
+  private static void drawTimes(Graphics2D aGraphics, Columns aColumns, int aHeight, FontMetrics aMetrics){
+    DateFormat format = aColumns.fPeriod.getLength() > 24 * MILLIS_PER_HOUR ?
+      new SimpleDateFormat("MMM d") : new SimpleDateFormat("HH:mm")
+    ;
+    aGraphics.setColor(Color.GRAY);
+    int y = aHeight - aMetrics.getDescent();
+    aGraphics.drawString(format.format(new Date(aColumns.fFrom)), UiConsts.ONE_SPACE, y);
+    String end = format.format(new Date(aColumns.getTo()));
+    aGraphics.drawString(end, aColumns.getWidth() - aMetrics.stringWidth(end) - UiConsts.ONE_SPACE, y);
+  }
+
+  /**
+  * Developer tool. Records a few million ticks for one stock, among others, in
+  * a temporary store, and reports the time taken to read them into columns and
+  * to draw them, first in full, and then after a few more ticks are appended.
+  */
+  private static void main(String... aArgs) throws Exception {
+    int numTicks = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 3000000;
+    File dir = new File(System.getProperty("java.io.tmpdir"), "pricechart-" + System.nanoTime());
+    TickStore store = new TickStore(dir);
+    hirondelle.stocks.quotes.Exchange nyse = hirondelle.stocks.quotes.Exchange.valueFrom("NYSE Stock Exchanges");
+    Stock ibm = new Stock("IBM", "IBM", nyse, 10, new java.math.BigDecimal("80.00"));
+    Stock sun = new Stock("Sun", "SUNW", nyse, 100, new java.math.BigDecimal("4.00"));
+    Random random = new Random(42);
+    long now = System.currentTimeMillis();
+    long start = now - Period.Day.getLength() * 3 / 4;
+    long step = (now - start) / numTicks;
+    long price = 8000;
+    for(int tick = 0; tick < numTicks; ++tick){
+      price = Math.max(1, price + random.nextInt(3) - 1);
+      Money money = Money.fromUnscaled(price);
+      List<Quote> quotes = Arrays.asList(new Quote(ibm, money, Money.ZERO), new Quote(sun, money, Money.ZERO));
+      store.append(quotes, start + tick * step);
+    }
+    int width = 1200;
+    for(int run = 0; run < 5; ++run){
+      long begin = System.nanoTime();
+      Columns columns = new Columns(ibm.getQualifiedTicker(), Period.Day, width, now);
+      columns.update(store);
+      int numRead = columns.fNumVisited;
+      long read = System.nanoTime();
+      draw(columns, 400);
+      long drawn = System.nanoTime();
+      store.append(Arrays.asList(new Quote(ibm, Money.fromUnscaled(price), Money.ZERO)), now + run);
+      columns.update(store);
+      long updated = System.nanoTime();
+      System.out.println(
+        "Read " + numRead + " of " + 2 * numTicks + " ticks into " + width + " columns: " +
+        (read - begin) / 1000000 + "ms, draw: " + (drawn - read) / 1000000 +
+        "ms, read new ticks: " + (updated - drawn) / 1000 + "us"
+      );
+    }
+    store.close();
+    for(File file : dir.listFiles()){
+      file.delete();
+    }
+    dir.delete();
+  }
+}
@@ -0,0 +1,41 @@
+package hirondelle.stocks.history;
+
+import hirondelle.stocks.main.*;
+import java.awt.BorderLayout;
+import org.openide.awt.ActionID;
+import org.openide.awt.ActionReference;
+import org.openide.util.NbBundle.Messages;
+import org.openide.windows.TopComponent;
+
+@TopComponent.Description(
+        preferredID = "PriceChartTopComponent",
+        persistenceType = TopComponent.PERSISTENCE_ALWAYS
+)
+@TopComponent.Registration(
+        mode = "output",
+        openAtStartup = true,
+        position = 20)
+@ActionID(
+        category = "Window",
+        id = "hirondelle.stocks.main.PriceChartTopComponent")
+@ActionReference(
+        path = "Menu/Window",
+        position = 40)
+@TopComponent.OpenActionRegistration(
+        displayName = "#CTL_PriceChartAction",
+        preferredID = "PriceChartTopComponent"
+)
+@Messages({
+    "CTL_PriceChartAction=Price Chart",
+    "CTL_PriceChartTopComponent=Price Chart"
+})
+public class PriceChartTopComponent extends TopComponent {
+    public PriceChartTopComponent() {
+        setName(Bundle.CTL_PriceChartTopComponent());
+        setLayout(new BorderLayout());
+        add(getPriceChart(), BorderLayout.CENTER);
+    }
+    public final PriceChart getPriceChart() {
+        return CentralLookup.getDefault().lookup(PriceChart.class);
+    }
+}
@@ -0,0 +1,37 @@
+package hirondelle.stocks.history;
+
+import hirondelle.stocks.util.Money;
+
+/**
+* The lowest and highest prices of a stock over a period of time.
+*
+* <P>Immutable.
+*/
+public final class PriceRange {
+
+  /** Return the lowest price. */
+  public Money getLow(){
+    return Money.fromUnscaled(fLow);
+  }
+
+  /** Return the highest price. */
+  public Money getHigh(){
+    return Money.fromUnscaled(fHigh);
+  }
+
+  /** Intended for debugging only. */
+  @Override public String toString(){
+    return getLow() + ".." + getHigh();
+  }
+
+  // PRIVATE
+
+  private final long fLow;
+  private final long fHigh;
+
+  /** Unscaled values, as held by {@link TickStore}. */
+  PriceRange(long aLow, long aHigh){
+    fLow = aLow;
+    fHigh = aHigh;
+  }
+}
@@ -0,0 +1,273 @@
+package hirondelle.stocks.history;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+* The ticks of a single day, held in a memory-mapped file of fixed-width records.
+*
+* <P>The file starts with a header of {@link #HEADER_SIZE} bytes :
+*<ul>
+* <li>magic number, <tt>int</tt>
+* <li>format version, <tt>int</tt>
+* <li>start of the day, in milliseconds, <tt>long</tt>
+* <li>number of committed records, <tt>int</tt>
+*</ul>
+* followed by records of {@link #RECORD_SIZE} bytes :
+*<ul>
+* <li>ticker id, <tt>int</tt>
+* <li>checksum of the other fields, <tt>int</tt>, never <tt>0</tt>
+* <li>time, in milliseconds, <tt>long</tt>
+* <li>price, as an unscaled {@link hirondelle.stocks.util.Money} value, <tt>long</tt>
+* <li>change, as an unscaled <tt>Money</tt> value, <tt>long</tt>
+*</ul>
+*
+* <P>Space is allocated ahead of the records, and is zero until written. The
+* checksum is written after the other fields of its record. When a segment is
+* opened, records are accepted beyond the committed number in the header for as
+* long as their checksums match; the first torn or empty record marks the end.
+* Nothing is lost if the application dies before the header is updated, and a
+* partly written record is ignored.
+*
+* <P>Times within a segment never decrease, so that a time range is found by
+* binary search.
+*
+* <P>Not thread-safe. A {@link #freeze} copy may be read by any thread.
+*/
+final class TickSegment {
+
+  static final int HEADER_SIZE = 64;
+  static final int RECORD_SIZE = 32;
+
+  /**
+  * Open or create the segment in <tt>aFile</tt>, for appending, and recover
+  * any records written after its header was last updated.
+  */
+  static TickSegment openForAppend(File aFile, long aDayStart) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(aFile, "rw");
+    try {
+      FileChannel channel = file.getChannel();
+      boolean isNew = channel.size() < HEADER_SIZE;
+      long size = Math.max(channel.size(), HEADER_SIZE + (long)INITIAL_CAPACITY * RECORD_SIZE);
+      TickSegment result = new TickSegment(
+        aFile, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+      );
+      if ( isNew ) {
+        result.writeHeader(aDayStart);
+      }
+      else {
+        result.recover();
+      }
+      return result;
+    }
+    catch (IOException | RuntimeException ex){
+      file.close();
+      throw ex;
+    }
+  }
+
+  /**
+  * Open the segment in <tt>aFile</tt> for reading only, recovering its records
+  * as in {@link #openForAppend}.
+  */
+  static TickSegment openForRead(File aFile) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(aFile, "r")) {
+      FileChannel channel = file.getChannel();
+      if ( channel.size() < HEADER_SIZE ) {
+        return new TickSegment(aFile, null, ByteBuffer.allocate(HEADER_SIZE));
+      }
+      //the mapping remains valid after the channel is closed
+      TickSegment result = new TickSegment(
+        aFile, null, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+      );
+      result.recover();
+      return result;
+    }
+  }
+
+  /** Return the number of records. */
+  int size(){
+    return fSize;
+  }
+
+  int getTickerId(int aRecord){
+    return fBuffer.getInt(offset(aRecord));
+  }
+
+  long getTime(int aRecord){
+    return fBuffer.getLong(offset(aRecord) + 8);
+  }
+
+  long getPrice(int aRecord){
+    return fBuffer.getLong(offset(aRecord) + 16);
+  }
+
+  long getChange(int aRecord){
+    return fBuffer.getLong(offset(aRecord) + 24);
+  }
+
+  /** Return the start of the day whose ticks are held, in milliseconds. */
+  long getDayStart(){
+    return fBuffer.getLong(DAY_OFFSET);
+  }
+
+  /** Return the time of the last record, or <tt>Long.MIN_VALUE</tt> if there is none. */
+  long getLastTime(){
+    return fSize == 0 ? Long.MIN_VALUE : getTime(fSize - 1);
+  }
+
+  /** Return the index of the first record whose time is at least <tt>aTime</tt>. */
+  int findFirst(long aTime){
+    int low = 0;
+    int high = fSize;
+    while ( low < high ) {
+      int middle = (low + high) >>> 1;
+      if ( getTime(middle) < aTime ) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+  * Append a record. Its time must not be less than {@link #getLastTime}. The
+  * record survives a crash of the application at once, but is counted in the
+  * header only by the next {@link #commit}.
+  */
+  void append(int aTickerId, long aTime, long aPrice, long aChange) throws IOException {
+    if ( aTime < getLastTime() ) {
+      throw new IllegalArgumentException("Time " + aTime + " precedes last time " + getLastTime());
+    }
+    if ( offset(fSize + 1) > fBuffer.capacity() ) {
+      grow();
+    }
+    int offset = offset(fSize);
+    fBuffer.putInt(offset, aTickerId);
+    fBuffer.putLong(offset + 8, aTime);
+    fBuffer.putLong(offset + 16, aPrice);
+    fBuffer.putLong(offset + 24, aChange);
+    fBuffer.putInt(offset + 4, checksum(aTickerId, aTime, aPrice, aChange));
+    ++fSize;
+  }
+
+  /** Record the number of records in the header. */
+  void commit(){
+    fBuffer.putInt(COUNT_OFFSET, fSize);
+  }
+
+  /** Commit, and write all changes to the storage device. */
+  void force(){
+    commit();
+    if ( fBuffer instanceof MappedByteBuffer && fChannel != null ) {
+      ((MappedByteBuffer)fBuffer).force();
+    }
+  }
+
+  /** Commit, write all changes to the storage device, and release the file. */
+  void close() throws IOException {
+    if ( fChannel == null ) return;
+    force();
+    fChannel.close();
+  }
+
+  /**
+  * Return a read-only copy of the records appended so far. The copy is not
+  * affected by later appends, and may be read by any thread.
+  */
+  TickSegment freeze(){
+    ByteBuffer buffer = fBuffer.duplicate();
+    return new TickSegment(fFile, null, buffer, fSize);
+  }
+
+  File getFile(){
+    return fFile;
+  }
+
+  // PRIVATE
+
+  private static final int MAGIC = 0x5449434B; // "TICK"
+  private static final int VERSION = 1;
+  private static final int DAY_OFFSET = 8;
+  private static final int COUNT_OFFSET = 16;
+
+  /** Enough for a day of one-minute quotes for a portfolio of 150 stocks. */
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+
+  private final File fFile;
+  /** Null if read-only. */
+  private final FileChannel fChannel;
+  private ByteBuffer fBuffer;
+  private int fSize;
+
+  private TickSegment(File aFile, FileChannel aChannel, ByteBuffer aBuffer){
+    this(aFile, aChannel, aBuffer, 0);
+  }
+
+  private TickSegment(File aFile, FileChannel aChannel, ByteBuffer aBuffer, int aSize){
+    fFile = aFile;
+    fChannel = aChannel;
+    fBuffer = aBuffer;
+    fSize = aSize;
+  }
+
+  private static int offset(int aRecord){
+    return HEADER_SIZE + aRecord * RECORD_SIZE;
+  }
+
+  private int getCapacity(){
+    return (fBuffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+  }
+
+  private void writeHeader(long aDayStart){
+    fBuffer.putInt(0, MAGIC);
+    fBuffer.putInt(4, VERSION);
+    fBuffer.putLong(DAY_OFFSET, aDayStart);
+    fBuffer.putInt(COUNT_OFFSET, 0);
+  }
+
+  /** Find the last intact record, starting from the committed count. */
+  private void recover() throws IOException {
+    if ( fBuffer.getInt(0) != MAGIC || fBuffer.getInt(4) != VERSION ) {
+      throw new IOException("Not a tick segment: " + fFile);
+    }
+    int capacity = getCapacity();
+    int size = Math.max(0, Math.min(fBuffer.getInt(COUNT_OFFSET), capacity));
+    while ( size < capacity && isIntact(size) ) {
+      ++size;
+    }
+    fSize = size;
+  }
+
+  private boolean isIntact(int aRecord){
+    int offset = offset(aRecord);
+    int check = fBuffer.getInt(offset + 4);
+    return check != 0 && check == checksum(
+      fBuffer.getInt(offset), fBuffer.getLong(offset + 8),
+      fBuffer.getLong(offset + 16), fBuffer.getLong(offset + 24)
+    );
+  }
+
+  /** Double the mapped size of the file. */
+  private void grow() throws IOException {
+    long size = HEADER_SIZE + 2L * getCapacity() * RECORD_SIZE;
+    if ( size > Integer.MAX_VALUE ) {
+      throw new IOException("Tick segment is full: " + fFile);
+    }
+    //the old mapping stays valid for any frozen copies
+    fBuffer = fChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  private static int checksum(int aTickerId, long aTime, long aPrice, long aChange){
+    long hash = aTickerId * 0x9E3779B97F4A7C15L;
+    hash = (hash ^ aTime) * 0xC2B2AE3D27D4EB4FL;
+    hash = (hash ^ aPrice) * 0x165667B19E3779F9L;
+    hash = (hash ^ aChange) * 0x9E3779B97F4A7C15L;
+    int result = (int)(hash ^ (hash >>> 32));
+    return result == 0 ? 1 : result;
+  }
+}
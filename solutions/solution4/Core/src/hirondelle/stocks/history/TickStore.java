@@ -0,0 +1,527 @@
+package hirondelle.stocks.history;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import hirondelle.stocks.quotes.Exchange;
+import hirondelle.stocks.quotes.Quote;
+import hirondelle.stocks.quotes.Stock;
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Money;
+import hirondelle.stocks.util.Util;
+
+/**
+* Append-only store of every {@link Quote} received, for intraday and historical
+* views of prices.
+*
+* <P>Each quote is appended as a tick : the ticker of its stock, the time it was
+* received, its price, and its change. Ticks are held in a directory, separately
+* from the preferences used for portfolios :
+*<ul>
+* <li>one file per day (UTC), named as in <tt>2014-01-15.ticks</tt>, and
+* described by {@link TickSegment}
+* <li><tt>tickers.txt</tt>, listing each ticker once, in order of first
+* appearance; a tick refers to its ticker by its position in this list, so
+* that every record has the same small width
+*</ul>
+*
+* <P>Segments are memory-mapped. An append is a copy into memory, with no
+* system call, and is not lost if the application dies; only a crash of the
+* operating system can lose recent ticks, unless {@link #flush} has been called.
+*
+* <P>As ticks are appended, they are also gathered into {@link Bar}s of each
+* {@link BarInterval}, which are stored in the <tt>bars</tt> subdirectory, one
+* file for each interval, and returned by {@link #getBars}; see
+* {@link BarAggregator}.
+*
+* <P>Once a day is over, its segment is no longer appended to, and is rewritten
+* in a compressed form, about a tenth of the size, by {@link #compactInBackground};
+* see {@link CompressedSegment}. A scan reads either form.
+*
+* <P>This class is thread-safe. A scan does not block appends for its duration;
+* it reads the ticks appended before it started. Since an append may write to
+* disk, the application appends through a {@link TickWriter}, and not on the
+* Event Dispatch Thread.
+*/
+public final class TickStore {
+
+  /**
+  * Return the directory used when none is specified : the value of the
+  * <tt>history.dir</tt> system property, if set, or else
+  * <tt>.stocksmonitor/history</tt> in the user's home directory.
+  */
+  public static File getDefaultDirectory(){
+    String dir = System.getProperty("history.dir");
+    if ( Util.textHasContent(dir) ) return new File(dir);
+    return new File(new File(System.getProperty("user.home"), ".stocksmonitor"), "history");
+  }
+
+  /**
+  * Constructor. Creates <tt>aDirectory</tt> if it does not exist.
+  */
+  public TickStore(File aDirectory) throws IOException {
+    Args.checkForNull(aDirectory);
+    if ( ! aDirectory.isDirectory() && ! aDirectory.mkdirs() ) {
+      throw new IOException("Cannot create directory for history: " + aDirectory);
+    }
+    fDirectory = aDirectory;
+    fTickers = new TickerTable(new File(aDirectory, TICKERS_FILE));
+    fBars = new BarAggregator(new File(aDirectory, BARS_DIRECTORY));
+  }
+
+  /**
+  * Append a tick for each of <tt>aQuotes</tt>, all received at <tt>aTime</tt>.
+  * Quotes having a zero price, which indicates a failed fetch, are ignored.
+  *
+  * <P>Since the ticks of a day are kept in order of time, a time earlier than
+  * that of the last tick, as when the system clock is set back, is recorded as
+  * the time of the last tick.
+  */
+  public synchronized void append(Collection<Quote> aQuotes, long aTime) throws IOException {
+    checkOpen();
+    TickSegment segment = getSegmentForAppend(aTime);
+    long time = Math.max(aTime, segment.getLastTime());
+    for(Quote quote : aQuotes){
+      if ( quote.getPrice().isZero() ) continue;
+      int id = fTickers.getId(quote.getStock().getQualifiedTicker());
+      long price = quote.getPrice().getUnscaledValue();
+      segment.append(id, time, price, quote.getChange().getUnscaledValue());
+      fBars.add(id, time, price, quote.getVolume());
+    }
+    segment.commit();
+    fBars.commit();
+  }
+
+  /**
+  * Pass each tick received in the range <tt>[aFrom, aTo)</tt> to
+  * <tt>aVisitor</tt>, in order of time.
+  *
+  * @param aTicker if not <tt>null</tt>, then only ticks for this ticker, as
+  * returned by {@link Stock#getQualifiedTicker}, are passed.
+  */
+  public void scan(String aTicker, long aFrom, long aTo, TickVisitor aVisitor) throws IOException {
+    Args.checkForNull(aVisitor);
+    Plan plan = plan(aTicker, aFrom, aTo);
+    if ( plan == null ) return;
+    for(Long day : plan.fDays.keySet()){
+      Object segment = plan.open(day);
+      if ( segment instanceof CompressedSegment ) {
+        ((CompressedSegment)segment).scan(plan.fTickerId, aFrom, aTo, plan.fTickers, aVisitor);
+      }
+      else {
+        scanRaw((TickSegment)segment, plan.fTickerId, aFrom, aTo, plan.fTickers, aVisitor);
+      }
+    }
+  }
+
+  /**
+  * Return the lowest and highest prices of <tt>aTicker</tt> in the range
+  * <tt>[aFrom, aTo)</tt>, or <tt>null</tt> if it has no ticks in that range.
+  *
+  * <P>For days which have been compressed, this is mostly read from an index,
+  * without decoding the ticks.
+  */
+  public PriceRange getPriceRange(String aTicker, long aFrom, long aTo) throws IOException {
+    Args.checkForNull(aTicker);
+    Plan plan = plan(aTicker, aFrom, aTo);
+    if ( plan == null ) return null;
+    final long[] lowHigh = {Long.MAX_VALUE, Long.MIN_VALUE};
+    for(Long day : plan.fDays.keySet()){
+      Object segment = plan.open(day);
+      if ( segment instanceof CompressedSegment ) {
+        ((CompressedSegment)segment).addPriceRange(plan.fTickerId, aFrom, aTo, lowHigh);
+      }
+      else {
+        scanRaw((TickSegment)segment, plan.fTickerId, aFrom, aTo, plan.fTickers, new TickVisitor() {
+          @Override public void visit(String aTicker, long aTime, long aPrice, long aChange) {
+            lowHigh[0] = Math.min(lowHigh[0], aPrice);
+            lowHigh[1] = Math.max(lowHigh[1], aPrice);
+          }
+        });
+      }
+    }
+    return lowHigh[0] > lowHigh[1] ? null : new PriceRange(lowHigh[0], lowHigh[1]);
+  }
+
+  /**
+  * Return the bars of <tt>aTicker</tt> for <tt>aInterval</tt> which start in the
+  * range <tt>[aFrom, aTo)</tt>, in order of time. The last may be the current
+  * bar, which is not yet complete.
+  *
+  * @param aTicker as returned by {@link Stock#getQualifiedTicker}.
+  */
+  public synchronized List<Bar> getBars(
+    String aTicker, BarInterval aInterval, long aFrom, long aTo
+  ) throws IOException {
+    Args.checkForNull(aTicker);
+    Args.checkForNull(aInterval);
+    checkOpen();
+    int id = fTickers.findId(aTicker);
+    if ( id == ALL ) return Collections.emptyList();
+    return fBars.getBars(id, aInterval, aFrom, aTo);
+  }
+
+  /**
+  * Compress the segments of finished days, on a background thread. Called
+  * automatically when a new day begins; may also be called at any time, as
+  * when the application starts.
+  */
+  public void compactInBackground(){
+    fCompactor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          compactFinishedDays();
+        }
+        catch (IOException | RuntimeException ex){
+          fLogger.severe("Cannot compress quote history: " + ex);
+        }
+      }
+    });
+  }
+
+  /** Write all ticks to the storage device. */
+  public synchronized void flush(){
+    if ( fCurrent != null ) {
+      fCurrent.force();
+    }
+  }
+
+  /** Flush, and release all files. No other method may be called afterwards. */
+  public synchronized void close() throws IOException {
+    if ( fIsClosed ) return;
+    fIsClosed = true;
+    if ( fCurrent != null ) {
+      fCurrent.close();
+      fCurrent = null;
+    }
+    fBars.close();
+    fTickers.close();
+  }
+
+  /** Return the directory holding the ticks. */
+  public File getDirectory(){
+    return fDirectory;
+  }
+
+  // PRIVATE
+
+  private static final String TICKERS_FILE = "tickers.txt";
+  private static final String BARS_DIRECTORY = "bars";
+  private static final String SUFFIX = ".ticks";
+  private static final String COMPRESSED_SUFFIX = ".cticks";
+  private static final int ALL = -1;
+  private static final long MILLIS_PER_DAY = 24L * 60 * Consts.SECONDS_PER_MINUTE * Consts.MILLISECONDS_PER_SECOND;
+
+  private final File fDirectory;
+  private final TickerTable fTickers;
+  private final BarAggregator fBars;
+  /** The segment for the day of the latest append. */
+  private TickSegment fCurrent;
+  private long fCurrentDay;
+  private boolean fIsClosed;
+
+  private static final Logger fLogger = Util.getLogger(TickStore.class);
+
+  /** Uses a daemon thread, so that it never prevents the application from exiting. */
+  private static final ExecutorService fCompactor = Executors.newSingleThreadExecutor(
+    new ThreadFactory() {
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "TickCompaction");
+        result.setDaemon(true);
+        result.setPriority(Thread.MIN_PRIORITY);
+        return result;
+      }
+    }
+  );
+
+  private void checkOpen(){
+    if ( fIsClosed ) {
+      throw new IllegalStateException("Tick store is closed: " + fDirectory);
+    }
+  }
+
+  private static long startOfDay(long aTime){
+    long result = aTime - (aTime % MILLIS_PER_DAY);
+    return aTime < 0 && result != aTime ? result - MILLIS_PER_DAY : result;
+  }
+
+  private File getFile(long aDayStart, String aSuffix){
+    return new File(fDirectory, getDayFormat().format(new Date(aDayStart)) + aSuffix);
+  }
+
+  private static DateFormat getDayFormat(){
+    DateFormat result = new SimpleDateFormat("yyyy-MM-dd");
+    result.setTimeZone(TimeZone.getTimeZone("UTC"));
+    result.setLenient(false);
+    return result;
+  }
+
+  /**
+  * Return the segment files with aSuffix, by the start of their day. Other
+  * files, such as the list of tickers, are ignored.
+  */
+  private SortedMap<Long, File> listFiles(String aSuffix){
+    SortedMap<Long, File> result = new TreeMap<>();
+    File[] files = fDirectory.listFiles();
+    if ( files == null ) return result;
+    DateFormat format = getDayFormat();
+    for(File file : files){
+      String name = file.getName();
+      if ( ! name.endsWith(aSuffix) ) continue;
+      try {
+        result.put(format.parse(name.substring(0, name.length() - aSuffix.length())).getTime(), file);
+      }
+      catch (ParseException ex){
+        //not a segment
+      }
+    }
+    return result;
+  }
+
+  /**
+  * The segments to read for a scan. The days are taken, and the current segment
+  * is frozen, while holding the lock; the segments are read without it.
+  */
+  private final class Plan {
+    String[] fTickers;
+    int fTickerId = ALL;
+    /** The days in the range which have ticks, and their files. */
+    SortedMap<Long, File> fDays;
+    TickSegment fCurrent;
+    long fCurrentDay;
+    /** Return the CompressedSegment or TickSegment for aDay. */
+    Object open(Long aDay) throws IOException {
+      File file = fDays.get(aDay);
+      if ( fCurrent != null && aDay == fCurrentDay ) return fCurrent;
+      if ( file.getName().endsWith(COMPRESSED_SUFFIX) ) return CompressedSegment.open(file);
+      try {
+        return TickSegment.openForRead(file);
+      }
+      catch (FileNotFoundException ex){
+        //compressed since the plan was made
+        return CompressedSegment.open(getFile(aDay, COMPRESSED_SUFFIX));
+      }
+    }
+  }
+
+  /** Return null if aTicker has no ticks. */
+  private synchronized Plan plan(String aTicker, long aFrom, long aTo){
+    checkOpen();
+    Plan result = new Plan();
+    result.fTickers = fTickers.getAll();
+    if ( aTicker != null ) {
+      result.fTickerId = Arrays.asList(result.fTickers).indexOf(aTicker);
+      if ( result.fTickerId < 0 ) return null;
+    }
+    SortedMap<Long, File> days = listFiles(SUFFIX);
+    //a compressed segment is complete, and preferred
+    days.putAll(listFiles(COMPRESSED_SUFFIX));
+    result.fDays = new TreeMap<>();
+    for(Map.Entry<Long, File> day : days.entrySet()){
+      if ( day.getKey() + MILLIS_PER_DAY > aFrom && day.getKey() < aTo ) {
+        result.fDays.put(day.getKey(), day.getValue());
+      }
+    }
+    if ( fCurrent != null ) {
+      result.fCurrent = fCurrent.freeze();
+      result.fCurrentDay = fCurrentDay;
+      result.fDays.put(fCurrentDay, fCurrent.getFile());
+      if ( fCurrentDay + MILLIS_PER_DAY <= aFrom || fCurrentDay >= aTo ) {
+        result.fDays.remove(fCurrentDay);
+      }
+    }
+    return result;
+  }
+
+  private static void scanRaw(
+    TickSegment aSegment, int aTickerId, long aFrom, long aTo, String[] aTickers, TickVisitor aVisitor
+  ){
+    int end = aSegment.size();
+    for(int record = aSegment.findFirst(aFrom); record < end; ++record){
+      long time = aSegment.getTime(record);
+      if ( time >= aTo ) break;
+      int id = aSegment.getTickerId(record);
+      if ( aTickerId == ALL || id == aTickerId ) {
+        aVisitor.visit(aTickers[id], time, aSegment.getPrice(record), aSegment.getChange(record));
+      }
+    }
+  }
+
+  /**
+  * Compress each raw segment of a day before today, other than the current
+  * segment, and then delete it. Return the number of segments compressed.
+  */
+  private int compactFinishedDays() throws IOException {
+    long today = startOfDay(System.currentTimeMillis());
+    SortedMap<Long, File> finished = null;
+    synchronized(this) {
+      if ( fIsClosed ) return 0;
+      finished = listFiles(SUFFIX).headMap(today);
+      if ( fCurrent != null ) {
+        finished.remove(fCurrentDay);
+      }
+    }
+    int result = 0;
+    for(Map.Entry<Long, File> day : finished.entrySet()){
+      File raw = day.getValue();
+      File target = getFile(day.getKey(), COMPRESSED_SUFFIX);
+      if ( ! target.exists() ) {
+        CompressedSegment.write(TickSegment.openForRead(raw), target);
+        ++result;
+        fLogger.fine("Compressed " + raw + " to " + target.length() + " bytes.");
+      }
+      synchronized(this) {
+        if ( ! raw.delete() ) {
+          //on some systems, a file cannot be deleted while mapped; try again later
+          fLogger.fine("Cannot yet delete " + raw);
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Return the segment for the day of aTime, closing the previous day's. */
+  private TickSegment getSegmentForAppend(long aTime) throws IOException {
+    long day = startOfDay(aTime);
+    if ( fCurrent != null && day > fCurrentDay ) {
+      fCurrent.close();
+      fCurrent = null;
+      compactInBackground();
+    }
+    if ( fCurrent == null ) {
+      //a time on an earlier day is kept in the current segment, as described in append
+      long openDay = Math.max(day, fCurrentDay);
+      fCurrent = TickSegment.openForAppend(getFile(openDay, SUFFIX), openDay);
+      fCurrentDay = openDay;
+      fLogger.fine("Appending ticks to " + fCurrent.getFile() + ", from record " + fCurrent.size());
+    }
+    return fCurrent;
+  }
+
+  /**
+  * Assigns a small integer id to each ticker, persisted as a text file having
+  * one ticker per line.
+  */
+  private static final class TickerTable {
+    TickerTable(File aFile) throws IOException {
+      if ( aFile.exists() ) {
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(aFile), "UTF-8"))) {
+          String line = null;
+          while ( (line = input.readLine()) != null ) {
+            //a ticker whose line was cut short by a crash was never used by a tick
+            if ( line.length() > 0 ) {
+              add(line);
+            }
+          }
+        }
+      }
+      fOutput = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(aFile, true), "UTF-8"));
+    }
+    /** Return the id of aTicker, adding it if necessary. */
+    int getId(String aTicker) throws IOException {
+      Integer result = fIds.get(aTicker);
+      if ( result == null ) {
+        //written before any tick refers to it
+        fOutput.write(aTicker);
+        fOutput.write('\n');
+        fOutput.flush();
+        result = add(aTicker);
+      }
+      return result;
+    }
+    /** Return the id of aTicker, or -1 if it has none. */
+    int findId(String aTicker){
+      Integer result = fIds.get(aTicker);
+      return result == null ? ALL : result;
+    }
+    String[] getAll(){
+      return fTickers.toArray(new String[fTickers.size()]);
+    }
+    void close() throws IOException {
+      fOutput.close();
+    }
+    private final Map<String, Integer> fIds = new HashMap<>();
+    private final List<String> fTickers = new ArrayList<>();
+    private final Writer fOutput;
+    private int add(String aTicker){
+      fIds.put(aTicker, fTickers.size());
+      fTickers.add(aTicker);
+      return fTickers.size() - 1;
+    }
+  }
+
+  /**
+  * Developer tool. Appends ticks for a large portfolio to a temporary directory,
+  * one quote per stock per second, as from a feed, reopens the store, and
+  * reports the rates of appending and scanning, before and after compression.
+  */
+  private static void main(String... aArgs) throws IOException {
+    File dir = new File(System.getProperty("java.io.tmpdir"), "ticks-" + System.nanoTime());
+    Exchange exchange = Exchange.valueFrom("NYSE Stock Exchanges");
+    List<Quote> quotes = new ArrayList<>();
+    for(int idx = 0; idx < 2000; ++idx){
+      //tickers have letters only: A, B, ... BA, BB, ...
+      StringBuilder ticker = new StringBuilder();
+      for(int rest = idx; ticker.length() == 0 || rest > 0; rest = rest / 26){
+        ticker.insert(0, (char)('A' + rest % 26));
+      }
+      Stock stock = new Stock("Stock " + idx, ticker.toString(), exchange, 10, BigDecimal.TEN);
+      quotes.add(new Quote(stock, Money.fromUnscaled(1000 + idx), Money.ZERO));
+    }
+    long dayStart = 1389744000000L; //2014-01-15 UTC
+    int numBatches = 1000;
+    TickStore store = new TickStore(dir);
+    long start = System.nanoTime();
+    for(int batch = 0; batch < numBatches; ++batch){
+      store.append(quotes, dayStart + batch * 1000L);
+    }
+    long appendNanos = System.nanoTime() - start;
+    store.close();
+    long numTicks = (long)numBatches * quotes.size();
+    System.out.println("Appended " + numTicks + " ticks at " + numTicks * 1000000000L / appendNanos + " ticks/s");
+
+    store = new TickStore(dir);
+    final long[] count = new long[1];
+    start = System.nanoTime();
+    store.scan(null, dayStart, dayStart + MILLIS_PER_DAY, new TickVisitor() {
+      @Override public void visit(String aTicker, long aTime, long aPrice, long aChange) {
+        ++count[0];
+      }
+    });
+    long scanNanos = System.nanoTime() - start;
+    System.out.println("Scanned " + count[0] + " ticks at " + count[0] * 1000000000L / scanNanos + " ticks/s");
+    count[0] = 0;
+    String ticker = quotes.get(7).getStock().getQualifiedTicker();
+    store.scan(ticker, dayStart + 60000L, dayStart + 120000L, new TickVisitor() {
+      @Override public void visit(String aTicker, long aTime, long aPrice, long aChange) {
+        ++count[0];
+      }
+    });
+    System.out.println("One ticker for one minute: " + count[0] + " ticks (expected 60)");
+    System.out.println("Price range: " + store.getPriceRange(ticker, dayStart, dayStart + MILLIS_PER_DAY));
+    List<Bar> bars = store.getBars(ticker, BarInterval.FiveMinutes, dayStart, dayStart + MILLIS_PER_DAY);
+    System.out.println("Five-minute bars: " + bars.size() + " (expected 4), the last resumed: " + bars.get(3));
+
+    //the day is over, so the segment is compressed
+    store.compactFinishedDays();
+    System.out.println("Files after compaction: " + Arrays.asList(dir.list()));
+    count[0] = 0;
+    start = System.nanoTime();
+    store.scan(null, dayStart, dayStart + MILLIS_PER_DAY, new TickVisitor() {
+      @Override public void visit(String aTicker, long aTime, long aPrice, long aChange) {
+        ++count[0];
+      }
+    });
+    scanNanos = System.nanoTime() - start;
+    System.out.println("Scanned " + count[0] + " compressed ticks at " + count[0] * 1000000000L / scanNanos + " ticks/s");
+    System.out.println("Price range: " + store.getPriceRange(ticker, dayStart, dayStart + MILLIS_PER_DAY));
+    store.close();
+  }
+}
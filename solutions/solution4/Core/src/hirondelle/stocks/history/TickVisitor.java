@@ -0,0 +1,21 @@
+package hirondelle.stocks.history;
+
+/**
+* Receives the ticks found by {@link TickStore#scan}, one at a time, in order of
+* time.
+*
+* <P>Prices are passed as unscaled {@link hirondelle.stocks.util.Money} values,
+* so that a scan over millions of ticks creates no objects.
+*/
+public interface TickVisitor {
+
+  /**
+  * Called once for each tick in the range.
+  *
+  * @param aTicker the Yahoo ticker of the stock, including any exchange suffix.
+  * @param aTime in milliseconds.
+  * @param aPrice unscaled price.
+  * @param aChange unscaled change in price since the open.
+  */
+  void visit(String aTicker, long aTime, long aPrice, long aChange);
+}
@@ -0,0 +1,124 @@
+package hirondelle.stocks.history;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import javax.swing.SwingUtilities;
+
+import hirondelle.stocks.quotes.Quote;
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Util;
+
+/**
+* Appends quotes to a {@link TickStore} on a background thread, so that the
+* Event Dispatch Thread never waits for the disk.
+*
+* <P>Appends are run one at a time, in the order given, and include the sealing
+* of {@link Bar}s. Each takes a copy of its quotes when it is given, along with
+* the time they were received. When an append is done, its callback, if any, is
+* run on the Event Dispatch Thread, as when a {@link PriceChart} is to be told
+* of new ticks.
+*
+* <P>If an append fails, the failure is logged as <tt>SEVERE</tt>, which shows
+* it to the user, and all later appends are ignored : quotes continue to be
+* shown, but are no longer recorded.
+*
+* <P>Appends should be given on the Event Dispatch Thread.
+*/
+public final class TickWriter {
+
+  /** Number of milliseconds to wait in {@link #close} when the application exits. */
+  public static final long CLOSE_TIMEOUT = 30000;
+
+  /**
+  * Constructor.
+  * @param aTickStore receives the quotes; closed by {@link #close}.
+  */
+  public TickWriter(TickStore aTickStore){
+    Args.checkForNull(aTickStore);
+    fTickStore = aTickStore;
+  }
+
+  /**
+  * Append <tt>aQuotes</tt>, received now, as in {@link TickStore#append}.
+  *
+  * @param aWhenAppended run on the Event Dispatch Thread once the append is
+  * done; not run if it fails. May be <tt>null</tt>.
+  */
+  public void append(Collection<Quote> aQuotes, final Runnable aWhenAppended){
+    if ( fIsStopped || aQuotes.isEmpty() ) return;
+    final List<Quote> quotes = new ArrayList<>(aQuotes);
+    final long time = System.currentTimeMillis();
+    fExecutor.execute(new Runnable() {
+      @Override public void run() {
+        if ( fIsStopped ) return;
+        try {
+          fTickStore.append(quotes, time);
+        }
+        catch (IOException | RuntimeException ex){
+          fIsStopped = true;
+          fLogger.log(Level.SEVERE, "Quote history will no longer be recorded.", ex);
+          return;
+        }
+        if ( aWhenAppended != null ) {
+          SwingUtilities.invokeLater(aWhenAppended);
+        }
+      }
+    });
+  }
+
+  /**
+  * Wait for all appends given so far to be run, and then close the
+  * <tt>TickStore</tt>, for at most <tt>aTimeout</tt> milliseconds. Return
+  * <tt>true</tt> only if that was done. Later appends are ignored. Used when the
+  * application exits.
+  */
+  public boolean close(long aTimeout){
+    boolean result = false;
+    Future<?> closing = fExecutor.submit(new Callable<Void>() {
+      @Override public Void call() throws IOException {
+        fIsStopped = true;
+        fTickStore.close();
+        return null;
+      }
+    });
+    try {
+      closing.get(aTimeout, TimeUnit.MILLISECONDS);
+      result = true;
+    }
+    catch (InterruptedException ex){
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException ex){
+      fLogger.log(Level.SEVERE, "Cannot close quote history.", ex.getCause());
+    }
+    catch (TimeoutException ex){
+      fLogger.warning("Quote history not yet closed: " + ex);
+    }
+    return result;
+  }
+
+  // PRIVATE
+
+  private final TickStore fTickStore;
+
+  /** Set when an append fails, or the store is closed. */
+  private volatile boolean fIsStopped;
+
+  /**
+  * Shared by all instances, so that appends are never run concurrently. Uses a
+  * daemon thread; pending appends are run on exit by {@link #close}.
+  */
+  private static final ExecutorService fExecutor = Executors.newSingleThreadExecutor(
+    new ThreadFactory() {
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "TickWriter");
+        result.setDaemon(true);
+        return result;
+      }
+    }
+  );
+
+  private static final Logger fLogger = Util.getLogger(TickWriter.class);
+}
@@ -0,0 +1,2 @@
+/** Record and read the history of stock prices. */
+package hirondelle.stocks.history;
\ No newline at end of file
@@ -1,7 +1,12 @@
 package hirondelle.stocks.main;
 
+import hirondelle.stocks.history.PriceChart;
+import hirondelle.stocks.history.TickStore;
+import hirondelle.stocks.history.TickWriter;
 import hirondelle.stocks.portfolio.CurrentPortfolio;
 import hirondelle.stocks.portfolio.PortfolioDAO;
+import hirondelle.stocks.portfolio.PortfolioLoader;
+import hirondelle.stocks.portfolio.PortfolioWriter;
 import hirondelle.stocks.preferences.GeneralLookPreferencesEditor;
 import hirondelle.stocks.preferences.LoggingPreferencesEditor;
 import hirondelle.stocks.preferences.OptionPaneExceptionHandler;
@@ -10,8 +15,11 @@ import hirondelle.stocks.table.QuoteTable;
 import hirondelle.stocks.preferences.QuoteTablePreferencesEditor;
 import hirondelle.stocks.quotes.SummaryView;
 import hirondelle.stocks.table.QuoteFilterFactory;
+import hirondelle.stocks.table.FilteredQuoteView;
 
 import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
@@ -70,6 +78,7 @@ public final class StocksMonitorMainWindow implements Runnable{
          */
         initCurrentPortfolio();
         initGuiPieces();
+        initHistory();
         initActions();
         OptionPaneExceptionHandler.attachToRootLogger();
     }
@@ -106,12 +115,29 @@ public final class StocksMonitorMainWindow implements Runnable{
      */
     private QuoteFilterFactory fQuoteFilterFactory;
 
+    /**
+     * Applies the selected filter once, for both {@link #fQuoteTable} and
+     * {@link #fSummaryView}.
+     */
+    private FilteredQuoteView fFilteredQuoteView;
+
     /**
      * Displays summary financial information for the items presented in
      * {@link #fQuoteTable}.
      */
     private SummaryView fSummaryView;
 
+    /**
+     * Records every quote received, or null if the history cannot be opened.
+     */
+    private TickStore fTickStore;
+
+    /**
+     * Appends to fTickStore off the Event Dispatch Thread, or null if there is
+     * no history.
+     */
+    private TickWriter fTickWriter;
+
     private FetchQuotesAction fFetchQuotesAction;
 
     /**
@@ -135,12 +161,57 @@ public final class StocksMonitorMainWindow implements Runnable{
     private void initGuiPieces() {
         fLogger.info("Initializing main pieces of the GUI.");
         fQuoteFilterFactory = new QuoteFilterFactory(fCurrentPortfolio);
-        fSummaryView = new SummaryView(fCurrentPortfolio, fQuoteFilterFactory);
+        fFilteredQuoteView = new FilteredQuoteView(fQuoteFilterFactory);
+        fSummaryView = new SummaryView(fCurrentPortfolio, fFilteredQuoteView);
         fQuoteTablePrefsEditor = new QuoteTablePreferencesEditor();
-        fQuoteTable = new QuoteTable(fQuoteTablePrefsEditor, fQuoteFilterFactory);
+        fQuoteTable = new QuoteTable(fQuoteTablePrefsEditor, fFilteredQuoteView);
         fGeneralLookPrefs = new GeneralLookPreferencesEditor();
     }
 
+    /**
+     * Open the store of quote history, and compress any days left uncompressed
+     * by an earlier session. The application runs without it if it cannot be
+     * opened. Quotes are appended to it by a TickWriter, which is given a chance
+     * to finish, and closes it, when the JVM exits, however that happens.
+     */
+    private void initHistory() {
+        File dir = TickStore.getDefaultDirectory();
+        fLogger.info("Opening quote history in " + dir);
+        try {
+            fTickStore = new TickStore(dir);
+        } catch (IOException ex) {
+            fLogger.severe("Quote history will not be recorded: " + ex);
+            return;
+        }
+        fTickStore.compactInBackground();
+        fTickWriter = new TickWriter(fTickStore);
+        Runtime.getRuntime().addShutdownHook(new Thread("CloseTickStore") {
+            @Override
+            public void run() {
+                if (!fTickWriter.close(TickWriter.CLOSE_TIMEOUT)) {
+                    fLogger.severe("Exiting before all quotes were recorded.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Create the writer used by the file actions. Any saves still pending when
+     * the JVM exits, however that happens, are given a chance to finish.
+     */
+    private PortfolioWriter initPortfolioWriter() {
+        final PortfolioWriter result = new PortfolioWriter(fCurrentPortfolio);
+        Runtime.getRuntime().addShutdownHook(new Thread("FlushPortfolioWriter") {
+            @Override
+            public void run() {
+                if (!result.flush(PortfolioWriter.FLUSH_TIMEOUT)) {
+                    fLogger.severe("Exiting before all portfolios were saved.");
+                }
+            }
+        });
+        return result;
+    }
+
     private void initActions() {
         fLogger.info("Initializing Actions.");
         java.util.List<PreferencesEditor> prefEditors = new ArrayList<>();
@@ -149,10 +220,17 @@ public final class StocksMonitorMainWindow implements Runnable{
         prefEditors.add(fQuoteTablePrefsEditor);
         CentralLookup.getDefault().add(prefEditors);
         CentralLookup.getDefault().add(fCurrentPortfolio);
+        CentralLookup.getDefault().add(initPortfolioWriter());
+        CentralLookup.getDefault().add(new PortfolioLoader(fCurrentPortfolio));
         CentralLookup.getDefault().add(fQuoteTablePrefsEditor);
         CentralLookup.getDefault().add(fQuoteTable);
         CentralLookup.getDefault().add(fSummaryView);
         CentralLookup.getDefault().add(fQuoteFilterFactory);
+        CentralLookup.getDefault().add(fFilteredQuoteView);
+        if (fTickWriter != null) {
+            CentralLookup.getDefault().add(fTickWriter);
+        }
+        CentralLookup.getDefault().add(new PriceChart(fTickStore, fQuoteTable));
         fFetchQuotesAction = new FetchQuotesAction();
         fFetchQuotesAction.startTimer();
     }
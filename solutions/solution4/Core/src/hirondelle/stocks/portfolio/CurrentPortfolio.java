@@ -85,11 +85,13 @@ public final class CurrentPortfolio extends Observable {
   }
 
   /**
-   * Change the {@link Portfolio} of current interest to the user.
+   * Change the {@link Portfolio} of current interest to the user. Ends any
+   * loading of the previous <tt>Portfolio</tt>.
    */
   public void setPortfolio(Portfolio aPortfolio) {
     Args.checkForNull(aPortfolio);
     fPortfolio = aPortfolio;
+    fIsLoading = false;
     setChanged();
   }
 
@@ -101,12 +103,14 @@ public final class CurrentPortfolio extends Observable {
   }
 
   /**
-   * Change the name of this <tt>CurrentPortfolio</tt>.
+   * Change the name of this <tt>CurrentPortfolio</tt>. Ends any loading of
+   * its stocks.
    * @param aName has the same conditions as 
    * {@link hirondelle.stocks.portfolio.Portfolio#setName(String)}.
    */
   public void setName(String aName) {
     fPortfolio.setName(aName);
+    fIsLoading = false;
     setChanged();
   }
 
@@ -119,12 +123,30 @@ public final class CurrentPortfolio extends Observable {
   }
 
   /**
-   * Change the stocks in this <tt>CurrentPortfolio</tt>.
+   * Change the stocks in this <tt>CurrentPortfolio</tt>. Ends any loading of
+   * its stocks.
    * @param aStocks has the same conditions as
    * {@link hirondelle.stocks.portfolio.Portfolio#setStocks(Set)}
    */
   public void setStocks(Set<Stock> aStocks) {
     fPortfolio.setStocks(aStocks);
+    fIsLoading = false;
+    setChanged();
+  }
+
+  /**
+   * Return <tt>true</tt> only if the {@link PortfolioLoader} is still reading the
+   * stocks of this <tt>CurrentPortfolio</tt>, which then holds only the first of
+   * them. Operations which need all of its stocks must call
+   * {@link PortfolioLoader#finish} first.
+   */
+  public boolean isLoading() {
+    return fIsLoading;
+  }
+
+  /** Called by the {@link PortfolioLoader}. */
+  void setLoading(boolean aIsLoading) {
+    fIsLoading = aIsLoading;
     setChanged();
   }
 
@@ -145,7 +167,50 @@ public final class CurrentPortfolio extends Observable {
     setChanged();
   }
 
+  /**
+   * Argument passed to {@link java.util.Observer#update} when only the write status
+   * has changed, as reported by {@link #isWritePending} and {@link #getWriteFailure}.
+   * Observers interested only in the <tt>Portfolio</tt> itself should ignore such 
+   * notifications.
+   */
+  public static final Object WRITE_STATUS = "WriteStatus";
+
+  /**
+   * Return <tt>true</tt> only if some command given to the {@link PortfolioWriter}
+   * has not yet been run.
+   */
+  public boolean isWritePending() {
+    return fIsWritePending;
+  }
+
+  /**
+   * Return a short description of the failure of the last command run by the
+   * {@link PortfolioWriter}, or <tt>null</tt> if it succeeded.
+   */
+  public String getWriteFailure() {
+    return fWriteFailure;
+  }
+
+  /** 
+   * Called by the {@link PortfolioWriter}, on the Event Dispatch Thread. Observers
+   * are notified at once, with {@link #WRITE_STATUS}. Any other change not yet 
+   * notified remains so.
+   */
+  void setWriteStatus(boolean aIsPending, String aFailure) {
+    fIsWritePending = aIsPending;
+    fWriteFailure = aFailure;
+    boolean hadChanged = hasChanged();
+    setChanged();
+    notifyObservers(WRITE_STATUS);
+    if ( hadChanged ) {
+      setChanged();
+    }
+  }
+
   // PRIVATE 
   private Portfolio fPortfolio;
   private boolean fNeedsSave;
+  private boolean fIsLoading;
+  private boolean fIsWritePending;
+  private String fWriteFailure;
 }
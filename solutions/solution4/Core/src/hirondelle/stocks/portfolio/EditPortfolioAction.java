@@ -49,6 +49,7 @@ public final class EditPortfolioAction extends AbstractAction {
         Args.checkForNull(aCurrentPortfolio);
         Args.checkForNull(aFrame);
         fCurrentPortfolio = aCurrentPortfolio;
+        fPortfolioLoader = CentralLookup.getDefault().lookup(PortfolioLoader.class);
         fModel = new Model();
         fFrame = aFrame;
         putValue(SHORT_DESCRIPTION, "Edit the stocks in this portfolio");
@@ -83,6 +84,7 @@ public final class EditPortfolioAction extends AbstractAction {
     @Override
     public void actionPerformed(ActionEvent aEvent) {
         fLogger.info("Edit the list of stocks in the current portfolio.");
+        fPortfolioLoader.finish();
         initWorkingCopy();
         showDialog();
     }
@@ -97,6 +99,12 @@ public final class EditPortfolioAction extends AbstractAction {
      */
     private CurrentPortfolio fCurrentPortfolio;
 
+    /**
+     * Loads fCurrentPortfolio, which must hold all its stocks before it is
+     * edited.
+     */
+    private PortfolioLoader fPortfolioLoader;
+
     /**
      * Contains the {@link Stock} objects being edited.
      *
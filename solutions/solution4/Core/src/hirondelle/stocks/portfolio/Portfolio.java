@@ -7,7 +7,9 @@ import hirondelle.stocks.util.HashCodeUtil;
 import hirondelle.stocks.util.EqualsUtil;
 import hirondelle.stocks.util.Args;
 import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Money;
 import hirondelle.stocks.quotes.QuotesDAO;
+import hirondelle.stocks.quotes.QuoteListener;
 import hirondelle.stocks.util.DataAccessException;
 import hirondelle.stocks.quotes.Quote;
 import hirondelle.stocks.quotes.Stock;
@@ -117,8 +119,16 @@ public final class Portfolio  {
   * <tt>Portfolio</tt>.
   */
   public List<Quote> getQuotes() throws DataAccessException {
+    return getQuotes(QuoteListener.NONE);
+  }
+
+  /**
+  * As in {@link #getQuotes()}, but also inform <tt>aListener</tt> of each 
+  * {@link Quote} as soon as it arrives.
+  */
+  public List<Quote> getQuotes(QuoteListener aListener) throws DataAccessException {
     QuotesDAO quotesDAO = new QuotesDAO(QuotesDAO.UseMonitor.TRUE, fStocks);
-    return quotesDAO.getQuotes();
+    return quotesDAO.getQuotes(aListener);
   }
 
   /**
@@ -133,16 +143,16 @@ public final class Portfolio  {
   * corresponds to a <tt>Stock</tt> known to this <tt>Portfolio</tt>.
   * @return a value greater than or equal to <tt>0.00</tt>.
   */
-  public BigDecimal getBookValue(Collection<Quote> aQuotes){
-    BigDecimal result = new BigDecimal("0.00");
+  public Money getBookValue(Collection<Quote> aQuotes){
+    Money result = Money.ZERO;
     for (Quote quote: aQuotes) {
       Stock stock = quote.getStock();
       if ( ! fStocks.contains(stock) ) {
         throw new IllegalArgumentException("Unknown stock: " + stock);
       }
-      result = result.add( stock.getBookValue() );
+      result = result.plus( stock.getBookValue() );
     }
-    return result.setScale(Consts.MONEY_DECIMAL_PLACES, Consts.MONEY_ROUNDING_STYLE);
+    return result;
   }
   
   /**
@@ -155,16 +165,16 @@ public final class Portfolio  {
   * {@link hirondelle.stocks.table.QuoteFilter}.
   * @return a value greater than or equal to <tt>0.00</tt>.
   */
-  public BigDecimal getCurrentValue(Collection<Quote> aQuotes){
-    BigDecimal result = new BigDecimal("0.00");
+  public Money getCurrentValue(Collection<Quote> aQuotes){
+    Money result = Money.ZERO;
     for(Quote quote : aQuotes) {
       Stock stock = quote.getStock();
       if ( ! fStocks.contains(stock) ) {
         throw new IllegalArgumentException("Unknown stock: " + stock);
       }
-      result = result.add(quote.getCurrentValue());
+      result = result.plus(quote.getCurrentValue());
     }
-    return result.setScale(Consts.MONEY_DECIMAL_PLACES, Consts.MONEY_ROUNDING_STYLE);
+    return result;
   }
   
   /**
@@ -174,8 +184,8 @@ public final class Portfolio  {
   * {@link hirondelle.stocks.table.QuoteFilter}.
   * @return value is positive for a profit, and negative for a loss.
   */
-  public BigDecimal getProfit(Collection<Quote> aQuotes){
-    return getCurrentValue(aQuotes).subtract( getBookValue(aQuotes) );
+  public Money getProfit(Collection<Quote> aQuotes){
+    return getCurrentValue(aQuotes).minus( getBookValue(aQuotes) );
   }
 
   /**
@@ -187,10 +197,10 @@ public final class Portfolio  {
   */
   public BigDecimal getPercentageProfit(Collection<Quote> aQuotes){
     BigDecimal result = Consts.ZERO_MONEY;
-    BigDecimal bookValue = getBookValue(aQuotes);
-    if (bookValue.compareTo(Consts.ZERO_MONEY) != 0){
-      BigDecimal profit = getProfit(aQuotes);
-      result = profit.divide(bookValue, Consts.MONEY_ROUNDING_STYLE);
+    Money bookValue = getBookValue(aQuotes);
+    if ( ! bookValue.isZero() ){
+      BigDecimal profit = getProfit(aQuotes).toBigDecimal();
+      result = profit.divide(bookValue.toBigDecimal(), Consts.MONEY_ROUNDING_STYLE);
     }
     return result;
   }
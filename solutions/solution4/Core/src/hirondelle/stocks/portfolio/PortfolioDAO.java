@@ -3,29 +3,38 @@ package hirondelle.stocks.portfolio;
 import hirondelle.stocks.quotes.Exchange;
 import hirondelle.stocks.quotes.Stock;
 import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.DataAccessException;
 import hirondelle.stocks.util.Util;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.StringReader;
 import java.math.BigDecimal;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.NoSuchElementException;
+import java.util.List;
 import java.util.Set;
-import java.util.StringTokenizer;
+import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.BackingStoreException;
-import java.util.prefs.InvalidPreferencesFormatException;
 import java.util.prefs.Preferences;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
 * Add, change, delete, and fetch {@link Portfolio} objects 
@@ -35,10 +44,20 @@ public final class PortfolioDAO {
   
   /*
   * Implementation Note:
-  * This implementation uses the Preferences mechanism for storage. All preferences 
-  * are attached to the system, not the user. This allows for easy data transfer, while 
-  * allowing for rapid selection of a portfolio from a simple list of names, as opposed 
-  * to using a JFileChooser.
+  * The stocks of each portfolio are kept by a PortfolioStore, in files, shared by 
+  * all instances of this class. Only the name of the default portfolio is kept 
+  * using the Preferences mechanism. Saving an existing portfolio records only
+  * its edits since it was last read or saved, in the journal of the store.
+  *
+  * Earlier versions kept each portfolio as a single Preferences value, which is 
+  * limited to Preferences.MAX_VALUE_LENGTH characters, and is rewritten in full 
+  * by each save. Any portfolios still found in Preferences are moved to the store 
+  * when it is first opened. Export and import still use the XML format of 
+  * Preferences, so that older exported files may still be imported.
+  *
+  * The methods which change the datastore are usually called by PortfolioWriter, 
+  * on its own thread. The methods which read it first wait for any such changes 
+  * given earlier.
   */
   
   /**
@@ -49,14 +68,13 @@ public final class PortfolioDAO {
   *
   * @param aPortfolio has a name different from any known <tt>Portfolio</tt>.
   */
-  public void saveAs(Portfolio aPortfolio){
+  public void saveAs(Portfolio aPortfolio) throws DataAccessException {
     if( isStored(aPortfolio.getName()) ){
       String message = "Cannot save; name already exists: " + aPortfolio.getName();
       IllegalArgumentException ex = new IllegalArgumentException(message);
       throw ex;
     }
-    getPortfoliosRootPref().node( aPortfolio.getName() );
-    save(aPortfolio);
+    write(aPortfolio);
   }
   
   /**
@@ -66,9 +84,14 @@ public final class PortfolioDAO {
   *
   * @param aPortfolio already exists in storage.
   */
-  public void save(Portfolio aPortfolio){
-    Preferences portfolioPref = getExistingPortfolioPref(aPortfolio.getName());
-    portfolioPref.put(STOCKS_KEY, aPortfolio.getStocks().toString() );
+  public void save(Portfolio aPortfolio) throws DataAccessException {
+    checkStored(aPortfolio.getName());
+    try {
+      getStore().save(aPortfolio.getName(), aPortfolio.getStocks());
+    }
+    catch (IOException ex) {
+      throw new DataAccessException("Cannot save portfolio: " + aPortfolio.getName(), ex);
+    }
   }
 
   /**
@@ -86,6 +109,7 @@ public final class PortfolioDAO {
   * then return an untitled <tt>Portfolio</tt>.
   */
   public Portfolio fetchDefaultPortfolio(){
+    PortfolioWriter.awaitWrites();
     Preferences rootPref = getPortfoliosRootPref();
     String defaultPortfolioName = rootPref.get(
       DEFAULT_PORTFOLIO_NAME_KEY, Consts.EMPTY_STRING
@@ -116,14 +140,17 @@ public final class PortfolioDAO {
     * return type (say Set), then the the return type of this method can 
     * be changed without producing ripple effects in existing callers.
     */
-    String[] names = null;
-    try {
-      names = getPortfoliosRootPref().childrenNames();
-    }
-    catch (BackingStoreException ex) {
-      fLogger.log(Level.SEVERE, "Cannot access backing store.", ex);
-    }
-    return new TreeSet<String>( Arrays.asList(names) );
+    PortfolioWriter.awaitWrites();
+    return getStore().getNames();
+  }
+  
+  /**
+  * Return a {@link PortfolioSummary} for each stored <tt>Portfolio</tt>, in 
+  * alphabetical order of name. No stocks are read.
+  */
+  public List<PortfolioSummary> fetchCatalog(){
+    PortfolioWriter.awaitWrites();
+    return getStore().getSummaries();
   }
   
   /**
@@ -134,8 +161,8 @@ public final class PortfolioDAO {
   * or <tt>File->SaveAs</tt> operation as a candidate <tt>Portfolio</tt> name.
   */
   public boolean isValidCandidateName(String aNewName){
-    Collection<String> allNames = fetchAllPortfolioNames();
-    return ( Util.textHasContent(aNewName) && !allNames.contains(aNewName) );
+    PortfolioWriter.awaitWrites();
+    return ( Util.textHasContent(aNewName) && !isStored(aNewName) );
   }
   
   /**
@@ -144,8 +171,39 @@ public final class PortfolioDAO {
   * @param aPortfolioName must be known to the datastore.
   */
   public Portfolio fetch(String aPortfolioName){
-    Preferences portfolioPref = getExistingPortfolioPref(aPortfolioName);
-    return new Portfolio(aPortfolioName, getStocks(portfolioPref) );
+    PortfolioWriter.awaitWrites();
+    checkStored(aPortfolioName);
+    SortedSet<Stock> stocks = null;
+    try {
+      stocks = getStore().read(aPortfolioName);
+    }
+    catch (IOException ex) {
+      fLogger.log(Level.SEVERE, "Cannot read portfolio: " + aPortfolioName, ex);
+      throw new IllegalStateException("Cannot read portfolio: " + aPortfolioName, ex);
+    }
+    return new Portfolio(aPortfolioName, stocks);
+  }
+  
+  /**
+  * Return a <tt>Portfolio</tt> holding only the first <tt>aMaxStocks</tt> 
+  * stocks, in their natural order, of the one whose unique id is 
+  * <tt>aPortfolioName</tt>. The time taken does not depend on its size. 
+  * Used by {@link PortfolioLoader}.
+  *
+  * @param aPortfolioName must be known to the datastore.
+  */
+  public Portfolio fetchFirst(String aPortfolioName, int aMaxStocks){
+    PortfolioWriter.awaitWrites();
+    checkStored(aPortfolioName);
+    SortedSet<Stock> stocks = null;
+    try {
+      stocks = getStore().readFirst(aPortfolioName, aMaxStocks);
+    }
+    catch (IOException ex) {
+      fLogger.log(Level.SEVERE, "Cannot read portfolio: " + aPortfolioName, ex);
+      throw new IllegalStateException("Cannot read portfolio: " + aPortfolioName, ex);
+    }
+    return new Portfolio(aPortfolioName, stocks);
   }
   
   /**
@@ -156,18 +214,21 @@ public final class PortfolioDAO {
   * and an untitled <tt>Portfolio</tt> will be returned from 
   * {@link #fetchDefaultPortfolio}.
   */
-  public void delete( Portfolio aPortfolio ){
-    String defaultPortfolioName = fetchDefaultPortfolio().getName();
+  public void delete( Portfolio aPortfolio ) throws DataAccessException {
+    Preferences rootPref = getPortfoliosRootPref();
+    String defaultPortfolioName = rootPref.get(
+      DEFAULT_PORTFOLIO_NAME_KEY, Consts.EMPTY_STRING
+    );
     if ( aPortfolio.getName().equals(defaultPortfolioName) ) {
-      getPortfoliosRootPref().remove(DEFAULT_PORTFOLIO_NAME_KEY);
+      rootPref.remove(DEFAULT_PORTFOLIO_NAME_KEY);
     }
     
-    Preferences portfolioPref = getExistingPortfolioPref(aPortfolio.getName());
+    checkStored(aPortfolio.getName());
     try {
-      portfolioPref.removeNode();
+      getStore().delete(aPortfolio.getName());
     }
-    catch (BackingStoreException ex) {
-      fLogger.log(Level.SEVERE, "Cannot access backing store", ex);
+    catch (IOException ex) {
+      throw new DataAccessException("Cannot delete portfolio: " + aPortfolio.getName(), ex);
     }
   }
 
@@ -180,9 +241,13 @@ public final class PortfolioDAO {
   */
   public void deleteAll(){
     try {
+      getStore().deleteAll();
       //removes both the root node and all its descendants
       getPortfoliosRootPref().removeNode();
     }
+    catch ( IOException ex ) {
+      fLogger.log(Level.SEVERE, "Cannot access portfolio store.", ex);
+    }
     catch ( BackingStoreException ex ) {
       fLogger.log(Level.SEVERE, "Cannot access backing store.", ex);
     }
@@ -190,59 +255,103 @@ public final class PortfolioDAO {
 
   /**
   * Place the content of all <tt>Portfolio</tt>s in a single text file, 
-  * in the format defined by {@link Preferences#exportSubtree}.
+  * in the format defined by {@link Preferences#exportSubtree}, as if each 
+  * <tt>Portfolio</tt> were still stored as a <tt>Preferences</tt> node.
   *
   * @param aFile may or may not currently exist; if it does not yet exist, it is created; 
   * if it does exist, it must have write access, and will be overwritten by this method.
   */
-  public void exportXML(File aFile) {
+  public void exportXML(File aFile) throws DataAccessException {
     try {
-      OutputStream output = null;
-      try { 
-        output = new BufferedOutputStream( new FileOutputStream( aFile ) );
-        getPortfoliosRootPref().exportSubtree(output);
+      Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+      Element preferences = document.createElement("preferences");
+      preferences.setAttribute("EXTERNAL_XML_VERSION", "1.0");
+      document.appendChild(preferences);
+      Element node = document.createElement("root");
+      node.setAttribute("type", "user");
+      preferences.appendChild(node);
+      node.appendChild(document.createElement(MAP));
+      Preferences rootPref = getPortfoliosRootPref();
+      for(String name : rootPref.absolutePath().substring(1).split("/")){
+        Element child = document.createElement(NODE);
+        child.setAttribute(NAME, name);
+        node.appendChild(child);
+        node = child;
+        node.appendChild(document.createElement(MAP));
       }
-      finally {
-        output.close();
+      String defaultName = rootPref.get(DEFAULT_PORTFOLIO_NAME_KEY, null);
+      if ( defaultName != null ) {
+        addEntry(node, DEFAULT_PORTFOLIO_NAME_KEY, defaultName);
       }
+      PortfolioStore store = getStore();
+      for(String portfolioName : store.getNames()){
+        Element portfolio = document.createElement(NODE);
+        portfolio.setAttribute(NAME, portfolioName);
+        node.appendChild(portfolio);
+        portfolio.appendChild(document.createElement(MAP));
+        addEntry(portfolio, STOCKS_KEY, StockCodec.format(store.read(portfolioName)));
+      }
+      Transformer transformer = TransformerFactory.newInstance().newTransformer();
+      transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, PREFERENCES_DTD);
+      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+      transformer.transform(new DOMSource(document), new StreamResult(aFile));
     }
-    catch (IOException ex) {
-      fLogger.severe("Cannot save to file " + aFile);
+    catch (IOException | TransformerException ex) {
+      throw new DataAccessException("Cannot save to file " + aFile, ex);
     }
-    catch(BackingStoreException ex){
-      fLogger.log(Level.SEVERE, "Cannot access backing store.", ex);
+    catch (ParserConfigurationException ex){
+      throw new DataAccessException("Cannot create XML document.", ex);
     }
   }
   
   /**
   * Replace all current <tt>Portfolio</tt>s with the contents of a 
-  * single XML file produced by {@link #exportXML}.
+  * single XML file produced by {@link #exportXML}. A <tt>Portfolio</tt> 
+  * having the same name as one in the file is replaced; others are retained.
   *
   * @param aFile must already exist, must have read access, and must contain an 
-  * unmodified result of {@link #exportXML}.
+  * unmodified result of {@link #exportXML}, or of an earlier version of this class.
   */
-  public void importXML(File aFile) {
+  public void importXML(File aFile) throws DataAccessException {
     try {
-      InputStream input = null;
-      try {
-        input = new BufferedInputStream( new FileInputStream( aFile ) );
-        getPortfoliosRootPref().importPreferences(input);
-      }
-      finally {
-       input.close();        
+      DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+      builder.setEntityResolver(new EntityResolver() {
+        @Override public InputSource resolveEntity(String aPublicId, String aSystemId) {
+          //the DTD is not needed, and is not fetched from the web
+          return new InputSource(new StringReader(Consts.EMPTY_STRING));
+        }
+      });
+      Document document = builder.parse(aFile);
+      PortfolioStore store = getStore();
+      NodeList entries = document.getElementsByTagName(ENTRY);
+      for(int idx = 0; idx < entries.getLength(); ++idx){
+        Element entry = (Element)entries.item(idx);
+        //entry, in map, in node
+        Element node = (Element)entry.getParentNode().getParentNode();
+        String key = entry.getAttribute(KEY);
+        if ( STOCKS_KEY.equals(key) ) {
+          store.write(node.getAttribute(NAME), StockCodec.parse(entry.getAttribute(VALUE)));
+        }
+        else if ( DEFAULT_PORTFOLIO_NAME_KEY.equals(key) ) {
+          getPortfoliosRootPref().put(DEFAULT_PORTFOLIO_NAME_KEY, entry.getAttribute(VALUE));
+        }
       }
     }
     catch (IOException ex) {
-      fLogger.severe("Cannot read file " + aFile);
+      throw new DataAccessException("Cannot read file " + aFile, ex);
     }
-    catch(InvalidPreferencesFormatException ex){
-      fLogger.log(Level.SEVERE, "Format of Preferences file is invalid.", ex);
+    catch (SAXException | IllegalArgumentException ex){
+      throw new DataAccessException("Format of Preferences file is invalid.", ex);
+    }
+    catch (ParserConfigurationException ex){
+      throw new DataAccessException("Cannot create XML parser.", ex);
     }
   }
   
   // PRIVATE //
 
-  // Example Preferences tree structure :
+  // Example Preferences tree structure, as used by earlier versions, and by 
+  // exportXML and importXML :
   //
   // /stocksmonitor/data (system node attached to this package)
   //   key="DefaultPortfolioName"
@@ -256,10 +365,13 @@ public final class PortfolioDAO {
   //     value=[IBM:Big Blue:NYSE Stock Exchanges:300:4.50, 
   //           SUNW:Sun Microsystems:Nasdaq Exchange:500:3.25]
   //     ...
-  // The value is a Set of formatted Stock objects.
+  // The value is a Set of formatted Stock objects, as read and written by StockCodec.
  
   private static final Logger fLogger = Util.getLogger(PortfolioDAO.class);  
 
+  /** Opened when first needed. */
+  private static PortfolioStore fStore;
+
   /**
   * The Preferences key used to look up 
   * a String containing a Set of formatted Stock objects.
@@ -267,6 +379,15 @@ public final class PortfolioDAO {
   private static final String STOCKS_KEY = "stocks"; 
   
   private static final String DEFAULT_PORTFOLIO_NAME_KEY = "DefaultPortfolioName";
+
+  /** Items of the XML format used by Preferences. */
+  private static final String PREFERENCES_DTD = "http://java.sun.com/dtd/preferences.dtd";
+  private static final String NODE = "node";
+  private static final String NAME = "name";
+  private static final String MAP = "map";
+  private static final String ENTRY = "entry";
+  private static final String KEY = "key";
+  private static final String VALUE = "value";
   
   /**
   * Return the Preferences node which contains all Portfolios. If the node,
@@ -277,88 +398,88 @@ public final class PortfolioDAO {
   }
   
   /**
-  * Return an existing Portfolio Preferences node. 
-  * @param aPortfolioName must already exist; if not, an IllegalArgumentException 
-  * is thrown.
+  * Return the store shared by all instances, opening it if necessary. 
+  * If it cannot be opened, then an IllegalStateException is thrown.
   */
-  private Preferences getExistingPortfolioPref( String aPortfolioName ){
-    if ( isStored(aPortfolioName) ) {
-      return getPortfoliosRootPref().node( aPortfolioName );
-    }
-    else {
-      throw new IllegalArgumentException("Unknown Portfolio Name:" + aPortfolioName);
+  private static synchronized PortfolioStore getStore(){
+    if ( fStore == null ) {
+      File dir = PortfolioStore.getDefaultDirectory();
+      try {
+        fStore = new PortfolioStore(dir);
+        moveFromPreferences(fStore);
+      }
+      catch (IOException | BackingStoreException ex) {
+        fLogger.log(Level.SEVERE, "Cannot open portfolio store in " + dir, ex);
+        throw new IllegalStateException("Cannot open portfolio store in " + dir, ex);
+      }
     }
+    return fStore;
   }
 
   /**
-  * Return true only if aPortfolioName corresponds to a stored Portfolio.
+  * Move any portfolios stored as Preferences nodes by earlier versions to 
+  * aStore. The nodes are removed only after all have been stored, so that, if 
+  * this is interrupted, it is simply repeated when next called.
   */
-  private boolean isStored(String aPortfolioName) {
-    boolean result = false;
-    try {
-      result = getPortfoliosRootPref().nodeExists(aPortfolioName);
+  private static void moveFromPreferences(PortfolioStore aStore) throws IOException, BackingStoreException {
+    Preferences rootPref = getPortfoliosRootPref();
+    String[] names = rootPref.childrenNames();
+    if ( names.length == 0 ) return;
+    List<String> moved = new ArrayList<>();
+    for(String name : names){
+      String rawStocks = rootPref.node(name).get(STOCKS_KEY, Consts.EMPTY_STRING);
+      try {
+        aStore.write(name, StockCodec.parse(rawStocks));
+        moved.add(name);
+      }
+      catch (IllegalArgumentException ex){
+        //the node is kept, so that nothing is lost
+        fLogger.log(Level.SEVERE, "Cannot read stocks of portfolio " + name + " from Preferences.", ex);
+      }
     }
-    catch ( BackingStoreException ex){
-      fLogger.severe(
-        "Cannot access backing store for Portfolio Name: " + aPortfolioName + 
-        " Exception: " + ex
-       );
+    for(String name : moved){
+      rootPref.node(name).removeNode();
     }
-    return result;
+    rootPref.flush();
+    fLogger.info("Moved " + moved.size() + " portfolios from Preferences to " + aStore.getDirectory());
   }
 
   /**
-  * Return the stored Stock objects attached to a particular Preference.
-  * If there are no stocks, return an empty Set.
+  * Throw an IllegalArgumentException if aPortfolioName does not correspond to 
+  * a stored Portfolio.
   */
-  private Set<Stock> getStocks( Preferences aPortfolioPref ){
-    Collection<Stock> result = new HashSet<Stock>();
-    String rawStocks = aPortfolioPref.get(STOCKS_KEY, Consts.EMPTY_STRING);
-    //fLogger.fine("Raw stocks: " + rawStocks);
-    String delimiters = "[],";
-    StringTokenizer parser = new StringTokenizer( rawStocks, delimiters );
-    while ( parser.hasMoreTokens() ) {
-      String rawStock = parser.nextToken().trim();
-      if ( rawStockHasContent(rawStock) ) {
-        Stock stock = getStock(rawStock);
-        result.add(stock);
-      }
+  private void checkStored( String aPortfolioName ){
+    if ( ! isStored(aPortfolioName) ) {
+      throw new IllegalArgumentException("Unknown Portfolio Name:" + aPortfolioName);
     }
-    return new TreeSet<Stock>(result);
-  }
-  
-  private boolean rawStockHasContent( String aRawStock ){
-    return 
-     aRawStock!=null && 
-     aRawStock.trim().length()>0 && 
-     !aRawStock.equalsIgnoreCase("null") ;
   }
-  
+
   /**
-  * Parse a raw String of the form  
-  * "PEP:Pepsi:NYSE Stock Exchanges:100:8.25"
-  * into a Stock object.
+  * Return true only if aPortfolioName corresponds to a stored Portfolio.
   */
-  private Stock getStock(String aRawStock){
-    Stock result = null;
-    String delimiter = ":";
-    StringTokenizer parser = new StringTokenizer(aRawStock, delimiter);
+  private boolean isStored(String aPortfolioName) {
+    return getStore().contains(aPortfolioName);
+  }
+
+  private void write(Portfolio aPortfolio) throws DataAccessException {
     try {
-      String ticker = parser.nextToken();
-      String name = parser.nextToken();
-      Exchange exchange = Exchange.valueFrom( parser.nextToken() );
-      Integer quantity = Integer.valueOf( parser.nextToken() );
-      BigDecimal avgPrice = new BigDecimal( parser.nextToken() );
-      result = new Stock(name, ticker, exchange, quantity, avgPrice);
+      getStore().write(aPortfolio.getName(), aPortfolio.getStocks());
     }
-    catch ( NoSuchElementException ex){
-      fLogger.severe("Cannot parse into Stock object: \"" + aRawStock + "\"");
+    catch (IOException ex) {
+      throw new DataAccessException("Cannot save portfolio: " + aPortfolio.getName(), ex);
     }
-    return result;
   }
-  
+
+  /** Add an entry to the map which is the first child of aNode. */
+  private static void addEntry(Element aNode, String aKey, String aValue){
+    Element entry = aNode.getOwnerDocument().createElement(ENTRY);
+    entry.setAttribute(KEY, aKey);
+    entry.setAttribute(VALUE, aValue);
+    aNode.getFirstChild().appendChild(entry);
+  }
+
   /** Exercise some toy data.  */
-  private static void main(String... args) {
+  private static void main(String... args) throws DataAccessException {
     Exchange nYSEStockExchanges = Exchange.valueFrom("NYSE Stock Exchanges");
     Exchange nasdaqStockExchange = Exchange.valueFrom("Nasdaq Stock Exchange"); 
     Exchange torontoStockExchange = Exchange.valueFrom("Toronto Stock Exchange");
@@ -396,5 +517,12 @@ public final class PortfolioDAO {
     dao.saveAs(new Portfolio("Le Havre", stocks));
     
     dao.saveAsDefault(alaska);
+    
+    File file = new File(System.getProperty("java.io.tmpdir"), "portfolios.xml");
+    dao.exportXML(file);
+    dao.delete(alaska);
+    dao.importXML(file);
+    System.out.println("After export, delete, and import: " + dao.fetchAllPortfolioNames());
+    System.out.println("Default: " + dao.fetchDefaultPortfolio().getStocks());
   }
 }
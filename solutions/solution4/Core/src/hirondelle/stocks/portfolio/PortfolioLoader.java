@@ -0,0 +1,141 @@
+package hirondelle.stocks.portfolio;
+
+import java.util.concurrent.*;
+import java.util.logging.*;
+import javax.swing.SwingUtilities;
+
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Util;
+
+/**
+* Makes a stored {@link Portfolio} the {@link CurrentPortfolio} in two steps, so
+* that even a large <tt>Portfolio</tt> is shown at once.
+*
+* <P>First, only its first {@link #FIRST_STOCKS} stocks are read, which takes a
+* few milliseconds whatever its size. The <tt>CurrentPortfolio</tt> is set to a
+* <tt>Portfolio</tt> holding them, marked as loading, and its observers are
+* notified. Then all of its stocks are read on a background thread. When done,
+* they replace the first stocks, and the observers are notified again, unless
+* the <tt>CurrentPortfolio</tt> has been changed in the meantime.
+*
+* <P>While loading, the <tt>CurrentPortfolio</tt> holds only some of its stocks,
+* and must not be edited or saved. Actions which do so call {@link #finish}
+* first. If the stocks cannot be read, the <tt>CurrentPortfolio</tt> reverts to
+* an untitled <tt>Portfolio</tt>.
+*
+* <P>Used only on the Event Dispatch Thread.
+*/
+public final class PortfolioLoader {
+
+  /** Number of stocks read before the <tt>Portfolio</tt> is first shown. */
+  public static final int FIRST_STOCKS = 200;
+
+  /**
+  * Constructor.
+  * @param aCurrentPortfolio is set by {@link #open}.
+  */
+  public PortfolioLoader(CurrentPortfolio aCurrentPortfolio){
+    Args.checkForNull(aCurrentPortfolio);
+    fCurrentPortfolio = aCurrentPortfolio;
+  }
+
+  /**
+  * Make the <tt>Portfolio</tt> whose unique id is <tt>aPortfolioName</tt> the
+  * <tt>CurrentPortfolio</tt>, which does not need a save.
+  *
+  * @param aPortfolioName must be known to the datastore.
+  */
+  public void open(String aPortfolioName){
+    Portfolio first = new PortfolioDAO().fetchFirst(aPortfolioName, FIRST_STOCKS);
+    fCurrentPortfolio.setPortfolio(first);
+    fCurrentPortfolio.setNeedsSave(false);
+    if ( first.getStocks().size() == FIRST_STOCKS ) {
+      //there may be more
+      fCurrentPortfolio.setLoading(true);
+      fLoading = new Loading(first);
+      fExecutor.execute(fLoading);
+    }
+    fCurrentPortfolio.notifyObservers();
+  }
+
+  /**
+  * If the stocks of the <tt>CurrentPortfolio</tt> are still being loaded, then
+  * wait for them, and show them.
+  */
+  public void finish(){
+    if ( fLoading != null ) {
+      fLogger.fine("Waiting for portfolio to load.");
+      complete(fLoading);
+    }
+  }
+
+  // PRIVATE
+  private final CurrentPortfolio fCurrentPortfolio;
+
+  /** The load in progress, if any. */
+  private Loading fLoading;
+
+  private static final Logger fLogger = Util.getLogger(PortfolioLoader.class);
+
+  /** Uses a daemon thread, so that it never prevents the application from exiting. */
+  private static final ExecutorService fExecutor = Executors.newSingleThreadExecutor(
+    new ThreadFactory() {
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "PortfolioLoader");
+        result.setDaemon(true);
+        return result;
+      }
+    }
+  );
+
+  /** Reads all the stocks of a Portfolio, and reports when done. */
+  private final class Loading extends FutureTask<Portfolio> {
+    Loading(final Portfolio aFirst){
+      super(new Callable<Portfolio>() {
+        private final String fName = aFirst.getName();
+        @Override public Portfolio call() {
+          return new PortfolioDAO().fetch(fName);
+        }
+      });
+      fFirst = aFirst;
+    }
+    @Override protected void done() {
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override public void run() {
+          complete(Loading.this);
+        }
+      });
+    }
+    /** Shown while loading, and given all the stocks when done. */
+    final Portfolio fFirst;
+  }
+
+  /**
+  * Show the result of aLoading, if it is still the load in progress, and the
+  * CurrentPortfolio has not been changed since it started.
+  */
+  private void complete(Loading aLoading){
+    if ( aLoading != fLoading ) return;
+    fLoading = null;
+    if ( ! fCurrentPortfolio.isLoading() || fCurrentPortfolio.getPortfolio() != aLoading.fFirst ) {
+      fLogger.fine("Portfolio changed while loading; result ignored.");
+      return;
+    }
+    Portfolio all = null;
+    try {
+      all = aLoading.get();
+    }
+    catch (InterruptedException | ExecutionException ex) {
+      fLogger.log(Level.SEVERE, "Cannot read portfolio: " + aLoading.fFirst.getName(), ex);
+    }
+    if ( all == null ) {
+      fCurrentPortfolio.clear();
+    }
+    else {
+      aLoading.fFirst.setStocks(all.getStocks());
+      fCurrentPortfolio.setLoading(false);
+      fLogger.fine("Loaded " + all.getStocks().size() + " stocks of " + all.getName());
+    }
+    fCurrentPortfolio.notifyObservers();
+  }
+}
@@ -0,0 +1,887 @@
+package hirondelle.stocks.portfolio;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.*;
+import java.util.zip.CRC32;
+
+import hirondelle.stocks.quotes.Exchange;
+import hirondelle.stocks.quotes.Stock;
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Util;
+
+/**
+* File-based storage of the {@link Stock}s of each named portfolio, used by
+* {@link PortfolioDAO}.
+*
+* <P>Three files are held in a directory :
+*<ul>
+* <li><tt>portfolios.pages</tt>, divided into pages of a fixed size. The stocks of
+* a portfolio are encoded as binary records, one after the other, and the
+* result is written across as many pages as needed, which need not be
+* adjacent. Pages are reused once no longer referenced.
+* <li><tt>portfolios.index</tt>, which lists, for each portfolio name, its pages,
+* the length of its records, its number of stocks, the time it was last
+* written, and the version of its pages. It is small, and is read into a hash
+* table when the store is opened, so that a portfolio is found by name in
+* constant time, and listing the portfolios reads no pages.
+* <li><tt>portfolios.journal</tt>, to which {@link #save} appends the stocks
+* added, changed, and deleted since the pages of a portfolio were written.
+*</ul>
+*
+* <P>A portfolio is saved by writing its records to free pages, forcing them to
+* the storage device, and only then replacing the index, by renaming a new file
+* over the old one. The old pages are freed only after that. If the application
+* dies while saving, then the previous version of the portfolio is intact, and
+* the pages written are simply free when the store is next opened.
+*
+* <P>Saving a portfolio rewrites only its own pages, not those of any other
+* portfolio, and there is no limit on the number of its stocks, other than
+* memory.
+*
+* <P>Rewriting the pages of a large portfolio for each small edit is wasteful,
+* however. If the stocks last read or written for a portfolio are still held in
+* memory, then {@link #save} compares them with the new stocks, and appends
+* only the differences to the journal, as a single record, which is forced to
+* the storage device before returning. The time taken depends on the number
+* of edits, not on the size of the portfolio. Each record holds its length, a
+* checksum, the portfolio name, and the version of the pages it applies to. A
+* portfolio is read from its pages, followed by its journal records.
+*
+* <P>When the journal grows beyond a megabyte, each portfolio
+* having records in it is written to new pages, under a new version, and the
+* journal is emptied. A record whose version is no longer that of the pages of
+* its portfolio is ignored, so a checkpoint interrupted after writing only some
+* portfolios loses nothing. When the store is opened, the journal is read up to
+* the first incomplete record, or the first whose checksum is wrong, as left by
+* a save interrupted by the death of the application, and the remainder is
+* discarded.
+*
+* <P>This class is thread-safe.
+*/
+final class PortfolioStore {
+
+  /**
+  * Return the directory used when none is specified : the value of the
+  * <tt>portfolio.dir</tt> system property, if set, or else
+  * <tt>.stocksmonitor/portfolios</tt> in the user's home directory.
+  */
+  static File getDefaultDirectory(){
+    String dir = System.getProperty("portfolio.dir");
+    if ( Util.textHasContent(dir) ) return new File(dir);
+    return new File(new File(System.getProperty("user.home"), ".stocksmonitor"), "portfolios");
+  }
+
+  /**
+  * Constructor. Creates <tt>aDirectory</tt> if it does not exist.
+  */
+  PortfolioStore(File aDirectory) throws IOException {
+    Args.checkForNull(aDirectory);
+    if ( ! aDirectory.isDirectory() && ! aDirectory.mkdirs() ) {
+      throw new IOException("Cannot create directory for portfolios: " + aDirectory);
+    }
+    fDirectory = aDirectory;
+    fIndexFile = new File(aDirectory, INDEX_FILE);
+    if ( fIndexFile.exists() ) {
+      readIndex();
+    }
+    fPages = new RandomAccessFile(new File(aDirectory, PAGES_FILE), "rw").getChannel();
+    fJournal = new RandomAccessFile(new File(aDirectory, JOURNAL_FILE), "rw").getChannel();
+    readJournal();
+  }
+
+  /** Return <tt>true</tt> only if a portfolio named <tt>aName</tt> is stored. */
+  synchronized boolean contains(String aName){
+    return fEntries.containsKey(aName);
+  }
+
+  /** Return the names of all stored portfolios, in alphabetical order. */
+  synchronized SortedSet<String> getNames(){
+    return new TreeSet<>(fEntries.keySet());
+  }
+
+  /**
+  * Return a summary of each stored portfolio, in alphabetical order of name.
+  * Taken from the index, and reads no pages.
+  */
+  synchronized List<PortfolioSummary> getSummaries(){
+    List<PortfolioSummary> result = new ArrayList<>(fEntries.size());
+    for(String name : getNames()){
+      Entry entry = fEntries.get(name);
+      result.add(new PortfolioSummary(name, entry.fNumStocks, entry.fModified));
+    }
+    return result;
+  }
+
+  /**
+  * Return at most <tt>aMaxStocks</tt> of the first stocks of the portfolio named
+  * <tt>aName</tt>, in the order in which they were written, or <tt>null</tt> if
+  * it is not stored. For a <tt>Portfolio</tt>, that is their natural order.
+  *
+  * <P>Only the pages holding those stocks are read, so that the time taken
+  * does not depend on the size of the portfolio.
+  */
+  synchronized SortedSet<Stock> readFirst(String aName, int aMaxStocks) throws IOException {
+    Entry entry = fEntries.get(aName);
+    if ( entry == null ) return null;
+    SortedSet<Stock> result = new TreeSet<>();
+    if ( fKnown.containsKey(aName) || fChanges.containsKey(aName) ) {
+      //the pages may not be current; the first stocks are taken from all of them
+      for(Stock stock : getKnown(aName, entry)){
+        if ( result.size() == aMaxStocks ) break;
+        result.add(stock);
+      }
+    }
+    else {
+      DataInputStream input = new DataInputStream(new PageInputStream(entry));
+      int numStocks = Math.min(aMaxStocks, entry.fNumRecords);
+      for(int count = 0; count < numStocks; ++count){
+        result.add(readStock(input));
+      }
+    }
+    return result;
+  }
+
+  /**
+  * Return the stocks of the portfolio named <tt>aName</tt>, in their natural
+  * order, or <tt>null</tt> if it is not stored.
+  */
+  synchronized SortedSet<Stock> read(String aName) throws IOException {
+    Entry entry = fEntries.get(aName);
+    if ( entry == null ) return null;
+    return new TreeSet<>(getKnown(aName, entry));
+  }
+
+  /**
+  * Store <tt>aStocks</tt> as the portfolio named <tt>aName</tt>, replacing it if
+  * it is already stored. If the stocks last read or written for it are still
+  * known, then only the differences are written, to the journal; otherwise, as
+  * for a new portfolio, this is the same as {@link #write}.
+  */
+  synchronized void save(String aName, Set<Stock> aStocks) throws IOException {
+    Args.checkForContent(aName);
+    Args.checkForNull(aStocks);
+    Entry entry = fEntries.get(aName);
+    SortedSet<Stock> known = fKnown.get(aName);
+    if ( entry == null || known == null ) {
+      write(aName, aStocks);
+      return;
+    }
+    List<Change> changes = getChanges(known, aStocks);
+    if ( changes.isEmpty() ) return;
+    long now = System.currentTimeMillis();
+    appendToJournal(aName, entry.fVersion, now, changes);
+    apply(changes, known);
+    List<Change> journaled = fChanges.get(aName);
+    if ( journaled == null ) {
+      journaled = new ArrayList<>();
+      fChanges.put(aName, journaled);
+    }
+    journaled.addAll(changes);
+    fEntries.put(aName, entry.withStocks(known.size(), now));
+    if ( fJournalEnd > CHECKPOINT_SIZE ) {
+      try {
+        checkpoint();
+      }
+      catch (IOException ex){
+        //nothing is lost; the journal is simply kept, and the checkpoint retried
+        fLogger.log(Level.WARNING, "Cannot write checkpoint of portfolio journal.", ex);
+      }
+    }
+  }
+
+  /**
+  * Store <tt>aStocks</tt> as the portfolio named <tt>aName</tt>, replacing it if
+  * it is already stored. All of its records are written to new pages.
+  */
+  synchronized void write(String aName, Collection<Stock> aStocks) throws IOException {
+    Args.checkForContent(aName);
+    Args.checkForNull(aStocks);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(aStocks.size() * TYPICAL_RECORD_SIZE);
+    DataOutputStream output = new DataOutputStream(bytes);
+    for(Stock stock : aStocks){
+      writeStock(stock, output);
+    }
+    output.flush();
+    byte[] records = bytes.toByteArray();
+    int[] pages = allocate((records.length + PAGE_SIZE - 1) / PAGE_SIZE);
+    try {
+      for(int idx = 0; idx < pages.length; ++idx){
+        int offset = idx * PAGE_SIZE;
+        ByteBuffer page = ByteBuffer.wrap(records, offset, Math.min(PAGE_SIZE, records.length - offset));
+        writeFully(fPages, page, (long)pages[idx] * PAGE_SIZE);
+      }
+      fPages.force(false);
+      replace(aName, new Entry(pages, records.length, aStocks.size(), fNextVersion++, System.currentTimeMillis()));
+    }
+    catch (IOException ex){
+      free(pages);
+      throw ex;
+    }
+    fKnown.put(aName, new TreeSet<>(aStocks));
+    forgetChanges(aName);
+  }
+
+  /** Remove the portfolio named <tt>aName</tt>. Return <tt>false</tt> if it is not stored. */
+  synchronized boolean delete(String aName) throws IOException {
+    if ( ! fEntries.containsKey(aName) ) return false;
+    replace(aName, null);
+    fKnown.remove(aName);
+    forgetChanges(aName);
+    return true;
+  }
+
+  /** Remove all portfolios. */
+  synchronized void deleteAll() throws IOException {
+    List<Entry> old = new ArrayList<>(fEntries.values());
+    fEntries.clear();
+    writeIndex();
+    for(Entry entry : old){
+      free(entry.fPages);
+    }
+    truncate();
+    fKnown.clear();
+    fChanges.clear();
+    emptyJournal();
+  }
+
+  /**
+  * Release the files. No other method may be called afterwards. The journal is
+  * left as it is, and is read when the store is next opened.
+  */
+  synchronized void close() throws IOException {
+    fPages.close();
+    fJournal.close();
+  }
+
+  /** Return the directory holding the files. */
+  File getDirectory(){
+    return fDirectory;
+  }
+
+  // PRIVATE
+
+  private static final String PAGES_FILE = "portfolios.pages";
+  private static final String INDEX_FILE = "portfolios.index";
+  private static final String JOURNAL_FILE = "portfolios.journal";
+  private static final int PAGE_SIZE = 4096;
+  private static final int TYPICAL_RECORD_SIZE = 48;
+  private static final int INDEX_MAGIC = 0x504F5254; //"PORT"
+  private static final int INDEX_VERSION = 2;
+
+  /** Size of the journal, in bytes, beyond which a checkpoint is made. */
+  private static final long CHECKPOINT_SIZE = 1024 * 1024;
+
+  /** Number of portfolios whose stocks are kept in memory after being read or written. */
+  private static final int MAX_KNOWN = 4;
+
+  /** Length of the length and checksum preceding each journal record. */
+  private static final int JOURNAL_HEADER_SIZE = 8;
+
+  private final File fDirectory;
+  private final File fIndexFile;
+  private final FileChannel fPages;
+  private final FileChannel fJournal;
+
+  /** The end of the last complete journal record. Anything after it is ignored. */
+  private long fJournalEnd;
+
+  /** The stored portfolios, by name. */
+  private final Map<String, Entry> fEntries = new HashMap<>();
+
+  /** The pages referenced by some entry. */
+  private final BitSet fUsedPages = new BitSet();
+
+  /** The version given to the next pages written. */
+  private long fNextVersion = 1;
+
+  /** The journaled changes to the pages of each portfolio, in order. */
+  private final Map<String, List<Change>> fChanges = new HashMap<>();
+
+  /** The current stocks of the portfolios most recently read or written. */
+  private final Map<String, SortedSet<Stock>> fKnown = new LinkedHashMap<String, SortedSet<Stock>>(16, 0.75f, true){
+    @Override protected boolean removeEldestEntry(Map.Entry<String, SortedSet<Stock>> aEldest){
+      return size() > MAX_KNOWN;
+    }
+  };
+
+  private static final Logger fLogger = Util.getLogger(PortfolioStore.class);
+
+  /**
+  * The location and size of the records of one portfolio, and its number of
+  * stocks after any journaled changes. Immutable.
+  */
+  private static final class Entry {
+    Entry(int[] aPages, long aLength, int aNumRecords, long aVersion, long aModified){
+      this(aPages, aLength, aNumRecords, aVersion, aNumRecords, aModified);
+    }
+    Entry(int[] aPages, long aLength, int aNumRecords, long aVersion, int aNumStocks, long aModified){
+      fPages = aPages;
+      fLength = aLength;
+      fNumRecords = aNumRecords;
+      fVersion = aVersion;
+      fNumStocks = aNumStocks;
+      fModified = aModified;
+    }
+    Entry withStocks(int aNumStocks, long aModified){
+      return new Entry(fPages, fLength, fNumRecords, fVersion, aNumStocks, aModified);
+    }
+    final int[] fPages;
+    final long fLength;
+    final int fNumRecords;
+    final long fVersion;
+    final int fNumStocks;
+    final long fModified;
+  }
+
+  /**
+  * A change to the stocks of a portfolio : a stock added, if fOld is null, a
+  * stock deleted, if fNew is null, or else a stock replaced by another having
+  * the same ticker and exchange. Immutable.
+  */
+  private static final class Change {
+    Change(Stock aOld, Stock aNew){
+      fOld = aOld;
+      fNew = aNew;
+    }
+    final Stock fOld;
+    final Stock fNew;
+  }
+
+  /** Reads the records of an entry, one page at a time, as they are needed. */
+  private final class PageInputStream extends InputStream {
+    PageInputStream(Entry aEntry){
+      fEntry = aEntry;
+    }
+    @Override public int read() throws IOException {
+      if ( ! fPage.hasRemaining() && ! nextPage() ) return -1;
+      return fPage.get() & 0xFF;
+    }
+    @Override public int read(byte[] aBytes, int aOffset, int aLength) throws IOException {
+      if ( aLength == 0 ) return 0;
+      if ( ! fPage.hasRemaining() && ! nextPage() ) return -1;
+      int result = Math.min(aLength, fPage.remaining());
+      fPage.get(aBytes, aOffset, result);
+      return result;
+    }
+    private boolean nextPage() throws IOException {
+      if ( fNextPage == fEntry.fPages.length ) return false;
+      long offset = (long)fNextPage * PAGE_SIZE;
+      fPage.clear();
+      fPage.limit((int)Math.min(PAGE_SIZE, fEntry.fLength - offset));
+      readFully(fPages, fPage, (long)fEntry.fPages[fNextPage] * PAGE_SIZE);
+      fPage.flip();
+      ++fNextPage;
+      return true;
+    }
+    private final Entry fEntry;
+    private final ByteBuffer fPage = (ByteBuffer)ByteBuffer.allocate(PAGE_SIZE).flip();
+    private int fNextPage;
+  }
+
+  /** Kinds of change, as written to the journal. */
+  private static final byte ADD = 1;
+  private static final byte DELETE = 2;
+  private static final byte REPLACE = 3;
+
+  /**
+  * Return the current stocks of aName, from memory, or else from its pages and
+  * journaled changes, which are then kept in memory. Not a copy.
+  */
+  private SortedSet<Stock> getKnown(String aName, Entry aEntry) throws IOException {
+    SortedSet<Stock> result = fKnown.get(aName);
+    if ( result == null ) {
+      result = readPages(aEntry);
+      List<Change> changes = fChanges.get(aName);
+      if ( changes != null ) {
+        apply(changes, result);
+      }
+      fKnown.put(aName, result);
+    }
+    return result;
+  }
+
+  /** Return the stocks in the pages of aEntry, without any journaled changes. */
+  private SortedSet<Stock> readPages(Entry aEntry) throws IOException {
+    byte[] records = new byte[(int)aEntry.fLength];
+    for(int idx = 0; idx < aEntry.fPages.length; ){
+      //adjacent pages are read together
+      int start = idx;
+      do { ++idx; } while ( idx < aEntry.fPages.length && aEntry.fPages[idx] == aEntry.fPages[idx - 1] + 1 );
+      int offset = start * PAGE_SIZE;
+      int length = Math.min(records.length - offset, (idx - start) * PAGE_SIZE);
+      readFully(fPages, ByteBuffer.wrap(records, offset, length), (long)aEntry.fPages[start] * PAGE_SIZE);
+    }
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(records));
+    SortedSet<Stock> result = new TreeSet<>();
+    for(int count = 0; count < aEntry.fNumRecords; ++count){
+      result.add(readStock(input));
+    }
+    return result;
+  }
+
+  /**
+  * Record of a stock : ticker, name, exchange, number of shares, and the scale
+  * and unscaled value of the average price.
+  */
+  private static void writeStock(Stock aStock, DataOutputStream aOutput) throws IOException {
+    aOutput.writeUTF(aStock.getTicker());
+    aOutput.writeUTF(aStock.getName());
+    aOutput.writeUTF(aStock.getExchange().toString());
+    aOutput.writeInt(aStock.getNumShares());
+    BigDecimal price = aStock.getAveragePrice();
+    byte[] unscaled = price.unscaledValue().toByteArray();
+    aOutput.writeInt(price.scale());
+    aOutput.writeByte(unscaled.length);
+    aOutput.write(unscaled);
+  }
+
+  private static void writeChange(Change aChange, DataOutputStream aOutput) throws IOException {
+    if ( aChange.fOld == null ) {
+      aOutput.writeByte(ADD);
+      writeStock(aChange.fNew, aOutput);
+    }
+    else if ( aChange.fNew == null ) {
+      aOutput.writeByte(DELETE);
+      writeStock(aChange.fOld, aOutput);
+    }
+    else {
+      aOutput.writeByte(REPLACE);
+      writeStock(aChange.fOld, aOutput);
+      writeStock(aChange.fNew, aOutput);
+    }
+  }
+
+  private static Change readChange(DataInputStream aInput) throws IOException {
+    byte kind = aInput.readByte();
+    if ( kind == ADD ) return new Change(null, readStock(aInput));
+    if ( kind == DELETE ) return new Change(readStock(aInput), null);
+    if ( kind == REPLACE ) return new Change(readStock(aInput), readStock(aInput));
+    throw new IOException("Unknown kind of change in portfolio journal: " + kind);
+  }
+
+  /**
+  * Return the changes which turn aOld into aNew. A stock deleted and another
+  * added, having the same ticker and exchange, are taken as a single change.
+  *
+  * <P>Both are walked once, in their natural order. The stocks of a portfolio
+  * are already in that order, so sorting them takes linear time.
+  */
+  private static List<Change> getChanges(SortedSet<Stock> aOld, Set<Stock> aNew){
+    Stock[] newStocks = aNew.toArray(new Stock[aNew.size()]);
+    Arrays.sort(newStocks);
+    Map<String, Stock> deleted = new HashMap<>();
+    List<Stock> added = new ArrayList<>();
+    List<Change> result = new ArrayList<>();
+    Iterator<Stock> oldStocks = aOld.iterator();
+    Stock old = oldStocks.hasNext() ? oldStocks.next() : null;
+    int idx = 0;
+    while ( old != null || idx < newStocks.length ) {
+      int comparison = old == null ? 1 : (idx == newStocks.length ? -1 : old.compareTo(newStocks[idx]));
+      if ( comparison < 0 ) {
+        Stock other = deleted.put(getKey(old), old);
+        if ( other != null ) {
+          result.add(new Change(other, null));
+        }
+      }
+      else if ( comparison > 0 ) {
+        added.add(newStocks[idx]);
+      }
+      if ( comparison <= 0 ) {
+        old = oldStocks.hasNext() ? oldStocks.next() : null;
+      }
+      if ( comparison >= 0 ) {
+        ++idx;
+      }
+    }
+    for(Stock stock : added){
+      result.add(new Change(deleted.remove(getKey(stock)), stock));
+    }
+    for(Stock stock : deleted.values()){
+      result.add(new Change(stock, null));
+    }
+    return result;
+  }
+
+  private static String getKey(Stock aStock){
+    return aStock.getTicker() + ":" + aStock.getExchange();
+  }
+
+  private static void apply(List<Change> aChanges, Set<Stock> aStocks){
+    for(Change change : aChanges){
+      if ( change.fOld != null ) {
+        aStocks.remove(change.fOld);
+      }
+      if ( change.fNew != null ) {
+        aStocks.add(change.fNew);
+      }
+    }
+  }
+
+  /** Return the number of stocks after aChanges are applied to aNumStocks stocks. */
+  private static int countStocks(List<Change> aChanges, int aNumStocks){
+    int result = aNumStocks;
+    for(Change change : aChanges){
+      if ( change.fOld == null ) {
+        ++result;
+      }
+      else if ( change.fNew == null ) {
+        --result;
+      }
+    }
+    return result;
+  }
+
+  /**
+  * Append a record of aChanges to the pages of aName having aVersion, and force
+  * it to the storage device. If this fails, then the record is ignored, and is
+  * overwritten by the next one.
+  */
+  private void appendToJournal(String aName, long aVersion, long aTime, List<Change> aChanges) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(JOURNAL_HEADER_SIZE + aChanges.size() * 2 * TYPICAL_RECORD_SIZE);
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(0); //the length and checksum are set below
+    output.writeInt(0);
+    output.writeUTF(aName);
+    output.writeLong(aVersion);
+    output.writeLong(aTime);
+    output.writeInt(aChanges.size());
+    for(Change change : aChanges){
+      writeChange(change, output);
+    }
+    output.flush();
+    ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+    CRC32 checksum = new CRC32();
+    checksum.update(record.array(), JOURNAL_HEADER_SIZE, record.limit() - JOURNAL_HEADER_SIZE);
+    record.putInt(0, record.limit() - JOURNAL_HEADER_SIZE);
+    record.putInt(4, (int)checksum.getValue());
+    writeFully(fJournal, record, fJournalEnd);
+    fJournal.force(false);
+    fJournalEnd += record.limit();
+  }
+
+  /**
+  * Read the complete records of the journal, keeping the changes whose version
+  * is that of the pages of their portfolio, and discard any remainder.
+  */
+  private void readJournal() throws IOException {
+    long size = fJournal.size();
+    ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+    CRC32 checksum = new CRC32();
+    int numRecords = 0;
+    while ( fJournalEnd + JOURNAL_HEADER_SIZE <= size ) {
+      header.clear();
+      readFully(fJournal, header, fJournalEnd);
+      int length = header.getInt(0);
+      if ( length <= 0 || fJournalEnd + JOURNAL_HEADER_SIZE + length > size ) break;
+      byte[] record = new byte[length];
+      readFully(fJournal, ByteBuffer.wrap(record), fJournalEnd + JOURNAL_HEADER_SIZE);
+      checksum.reset();
+      checksum.update(record, 0, length);
+      if ( (int)checksum.getValue() != header.getInt(4) ) break;
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+      String name = input.readUTF();
+      long version = input.readLong();
+      long time = input.readLong();
+      Entry entry = fEntries.get(name);
+      if ( entry != null && entry.fVersion == version ) {
+        List<Change> changes = fChanges.get(name);
+        if ( changes == null ) {
+          changes = new ArrayList<>();
+          fChanges.put(name, changes);
+        }
+        List<Change> recordChanges = new ArrayList<>();
+        for(int count = input.readInt(); count > 0; --count){
+          recordChanges.add(readChange(input));
+        }
+        changes.addAll(recordChanges);
+        fEntries.put(name, entry.withStocks(countStocks(recordChanges, entry.fNumStocks), time));
+      }
+      fJournalEnd += JOURNAL_HEADER_SIZE + length;
+      ++numRecords;
+    }
+    if ( fJournalEnd < size ) {
+      fLogger.warning(
+        "Discarding the last " + (size - fJournalEnd) + " bytes of the portfolio journal, " +
+        "left by an interrupted save."
+      );
+      fJournal.truncate(fJournalEnd);
+    }
+    fLogger.fine("Read " + numRecords + " journal records for " + fChanges.size() + " portfolios.");
+  }
+
+  /**
+  * Write each portfolio having journaled changes to new pages. The journal is
+  * emptied when the last of them is written.
+  */
+  private void checkpoint() throws IOException {
+    for(String name : new ArrayList<>(fChanges.keySet())){
+      write(name, read(name));
+    }
+    fLogger.fine("Checkpoint of portfolio journal done.");
+  }
+
+  /**
+  * Forget the journaled changes of aName, whose pages were replaced, and empty
+  * the journal if no portfolio has any left.
+  */
+  private void forgetChanges(String aName) throws IOException {
+    fChanges.remove(aName);
+    if ( fChanges.isEmpty() ) {
+      emptyJournal();
+    }
+  }
+
+  private void emptyJournal() throws IOException {
+    if ( fJournalEnd > 0 || fJournal.size() > 0 ) {
+      fJournal.truncate(0);
+      fJournalEnd = 0;
+    }
+  }
+
+  private static Stock readStock(DataInputStream aInput) throws IOException {
+    String ticker = aInput.readUTF();
+    String name = aInput.readUTF();
+    Exchange exchange = Exchange.valueFrom(aInput.readUTF());
+    int numShares = aInput.readInt();
+    int scale = aInput.readInt();
+    byte[] unscaled = new byte[aInput.readUnsignedByte()];
+    aInput.readFully(unscaled);
+    return new Stock(name, ticker, exchange, numShares, new BigDecimal(new BigInteger(unscaled), scale));
+  }
+
+  /** Return aCount free pages, in increasing order, and mark them as used. */
+  private int[] allocate(int aCount){
+    int[] result = new int[aCount];
+    int page = 0;
+    for(int idx = 0; idx < aCount; ++idx){
+      page = fUsedPages.nextClearBit(page);
+      result[idx] = page;
+      fUsedPages.set(page);
+    }
+    return result;
+  }
+
+  /**
+  * Replace the entry for aName with aNew, or remove it if aNew is null. The new
+  * index is made durable, and only then are the old pages freed. If the index
+  * cannot be written, then nothing is changed.
+  */
+  private void replace(String aName, Entry aNew) throws IOException {
+    Entry old = aNew == null ? fEntries.remove(aName) : fEntries.put(aName, aNew);
+    try {
+      writeIndex();
+    }
+    catch (IOException ex){
+      if ( old == null ) {
+        fEntries.remove(aName);
+      }
+      else {
+        fEntries.put(aName, old);
+      }
+      throw ex;
+    }
+    if ( old != null ) {
+      free(old.fPages);
+      truncate();
+    }
+  }
+
+  private void free(int[] aPages){
+    for(int page : aPages){
+      fUsedPages.clear(page);
+    }
+  }
+
+  /** Remove any free pages at the end of the file. */
+  private void truncate() throws IOException {
+    long length = (long)fUsedPages.length() * PAGE_SIZE;
+    if ( fPages.size() > length ) {
+      fPages.truncate(length);
+    }
+  }
+
+  private void readIndex() throws IOException {
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fIndexFile)))) {
+      if ( input.readInt() != INDEX_MAGIC ) {
+        throw new IOException("Not a portfolio index: " + fIndexFile);
+      }
+      int version = input.readInt();
+      if ( version < 1 || version > INDEX_VERSION ) {
+        throw new IOException("Unknown version " + version + " of portfolio index: " + fIndexFile);
+      }
+      //version 1 has no versions of pages, and is replaced when next written
+      boolean hasPageVersions = version > 1;
+      if ( hasPageVersions ) {
+        fNextVersion = input.readLong();
+      }
+      int numEntries = input.readInt();
+      for(int count = 0; count < numEntries; ++count){
+        String name = input.readUTF();
+        long modified = input.readLong();
+        int numStocks = input.readInt();
+        long pageVersion = hasPageVersions ? input.readLong() : 0;
+        long length = input.readLong();
+        int[] pages = new int[input.readInt()];
+        for(int idx = 0; idx < pages.length; ++idx){
+          pages[idx] = input.readInt();
+          fUsedPages.set(pages[idx]);
+        }
+        fEntries.put(name, new Entry(pages, length, numStocks, pageVersion, modified));
+      }
+    }
+    fLogger.fine("Read index of " + fEntries.size() + " portfolios from " + fIndexFile);
+  }
+
+  /** Write the index to a new file, and then rename it over the old one. */
+  private void writeIndex() throws IOException {
+    File temp = new File(fDirectory, INDEX_FILE + ".new");
+    try (FileOutputStream file = new FileOutputStream(temp)) {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file));
+      output.writeInt(INDEX_MAGIC);
+      output.writeInt(INDEX_VERSION);
+      output.writeLong(fNextVersion);
+      output.writeInt(fEntries.size());
+      for(Map.Entry<String, Entry> item : fEntries.entrySet()){
+        Entry entry = item.getValue();
+        output.writeUTF(item.getKey());
+        output.writeLong(entry.fModified);
+        output.writeInt(entry.fNumRecords);
+        output.writeLong(entry.fVersion);
+        output.writeLong(entry.fLength);
+        output.writeInt(entry.fPages.length);
+        for(int page : entry.fPages){
+          output.writeInt(page);
+        }
+      }
+      output.flush();
+      file.getFD().sync();
+    }
+    Files.move(
+      temp.toPath(), fIndexFile.toPath(),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+    );
+  }
+
+  private static void readFully(FileChannel aChannel, ByteBuffer aBuffer, long aPosition) throws IOException {
+    long position = aPosition;
+    while ( aBuffer.hasRemaining() ) {
+      int count = aChannel.read(aBuffer, position);
+      if ( count < 0 ) throw new EOFException("Portfolio file ends unexpectedly.");
+      position += count;
+    }
+  }
+
+  private static void writeFully(FileChannel aChannel, ByteBuffer aBuffer, long aPosition) throws IOException {
+    long position = aPosition;
+    while ( aBuffer.hasRemaining() ) {
+      position += aChannel.write(aBuffer, position);
+    }
+  }
+
+  /**
+  * Developer tool. Saves a portfolio of 100,000 stocks in a temporary directory,
+  * with a few small ones, and reports the time taken to save, reopen, find, and
+  * read it, and the size of the files. Then compares saving a single edit with
+  * saving it in full, recovers the edits from the journal after reopening,
+  * with and without a torn record at its end, and reads only its first stocks.
+  */
+  private static void main(String... aArgs) throws IOException {
+    int numStocks = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 100000;
+    File dir = new File(System.getProperty("java.io.tmpdir"), "portfolios-" + System.nanoTime());
+    List<Exchange> exchanges = Exchange.VALUES;
+    Random random = new Random(1);
+    Set<Stock> stocks = new TreeSet<>();
+    for(int idx = 0; idx < numStocks; ++idx){
+      StringBuilder ticker = new StringBuilder();
+      for(int rest = idx; ticker.length() == 0 || rest > 0; rest = rest / 26){
+        ticker.insert(0, (char)('A' + rest % 26));
+      }
+      stocks.add(new Stock(
+        "Company " + idx, ticker.toString(), exchanges.get(random.nextInt(exchanges.size())),
+        random.nextInt(10000), BigDecimal.valueOf(random.nextInt(100000), 2)
+      ));
+    }
+    PortfolioStore store = new PortfolioStore(dir);
+    for(int idx = 0; idx < 10; ++idx){
+      store.write("Small " + idx, new ArrayList<>(stocks).subList(idx, idx + 20));
+    }
+    for(int round = 0; round < 3; ++round){
+      long start = System.nanoTime();
+      store.write("Large", stocks);
+      long saved = System.nanoTime();
+      store.close();
+      store = new PortfolioStore(dir);
+      long opened = System.nanoTime();
+      boolean isFound = store.contains("Large");
+      SortedSet<Stock> read = store.read("Large");
+      long readDone = System.nanoTime();
+      System.out.println(
+        "Save: " + (saved - start) / 1000000 + "ms, open: " + (opened - saved) / 1000 +
+        "us, read: " + (readDone - opened) / 1000000 + "ms, found: " + isFound +
+        ", same stocks: " + read.equals(stocks)
+      );
+    }
+    List<Stock> list = new ArrayList<>(stocks);
+    for(int round = 0; round < 5; ++round){
+      Stock old = list.get(random.nextInt(list.size()));
+      Stock edited = new Stock(
+        old.getName(), old.getTicker(), old.getExchange(), old.getNumShares() + 1, old.getAveragePrice()
+      );
+      stocks.remove(old);
+      stocks.add(edited);
+      list.set(list.indexOf(old), edited);
+      long start = System.nanoTime();
+      store.save("Large", stocks);
+      long saved = System.nanoTime();
+      store.write("Large Copy", stocks);
+      long written = System.nanoTime();
+      System.out.println(
+        "One edit, save: " + (saved - start) / 1000 + "us, full write: " + (written - saved) / 1000 +
+        "us, journal: " + new File(dir, JOURNAL_FILE).length() + " bytes"
+      );
+    }
+    store.close();
+    store = new PortfolioStore(dir);
+    System.out.println("Recovered from journal: " + store.read("Large").equals(stocks));
+    store.close();
+    try (FileOutputStream journal = new FileOutputStream(new File(dir, JOURNAL_FILE), true)) {
+      journal.write(new byte[]{0, 0, 1, 0, 1, 2, 3});
+    }
+    store = new PortfolioStore(dir);
+    System.out.println("Recovered, torn record discarded: " + store.read("Large").equals(stocks));
+    store.close();
+    store = new PortfolioStore(dir);
+    store.write("Large", stocks);
+    store.close();
+    store = new PortfolioStore(dir);
+    long firstStart = System.nanoTime();
+    SortedSet<Stock> first = store.readFirst("Large", 200);
+    System.out.println(
+      "Read first " + first.size() + " stocks: " + (System.nanoTime() - firstStart) / 1000 +
+      "us, same as head: " + first.equals(new TreeSet<>(new ArrayList<>(stocks).subList(0, 200)))
+    );
+    System.out.println("Summary: " + store.getSummaries().get(0));
+    long smallStart = System.nanoTime();
+    SortedSet<Stock> small = store.read("Small 3");
+    System.out.println("Read small portfolio: " + (System.nanoTime() - smallStart) / 1000 + "us, " + small.size() + " stocks");
+    System.out.println("Names: " + store.getNames());
+    System.out.println(
+      "Pages file: " + new File(dir, PAGES_FILE).length() / 1024 + "KB, index: " +
+      new File(dir, INDEX_FILE).length() + " bytes"
+    );
+    store.deleteAll();
+    System.out.println("After deleting all, pages file: " + new File(dir, PAGES_FILE).length() + " bytes");
+    store.close();
+    for(File file : dir.listFiles()){
+      file.delete();
+    }
+    dir.delete();
+  }
+}
@@ -0,0 +1,74 @@
+package hirondelle.stocks.portfolio;
+
+import hirondelle.stocks.util.EqualsUtil;
+import hirondelle.stocks.util.HashCodeUtil;
+
+/**
+* The name, number of stocks, and time of last save of a stored
+* {@link Portfolio}, as listed by {@link PortfolioDAO#fetchCatalog}, without
+* reading any of its stocks.
+*
+* <P>This class is immutable.
+*/
+public final class PortfolioSummary {
+
+  /** Constructor. Used only by the datastore. */
+  PortfolioSummary(String aName, int aNumStocks, long aLastModified){
+    fName = aName;
+    fNumStocks = aNumStocks;
+    fLastModified = aLastModified;
+  }
+
+  /** Return the unique name of the <tt>Portfolio</tt>. */
+  public String getName() {
+    return fName;
+  }
+
+  /** Return the number of stocks in the <tt>Portfolio</tt>. */
+  public int getNumStocks() {
+    return fNumStocks;
+  }
+
+  /**
+  * Return the time the <tt>Portfolio</tt> was last saved, in milliseconds
+  * since the epoch, as in {@link System#currentTimeMillis}.
+  */
+  public long getLastModified() {
+    return fLastModified;
+  }
+
+  /**
+  * Represent this object as a <tt>String</tt> - intended for debugging
+  * purposes only.
+  */
+  @Override public String toString() {
+    return
+      getClass().getName() + " {fName = " + fName + ", fNumStocks = " + fNumStocks +
+      ", fLastModified = " + fLastModified + "}"
+    ;
+  }
+
+  @Override public boolean equals( Object aThat ) {
+    if ( this == aThat ) return true;
+    if ( !(aThat instanceof PortfolioSummary) ) return false;
+    PortfolioSummary that = (PortfolioSummary)aThat;
+    return
+      EqualsUtil.areEqual(this.fName, that.fName) &&
+      EqualsUtil.areEqual(this.fNumStocks, that.fNumStocks) &&
+      EqualsUtil.areEqual(this.fLastModified, that.fLastModified)
+    ;
+  }
+
+  @Override public int hashCode() {
+    int result = HashCodeUtil.SEED;
+    result = HashCodeUtil.hash(result, fName);
+    result = HashCodeUtil.hash(result, fNumStocks);
+    result = HashCodeUtil.hash(result, fLastModified);
+    return result;
+  }
+
+  // PRIVATE
+  private final String fName;
+  private final int fNumStocks;
+  private final long fLastModified;
+}
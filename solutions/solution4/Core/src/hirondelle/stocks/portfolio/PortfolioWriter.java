@@ -0,0 +1,253 @@
+package hirondelle.stocks.portfolio;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import javax.swing.SwingUtilities;
+
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.DataAccessException;
+import hirondelle.stocks.util.Util;
+
+/**
+* Stores {@link Portfolio}s using {@link PortfolioDAO}, on a background thread,
+* so that the Event Dispatch Thread never waits for the disk.
+*
+* <P>Commands are run one at a time, in the order given. Each takes a copy of
+* its <tt>Portfolio</tt> when it is given, so later edits are not included. A
+* save of a <tt>Portfolio</tt> whose previous save has not yet started is
+* merged into it : only its latest stocks are written. Saves are never merged
+* across any other command.
+*
+* <P>The reading methods of <tt>PortfolioDAO</tt> wait for any commands given
+* earlier, so that, as with a file system, a read always sees the effect of
+* every earlier write.
+*
+* <P>Results are reported on the Event Dispatch Thread, through
+* {@link CurrentPortfolio#isWritePending} and
+* {@link CurrentPortfolio#getWriteFailure}; its observers are notified with
+* {@link CurrentPortfolio#WRITE_STATUS} when a command is given, and when it is
+* done. A failure is also logged as
+* <tt>SEVERE</tt>, which shows it to the user. If a save of the
+* <tt>CurrentPortfolio</tt> fails, then it is again marked as needing a save,
+* and its observers are notified.
+*
+* <P>Commands should be given on the Event Dispatch Thread.
+*/
+public final class PortfolioWriter {
+
+  /** Number of milliseconds to wait in {@link #flush} when the application exits. */
+  public static final long FLUSH_TIMEOUT = 30000;
+
+  /**
+  * Constructor.
+  * @param aCurrentPortfolio receives the results of commands.
+  */
+  public PortfolioWriter(CurrentPortfolio aCurrentPortfolio){
+    Args.checkForNull(aCurrentPortfolio);
+    fCurrentPortfolio = aCurrentPortfolio;
+  }
+
+  /** Save <tt>aPortfolio</tt>, as in {@link PortfolioDAO#save}. */
+  public void save(Portfolio aPortfolio){
+    final String name = aPortfolio.getName();
+    final PendingSave pending;
+    synchronized(fPendingSaves){
+      PendingSave queued = fPendingSaves.get(name);
+      if ( queued != null ) {
+        queued.fPortfolio = copy(aPortfolio);
+        fLogger.fine("Save merged with the one already waiting: " + name);
+        return;
+      }
+      pending = new PendingSave(copy(aPortfolio));
+      fPendingSaves.put(name, pending);
+    }
+    submit(new Command("save portfolio " + name, name, true) {
+      @Override void run(PortfolioDAO aDAO) throws DataAccessException {
+        Portfolio latest = null;
+        synchronized(fPendingSaves){
+          latest = pending.fPortfolio;
+          if ( fPendingSaves.get(name) == pending ) {
+            fPendingSaves.remove(name);
+          }
+        }
+        aDAO.save(latest);
+      }
+    });
+  }
+
+  /** Save <tt>aPortfolio</tt> under a new name, as in {@link PortfolioDAO#saveAs}. */
+  public void saveAs(Portfolio aPortfolio){
+    final Portfolio portfolio = copy(aPortfolio);
+    submitAfterSaves(new Command("save portfolio " + portfolio.getName(), portfolio.getName(), true) {
+      @Override void run(PortfolioDAO aDAO) throws DataAccessException {
+        aDAO.saveAs(portfolio);
+      }
+    });
+  }
+
+  /** Delete <tt>aPortfolio</tt>, as in {@link PortfolioDAO#delete}. */
+  public void delete(Portfolio aPortfolio){
+    final Portfolio portfolio = copy(aPortfolio);
+    submitAfterSaves(new Command("delete portfolio " + portfolio.getName(), portfolio.getName(), false) {
+      @Override void run(PortfolioDAO aDAO) throws DataAccessException {
+        aDAO.delete(portfolio);
+      }
+    });
+  }
+
+  /** Export all portfolios to <tt>aFile</tt>, as in {@link PortfolioDAO#exportXML}. */
+  public void exportXML(final File aFile){
+    Args.checkForNull(aFile);
+    submitAfterSaves(new Command("export portfolios to " + aFile, null, false) {
+      @Override void run(PortfolioDAO aDAO) throws DataAccessException {
+        aDAO.exportXML(aFile);
+      }
+    });
+  }
+
+  /** Import portfolios from <tt>aFile</tt>, as in {@link PortfolioDAO#importXML}. */
+  public void importXML(final File aFile){
+    Args.checkForNull(aFile);
+    submitAfterSaves(new Command("import portfolios from " + aFile, null, false) {
+      @Override void run(PortfolioDAO aDAO) throws DataAccessException {
+        aDAO.importXML(aFile);
+      }
+    });
+  }
+
+  /**
+  * Wait for all commands given so far to be run, for at most
+  * <tt>aTimeout</tt> milliseconds. Return <tt>true</tt> only if they were.
+  * Used when the application exits.
+  */
+  public boolean flush(long aTimeout){
+    return await(aTimeout);
+  }
+
+  /**
+  * Wait for all commands given so far to be run. Called by the reading methods
+  * of {@link PortfolioDAO}, and does nothing if called by a command.
+  */
+  static void awaitWrites(){
+    if ( Thread.currentThread() == fThread ) return;
+    await(Long.MAX_VALUE);
+  }
+
+  // PRIVATE
+
+  private final CurrentPortfolio fCurrentPortfolio;
+
+  /** Saves not yet started, by portfolio name. */
+  private final Map<String, PendingSave> fPendingSaves = new HashMap<>();
+
+  /** Number of commands not yet reported as done. Used only on the Event Dispatch Thread. */
+  private int fNumPending;
+
+  /** The thread of fExecutor. */
+  private static volatile Thread fThread;
+
+  /**
+  * Shared by all instances, so that reads in PortfolioDAO wait for any of them.
+  * Uses a daemon thread; pending commands are run on exit by {@link #flush}.
+  */
+  private static final ExecutorService fExecutor = Executors.newSingleThreadExecutor(
+    new ThreadFactory() {
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "PortfolioWriter");
+        result.setDaemon(true);
+        fThread = result;
+        return result;
+      }
+    }
+  );
+
+  private static final Runnable NOTHING = new Runnable() {
+    @Override public void run() { }
+  };
+
+  private static final Logger fLogger = Util.getLogger(PortfolioWriter.class);
+
+  /** The latest stocks to be written by a save which has not yet started. */
+  private static final class PendingSave {
+    PendingSave(Portfolio aPortfolio){
+      fPortfolio = aPortfolio;
+    }
+    Portfolio fPortfolio;
+  }
+
+  /** A unit of work for fExecutor. */
+  private abstract static class Command {
+    Command(String aDescription, String aPortfolioName, boolean aIsSave){
+      fDescription = aDescription;
+      fPortfolioName = aPortfolioName;
+      fIsSave = aIsSave;
+    }
+    abstract void run(PortfolioDAO aDAO) throws DataAccessException;
+    final String fDescription;
+    /** Null if the command is not for a single portfolio. */
+    final String fPortfolioName;
+    final boolean fIsSave;
+  }
+
+  private static Portfolio copy(Portfolio aPortfolio){
+    //the Set of stocks is never changed, only replaced
+    return new Portfolio(aPortfolio.getName(), aPortfolio.getStocks());
+  }
+
+  /** Saves given later must not be merged with those given before aCommand. */
+  private void submitAfterSaves(Command aCommand){
+    synchronized(fPendingSaves){
+      fPendingSaves.clear();
+    }
+    submit(aCommand);
+  }
+
+  private void submit(final Command aCommand){
+    ++fNumPending;
+    fCurrentPortfolio.setWriteStatus(true, fCurrentPortfolio.getWriteFailure());
+    fExecutor.execute(new Runnable() {
+      @Override public void run() {
+        String failure = null;
+        try {
+          aCommand.run(new PortfolioDAO());
+          fLogger.fine("Done: " + aCommand.fDescription);
+        }
+        catch (DataAccessException | RuntimeException ex){
+          failure = "Cannot " + aCommand.fDescription + ".";
+          fLogger.log(Level.SEVERE, failure, ex);
+        }
+        report(aCommand, failure);
+      }
+    });
+  }
+
+  private void report(final Command aCommand, final String aFailure){
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override public void run() {
+        --fNumPending;
+        fCurrentPortfolio.setWriteStatus(fNumPending > 0, aFailure);
+        if ( aFailure != null && aCommand.fIsSave && aCommand.fPortfolioName.equals(fCurrentPortfolio.getName()) ) {
+          fCurrentPortfolio.setNeedsSave(true);
+          fCurrentPortfolio.notifyObservers();
+        }
+      }
+    });
+  }
+
+  private static boolean await(long aTimeout){
+    boolean result = false;
+    try {
+      fExecutor.submit(NOTHING).get(aTimeout, TimeUnit.MILLISECONDS);
+      result = true;
+    }
+    catch (InterruptedException ex){
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException | TimeoutException ex){
+      fLogger.warning("Portfolio writes not yet done: " + ex);
+    }
+    return result;
+  }
+}
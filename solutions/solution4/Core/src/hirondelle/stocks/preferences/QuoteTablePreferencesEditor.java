@@ -46,6 +46,7 @@ public final class QuoteTablePreferencesEditor extends Observable
     fLogger.fine("Updating table preferences.");
     fPrefs.putBoolean(HORIZONTAL_LINES_KEY, fHorizontalLines.isSelected());
     fPrefs.putBoolean(VERTICAL_LINES_KEY, fVerticalLines.isSelected());
+    fPrefs.putBoolean(SHOW_INDICATORS_KEY, fShowIndicators.isSelected());
     fPrefs.putInt(ROW_HEIGHT_KEY, fRowSizeModel.getNumber().intValue());
     fPrefs.put(SORT_FIELD_KEY, fSortField.getSelectedItem().toString());
     fPrefs.put(COLUMN_ORDER_KEY, fColumnOrderEditor.getItems().toString());
@@ -57,6 +58,7 @@ public final class QuoteTablePreferencesEditor extends Observable
   @Override public void matchGuiToDefaultPreferences() {
     fHorizontalLines.setSelected(HORIZONTAL_LINES_DEFAULT);
     fVerticalLines.setSelected(VERTICAL_LINES_DEFAULT);
+    fShowIndicators.setSelected(SHOW_INDICATORS_DEFAULT);
     fRowSizeModel.setValue(new Integer(ROW_HEIGHT_DEFAULT));
     fSortField.setSelectedItem(QuoteField.valueFrom(SORT_FIELD_DEFAULT));
     fColumnOrderEditor.setItems(parseRawColumnOrder(COLUMN_ORDER_DEFAULT));
@@ -77,6 +79,14 @@ public final class QuoteTablePreferencesEditor extends Observable
     return fPrefs.getBoolean(VERTICAL_LINES_KEY, VERTICAL_LINES_DEFAULT);
   }
 
+  /**
+   * Return preference for the display of the columns holding technical 
+   * indicators; see {@link QuoteField#isIndicator}.
+   */
+  public boolean showsIndicators() {
+    return fPrefs.getBoolean(SHOW_INDICATORS_KEY, SHOW_INDICATORS_DEFAULT);
+  }
+
   /**
    * Return the height of each row in pixels, in the range <tt>16..32</tt>
    * (inclusive).
@@ -101,6 +111,23 @@ public final class QuoteTablePreferencesEditor extends Observable
     return parseRawColumnOrder(fPrefs.get(COLUMN_ORDER_KEY, COLUMN_ORDER_DEFAULT));
   }
 
+  /**
+   * Return the {@link QuoteField} objects to be shown as columns, in the 
+   * user's preferred order. As {@link #getColumnOrder}, but without the 
+   * technical indicators, unless {@link #showsIndicators} is <tt>true</tt>.
+   */
+  public java.util.List<QuoteField> getVisibleColumnOrder() {
+    boolean showsIndicators = showsIndicators();
+    java.util.List<QuoteField> result = new ArrayList<QuoteField>();
+    for(Object item : getColumnOrder()){
+      QuoteField field = (QuoteField)item;
+      if ( showsIndicators || ! field.isIndicator() ) {
+        result.add(field);
+      }
+    }
+    return result;
+  }
+
   /**
    * Return the number of minutes to wait between periodic updates, in the range
    * <tt>1..60</tt>.
@@ -119,6 +146,8 @@ public final class QuoteTablePreferencesEditor extends Observable
   private static final String HORIZONTAL_LINES_KEY = "HorizontalLines";
   private static final boolean VERTICAL_LINES_DEFAULT = true;
   private static final String VERTICAL_LINES_KEY = "VerticalLines";
+  private static final boolean SHOW_INDICATORS_DEFAULT = false;
+  private static final String SHOW_INDICATORS_KEY = "ShowIndicators";
   private static final int MAX_ROW_HEIGHT = 32;
   private static final int MIN_ROW_HEIGHT = 16;
   private static final int INITIAL_ROW_HEIGHT = MIN_ROW_HEIGHT;
@@ -129,17 +158,18 @@ public final class QuoteTablePreferencesEditor extends Observable
   private static final String SORT_FIELD_KEY = "SortBy";
   // This preference is unusual in that in needs a bit of parsing
   private static final String COLUMN_ORDER_DEFAULT = 
-    "[Stock, Price, Change, %Change, Profit, %Profit]"
+    "[Stock, Price, Change, %Change, Profit, %Profit, SMA, EMA, RSI, High, Low, VWAP]"
   ;
   private static final String COLUMN_ORDER_KEY = "ColumnOrder";
   private static final int MAX_UPDATE_FREQ = 60;
   private static final int MIN_UPDATE_FREQ = 1;
-  private static final int UPDATE_FREQ_DEFAULT = 1; // seconds
+  private static final int UPDATE_FREQ_DEFAULT = 1; // minutes
   private static final String UPDATE_FREQ_KEY = "UpdateFrequency";
 
   private Preferences fPrefs = Preferences.userRoot().node(STOCKS_TABLE_NODE_NAME);
   private JCheckBox fHorizontalLines;
   private JCheckBox fVerticalLines;
+  private JCheckBox fShowIndicators;
   private SpinnerNumberModel fRowSizeModel;
   private JComboBox<QuoteField> fSortField;
   private OrderEditor fColumnOrderEditor;
@@ -170,7 +200,12 @@ public final class QuoteTablePreferencesEditor extends Observable
 
     fVerticalLines = new JCheckBox("Vertical Lines");
     fVerticalLines.setMnemonic(KeyEvent.VK_V);
-    aContent.add(fVerticalLines, getConstraints(1, 2, 2, 1));
+    aContent.add(fVerticalLines, getConstraints(1, 2));
+
+    fShowIndicators = new JCheckBox("Indicator Columns");
+    fShowIndicators.setMnemonic(KeyEvent.VK_I);
+    fShowIndicators.setToolTipText("Moving averages, RSI, day's range, and VWAP");
+    aContent.add(fShowIndicators, getConstraints(1, 3));
   }
 
   private void addRowHeight(JPanel aContent) {
@@ -237,6 +272,9 @@ public final class QuoteTablePreferencesEditor extends Observable
   /**
    * Return a <tt>Set</tt> of {@link QuoteField} objects, whose
    * iteration order corresponds to the preferred column order.
+   * 
+   * <P>A column order stored before some fields existed does not name them; 
+   * such fields are placed at the end.
    */
   private Set<Object> parseRawColumnOrder(String aRawColumnOrderPref) {
     java.util.List<String> columnNames = Util.getListFromString(aRawColumnOrderPref);
@@ -244,13 +282,14 @@ public final class QuoteTablePreferencesEditor extends Observable
     for(String fieldName: columnNames){
       result.add(QuoteField.valueFrom(fieldName));
     }
-    assert (result.size() == QuoteField.values().length);
+    result.addAll(Arrays.asList(QuoteField.values()));
     return result;
   }
 
   private void matchGuiToStoredPrefs() {
     fHorizontalLines.setSelected(hasHorizontalLines());
     fVerticalLines.setSelected(hasVerticalLines());
+    fShowIndicators.setSelected(showsIndicators());
     fRowSizeModel.setValue(new Integer(getRowHeight()));
     fSortField.setSelectedItem(getSortField());
     fColumnOrderEditor.setItems(getColumnOrder());
@@ -2,6 +2,8 @@ package hirondelle.stocks.quotes;
 
 import java.util.*;
 import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import hirondelle.stocks.util.Consts;
 import hirondelle.stocks.util.FileUtil;
  
@@ -29,9 +31,11 @@ public final class Exchange implements Comparable<Exchange> {
   *
   * The format of the text file is shown by these example lines:
   * # Blah comment
-  * NYSE Stock Exchanges  (NYS) N/A
+  * NYSE Stock Exchanges  (NYS) N/A America/New_York 09:30-16:00  15
   * Amsterdam Stock Exchange  (AEX) .AS
   * ..etc
+  *
+  * The trading session and the refresh interval in seconds are optional.
   * 
   * This class is not implemented as an enum class, since it relies on an 
   * underlying file for its data, and cannot declare enumeration members in the 
@@ -56,6 +60,23 @@ public final class Exchange implements Comparable<Exchange> {
     return fTickerSuffix;
   }
 
+  /**
+  * Return the hours during which this <tt>Exchange</tt> trades. If they are 
+  * not known, then return {@link TradingSession#ALWAYS_OPEN}.
+  */
+  public TradingSession getTradingSession(){
+    return fTradingSession;
+  }
+
+  /**
+  * Return the number of milliseconds between refreshes of quotes from this 
+  * <tt>Exchange</tt> during its trading session, or <tt>0</tt> if it has no 
+  * interval of its own, and the interval chosen by the user applies.
+  */
+  public long getRefreshInterval(){
+    return fRefreshInterval;
+  }
+
   /**
   * Return the full name of this <tt>Exchange</tt>, suitable for presentation to the 
   * end user.
@@ -79,12 +100,11 @@ public final class Exchange implements Comparable<Exchange> {
   public static Exchange valueFrom(String aText) { 
     if (aText == null) return null; 
     
-    for(Exchange exchange : VALUES){
-      if ( aText.equals( exchange.toString() ) ) { 
-        return exchange; 
-      } 
+    Exchange result = fValuesByName.get(aText);
+    if ( result == null ) {
+      throw new IllegalArgumentException("Cannot parse into Exchange object:" + aText); 
     }
-    throw new IllegalArgumentException("Cannot parse into Exchange object:" + aText); 
+    return result;
   } 
 
   @Override public int compareTo(Exchange that) {
@@ -93,6 +113,8 @@ public final class Exchange implements Comparable<Exchange> {
   
   private final String fName;
   private final String fTickerSuffix;
+  private final TradingSession fTradingSession;
+  private final long fRefreshInterval;
 
   private static int fNextOrdinal = 0;
   private final int fOrdinal = fNextOrdinal++;
@@ -117,14 +139,24 @@ public final class Exchange implements Comparable<Exchange> {
   * parsed result of reading in the text resource file.
   */
   private static List<Exchange> fValues;
+
+  /**
+  * The same elements as fValues, keyed by full name, for {@link #valueFrom}, 
+  * which is called for every stock read from storage.
+  */
+  private static Map<String, Exchange> fValuesByName;
   
   /**
   * Private constructor is needed to disallow the caller from constructing 
   * these objects.
   */
-  private Exchange (String aName, String aTickerSuffix) { 
+  private Exchange (
+    String aName, String aTickerSuffix, TradingSession aTradingSession, long aRefreshInterval
+  ) { 
     fName = aName;
     fTickerSuffix = aTickerSuffix;
+    fTradingSession = aTradingSession;
+    fRefreshInterval = aRefreshInterval;
   }
 
   /**
@@ -132,12 +164,14 @@ public final class Exchange implements Comparable<Exchange> {
   */
   static {
     fValues = new ArrayList<>();
+    fValuesByName = new HashMap<>();
     parseExchangesFromTextFile();
   }
 
   /**
   * Parse each line not starting with a fCOMMENT_CHAR into an Exchange object.
-  * Add each Exchange object to fValues, in the same order as in the text file.
+  * Add each Exchange object to fValues, in the same order as in the text file,
+  * and to fValuesByName.
   */
   private static void parseExchangesFromTextFile() {
     List<String> exchangesText = FileUtil.asLines(TEXT_FILE_NAME, Exchange.class);
@@ -154,8 +188,19 @@ public final class Exchange implements Comparable<Exchange> {
     //ignore the abbreviation:
     parser.nextToken();
     String suffix = getSuffix( parser.nextToken() );
-    Exchange exchange = new Exchange(fullName, suffix);
+    TradingSession session = TradingSession.ALWAYS_OPEN;
+    if ( parser.hasMoreTokens() ) {
+      session = TradingSession.valueOf(parser.nextToken());
+    }
+    long refreshInterval = 0;
+    if ( parser.hasMoreTokens() ) {
+      //seconds, possibly fractional
+      BigDecimal seconds = new BigDecimal(parser.nextToken());
+      refreshInterval = seconds.movePointRight(3).setScale(0, RoundingMode.HALF_EVEN).longValue();
+    }
+    Exchange exchange = new Exchange(fullName, suffix, session, refreshInterval);
     fValues.add(exchange);
+    fValuesByName.put(fullName, exchange);
   }
   
   static private String getSuffix(String aRawSuffix){
@@ -1,7 +1,10 @@
 package hirondelle.stocks.quotes;
 
+import hirondelle.stocks.history.PriceChart;
+import hirondelle.stocks.history.TickWriter;
 import hirondelle.stocks.main.CentralLookup;
 import hirondelle.stocks.portfolio.CurrentPortfolio;
+import hirondelle.stocks.portfolio.Portfolio;
 import hirondelle.stocks.preferences.QuoteTablePreferencesEditor;
 import hirondelle.stocks.table.QuoteTable;
 import hirondelle.stocks.util.Args;
@@ -13,14 +16,21 @@ import hirondelle.stocks.util.ui.UiUtil;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.swing.AbstractAction;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import org.openide.awt.ActionID;
 import org.openide.awt.ActionReference;
@@ -42,9 +52,28 @@ import org.openide.util.NbBundle.Messages;
  * </ul>
  *
  * <P>
- * This class performs most of its work in a background thread, using a
- * javax.swing.Timer. The user interface remains responsive, regardless of the
- * time taken for its work to complete.
+ * This class performs most of its work in a background thread. The user
+ * interface remains responsive, regardless of the time taken for its work to
+ * complete.
+ *
+ * <P>
+ * Periodic fetches are timed by a {@link RefreshScheduler}, which refreshes
+ * only while an exchange in the portfolio is trading, and backs off while
+ * fetches are failing.
+ *
+ * <P>
+ * If a {@link QuoteFeed} is configured, the prices it pushes are applied to the
+ * quotes on display as they arrive, between fetches. Updates arriving in quick
+ * succession are applied together, in a single pass on the event-dispatch
+ * thread.
+ *
+ * <P>
+ * At most one fetch is in flight at a time. A request for the same stocks as
+ * the fetch in flight is coalesced with it, since its result will be just as
+ * fresh. A request for different stocks, as when the portfolio changes,
+ * supersedes the fetch in flight, which is cancelled. Each fetch is tagged
+ * with a generation number, and its results are shown only if no later fetch
+ * has started, so that a slow, older response never overwrites a newer one.
  */
 
 @ActionID(
@@ -84,6 +113,8 @@ public final class FetchQuotesAction extends AbstractAction implements Observer
         QuoteTablePreferencesEditor aQuoteTablePrefEditor = CentralLookup.getDefault().lookup(QuoteTablePreferencesEditor.class);
         QuoteTable aQuoteTable = CentralLookup.getDefault().lookup(QuoteTable.class);
         SummaryView aSummaryView = CentralLookup.getDefault().lookup(SummaryView.class);
+        fTickWriter = CentralLookup.getDefault().lookup(TickWriter.class);
+        fPriceChart = CentralLookup.getDefault().lookup(PriceChart.class);
         Args.checkForNull(aQuoteTable);
         Args.checkForNull(aSummaryView);
         fCurrentPortfolio = aCurrentPortfolio;
@@ -107,7 +138,7 @@ public final class FetchQuotesAction extends AbstractAction implements Observer
     }
 
     /**
-     * Start an internal Timer, which in turn calls
+     * Start an internal {@link RefreshScheduler}, which in turn calls
      * {@link #actionPerformed(ActionEvent)}.
      *
      * <P>
@@ -118,29 +149,47 @@ public final class FetchQuotesAction extends AbstractAction implements Observer
     public void startTimer() {
         fQuoteTablePrefEditor.addObserver(this);
         fCurrentPortfolio.addObserver(this);
-        fTimer = new javax.swing.Timer(fUpdateFreq * CONVERSION_FACTOR, this);
-        fTimer.start();
+        fScheduler = new RefreshScheduler(new Runnable() {
+            @Override
+            public void run() {
+                actionPerformed(null);
+            }
+        });
+        fScheduler.setExchanges(getExchanges());
+        fScheduler.start(fUpdateFreq * CONVERSION_FACTOR);
+        startFeed();
     }
 
     /**
      * Fetch quotes from the web for the <tt>CurrentPortfolio</tt>. This is
-     * called either explicitly, or periodically, by a Timer.
+     * called either explicitly, or periodically, by a RefreshScheduler.
      */
     @Override
     public void actionPerformed(ActionEvent e) {
-        fLogger.info("Fetching quotes from web.");
+        Set<Stock> stocks = new LinkedHashSet<>(fCurrentPortfolio.getStocks());
+        if (fInFlight != null && !fInFlight.isDone()) {
+            if (fInFlight.isFor(stocks)) {
+                fLogger.fine("Fetch coalesced with generation " + fInFlight.fGeneration);
+                return;
+            }
+            fLogger.fine("Cancelling superseded fetch, generation " + fInFlight.fGeneration);
+            fInFlight.cancel(true);
+        }
+        ++fGeneration;
+        fLogger.info("Fetching quotes from web, generation " + fGeneration);
         fSummaryView.showStatusMessage("Fetching quotes...");
-        SwingWorker<List<Quote>, Void> hardWorker = new HardWorker();
-        hardWorker.execute();
+        fInFlight = new HardWorker(fGeneration, fCurrentPortfolio.getPortfolio(), stocks);
+        fInFlight.execute();
     }
 
     /**
      * Listens for changes to the <tt>CurrentPortfolio</tt> or the user
      * preference for update frequency.
      * <P>
-     * Calls {@link #actionPerformed} if the current portfolio has changed.
+     * Calls {@link #actionPerformed} if the current portfolio has changed. If
+     * only its write status has changed, then that status is shown instead.
      * <P>
-     * If the update frequency has changed, the underlying Timer is restarted.
+     * If the update frequency has changed, the underlying scheduler is restarted.
      */
     @Override
     public void update(Observable aPublisher, Object aData) {
@@ -151,8 +200,15 @@ public final class FetchQuotesAction extends AbstractAction implements Observer
             if (hasChangedFreq) {
                 restartTimer();
             }
+        } else if (aData == CurrentPortfolio.WRITE_STATUS) {
+            fLogger.fine("By Current Portfolio, for its write status.");
+            showWriteStatus();
         } else {
             fLogger.fine("By Current Portfolio.");
+            fScheduler.setExchanges(getExchanges());
+            if (fFeed != null) {
+                fFeed.subscribe(fCurrentPortfolio.getStocks());
+            }
             actionPerformed(null);
         }
     }
@@ -186,12 +242,10 @@ public final class FetchQuotesAction extends AbstractAction implements Observer
      * Periodically fetches quote data.
      *
      * <P>
-     * Use of a Swing Timer is acceptable here, in spite of the fact that the
-     * task takes a long time to complete, since the task does <em>not</em> in
-     * fact get executed on the event-dispatch thread, but on a separate worker
-     * thread.
+     * The scheduler only decides when to fetch. Each fetch is started on the
+     * event-dispatch thread, and performed on a separate worker thread.
      */
-    private javax.swing.Timer fTimer;
+    private RefreshScheduler fScheduler;
 
     /**
      * The number of minutes to wait between fetches of quote information.
@@ -200,38 +254,172 @@ public final class FetchQuotesAction extends AbstractAction implements Observer
     
     private static final int CONVERSION_FACTOR
             = Consts.MILLISECONDS_PER_SECOND * Consts.SECONDS_PER_MINUTE;
+
+    /**
+     * Incremented each time a fetch is started. Confined to the
+     * event-dispatch thread.
+     */
+    private int fGeneration;
+
+    /**
+     * The most recently started fetch, possibly complete, or null if none has
+     * been started. Confined to the event-dispatch thread.
+     */
+    private HardWorker fInFlight;
+
+    /**
+     * Records each quote received, or null if no history is kept.
+     */
+    private TickWriter fTickWriter;
+
+    /**
+     * Charts the history of the selected stock, or null if there is no chart.
+     */
+    private PriceChart fPriceChart;
+
+    /**
+     * Pushes price updates between fetches, or null if no feed is configured.
+     */
+    private QuoteFeed fFeed;
+
+    /**
+     * The quotes on display after the most recent complete fetch, with any
+     * later updates from the feed applied. Confined to the event-dispatch
+     * thread.
+     */
+    private QuoteSnapshot fSnapshot = QuoteSnapshot.EMPTY;
+
+    /**
+     * Updates received from the feed, but not yet applied, by stock. Guarded by
+     * itself.
+     */
+    private final Map<Stock, Quote> fPendingUpdates = new LinkedHashMap<>();
+
+    /**
+     * Maintains the technical indicators attached to each quote shown. Updated
+     * both by fetches and by the feed; a quote seen from both is counted once.
+     */
+    private final IndicatorCalculator fIndicators = new IndicatorCalculator();
+
+    /** True while a task to apply the pending updates is queued. */
+    private boolean fIsApplyQueued;
     
-    private final class HardWorker extends SwingWorker<java.util.List<Quote>, Void> {
+    /**
+     * Fetches quotes on a worker thread. Each quote is published as it
+     * arrives. If the quotes on display are for the same stocks, then each
+     * chunk simply replaces their rows, as feed updates do, so the selection
+     * and the scroll position are kept. Otherwise, the table fills
+     * progressively during a large fetch; it is rebuilt only each time the
+     * number of quotes received has doubled.
+     *
+     * <P>
+     * Results are shown only while this is the latest generation of fetch;
+     * otherwise they are discarded.
+     */
+    private final class HardWorker extends SwingWorker<java.util.List<Quote>, Quote> 
+            implements QuoteListener {
+
+        HardWorker(int aGeneration, Portfolio aPortfolio, Set<Stock> aStocks) {
+            fGeneration = aGeneration;
+            fPortfolio = aPortfolio;
+            fStocks = aStocks;
+            fIsFilling = !fSnapshot.isFor(aStocks);
+        }
+
+        /** Return true only if this fetch is for exactly <tt>aStocks</tt>. */
+        boolean isFor(Set<Stock> aStocks) {
+            return fStocks.equals(aStocks);
+        }
 
         @Override
         protected List<Quote> doInBackground() throws Exception {
             List<Quote> result = null;
             try {
-                result = fCurrentPortfolio.getPortfolio().getQuotes();
+                result = fPortfolio.getQuotes(this);
             } catch (DataAccessException ex) {
-                ex.printStackTrace();
+                if (isCancelled()) {
+                    fLogger.fine("Fetch cancelled, generation " + fGeneration);
+                } else {
+                    ex.printStackTrace();
+                }
             }
             return result;
         }
 
+        @Override
+        public void quoteReceived(Quote aQuote) {
+            publish(aQuote);
+        }
+
+        /** Show the quotes received so far; called on the event-dispatch thread. */
+        @Override
+        protected void process(List<Quote> aChunk) {
+            if (isDone() || isStale()) return;
+            List<Quote> quotes = fIndicators.update(aChunk, System.currentTimeMillis());
+            fNumReceived = fNumReceived + quotes.size();
+            if (fIsFilling) {
+                fPartialQuotes.addAll(quotes);
+                if (fPartialQuotes.size() >= 2 * fNumShown) {
+                    fNumShown = fPartialQuotes.size();
+                    fQuoteTable.setQuoteTable(new QuoteSnapshot(fPartialQuotes));
+                }
+            } else {
+                fSnapshot = fSnapshot.withQuotes(quotes);
+                fQuoteTable.setQuoteTable(fSnapshot);
+            }
+            fSummaryView.showStatusMessage("Fetched " + fNumReceived + " quotes...");
+        }
+
         @Override
         protected void done() {
+            if (isCancelled() || isStale()) {
+                fLogger.fine("Discarding result of stale fetch, generation " + fGeneration);
+                return;
+            }
             try {
                 List<Quote> quotes = get();
                 if (quotes != null) {
+                    fScheduler.fetchSucceeded();
                     showUpdated(quotes);
+                    applyFeedUpdates();
                 } else {
+                    fScheduler.fetchFailed();
                     fSummaryView.showStatusMessage("Failed - Please connect to the web.");
                 }
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
         }
+
+        /**
+         * True if the table is filled progressively, from fPartialQuotes;
+         * false if chunks are merged into fSnapshot.
+         */
+        private final boolean fIsFilling;
+
+        /** Confined to the event-dispatch thread, as are the counts below. */
+        private final List<Quote> fPartialQuotes = new ArrayList<>();
+        private int fNumShown;
+        private int fNumReceived;
+
+        private final int fGeneration;
+        private final Portfolio fPortfolio;
+        private final Set<Stock> fStocks;
+
+        /** Return true if a later fetch has started. */
+        private boolean isStale() {
+            return fGeneration != FetchQuotesAction.this.fGeneration;
+        }
     }
     
     private void showUpdated(List<Quote> aQuotes) {
-        fQuoteTable.setQuoteTable(aQuotes);
-        fSummaryView.setQuotes(aQuotes);
+        recordHistory(aQuotes);
+        QuoteSnapshot snapshot = new QuoteSnapshot(
+            fIndicators.update(aQuotes, System.currentTimeMillis())
+        );
+        fSnapshot = snapshot;
+        fQuoteTable.setQuoteTable(snapshot);
+        fSummaryView.setQuotes(snapshot);
         StringBuilder warning = new StringBuilder();
         if (hasNoZeroPrices(aQuotes, warning)) {
             fSummaryView.showStatusMessage("Done.");
@@ -245,7 +433,7 @@ public final class FetchQuotesAction extends AbstractAction implements Observer
     
     private boolean hasNoZeroPrices(List<Quote> aQuotes, StringBuilder aMessage) {
         for (Quote quote : aQuotes) {
-            if (Util.isZeroMoney(quote.getPrice())) {
+            if (quote.getPrice().isZero()) {
                 Object[] params = {
                     quote.getStock().getTicker(),
                     quote.getStock().getExchange()
@@ -269,11 +457,102 @@ public final class FetchQuotesAction extends AbstractAction implements Observer
     }
     
     private void restartTimer() {
-        fLogger.fine("Resetting initial delay and delay to: " + fUpdateFreq + " minutes.");
         fUpdateFreq = fQuoteTablePrefEditor.getUpdateFrequency();
-        fTimer.setInitialDelay(fUpdateFreq * CONVERSION_FACTOR);
-        fTimer.setDelay(fUpdateFreq * CONVERSION_FACTOR);
-        fLogger.fine("Cancelling pending tasks, and restarting timer...");
-        fTimer.restart();
+        fLogger.fine("Resetting interval to: " + fUpdateFreq + " minutes.");
+        fScheduler.setInterval(fUpdateFreq * CONVERSION_FACTOR);
+    }
+
+    /** Show the result of the latest portfolio write, or that one is under way. */
+    private void showWriteStatus() {
+        String failure = fCurrentPortfolio.getWriteFailure();
+        if (failure != null) {
+            fSummaryView.showStatusMessage(failure);
+        } else if (fCurrentPortfolio.isWritePending()) {
+            fSummaryView.showStatusMessage("Saving...");
+        } else {
+            fSummaryView.showStatusMessage("Saved.");
+        }
+    }
+
+    private void startFeed() {
+        try {
+            fFeed = QuoteFeed.fromSystemProperty(new QuoteListener() {
+                @Override
+                public void quoteReceived(Quote aQuote) {
+                    feedUpdateReceived(aQuote);
+                }
+            });
+        } catch (IOException | IllegalArgumentException ex) {
+            fLogger.severe("Cannot start quote feed: " + ex);
+        }
+        if (fFeed != null) {
+            fFeed.subscribe(fCurrentPortfolio.getStocks());
+            fFeed.start();
+        }
+    }
+
+    /**
+     * Called on the thread reading the feed. Replaces any earlier pending
+     * update for the same stock, and queues at most one task to apply them.
+     * The indicators are updated here, so that every update is counted, even
+     * if it is replaced before it is shown.
+     */
+    private void feedUpdateReceived(Quote aQuote) {
+        Quote quote = fIndicators.update(aQuote, System.currentTimeMillis());
+        synchronized (fPendingUpdates) {
+            fPendingUpdates.put(quote.getStock(), quote);
+            if (fIsApplyQueued) return;
+            fIsApplyQueued = true;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                applyFeedUpdates();
+            }
+        });
+    }
+
+    /**
+     * Apply the pending feed updates to the quotes on display. While a fetch
+     * is in flight, they are kept until it completes, since the fetch may
+     * return older prices.
+     */
+    private void applyFeedUpdates() {
+        List<Quote> updates = null;
+        synchronized (fPendingUpdates) {
+            fIsApplyQueued = false;
+            if (fInFlight != null && !fInFlight.isDone()) return;
+            updates = new ArrayList<>(fPendingUpdates.values());
+            fPendingUpdates.clear();
+        }
+        recordHistory(updates);
+        if (updates.isEmpty() || fSnapshot.size() == 0) return;
+        fSnapshot = fSnapshot.withQuotes(updates);
+        fQuoteTable.setQuoteTable(fSnapshot);
+        fSummaryView.setQuotes(fSnapshot);
+        fLogger.finest("Applied " + updates.size() + " updates from quote feed.");
+    }
+
+    /**
+     * Append aQuotes to the history, in the background, and then tell the chart.
+     * If that fails, then recording stops, but quotes continue to be shown.
+     */
+    private void recordHistory(final List<Quote> aQuotes) {
+        if (fTickWriter == null) return;
+        fTickWriter.append(aQuotes, fPriceChart == null ? null : new Runnable() {
+            @Override
+            public void run() {
+                fPriceChart.ticksAppended(aQuotes);
+            }
+        });
+    }
+
+    /** Return the exchanges of the stocks in the current portfolio. */
+    private Set<Exchange> getExchanges() {
+        Set<Exchange> result = new LinkedHashSet<>();
+        for (Stock stock : fCurrentPortfolio.getStocks()) {
+            result.add(stock.getExchange());
+        }
+        return result;
     }
 }
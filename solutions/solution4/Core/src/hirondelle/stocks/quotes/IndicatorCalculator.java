@@ -0,0 +1,270 @@
+package hirondelle.stocks.quotes;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Money;
+
+/**
+* Maintains the {@link Indicators} of each stock, as its quotes arrive.
+*
+* <P>Each indicator is updated in constant time per quote, from a small amount
+* of state kept for each ticker, and never recalculated from the history of
+* prices :
+*<ul>
+* <li>the moving average keeps a ring of the last
+* {@link #MOVING_AVERAGE_TICKS} prices, and their running sum
+* <li>the exponential moving average keeps only its current value
+* <li>the relative strength index keeps the smoothed average gain and loss, as
+* defined by Wilder
+* <li>the day's high, low, and volume-weighted price keep running totals, which
+* are reset when a new day begins (UTC, as for
+* {@link hirondelle.stocks.history.TickStore})
+*</ul>
+*
+* <P>A quote identical to the previous one for the same ticker, as when a poll
+* returns a price already pushed by a feed, is not counted again. The averages
+* are therefore over the last quotes having new data, not over units of time.
+* The volume-weighted price uses the increase in the day's volume between
+* quotes, and so covers only the trading seen since the application started.
+*
+* <P>Stocks having the same ticker, in different portfolios, share their state.
+*
+* <P>This class is thread-safe.
+*/
+public final class IndicatorCalculator {
+
+  /** Number of quotes in the moving averages. */
+  public static final int MOVING_AVERAGE_TICKS = 20;
+
+  /** Number of changes in price in the relative strength index. */
+  public static final int RELATIVE_STRENGTH_TICKS = 14;
+
+  /**
+  * Add <tt>aQuote</tt>, received at <tt>aTime</tt>, to the indicators of its
+  * ticker, and return a copy of it which holds them. A quote having a zero
+  * price, which indicates a failed fetch, is not added, and receives the
+  * current indicators.
+  */
+  public synchronized Quote update(Quote aQuote, long aTime){
+    Args.checkForNull(aQuote);
+    String ticker = aQuote.getStock().getQualifiedTicker();
+    State state = fStates.get(ticker);
+    if ( state == null ) {
+      state = new State();
+      fStates.put(ticker, state);
+    }
+    if ( ! aQuote.getPrice().isZero() && ! state.isRepeat(aQuote) ) {
+      state.add(aQuote, startOfDay(aTime));
+    }
+    return aQuote.withIndicators(state.fIndicators);
+  }
+
+  /**
+  * Add each of <tt>aQuotes</tt>, as in {@link #update(Quote, long)}, and return
+  * the copies, in the same order.
+  */
+  public synchronized List<Quote> update(List<Quote> aQuotes, long aTime){
+    List<Quote> result = new ArrayList<>(aQuotes.size());
+    for(Quote quote : aQuotes){
+      result.add(update(quote, aTime));
+    }
+    return result;
+  }
+
+  // PRIVATE
+
+  private static final long MILLIS_PER_DAY =
+    24L * 60 * Consts.SECONDS_PER_MINUTE * Consts.MILLISECONDS_PER_SECOND
+  ;
+
+  /** Weight of the newest price in the exponential moving average. */
+  private static final double EMA_WEIGHT = 2.0 / (MOVING_AVERAGE_TICKS + 1);
+
+  /** The index is held as a Money, having two decimals. */
+  private static final int PERCENT_FACTOR = 100;
+
+  private final Map<String, State> fStates = new HashMap<>();
+
+  private static long startOfDay(long aTime){
+    long result = aTime - (aTime % MILLIS_PER_DAY);
+    return aTime < 0 && result != aTime ? result - MILLIS_PER_DAY : result;
+  }
+
+  /** The running state of the indicators of one ticker. Prices are unscaled. */
+  private static final class State {
+    Indicators fIndicators = Indicators.NONE;
+
+    /** The previous quote added, used only to detect repeats. */
+    private Quote fLast;
+
+    private final long[] fWindow = new long[MOVING_AVERAGE_TICKS];
+    private int fWindowSize;
+    private int fWindowNext;
+    private long fWindowSum;
+
+    private double fExpAverage;
+
+    private long fLastPrice;
+    private int fNumChanges;
+    private double fAverageGain;
+    private double fAverageLoss;
+
+    private long fDay = Long.MIN_VALUE;
+    private long fDayHigh;
+    private long fDayLow;
+    private long fLastVolume;
+    private double fDayPriceVolume;
+    private long fDayVolume;
+
+    boolean isRepeat(Quote aQuote){
+      return
+        fLast != null &&
+        fLast.getPrice().equals(aQuote.getPrice()) &&
+        fLast.getChange().equals(aQuote.getChange()) &&
+        fLast.getOpen().equals(aQuote.getOpen()) &&
+        fLast.getHigh().equals(aQuote.getHigh()) &&
+        fLast.getLow().equals(aQuote.getLow()) &&
+        fLast.getVolume() == aQuote.getVolume()
+      ;
+    }
+
+    void add(Quote aQuote, long aDay){
+      long price = aQuote.getPrice().getUnscaledValue();
+      boolean isFirst = fLast == null;
+      fLast = aQuote;
+
+      //moving average
+      if ( fWindowSize == fWindow.length ) {
+        fWindowSum -= fWindow[fWindowNext];
+      }
+      else {
+        ++fWindowSize;
+      }
+      fWindow[fWindowNext] = price;
+      fWindowSum += price;
+      fWindowNext = (fWindowNext + 1) % fWindow.length;
+
+      //exponential moving average, starting from the first price
+      fExpAverage = isFirst ? price : fExpAverage + EMA_WEIGHT * (price - fExpAverage);
+
+      //relative strength: simple averages for the first changes, then smoothed
+      if ( ! isFirst ) {
+        long change = price - fLastPrice;
+        double gain = Math.max(change, 0);
+        double loss = Math.max(-change, 0);
+        if ( fNumChanges < RELATIVE_STRENGTH_TICKS ) {
+          ++fNumChanges;
+          fAverageGain += (gain - fAverageGain) / fNumChanges;
+          fAverageLoss += (loss - fAverageLoss) / fNumChanges;
+        }
+        else {
+          fAverageGain = (fAverageGain * (RELATIVE_STRENGTH_TICKS - 1) + gain) / RELATIVE_STRENGTH_TICKS;
+          fAverageLoss = (fAverageLoss * (RELATIVE_STRENGTH_TICKS - 1) + loss) / RELATIVE_STRENGTH_TICKS;
+        }
+      }
+      fLastPrice = price;
+
+      //the day's range and volume-weighted price
+      if ( aDay != fDay ) {
+        fDay = aDay;
+        fDayHigh = price;
+        fDayLow = price;
+        fDayPriceVolume = 0;
+        fDayVolume = 0;
+      }
+      fDayHigh = Math.max(fDayHigh, price);
+      fDayLow = Math.min(fDayLow, price);
+      if ( ! aQuote.getHigh().isZero() ) {
+        fDayHigh = Math.max(fDayHigh, aQuote.getHigh().getUnscaledValue());
+      }
+      if ( ! aQuote.getLow().isZero() ) {
+        fDayLow = Math.min(fDayLow, aQuote.getLow().getUnscaledValue());
+      }
+      long volume = aQuote.getVolume();
+      if ( volume > 0 ) {
+        if ( fLastVolume > 0 ) {
+          //a decrease is the start of a new day at the exchange
+          long traded = volume >= fLastVolume ? volume - fLastVolume : volume;
+          fDayPriceVolume += (double)price * traded;
+          fDayVolume += traded;
+        }
+        fLastVolume = volume;
+      }
+
+      fIndicators = new Indicators(
+        fWindowSize < fWindow.length ? Money.ZERO : Money.fromUnscaled(divideRounded(fWindowSum, fWindowSize)),
+        Money.fromUnscaled(Math.round(fExpAverage)),
+        fNumChanges < RELATIVE_STRENGTH_TICKS ? Money.ZERO : Money.fromUnscaled(getRelativeStrength()),
+        Money.fromUnscaled(fDayHigh),
+        Money.fromUnscaled(fDayLow),
+        fDayVolume == 0 ? Money.ZERO : Money.fromUnscaled(Math.round(fDayPriceVolume / fDayVolume))
+      );
+    }
+
+    /** Return the index as an unscaled value, from 0 to 100.00. */
+    private long getRelativeStrength(){
+      double result = 0;
+      if ( fAverageLoss == 0 ) {
+        result = fAverageGain == 0 ? 50 : 100;
+      }
+      else {
+        result = 100 - 100 / (1 + fAverageGain / fAverageLoss);
+      }
+      return Math.round(result * PERCENT_FACTOR);
+    }
+  }
+
+  private static long divideRounded(long aDividend, long aDivisor){
+    return Math.round((double)aDividend / aDivisor);
+  }
+
+  /**
+  * Developer tool. Checks the indicators against a small series worked by
+  * hand, and reports the rate of updates for a random walk over many stocks.
+  */
+  private static void main(String... aArgs){
+    Exchange exchange = Exchange.valueFrom("NYSE Stock Exchanges");
+    Stock stock = new Stock("Sun", "SUNW", exchange, 100, new BigDecimal("4.00"));
+    IndicatorCalculator calculator = new IndicatorCalculator();
+    long day = 1389744000000L;
+    Quote quote = null;
+    for(int idx = 1; idx <= 20; ++idx){
+      //alternating falls of 0.01 and rises of 0.02 give an RSI near 66.67
+      long price = 1000 + (idx / 2) * 1 + (idx % 2) * 2;
+      quote = calculator.update(
+        new Quote(stock, Money.fromUnscaled(price), Money.ZERO, Money.fromUnscaled(1000), Money.ZERO, Money.ZERO, 1000 * idx),
+        day + idx * 1000
+      );
+    }
+    System.out.println("After 20 quotes: " + quote.getIndicators());
+    Quote repeat = calculator.update(quote, day + 30000);
+    System.out.println("Repeat ignored: " + repeat.getIndicators().equals(quote.getIndicators()));
+
+    List<Quote> quotes = new ArrayList<>();
+    for(int idx = 0; idx < 1000; ++idx){
+      StringBuilder ticker = new StringBuilder();
+      for(int rest = idx; ticker.length() == 0 || rest > 0; rest = rest / 26){
+        ticker.insert(0, (char)('A' + rest % 26));
+      }
+      quotes.add(new Quote(new Stock("Stock " + idx, ticker.toString(), exchange, 10, BigDecimal.TEN), Money.fromUnscaled(1000), Money.ZERO));
+    }
+    Random random = new Random(1);
+    for(int round = 0; round < 5; ++round){
+      int numUpdates = 1000000;
+      List<Quote> inputs = new ArrayList<>(numUpdates);
+      for(int idx = 0; idx < numUpdates; ++idx){
+        Quote base = quotes.get(random.nextInt(quotes.size()));
+        inputs.add(new Quote(base.getStock(), Money.fromUnscaled(900 + random.nextInt(200)), Money.ZERO));
+      }
+      long start = System.nanoTime();
+      for(int idx = 0; idx < numUpdates; ++idx){
+        calculator.update(inputs.get(idx), day + idx);
+      }
+      long elapsed = System.nanoTime() - start;
+      System.out.println("Updates: " + numUpdates * 1000000000L / elapsed + "/s");
+    }
+  }
+}
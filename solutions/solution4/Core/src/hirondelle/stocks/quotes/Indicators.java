@@ -0,0 +1,118 @@
+package hirondelle.stocks.quotes;
+
+import hirondelle.stocks.util.EqualsUtil;
+import hirondelle.stocks.util.HashCodeUtil;
+import hirondelle.stocks.util.Money;
+
+/**
+* Technical indicators for a {@link Stock}, as of a given {@link Quote}.
+*
+* <P>Calculated by {@link IndicatorCalculator}, from the quotes received so far,
+* and attached to the latest quote; see {@link Quote#getIndicators}. Each value
+* is zero if it is not yet known.
+*
+* <P>Immutable.
+*/
+public final class Indicators {
+
+  /** Indicators having no known values. */
+  public static final Indicators NONE = new Indicators(
+    Money.ZERO, Money.ZERO, Money.ZERO, Money.ZERO, Money.ZERO, Money.ZERO
+  );
+
+  /**
+  * Return the simple moving average of the price, over the last
+  * {@link IndicatorCalculator#MOVING_AVERAGE_TICKS} quotes.
+  */
+  public Money getMovingAverage(){
+    return fMovingAverage;
+  }
+
+  /**
+  * Return the exponential moving average of the price, whose weights have the
+  * same center of mass as {@link #getMovingAverage}.
+  */
+  public Money getExpMovingAverage(){
+    return fExpMovingAverage;
+  }
+
+  /**
+  * Return the relative strength index, from <tt>0</tt> to <tt>100</tt>, over
+  * the last {@link IndicatorCalculator#RELATIVE_STRENGTH_TICKS} changes in price.
+  */
+  public Money getRelativeStrength(){
+    return fRelativeStrength;
+  }
+
+  /** Return the highest price of the day. */
+  public Money getDayHigh(){
+    return fDayHigh;
+  }
+
+  /** Return the lowest price of the day. */
+  public Money getDayLow(){
+    return fDayLow;
+  }
+
+  /**
+  * Return the average price of the day, weighted by the volume traded at each
+  * price. Zero if the quotes have no volume.
+  */
+  public Money getVolumeWeightedPrice(){
+    return fVolumeWeightedPrice;
+  }
+
+  /** Intended for debugging only. */
+  @Override public String toString(){
+    return
+      "SMA " + fMovingAverage + " EMA " + fExpMovingAverage + " RSI " + fRelativeStrength +
+      " High " + fDayHigh + " Low " + fDayLow + " VWAP " + fVolumeWeightedPrice
+    ;
+  }
+
+  @Override public boolean equals(Object aThat) {
+    if ( this == aThat ) return true;
+    if ( !(aThat instanceof Indicators) ) return false;
+    Indicators that = (Indicators)aThat;
+    return
+      EqualsUtil.areEqual(this.fMovingAverage, that.fMovingAverage) &&
+      EqualsUtil.areEqual(this.fExpMovingAverage, that.fExpMovingAverage) &&
+      EqualsUtil.areEqual(this.fRelativeStrength, that.fRelativeStrength) &&
+      EqualsUtil.areEqual(this.fDayHigh, that.fDayHigh) &&
+      EqualsUtil.areEqual(this.fDayLow, that.fDayLow) &&
+      EqualsUtil.areEqual(this.fVolumeWeightedPrice, that.fVolumeWeightedPrice)
+    ;
+  }
+
+  @Override public int hashCode() {
+    int result = HashCodeUtil.SEED;
+    result = HashCodeUtil.hash(result, fMovingAverage);
+    result = HashCodeUtil.hash(result, fExpMovingAverage);
+    result = HashCodeUtil.hash(result, fRelativeStrength);
+    result = HashCodeUtil.hash(result, fDayHigh);
+    result = HashCodeUtil.hash(result, fDayLow);
+    result = HashCodeUtil.hash(result, fVolumeWeightedPrice);
+    return result;
+  }
+
+  // PRIVATE
+
+  private final Money fMovingAverage;
+  private final Money fExpMovingAverage;
+  private final Money fRelativeStrength;
+  private final Money fDayHigh;
+  private final Money fDayLow;
+  private final Money fVolumeWeightedPrice;
+
+  Indicators(
+    Money aMovingAverage, Money aExpMovingAverage, Money aRelativeStrength,
+    Money aDayHigh, Money aDayLow, Money aVolumeWeightedPrice
+  ){
+    fMovingAverage = aMovingAverage;
+    fExpMovingAverage = aExpMovingAverage;
+    fRelativeStrength = aRelativeStrength;
+    fDayHigh = aDayHigh;
+    fDayLow = aDayLow;
+    fVolumeWeightedPrice = aVolumeWeightedPrice;
+  }
+}
@@ -0,0 +1,111 @@
+package hirondelle.stocks.quotes;
+
+import java.util.*;
+import java.util.logging.*;
+import java.net.*;
+import java.io.*;
+
+import org.openide.util.lookup.ServiceProvider;
+
+import hirondelle.stocks.util.Util;
+import hirondelle.stocks.util.Money;
+import hirondelle.stocks.util.DataAccessException;
+
+/**
+* {@link QuoteSource} for working offline, during development and testing.
+*
+* <P>If the <tt>localquotes.url</tt> system property is set, then it is taken
+* as a <tt>file:</tt> or <tt>http:</tt> URL to a text resource in the format
+* defined by Yahoo (see {@link YahooQuoteSource}). Lines are matched to
+* {@link Stock} objects by ticker, so their order does not matter, and a local
+* web server may simply serve a fixed file. Stocks not present in the resource,
+* or all stocks if the property is not set, receive simple, fixed prices.
+*
+* <P>This source is selected by launching with <tt>-Dquotesource=local</tt>
+* (or with the older <tt>-Doffline=true</tt>).
+*/
+@ServiceProvider(service = QuoteSource.class, position = 200)
+public final class LocalQuoteSource implements QuoteSource {
+
+  /** Value returned by {@link #getName}. */
+  public static final String NAME = "local";
+
+  @Override public String getName() {
+    return NAME;
+  }
+
+  @Override public int getMaxBatchSize() {
+    return MAX_BATCH_SIZE;
+  }
+
+  @Override public List<Quote> fetch(
+    List<Stock> aStocks, QuotesDAO.UseMonitor aUseMonitor, QuoteListener aListener
+  ) throws DataAccessException {
+    Map<Stock, Quote> localQuotes = getLocalQuotes(aStocks, aUseMonitor);
+    List<Quote> result = new ArrayList<>();
+    for(Stock stock : aStocks){
+      Quote quote = localQuotes.get(stock);
+      if ( quote == null ) {
+        quote = new Quote(stock, FIXED_PRICE, FIXED_CHANGE);
+      }
+      result.add(quote);
+      aListener.quoteReceived(quote);
+    }
+    return result;
+  }
+
+  // PRIVATE
+
+  private static final int MAX_BATCH_SIZE = 500;
+
+  /** Name of the system property holding the URL of the local quote data. */
+  private static final String URL_PROPERTY = "localquotes.url";
+
+  private static final Money FIXED_PRICE = Money.fromUnscaled(1000);
+  private static final Money FIXED_CHANGE = Money.fromUnscaled(-75);
+
+  private static final Logger fLogger = Util.getLogger(LocalQuoteSource.class);
+
+  /**
+  * Return the quote of each of <tt>aStocks</tt> having a row in the local 
+  * resource, or an empty <tt>Map</tt> if no resource is configured.
+  */
+  private Map<Stock, Quote> getLocalQuotes(
+    List<Stock> aStocks, QuotesDAO.UseMonitor aUseMonitor
+  ) throws DataAccessException {
+    Map<Stock, Quote> result = new HashMap<>();
+    String urlText = System.getProperty(URL_PROPERTY);
+    if ( ! Util.textHasContent(urlText) ) return result;
+
+    URL url = null;
+    try {
+      url = new URL(urlText);
+    }
+    catch (MalformedURLException ex){
+      throw new DataAccessException("Cannot create local quotes Url using: " + urlText, ex);
+    }
+    try (InputStream input = YahooQuoteFormat.openStream(url, aUseMonitor.getValue())) {
+      Map<String, List<Stock>> stocksByTicker = new HashMap<>();
+      for(Stock stock : aStocks){
+        String ticker = YahooQuoteFormat.getYahooTicker(stock);
+        if ( ! stocksByTicker.containsKey(ticker) ) {
+          stocksByTicker.put(ticker, new ArrayList<Stock>());
+        }
+        stocksByTicker.get(ticker).add(stock);
+      }
+      QuoteCsvParser parser = new QuoteCsvParser(input);
+      while ( parser.nextRow() ) {
+        List<Stock> stocks = stocksByTicker.get(parser.getTicker());
+        if ( stocks == null ) continue;
+        for(Stock stock : stocks){
+          result.put(stock, parser.getQuote(stock));
+        }
+      }
+    }
+    catch (IOException ex){
+      throw new DataAccessException("Cannot access local quote data at " + url, ex);
+    }
+    fLogger.fine("Read " + result.size() + " local quotes from " + url);
+    return result;
+  }
+}
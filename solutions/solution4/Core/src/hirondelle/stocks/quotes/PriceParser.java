@@ -0,0 +1,312 @@
+package hirondelle.stocks.quotes;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+import hirondelle.stocks.util.Consts;
+
+/**
+* Decodes prices, as sent by Yahoo, directly from characters into a whole number
+* of cents.
+*
+* <P>Prices from Yahoo are in four forms, each of which may have a leading
+* algebraic sign :
+*<ul>
+* <li><tt>78 5/8</tt> (characterized by space and slash)
+* <li><tt>78.625</tt>
+* <li><tt>5/8</tt>
+* <li><tt>.01</tt>
+*</ul>
+*
+* <P>All forms are rounded to {@link Consts#MONEY_DECIMAL_PLACES}, using
+* {@link Consts#MONEY_ROUNDING_STYLE}. No objects are created while parsing;
+* callers hold the result as {@link hirondelle.stocks.util.Money}, using
+* <tt>Money.fromUnscaled</tt>.
+*/
+final class PriceParser {
+
+  /**
+  * Returned by the parse methods when the text is not a price in any of the
+  * expected forms, or has too many digits to be held as a <tt>long</tt>.
+  */
+  static final long NOT_A_PRICE = Long.MIN_VALUE;
+
+  /**
+  * Parse <tt>aText</tt>, and return the price as a whole number of cents, or
+  * {@link #NOT_A_PRICE}. Leading and trailing spaces are ignored.
+  *
+  * <P>Convenience method, which copies <tt>aText</tt>; prefer
+  * {@link #parseCents(char[], int, int)} when the characters are already in a
+  * buffer.
+  */
+  static long parseCents(CharSequence aText){
+    int length = aText.length();
+    char[] chars = new char[length];
+    for(int idx = 0; idx < length; ++idx){
+      chars[idx] = aText.charAt(idx);
+    }
+    return parseCents(chars, 0, length);
+  }
+
+  /**
+  * Parse the characters of <tt>aText</tt> starting at index <tt>aStart</tt>, and
+  * ending just before index <tt>aEnd</tt>, and return the price as a whole number
+  * of cents, or {@link #NOT_A_PRICE}. Leading and trailing spaces are ignored.
+  */
+  static long parseCents(char[] aText, int aStart, int aEnd){
+    int start = aStart;
+    int end = aEnd;
+    while ( start < end && aText[start] == ' ' ) ++start;
+    while ( end > start && aText[end - 1] == ' ' ) --end;
+    if ( start == end ) return NOT_A_PRICE;
+
+    boolean isNegative = false;
+    if ( aText[start] == '-' || aText[start] == '+' ) {
+      isNegative = (aText[start] == '-');
+      ++start;
+    }
+
+    int slash = indexOf(aText, start, end, '/');
+    long result = NOT_A_PRICE;
+    if ( slash == NONE ) {
+      result = parseDecimal(aText, start, end);
+    }
+    else {
+      int space = indexOf(aText, start, slash, ' ');
+      long dollars = 0;
+      int fractionStart = start;
+      if ( space != NONE ) {
+        dollars = parseWhole(aText, start, space);
+        fractionStart = space + 1;
+        while ( fractionStart < slash && aText[fractionStart] == ' ' ) ++fractionStart;
+      }
+      long fraction = parseFraction(aText, fractionStart, slash, end);
+      if ( dollars != NOT_A_PRICE && fraction != NOT_A_PRICE ) {
+        result = dollars * CENTS_PER_DOLLAR + fraction;
+      }
+    }
+    if ( result == NOT_A_PRICE ) return NOT_A_PRICE;
+    return isNegative ? -result : result;
+  }
+
+  // PRIVATE
+
+  private static final int NONE = -1;
+  private static final long CENTS_PER_DOLLAR = 100;
+
+  /**
+  * Upper bound on the number of digits in any one part of a price, which
+  * ensures that no intermediate result overflows a <tt>long</tt>.
+  */
+  private static final int MAX_DIGITS = 15;
+
+  /** Disallow object construction. */
+  private PriceParser(){
+    throw new AssertionError();
+  }
+
+  private static int indexOf(char[] aText, int aStart, int aEnd, char aTarget){
+    for(int idx = aStart; idx < aEnd; ++idx){
+      if ( aText[idx] == aTarget ) return idx;
+    }
+    return NONE;
+  }
+
+  /** Parse an unsigned integer, such as the dollar part of <tt>78 5/8</tt>. */
+  private static long parseWhole(char[] aText, int aStart, int aEnd){
+    if ( aStart == aEnd || aEnd - aStart > MAX_DIGITS ) return NOT_A_PRICE;
+    long result = 0;
+    for(int idx = aStart; idx < aEnd; ++idx){
+      int digit = aText[idx] - '0';
+      if ( digit < 0 || digit > 9 ) return NOT_A_PRICE;
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+
+  /**
+  * Parse an unsigned decimal, such as <tt>78.625</tt> or <tt>.01</tt>, into
+  * cents. Digits beyond the cents are used only for rounding.
+  */
+  private static long parseDecimal(char[] aText, int aStart, int aEnd){
+    int point = indexOf(aText, aStart, aEnd, '.');
+    int wholeEnd = (point == NONE) ? aEnd : point;
+    long dollars = 0;
+    if ( wholeEnd > aStart ) {
+      dollars = parseWhole(aText, aStart, wholeEnd);
+      if ( dollars == NOT_A_PRICE ) return NOT_A_PRICE;
+    }
+    else if ( point == NONE || point + 1 == aEnd ) {
+      //no digits at all
+      return NOT_A_PRICE;
+    }
+
+    long cents = 0;
+    int roundingDigit = 0;
+    boolean hasRemainder = false;
+    if ( point != NONE ) {
+      for(int idx = point + 1; idx < aEnd; ++idx){
+        int digit = aText[idx] - '0';
+        if ( digit < 0 || digit > 9 ) return NOT_A_PRICE;
+        int position = idx - point;
+        if ( position <= Consts.MONEY_DECIMAL_PLACES ) {
+          cents = cents * 10 + digit;
+        }
+        else if ( position == Consts.MONEY_DECIMAL_PLACES + 1 ) {
+          roundingDigit = digit;
+        }
+        else if ( digit != 0 ) {
+          hasRemainder = true;
+        }
+      }
+      for(int position = aEnd - point - 1; position < Consts.MONEY_DECIMAL_PLACES; ++position){
+        cents = cents * 10;
+      }
+    }
+    long result = dollars * CENTS_PER_DOLLAR + cents;
+    //round half-even, as in Consts.MONEY_ROUNDING_STYLE
+    if ( roundingDigit > 5 || (roundingDigit == 5 && (hasRemainder || result % 2 == 1)) ) {
+      ++result;
+    }
+    return result;
+  }
+
+  /**
+  * Parse an unsigned fraction, such as <tt>5/8</tt>, into cents. A zero
+  * denominator is taken as a zero fraction.
+  */
+  private static long parseFraction(char[] aText, int aStart, int aSlash, int aEnd){
+    long numerator = parseWhole(aText, aStart, aSlash);
+    long denominator = parseWhole(aText, aSlash + 1, aEnd);
+    if ( numerator == NOT_A_PRICE || denominator == NOT_A_PRICE ) return NOT_A_PRICE;
+    if ( denominator == 0 ) return 0;
+    if ( numerator > Long.MAX_VALUE / CENTS_PER_DOLLAR ) return NOT_A_PRICE;
+    long scaled = numerator * CENTS_PER_DOLLAR;
+    long result = scaled / denominator;
+    long twiceRemainder = 2 * (scaled % denominator);
+    //round half-even; the parity of the whole dollars never matters
+    if ( twiceRemainder > denominator || (twiceRemainder == denominator && result % 2 == 1) ) {
+      ++result;
+    }
+    return result;
+  }
+
+  /**
+  * Developer tool. Checks this class against <tt>BigDecimal</tt> arithmetic for
+  * every decimal price of up to seven digits, and for a range of fractions, then
+  * compares the speed of this class with the older <tt>BigDecimal</tt> and
+  * <tt>StringTokenizer</tt> parsing.
+  *
+  * <P>The older parsing divides the numerator of a fraction by its denominator at
+  * a scale of 0, so that <tt>78 5/8</tt> became <tt>79.00</tt>, instead of
+  * <tt>78.62</tt>. Such differences are counted, but are not failures.
+  */
+  private static void main(String... aArgs) {
+    int failures = 0;
+    int checked = 0;
+    String[] signs = {"", "-", "+"};
+    for(int units = 0; units < 10000000; ++units){
+      for(int scale = 0; scale <= 4; ++scale){
+        BigDecimal value = BigDecimal.valueOf(units, scale);
+        String sign = signs[units % signs.length];
+        String text = sign + value.toPlainString();
+        BigDecimal expected = new BigDecimal(text).setScale(
+          Consts.MONEY_DECIMAL_PLACES, Consts.MONEY_ROUNDING_STYLE
+        );
+        BigDecimal actual = BigDecimal.valueOf(parseCents(text), Consts.MONEY_DECIMAL_PLACES);
+        if ( ! actual.equals(expected) ) {
+          if ( ++failures < 10 ) System.out.println("Mismatch: " + text);
+        }
+        ++checked;
+      }
+    }
+    int legacyDifferences = 0;
+    int[] denominators = {2, 3, 4, 7, 8, 16, 32, 64, 256};
+    for(int dollars = 0; dollars <= 500; ++dollars){
+      for(int denominator : denominators){
+        for(int numerator = 0; numerator <= denominator; ++numerator){
+          String fraction = numerator + "/" + denominator;
+          String text = (dollars == 0) ? fraction : dollars + " " + fraction;
+          BigDecimal expected = BigDecimal.valueOf(dollars).add(
+            BigDecimal.valueOf(numerator).divide(
+              BigDecimal.valueOf(denominator), Consts.MONEY_DECIMAL_PLACES, RoundingMode.HALF_EVEN
+            )
+          );
+          BigDecimal actual = BigDecimal.valueOf(parseCents(text), Consts.MONEY_DECIMAL_PLACES);
+          BigDecimal negated = BigDecimal.valueOf(parseCents("-" + text), Consts.MONEY_DECIMAL_PLACES);
+          if ( ! actual.equals(expected) || ! negated.equals(expected.negate()) ) {
+            if ( ++failures < 10 ) System.out.println("Mismatch: " + text);
+          }
+          if ( actual.compareTo(legacyParse(text)) != 0 ) {
+            ++legacyDifferences;
+          }
+          ++checked;
+        }
+      }
+    }
+    System.out.println(
+      "Checked: " + checked + " Failures: " + failures +
+      " Fractions differing from older parsing: " + legacyDifferences
+    );
+
+    List<String> samples = Arrays.asList(
+      "12.50", "4.14", "149.4387", ".01", "78 5/8", "5/8", "1034.125", "0.00"
+    );
+    for(int round = 0; round < 5; ++round){
+      long start = System.nanoTime();
+      long total = 0;
+      for(int idx = 0; idx < 1000000; ++idx){
+        total += parseCents(samples.get(idx % samples.size()));
+      }
+      long fast = System.nanoTime() - start;
+      start = System.nanoTime();
+      for(int idx = 0; idx < 1000000; ++idx){
+        total += legacyParse(samples.get(idx % samples.size())).signum();
+      }
+      long legacy = System.nanoTime() - start;
+      System.out.println(
+        "Char parsing: " + fast / 1000000 + "ms  Older parsing: " + legacy / 1000000 +
+        "ms  (" + total + ")"
+      );
+    }
+  }
+
+  /** The older algorithm, retained only for comparison. */
+  private static BigDecimal legacyParse(String aPrice){
+    BigDecimal zero = Consts.ZERO_MONEY_WITH_DECIMAL;
+    BigDecimal result = zero;
+    BigDecimal dollars = zero;
+    BigDecimal numerator = zero;
+    BigDecimal denominator = zero;
+    aPrice = aPrice.trim();
+    if (aPrice.indexOf('/') != -1) {
+      StringTokenizer parser = new StringTokenizer(aPrice);
+      while (parser.hasMoreElements()) {
+        String token = parser.nextToken();
+        if (token.indexOf('/') == -1) {
+          dollars = new BigDecimal(token);
+        }
+        else {
+          StringTokenizer fractionParser = new StringTokenizer(token,"/");
+          numerator = new BigDecimal(fractionParser.nextToken());
+          denominator = new BigDecimal(fractionParser.nextToken());
+        }
+      }
+      if (!denominator.equals(zero)){
+        result = dollars.add(
+          numerator.divide(denominator, Consts.MONEY_ROUNDING_STYLE).setScale(
+            Consts.MONEY_DECIMAL_PLACES, Consts.MONEY_ROUNDING_STYLE
+          )
+        );
+      }
+      else {
+        result = dollars;
+      }
+    }
+    else {
+      result = new BigDecimal(aPrice);
+    }
+    return result.setScale(Consts.MONEY_DECIMAL_PLACES, Consts.MONEY_ROUNDING_STYLE);
+  }
+}
@@ -4,17 +4,26 @@ import java.math.BigDecimal;
 
 import hirondelle.stocks.util.HashCodeUtil;
 import hirondelle.stocks.util.EqualsUtil;
-import hirondelle.stocks.util.Util;
-import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Money;
 
 /** 
 * Data-centric, immutable value class which represents the 
 * dynamic price data attached to a {@link Stock}.
+*
+* <P>The derived values - percent change, current value, profit, and percent 
+* profit - are calculated once, in the constructor, since they are read many 
+* times while sorting and rendering a table of quotes. They are held in 
+* <tt>final</tt> fields, so they are safely published to all threads.
+*
+* <P>A quote may also carry the {@link Indicators} of its stock, which depend on
+* the quotes received before it, and are attached by an {@link IndicatorCalculator}.
 */
 public final class Quote  { 
   
   /**
-  * Constructor.
+  * Constructor, for a quote having only a price and a change. The opening price 
+  * is taken as the price less the change (or zero, if that is negative), and 
+  * the high, low, and volume as unknown. 
   *  
   * @param aStock satisfies <tt>aStock!=null</tt> 
   * @param aCurrentPrice current price of <tt>aStock</tt>,and 
@@ -22,11 +31,58 @@ public final class Quote  {
   * @param aChange current price less the opening price of <tt>aStock</tt>, 
   * and satisfies <tt>aChange!=null</tt> 
   */
-  public Quote(Stock aStock, BigDecimal aCurrentPrice, BigDecimal aChange) {
+  public Quote(Stock aStock, Money aCurrentPrice, Money aChange) {
+    this(
+      aStock, aCurrentPrice, aChange, deriveOpen(aCurrentPrice, aChange), 
+      Money.ZERO, Money.ZERO, 0
+    );
+  }
+
+  /**
+  * Full constructor.
+  *  
+  * <P>See {@link #Quote(Stock, Money, Money)} for conditions on the first three
+  * parameters. The high, low, and volume are for the current trading day.
+  *
+  * @param aOpen opening price, satisfies <tt>aOpen!=null && aOpen>=0</tt>
+  * @param aHigh highest price, satisfies <tt>aHigh!=null && aHigh>=0</tt>; 
+  * zero if not known
+  * @param aLow lowest price, satisfies <tt>aLow!=null && aLow>=0</tt>; zero if 
+  * not known
+  * @param aVolume number of shares traded, satisfies <tt>aVolume>=0</tt>; zero 
+  * if not known
+  */
+  public Quote(
+    Stock aStock, Money aCurrentPrice, Money aChange, 
+    Money aOpen, Money aHigh, Money aLow, long aVolume
+  ) {
     fStock = aStock;
     fCurrentPrice = aCurrentPrice;
     fChange = aChange;
+    fOpen = aOpen;
+    fHigh = aHigh;
+    fLow = aLow;
+    fVolume = aVolume;
     validateState();
+    fPercentChange = calcPercentChange();
+    fCurrentValue = fCurrentPrice.times(fStock.getNumShares());
+    fProfit = fCurrentValue.minus(fStock.getBookValue());
+    fPercentProfit = calcPercentProfit();
+    fIndicators = Indicators.NONE;
+  }
+
+  /**
+  * Constructor, taking prices as <tt>BigDecimal</tt> objects, which are rounded 
+  * as described by {@link Money#valueOf}.
+  *  
+  * <P>See {@link #Quote(Stock, Money, Money)} for conditions on the parameters.
+  */
+  public Quote(Stock aStock, BigDecimal aCurrentPrice, BigDecimal aChange) {
+    this(
+      aStock, 
+      aCurrentPrice == null ? null : Money.valueOf(aCurrentPrice), 
+      aChange == null ? null : Money.valueOf(aChange)
+    );
   }
 
   /**
@@ -35,13 +91,8 @@ public final class Quote  {
   *
   * <P>Example: current price=1.00 and change=0.20, returns a value of 25.00.
   */
-  public BigDecimal getPercentChange(){
-    BigDecimal result = new BigDecimal("0.00");
-    if( ! Util.isZeroMoney(getPrice()) ){
-      result = getChange().divide(getOpeningPrice(), EXTRA_DECIMALS, ROUNDING_MODE);
-      result = rounded(result.multiply(HUNDRED));
-    }
-    return result;
+  public Money getPercentChange(){
+    return fPercentChange;
   }
   
   /**
@@ -50,16 +101,15 @@ public final class Quote  {
   * Represents the current value of the holding, using the latest available 
   * price quote.
   */
-  public BigDecimal getCurrentValue(){
-    BigDecimal numShares = new BigDecimal( getStock().getNumShares().toString() );
-    return  numShares.multiply( getPrice() );
+  public Money getCurrentValue(){
+    return fCurrentValue;
   }
   
   /**
   * Return {@link #getCurrentValue} less {@link Stock#getBookValue}.
   */
-  public BigDecimal getProfit(){
-    return getCurrentValue().subtract( getStock().getBookValue() );
+  public Money getProfit(){
+    return fProfit;
   }
   
   /**
@@ -67,14 +117,8 @@ public final class Quote  {
   * by 100; if {@link Stock#getBookValue} or {@link #getPrice} returns 0,
   * then this method returns 0.
   */
-  public BigDecimal getPercentProfit(){
-    BigDecimal result = new BigDecimal("0.00");
-    BigDecimal bookValue = getStock().getBookValue();
-    if ( ! Util.isZeroMoney(bookValue) && ! Util.isZeroMoney(getPrice()) )  {
-      result = getProfit().divide(bookValue, EXTRA_DECIMALS, ROUNDING_MODE);
-      result = rounded(result.multiply(HUNDRED));
-    }
-    return result;
+  public Money getPercentProfit(){
+    return fPercentProfit;
   }
 
   /**
@@ -87,17 +131,53 @@ public final class Quote  {
   /**
   * Return the <tt>aPrice</tt> passed to the constructor.
   */
-  public BigDecimal getPrice() {
+  public Money getPrice() {
     return fCurrentPrice;
   }
 
   /**
   * Return the <tt>aChange</tt> passed to the constructor.
   */
-  public BigDecimal getChange() {
+  public Money getChange() {
     return fChange;
   }
 
+  /**
+  * Return the <tt>aOpen</tt> passed to the constructor.
+  */
+  public Money getOpen() {
+    return fOpen;
+  }
+
+  /**
+  * Return the <tt>aHigh</tt> passed to the constructor; zero if not known.
+  */
+  public Money getHigh() {
+    return fHigh;
+  }
+
+  /**
+  * Return the <tt>aLow</tt> passed to the constructor; zero if not known.
+  */
+  public Money getLow() {
+    return fLow;
+  }
+
+  /**
+  * Return the <tt>aVolume</tt> passed to the constructor; zero if not known.
+  */
+  public long getVolume() {
+    return fVolume;
+  }
+
+  /**
+  * Return the technical indicators of the stock, as of this quote; 
+  * {@link Indicators#NONE} if none have been attached.
+  */
+  public Indicators getIndicators() {
+    return fIndicators;
+  }
+
   /**
   * Represent this object as a String - intended for logging purposes only.
   */
@@ -109,11 +189,15 @@ public final class Quote  {
     result.append(newLine);
 
     result.append("Stock: ").append(fStock).append(newLine);
-    result.append("Opening Price: ").append(getOpeningPrice()).append(newLine);
+    result.append("Opening Price: ").append(fOpen).append(newLine);
     result.append("Current Price: ").append(fCurrentPrice).append(newLine);
+    result.append("High: ").append(fHigh).append(newLine);
+    result.append("Low: ").append(fLow).append(newLine);
+    result.append("Volume: ").append(fVolume).append(newLine);
     result.append("Change: ").append(fChange).append(newLine);
     result.append("%Change: ").append(getPercentChange()).append(newLine);
     result.append("%Profit: ").append(getPercentProfit()).append(newLine);
+    result.append("Indicators: ").append(fIndicators).append(newLine);
     
     result.append("}");
     result.append(newLine);
@@ -127,7 +211,12 @@ public final class Quote  {
     return 
       EqualsUtil.areEqual(this.fStock, that.fStock) &&
       EqualsUtil.areEqual(this.fCurrentPrice, that.fCurrentPrice) &&
-      EqualsUtil.areEqual(this.fChange, that.fChange)
+      EqualsUtil.areEqual(this.fChange, that.fChange) &&
+      EqualsUtil.areEqual(this.fOpen, that.fOpen) &&
+      EqualsUtil.areEqual(this.fHigh, that.fHigh) &&
+      EqualsUtil.areEqual(this.fLow, that.fLow) &&
+      this.fVolume == that.fVolume &&
+      EqualsUtil.areEqual(this.fIndicators, that.fIndicators)
     ;
   }
 
@@ -136,35 +225,82 @@ public final class Quote  {
     result = HashCodeUtil.hash(result, fStock);
     result = HashCodeUtil.hash(result, fCurrentPrice);
     result = HashCodeUtil.hash(result, fChange);
+    result = HashCodeUtil.hash(result, fOpen);
+    result = HashCodeUtil.hash(result, fHigh);
+    result = HashCodeUtil.hash(result, fLow);
+    result = HashCodeUtil.hash(result, fVolume);
+    result = HashCodeUtil.hash(result, fIndicators);
     return result;
   }
 
+  /** Return a copy of this quote, carrying <tt>aIndicators</tt>. */
+  Quote withIndicators(Indicators aIndicators) {
+    if ( aIndicators.equals(fIndicators) ) return this;
+    return new Quote(this, aIndicators);
+  }
+
   // PRIVATE  
   private final Stock fStock;
-  private final BigDecimal fCurrentPrice;
-  private final BigDecimal fChange;
-  private static final int DECIMALS = 2;
-  private static int EXTRA_DECIMALS = 4;
-  private static final int ROUNDING_MODE = BigDecimal.ROUND_HALF_EVEN;
-  private static BigDecimal HUNDRED = new BigDecimal("100");
-  private static final BigDecimal ZERO = Consts.ZERO_MONEY_WITH_DECIMAL;
+  private final Money fCurrentPrice;
+  private final Money fChange;
+  private final Money fOpen;
+  private final Money fHigh;
+  private final Money fLow;
+  private final long fVolume;
+  private final Money fPercentChange;
+  private final Money fCurrentValue;
+  private final Money fProfit;
+  private final Money fPercentProfit;
+  private final Indicators fIndicators;
+
+  /** Copy constructor; the derived values are reused, not calculated again. */
+  private Quote(Quote aQuote, Indicators aIndicators) {
+    fStock = aQuote.fStock;
+    fCurrentPrice = aQuote.fCurrentPrice;
+    fChange = aQuote.fChange;
+    fOpen = aQuote.fOpen;
+    fHigh = aQuote.fHigh;
+    fLow = aQuote.fLow;
+    fVolume = aQuote.fVolume;
+    fPercentChange = aQuote.fPercentChange;
+    fCurrentValue = aQuote.fCurrentValue;
+    fProfit = aQuote.fProfit;
+    fPercentProfit = aQuote.fPercentProfit;
+    fIndicators = aIndicators;
+  }
   
   private void validateState() {
     boolean hasValidState = 
       (fStock!=null) &&
-      (fCurrentPrice!=null &&  fCurrentPrice.compareTo(ZERO) >= 0) &&
-      (fChange!=null)
+      (fCurrentPrice!=null &&  fCurrentPrice.signum() >= 0) &&
+      (fChange!=null) &&
+      (fOpen!=null && fOpen.signum() >= 0) &&
+      (fHigh!=null && fHigh.signum() >= 0) &&
+      (fLow!=null && fLow.signum() >= 0) &&
+      (fVolume >= 0)
     ;
     if ( !hasValidState ) throw new IllegalArgumentException(this.toString());
   }
   
-  private BigDecimal getOpeningPrice(){
-    return getPrice().subtract( getChange() );  
+  private static Money deriveOpen(Money aCurrentPrice, Money aChange){
+    if ( aCurrentPrice == null || aChange == null ) return null;
+    Money result = aCurrentPrice.minus(aChange);
+    return result.signum() < 0 ? Money.ZERO : result;
+  }
+
+  private Money getOpeningPrice(){
+    return getPrice().minus( getChange() );  
+  }
+
+  private Money calcPercentChange(){
+    if ( fCurrentPrice.isZero() ) return Money.ZERO;
+    return fChange.percentOf(getOpeningPrice());
+  }
+
+  private Money calcPercentProfit(){
+    if ( fCurrentPrice.isZero() ) return Money.ZERO;
+    return fProfit.percentOf(fStock.getBookValue());
   }
-  
-  private BigDecimal rounded(BigDecimal aNumber){
-    return aNumber.setScale(DECIMALS, ROUNDING_MODE);
-  }  
   
   private static void main(String... aArgs){
     Exchange NYSE = Exchange.valueFrom("NYSE Stock Exchanges");
@@ -0,0 +1,144 @@
+package hirondelle.stocks.quotes;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Money;
+
+/**
+* Recently fetched prices, shared by all portfolios.
+*
+* <P>Entries are keyed by the Yahoo ticker of a {@link Stock} - its ticker and
+* exchange suffix - and not by the <tt>Stock</tt> itself, whose identity
+* includes the number of shares and average price. Two portfolios holding the
+* same stock therefore share a single entry, and a {@link Quote} is built for
+* each requesting <tt>Stock</tt> from the cached prices and volume.
+*
+* <P>An entry is used only while it is younger than the time-to-live passed to
+* the constructor. When the cache is full, the least recently used entry is
+* evicted. Quotes having a zero price, which indicates an unknown ticker or a
+* failed fetch, are never cached.
+*
+* <P>This class is thread-safe.
+*/
+final class QuoteCache {
+
+  /**
+  * Constructor.
+  *
+  * @param aTimeToLive number of milliseconds for which a price may be reused.
+  * @param aMaxSize maximum number of tickers held, greater than <tt>0</tt>.
+  */
+  QuoteCache(long aTimeToLive, int aMaxSize){
+    if ( aMaxSize <= 0 ) {
+      throw new IllegalArgumentException("Cache size must be positive: " + aMaxSize);
+    }
+    fTimeToLiveNanos = aTimeToLive * NANOS_PER_MILLI;
+    fMaxSize = aMaxSize;
+  }
+
+  /**
+  * Return a {@link Quote} for <tt>aStock</tt> built from a fresh cached price,
+  * or <tt>null</tt> if there is none.
+  */
+  synchronized Quote get(Stock aStock){
+    CachedPrice entry = fEntries.get(YahooQuoteFormat.getYahooTicker(aStock));
+    if ( entry == null || System.nanoTime() - entry.fFetchedAt >= fTimeToLiveNanos ) {
+      ++fNumMisses;
+      return null;
+    }
+    ++fNumHits;
+    Quote cached = entry.fQuote;
+    return new Quote(
+      aStock, cached.getPrice(), cached.getChange(), 
+      cached.getOpen(), cached.getHigh(), cached.getLow(), cached.getVolume()
+    );
+  }
+
+  /** Add or replace the price for the stock of <tt>aQuote</tt>. */
+  synchronized void put(Quote aQuote){
+    Args.checkForNull(aQuote);
+    if ( aQuote.getPrice().isZero() ) return;
+    fEntries.put(
+      YahooQuoteFormat.getYahooTicker(aQuote.getStock()),
+      new CachedPrice(aQuote, System.nanoTime())
+    );
+  }
+
+  /** Remove all entries. The statistics are retained. */
+  synchronized void clear(){
+    fEntries.clear();
+  }
+
+  /** Return a one-line summary of the hits, misses, evictions, and size. */
+  synchronized String getStatistics(){
+    return
+      "Quote cache hits: " + fNumHits + ", misses: " + fNumMisses +
+      ", evictions: " + fNumEvictions + ", size: " + fEntries.size()
+    ;
+  }
+
+  // PRIVATE
+
+  private static final long NANOS_PER_MILLI = 1000000;
+
+  private final long fTimeToLiveNanos;
+  private final int fMaxSize;
+  private long fNumHits;
+  private long fNumMisses;
+  private long fNumEvictions;
+
+  /** Access order, so that the eldest entry is the least recently used. */
+  private final Map<String, CachedPrice> fEntries = 
+    new LinkedHashMap<String, CachedPrice>(16, 0.75f, true) {
+    @Override protected boolean removeEldestEntry(Map.Entry<String, CachedPrice> aEldest) {
+      boolean result = size() > fMaxSize;
+      if ( result ) {
+        ++fNumEvictions;
+      }
+      return result;
+    }
+    private static final long serialVersionUID = 1L;
+  };
+
+  private static final class CachedPrice {
+    CachedPrice(Quote aQuote, long aFetchedAt){
+      fQuote = aQuote;
+      fFetchedAt = aFetchedAt;
+    }
+    /** The prices and volume are used; the stock is not. */
+    final Quote fQuote;
+    final long fFetchedAt;
+  }
+
+  /**
+  * Developer tool. Checks expiry, sharing between stocks having different
+  * holdings, and eviction of the least recently used ticker.
+  */
+  private static void main(String... aArgs) throws InterruptedException {
+    Exchange exchange = Exchange.valueFrom("NYSE Stock Exchanges");
+    Stock mine = new Stock("Sun", "SUNW", exchange, 100, new BigDecimal("4.00"));
+    Stock yours = new Stock("Sun", "SUNW", exchange, 5, new BigDecimal("9.50"));
+    Stock other = new Stock("IBM", "IBM", exchange, 10, new BigDecimal("80.00"));
+    Stock third = new Stock("Intel", "INTC", exchange, 10, new BigDecimal("20.00"));
+
+    QuoteCache cache = new QuoteCache(200, 2);
+    cache.put(new Quote(mine, Money.fromUnscaled(414), Money.fromUnscaled(-15)));
+    Quote shared = cache.get(yours);
+    System.out.println(
+      "Shared by other holdings: " + (shared != null && shared.getStock() == yours)
+    );
+    cache.put(new Quote(other, Money.fromUnscaled(8000), Money.ZERO));
+    cache.get(mine);
+    cache.put(new Quote(third, Money.fromUnscaled(2000), Money.ZERO));
+    System.out.println(
+      "Least recently used evicted: " + (cache.get(other) == null && cache.get(mine) != null)
+    );
+    cache.put(new Quote(other, Money.ZERO, Money.ZERO));
+    System.out.println("Zero price not cached: " + (cache.get(other) == null));
+    Thread.sleep(300);
+    System.out.println("Expired: " + (cache.get(mine) == null));
+    System.out.println(cache.getStatistics());
+  }
+}
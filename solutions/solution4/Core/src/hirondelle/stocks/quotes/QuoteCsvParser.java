@@ -0,0 +1,333 @@
+package hirondelle.stocks.quotes;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Money;
+
+/**
+* Single-pass, streaming parser for quote data in the format defined by Yahoo.
+*
+* <P>Reads rows directly from an <tt>InputStream</tt>, one at a time, so that each
+* {@link Quote} can be built as soon as its row has arrived. Each row is held in a
+* reusable character buffer, and fields are identified by their offsets within
+* that buffer; no <tt>String</tt> is created for a field unless the caller asks
+* for one. Prices are parsed directly from the characters, by {@link PriceParser}.
+*
+* <P>The response is ASCII text. This class is not thread-safe; each stream has
+* its own parser.
+*/
+final class QuoteCsvParser {
+
+  /**
+  * Constructor.
+  *
+  * @param aInput is read from, but not closed, by this object.
+  */
+  QuoteCsvParser(InputStream aInput){
+    Args.checkForNull(aInput);
+    fInput = aInput;
+  }
+
+  /**
+  * Advance to the next non-blank row, and return <tt>false</tt> only if the
+  * end of the stream has been reached.
+  */
+  boolean nextRow() throws IOException {
+    while ( readLine() ) {
+      splitFields();
+      if ( fFieldCount > 0 && fFieldEnds[0] > fFieldStarts[0] ) return true;
+    }
+    return false;
+  }
+
+  /**
+  * Return the ticker of the current row, including any exchange suffix, but
+  * without quotation marks.
+  */
+  String getTicker(){
+    return new String(fRow, tickerStart(), tickerEnd() - tickerStart());
+  }
+
+  /**
+  * Return <tt>true</tt> only if the ticker of the current row starts with
+  * <tt>aPrefix</tt>. Creates no objects.
+  */
+  boolean tickerStartsWith(String aPrefix){
+    int start = tickerStart();
+    if ( aPrefix.length() > tickerEnd() - start ) return false;
+    for(int idx = 0; idx < aPrefix.length(); ++idx){
+      if ( fRow[start + idx] != aPrefix.charAt(idx) ) return false;
+    }
+    return true;
+  }
+
+  /**
+  * Return the last trade price of the current row, rounded to
+  * {@link Consts#MONEY_DECIMAL_PLACES}; if the price is not available, return
+  * zero.
+  */
+  Money getPrice(){
+    return parsePrice(PRICE_FIELD, false);
+  }
+
+  /**
+  * Return the price change of the current row, rounded to
+  * {@link Consts#MONEY_DECIMAL_PLACES}; if the change is not available, or
+  * has no leading algebraic sign, return zero.
+  */
+  Money getChange(){
+    return parsePrice(CHANGE_FIELD, true);
+  }
+
+  /**
+  * Return the opening price of the current row, rounded as for {@link #getPrice}; 
+  * if the opening price is not available, return the price less the change.
+  */
+  Money getOpen(){
+    Money result = parsePrice(OPEN_FIELD, false);
+    if ( result.isZero() ) {
+      result = getPrice().minus(getChange());
+      if ( result.signum() < 0 ) {
+        result = ZERO;
+      }
+    }
+    return result;
+  }
+
+  /**
+  * Return the day's highest price of the current row, rounded as for 
+  * {@link #getPrice}; if it is not available, return zero.
+  */
+  Money getHigh(){
+    return parsePrice(HIGH_FIELD, false);
+  }
+
+  /**
+  * Return the day's lowest price of the current row, rounded as for 
+  * {@link #getPrice}; if it is not available, return zero.
+  */
+  Money getLow(){
+    return parsePrice(LOW_FIELD, false);
+  }
+
+  /**
+  * Return the day's volume of the current row; if it is not available, return 
+  * zero. Creates no objects.
+  */
+  long getVolume(){
+    if ( VOLUME_FIELD >= fFieldCount ) return 0;
+    int start = fFieldStarts[VOLUME_FIELD];
+    int end = fFieldEnds[VOLUME_FIELD];
+    while ( start < end && fRow[start] == ' ' ) ++start;
+    while ( end > start && fRow[end - 1] == ' ' ) --end;
+    if ( start == end || end - start > MAX_VOLUME_DIGITS ) return 0;
+    long result = 0;
+    for(int idx = start; idx < end; ++idx){
+      char digit = fRow[idx];
+      if ( digit < '0' || digit > '9' ) return 0;
+      result = result * 10 + (digit - '0');
+    }
+    return result;
+  }
+
+  /**
+  * Return the {@link Quote} for <tt>aStock</tt> held in the current row.
+  */
+  Quote getQuote(Stock aStock){
+    return new Quote(
+      aStock, getPrice(), getChange(), getOpen(), getHigh(), getLow(), getVolume()
+    );
+  }
+
+  // PRIVATE
+
+  private final InputStream fInput;
+
+  private final byte[] fBuffer = new byte[8 * (int)Consts.ONE_KILOBYTE];
+  private int fBufferPos;
+  private int fBufferLimit;
+
+  /** The current row; grows as needed, but is never shrunk. */
+  private char[] fRow = new char[256];
+  private int fRowLength;
+
+  private static final int MAX_FIELDS = 16;
+  private final int[] fFieldStarts = new int[MAX_FIELDS];
+  private final int[] fFieldEnds = new int[MAX_FIELDS];
+  private int fFieldCount;
+
+  /*
+  * The fields appear in this order:
+  * ticker, last-trade, date-last-trade, time-last-trade, change, open, hi, lo, volume
+  */
+  private static final int TICKER_FIELD = 0;
+  private static final int PRICE_FIELD = 1;
+  private static final int CHANGE_FIELD = 4;
+  private static final int OPEN_FIELD = 5;
+  private static final int HIGH_FIELD = 6;
+  private static final int LOW_FIELD = 7;
+  private static final int VOLUME_FIELD = 8;
+
+  /** Fewer than the digits of <tt>Long.MAX_VALUE</tt>, so that there is no overflow. */
+  private static final int MAX_VOLUME_DIGITS = 18;
+
+  private static final Money ZERO = Money.ZERO;
+
+  /**
+  * Read the next line into fRow, without its line terminator. Return
+  * <tt>false</tt> only if there is no more data.
+  */
+  private boolean readLine() throws IOException {
+    fRowLength = 0;
+    boolean hasData = false;
+    while ( true ) {
+      if ( fBufferPos == fBufferLimit ) {
+        fBufferLimit = fInput.read(fBuffer);
+        fBufferPos = 0;
+        if ( fBufferLimit <= 0 ) {
+          fBufferLimit = 0;
+          return hasData;
+        }
+      }
+      hasData = true;
+      char next = (char)(fBuffer[fBufferPos++] & 0xFF);
+      if ( next == '\n' ) return true;
+      if ( next != '\r' ) {
+        if ( fRowLength == fRow.length ) {
+          fRow = Arrays.copyOf(fRow, fRow.length * 2);
+        }
+        fRow[fRowLength++] = next;
+      }
+    }
+  }
+
+  /** Find the offsets of each comma-separated field in fRow. */
+  private void splitFields(){
+    fFieldCount = 0;
+    boolean inQuotes = false;
+    int start = 0;
+    for(int idx = 0; idx < fRowLength; ++idx){
+      char next = fRow[idx];
+      if ( next == '"' ) {
+        inQuotes = !inQuotes;
+      }
+      else if ( next == ',' && !inQuotes ) {
+        addField(start, idx);
+        start = idx + 1;
+      }
+    }
+    addField(start, fRowLength);
+  }
+
+  private void addField(int aStart, int aEnd){
+    if ( fFieldCount < MAX_FIELDS ) {
+      fFieldStarts[fFieldCount] = aStart;
+      fFieldEnds[fFieldCount] = aEnd;
+      ++fFieldCount;
+    }
+  }
+
+  private int tickerStart(){
+    int result = fFieldStarts[TICKER_FIELD];
+    if ( result < fFieldEnds[TICKER_FIELD] && fRow[result] == '"' ) ++result;
+    return result;
+  }
+
+  private int tickerEnd(){
+    int result = fFieldEnds[TICKER_FIELD];
+    if ( result > tickerStart() && fRow[result - 1] == '"' ) --result;
+    return result;
+  }
+
+  /**
+  * Parse a price or price change without creating intermediate objects. Price
+  * changes have a leading algebraic sign; if it is absent, then the change is
+  * zero. Text which is not a price, such as <tt>N/A</tt>, is taken as zero.
+  */
+  private Money parsePrice(int aField, boolean aIsChange){
+    if ( aField >= fFieldCount ) return ZERO;
+    int start = fFieldStarts[aField];
+    int end = fFieldEnds[aField];
+    if ( aIsChange ) {
+      while ( start < end && fRow[start] == ' ' ) ++start;
+      if ( start == end || (fRow[start] != '-' && fRow[start] != '+') ) {
+        //the price change is zero, and has no leading sign
+        return ZERO;
+      }
+    }
+    long cents = PriceParser.parseCents(fRow, start, end);
+    if ( cents == PriceParser.NOT_A_PRICE ) return parseSlowly(start, end);
+    return Money.fromUnscaled(cents);
+  }
+
+  /**
+  * Handle prices having too many digits for {@link PriceParser}, and any
+  * unexpected text, such as <tt>N/A</tt>, which is taken as zero.
+  */
+  private Money parseSlowly(int aStart, int aEnd){
+    String text = new String(fRow, aStart, aEnd - aStart).trim();
+    try {
+      return Money.valueOf(new BigDecimal(text));
+    }
+    catch (NumberFormatException | ArithmeticException ex){
+      return ZERO;
+    }
+  }
+
+  private static BigDecimal rounded(BigDecimal aAmount){
+    return aAmount.setScale(Consts.MONEY_DECIMAL_PLACES, Consts.MONEY_ROUNDING_STYLE);
+  }
+
+  /**
+  * Developer tool, comparing this parser with the older line-buffered path
+  * (<tt>LineNumberReader</tt>, a <tt>List</tt> of lines, and a
+  * <tt>StringTokenizer</tt> per line), using a synthetic response of 10,000 rows.
+  */
+  private static void main(String... aArgs) throws IOException {
+    int numRows = 10000;
+    StringBuilder response = new StringBuilder();
+    for(int idx = 0; idx < numRows; ++idx){
+      response.append("\"T").append(idx).append(".TO\",");
+      response.append(idx % 500).append('.').append(idx % 100).append(",\"1/22/2003\",\"10:19am\",");
+      response.append(idx % 2 == 0 ? '+' : '-').append("0.").append(idx % 90 + 10);
+      response.append(",N/A,N/A,N/A,46700\n");
+    }
+    byte[] bytes = response.toString().getBytes("US-ASCII");
+    for(int round = 0; round < 10; ++round){
+      long start = System.nanoTime();
+      int count = 0;
+      QuoteCsvParser parser = new QuoteCsvParser(new ByteArrayInputStream(bytes));
+      while ( parser.nextRow() ) {
+        count += parser.getPrice().signum() + parser.getChange().signum();
+      }
+      long streaming = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      List<String> lines = new ArrayList<>();
+      LineNumberReader reader = new LineNumberReader(
+        new InputStreamReader(new ByteArrayInputStream(bytes))
+      );
+      String line = null;
+      while ( (line = reader.readLine()) != null ) {
+        lines.add(line);
+      }
+      for(String row : lines){
+        StringTokenizer tokens = new StringTokenizer(row, Consts.COMMA);
+        tokens.nextToken().replaceAll(Consts.DOUBLE_QUOTE, Consts.EMPTY_STRING);
+        count += rounded(new BigDecimal(tokens.nextToken().trim())).signum();
+        tokens.nextToken();
+        tokens.nextToken();
+        count += rounded(new BigDecimal(tokens.nextToken().trim())).signum();
+      }
+      long buffered = System.nanoTime() - start;
+      System.out.println(
+        "Streaming: " + streaming / 1000 + "us  Line-buffered: " + buffered / 1000 +
+        "us  (" + count + ")"
+      );
+    }
+  }
+}
@@ -0,0 +1,312 @@
+package hirondelle.stocks.quotes;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.logging.*;
+
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Util;
+
+/**
+* Receives price updates pushed by a quote server over a long-lived socket,
+* as they happen, for the stocks of interest.
+*
+* <P>Polling fetches every stock in the portfolio, whether or not its price has
+* moved. A feed sends only the tickers which have traded. Each update is passed
+* to a {@link QuoteListener} as a {@link Quote}, and is also placed in the cache
+* used by {@link QuotesDAO}, so that the next poll does not fetch it again.
+*
+* <P>The protocol is line-based ASCII text. On connecting, and whenever the
+* stocks of interest change, the client sends a single line listing the Yahoo
+* tickers it wants, replacing any earlier list :
+*<pre>SUBSCRIBE SUNW IBM BP.L</pre>
+* The server then sends one line per update, in the format of
+* {@link YahooQuoteFormat}. When idle, it sends a blank line from time to time,
+* so that a dead connection is detected by the read timeout.
+*
+* <P>The connection is made on a daemon thread. If it fails or is lost, it is
+* made again after a delay, which doubles after each failure, up to one minute.
+* The listener is called on that thread.
+*
+* <P>This class is thread-safe.
+*/
+final class QuoteFeed {
+
+  /**
+  * Name of the system property which configures the feed, either as
+  * <tt>host:port</tt>, or as <tt>simulator</tt>, to use a
+  * {@link QuoteFeedSimulator} running within this application.
+  */
+  static final String FEED_PROPERTY = "quotes.feed";
+
+  /**
+  * Return a feed as configured by {@link #FEED_PROPERTY}, or <tt>null</tt> if
+  * that property is not set. The feed is not yet started.
+  *
+  * @throws IllegalArgumentException if the property does not have the expected form.
+  */
+  static QuoteFeed fromSystemProperty(QuoteListener aListener) throws IOException {
+    String address = System.getProperty(FEED_PROPERTY);
+    if ( ! Util.textHasContent(address) ) return null;
+    QuoteFeed result = null;
+    if ( SIMULATOR.equalsIgnoreCase(address.trim()) ) {
+      QuoteFeedSimulator simulator = new QuoteFeedSimulator(0, Consts.MILLISECONDS_PER_SECOND);
+      simulator.start();
+      result = new QuoteFeed("localhost", simulator.getPort(), aListener);
+    }
+    else {
+      int colon = address.lastIndexOf(':');
+      if ( colon <= 0 ) {
+        throw new IllegalArgumentException("Expecting host:port for " + FEED_PROPERTY + ": " + address);
+      }
+      try {
+        int port = Integer.parseInt(address.substring(colon + 1).trim());
+        result = new QuoteFeed(address.substring(0, colon).trim(), port, aListener);
+      }
+      catch (NumberFormatException ex){
+        throw new IllegalArgumentException("Port is not a number: " + address, ex);
+      }
+    }
+    return result;
+  }
+
+  /**
+  * Constructor.
+  *
+  * @param aHost name of the quote server.
+  * @param aPort port of the quote server.
+  * @param aListener is informed of each update, on the thread reading the feed;
+  * it must be thread-safe, and must never block.
+  */
+  QuoteFeed(String aHost, int aPort, QuoteListener aListener){
+    Args.checkForContent(aHost);
+    Args.checkForNull(aListener);
+    fAddress = new InetSocketAddress(aHost, aPort);
+    fListener = aListener;
+  }
+
+  /** Connect to the server, on a new daemon thread. May be called only once. */
+  synchronized void start(){
+    if ( fReader != null ) {
+      throw new IllegalStateException("Feed has already been started.");
+    }
+    fReader = new Thread(new Runnable() {
+      @Override public void run() {
+        readUntilStopped();
+      }
+    }, "QuoteFeed");
+    fReader.setDaemon(true);
+    fReader.start();
+  }
+
+  /**
+  * Receive updates only for <tt>aStocks</tt>, replacing the stocks of interest
+  * passed earlier. Several stocks may share the same ticker, as when two
+  * portfolios hold the same stock; each of them receives the update.
+  */
+  synchronized void subscribe(Collection<Stock> aStocks){
+    Map<String, List<Stock>> stocksByTicker = new LinkedHashMap<>();
+    for(Stock stock : aStocks){
+      String ticker = YahooQuoteFormat.getYahooTicker(stock);
+      List<Stock> stocks = stocksByTicker.get(ticker);
+      if ( stocks == null ) {
+        stocks = new ArrayList<>(1);
+        stocksByTicker.put(ticker, stocks);
+      }
+      stocks.add(stock);
+    }
+    fStocksByTicker = stocksByTicker;
+    sendSubscription();
+  }
+
+  /** Disconnect from the server, and stop receiving updates. */
+  void stop(){
+    Thread reader = null;
+    synchronized(this){
+      fIsStopped = true;
+      closeQuietly(fSocket);
+      reader = fReader;
+    }
+    if ( reader != null ) {
+      reader.interrupt();
+    }
+  }
+
+  /** Return the number of updates passed to the listener so far. */
+  long getNumUpdates(){
+    synchronized(fCountLock){
+      return fNumUpdates;
+    }
+  }
+
+  // PRIVATE
+
+  private static final String SIMULATOR = "simulator";
+  private static final int CONNECT_TIMEOUT = Integer.getInteger("quotes.connectTimeout", 5000);
+  /** Several heartbeats may be missed before the connection is taken as dead. */
+  private static final int READ_TIMEOUT = 30 * Consts.MILLISECONDS_PER_SECOND;
+  private static final long MIN_RETRY = Consts.MILLISECONDS_PER_SECOND;
+  private static final long MAX_RETRY = Consts.MILLISECONDS_PER_SECOND * Consts.SECONDS_PER_MINUTE;
+
+  private final InetSocketAddress fAddress;
+  private final QuoteListener fListener;
+
+  /** Replaced, never changed, so the reader may use it without locking. */
+  private volatile Map<String, List<Stock>> fStocksByTicker = Collections.emptyMap();
+
+  /** Guarded by this object. */
+  private Thread fReader;
+  private Socket fSocket;
+  private Writer fOutput;
+  private boolean fIsStopped;
+
+  private final Object fCountLock = new Object();
+  private long fNumUpdates;
+
+  private static final Logger fLogger = Util.getLogger(QuoteFeed.class);
+
+  private void readUntilStopped(){
+    long retryDelay = MIN_RETRY;
+    while ( ! isStopped() ) {
+      try (Socket socket = new Socket()) {
+        socket.connect(fAddress, CONNECT_TIMEOUT);
+        socket.setSoTimeout(READ_TIMEOUT);
+        socket.setTcpNoDelay(true);
+        if ( ! connected(socket) ) return;
+        fLogger.info("Connected to quote feed at " + fAddress);
+        retryDelay = MIN_RETRY;
+        QuoteCsvParser parser = new QuoteCsvParser(socket.getInputStream());
+        while ( parser.nextRow() ) {
+          dispatch(parser);
+        }
+        fLogger.info("Quote feed closed by server.");
+      }
+      catch (IOException ex){
+        if ( ! isStopped() ) {
+          fLogger.info("Quote feed failed: " + ex + ". Retrying in " + retryDelay + "ms.");
+        }
+      }
+      finally {
+        disconnected();
+      }
+      if ( ! isStopped() ) {
+        try {
+          Thread.sleep(retryDelay);
+        }
+        catch (InterruptedException ex){
+          return;
+        }
+        retryDelay = Math.min(2 * retryDelay, MAX_RETRY);
+      }
+    }
+  }
+
+  /** Return false if the feed was stopped while connecting. */
+  private synchronized boolean connected(Socket aSocket) throws IOException {
+    if ( fIsStopped ) return false;
+    fSocket = aSocket;
+    fOutput = new BufferedWriter(new OutputStreamWriter(aSocket.getOutputStream(), "US-ASCII"));
+    sendSubscription();
+    return true;
+  }
+
+  private synchronized void disconnected(){
+    fSocket = null;
+    fOutput = null;
+  }
+
+  private synchronized boolean isStopped(){
+    return fIsStopped;
+  }
+
+  /** Send the current subscription, if connected. */
+  private synchronized void sendSubscription(){
+    if ( fOutput == null ) return;
+    try {
+      fOutput.write("SUBSCRIBE");
+      for(String ticker : fStocksByTicker.keySet()){
+        fOutput.write(' ');
+        fOutput.write(ticker);
+      }
+      fOutput.write('\n');
+      fOutput.flush();
+    }
+    catch (IOException ex){
+      //the reader will see the failure, and reconnect
+      fLogger.fine("Cannot send subscription: " + ex);
+      closeQuietly(fSocket);
+    }
+  }
+
+  private void dispatch(QuoteCsvParser aParser){
+    List<Stock> stocks = fStocksByTicker.get(aParser.getTicker());
+    if ( stocks == null ) return;
+    for(Stock stock : stocks){
+      Quote quote = aParser.getQuote(stock);
+      if ( quote.getPrice().isZero() ) continue;
+      QuotesDAO.remember(quote);
+      fListener.quoteReceived(quote);
+      synchronized(fCountLock){
+        ++fNumUpdates;
+      }
+    }
+  }
+
+  private static void closeQuietly(Socket aSocket){
+    if ( aSocket == null ) return;
+    try {
+      aSocket.close();
+    }
+    catch (IOException ex){
+      //ignore
+    }
+  }
+
+  /**
+  * Developer tool. Runs a {@link QuoteFeedSimulator}, subscribes to a few of
+  * its tickers, changes the subscription, and then restarts the simulator, to
+  * check that the feed reconnects.
+  */
+  private static void main(String... aArgs) throws Exception {
+    Exchange nyse = Exchange.valueFrom("NYSE Stock Exchanges");
+    Exchange london = Exchange.valueFrom("London Stock Exchange");
+    final Stock sun = new Stock("Sun", "SUNW", nyse, 100, new java.math.BigDecimal("4.00"));
+    final Stock ibm = new Stock("IBM", "IBM", nyse, 10, new java.math.BigDecimal("80.00"));
+    final Stock bp = new Stock("BP", "BP", london, 10, new java.math.BigDecimal("4.20"));
+    final Map<String, Integer> counts = Collections.synchronizedMap(new TreeMap<String, Integer>());
+    QuoteListener listener = new QuoteListener() {
+      @Override public void quoteReceived(Quote aQuote) {
+        String ticker = YahooQuoteFormat.getYahooTicker(aQuote.getStock());
+        Integer count = counts.get(ticker);
+        counts.put(ticker, count == null ? 1 : count + 1);
+      }
+    };
+
+    QuoteFeedSimulator simulator = new QuoteFeedSimulator(0, 50);
+    simulator.start();
+    int port = simulator.getPort();
+    QuoteFeed feed = new QuoteFeed("localhost", port, listener);
+    feed.subscribe(Arrays.asList(sun, ibm));
+    feed.start();
+    Thread.sleep(1000);
+    System.out.println("Subscribed to SUNW and IBM: " + counts);
+
+    counts.clear();
+    feed.subscribe(Arrays.asList(bp));
+    Thread.sleep(1000);
+    System.out.println("Subscribed to BP.L (a few old updates may remain): " + counts);
+
+    simulator.stop();
+    counts.clear();
+    Thread.sleep(500);
+    simulator = new QuoteFeedSimulator(port, 50);
+    simulator.start();
+    Thread.sleep(3000);
+    System.out.println("After restarting the server: " + counts);
+    System.out.println("Updates received: " + feed.getNumUpdates());
+    feed.stop();
+    simulator.stop();
+  }
+}
@@ -0,0 +1,266 @@
+package hirondelle.stocks.quotes;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import hirondelle.stocks.util.Util;
+
+/**
+* Local stand-in for a streaming quote server, as used by {@link QuoteFeed}.
+*
+* <P>Allows the feed to be exercised without a network connection. Prices
+* follow a random walk, starting from an arbitrary price for each ticker. At
+* each tick, a few of the tickers subscribed to by each client are updated, and
+* their new prices are sent. Clients with nothing to receive are sent a blank
+* line instead, as a heartbeat.
+*
+* <P>To use it within the application, set the system property
+* <tt>quotes.feed</tt> to <tt>simulator</tt>.
+*
+* <P>This class is thread-safe.
+*/
+final class QuoteFeedSimulator {
+
+  /**
+  * Constructor.
+  *
+  * @param aPort on which to listen; <tt>0</tt> means any free port.
+  * @param aTickInterval number of milliseconds between updates.
+  */
+  QuoteFeedSimulator(int aPort, long aTickInterval){
+    if ( aTickInterval <= 0 ) {
+      throw new IllegalArgumentException("Tick interval must be positive: " + aTickInterval);
+    }
+    fPort = aPort;
+    fTickInterval = aTickInterval;
+  }
+
+  /** Start listening for clients, and sending updates. May be called only once. */
+  synchronized void start() throws IOException {
+    if ( fServer != null ) {
+      throw new IllegalStateException("Simulator has already been started.");
+    }
+    fServer = new ServerSocket();
+    fServer.setReuseAddress(true);
+    fServer.bind(new InetSocketAddress(InetAddress.getByName("localhost"), fPort));
+    Thread acceptor = new Thread(new Runnable() {
+      @Override public void run() {
+        acceptUntilStopped();
+      }
+    }, "QuoteFeedSimulator");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    fTicker.scheduleAtFixedRate(new Runnable() {
+      @Override public void run() {
+        tick();
+      }
+    }, fTickInterval, fTickInterval, TimeUnit.MILLISECONDS);
+    fLogger.info("Quote feed simulator listening on port " + getPort());
+  }
+
+  /** Return the port on which this simulator is listening. */
+  synchronized int getPort(){
+    return fServer == null ? fPort : fServer.getLocalPort();
+  }
+
+  /** Disconnect all clients, and stop listening. */
+  void stop(){
+    fTicker.shutdownNow();
+    synchronized(this){
+      closeQuietly(fServer);
+    }
+    for(Client client : fClients){
+      client.close();
+    }
+    fClients.clear();
+  }
+
+  // PRIVATE
+
+  private final int fPort;
+  private final long fTickInterval;
+  private ServerSocket fServer;
+  private final List<Client> fClients = new CopyOnWriteArrayList<>();
+
+  /**
+  * Opening, current, high and low price for each ticker, in cents, and the
+  * volume. Guarded by this object.
+  */
+  private final Map<String, long[]> fPrices = new HashMap<>();
+  private final Random fRandom = new Random();
+
+  private static final int MAX_UPDATES_PER_TICK = 3;
+  private static final int OPEN = 0;
+  private static final int LAST = 1;
+  private static final int HIGH = 2;
+  private static final int LOW = 3;
+  private static final int VOLUME = 4;
+
+  private final ScheduledExecutorService fTicker = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactory() {
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "QuoteFeedSimulator-Ticks");
+        result.setDaemon(true);
+        return result;
+      }
+    }
+  );
+
+  private static final Logger fLogger = Util.getLogger(QuoteFeedSimulator.class);
+
+  private void acceptUntilStopped(){
+    while ( true ) {
+      try {
+        Socket socket = fServer.accept();
+        socket.setTcpNoDelay(true);
+        Client client = new Client(socket);
+        fClients.add(client);
+        client.start();
+      }
+      catch (IOException ex){
+        fLogger.fine("Simulator no longer accepting clients: " + ex);
+        return;
+      }
+    }
+  }
+
+  private void tick(){
+    for(Client client : fClients){
+      List<String> tickers = client.getTickers();
+      StringBuilder rows = new StringBuilder();
+      if ( ! tickers.isEmpty() ) {
+        int numUpdates = 1 + fRandom.nextInt(Math.min(MAX_UPDATES_PER_TICK, tickers.size()));
+        for(int idx = 0; idx < numUpdates; ++idx){
+          appendRow(rows, tickers.get(fRandom.nextInt(tickers.size())));
+        }
+      }
+      else {
+        rows.append('\n');
+      }
+      if ( ! client.send(rows.toString()) ) {
+        fClients.remove(client);
+      }
+    }
+  }
+
+  /** Move the price of aTicker a little, and append its row in the Yahoo format. */
+  private synchronized void appendRow(StringBuilder aRows, String aTicker){
+    long[] prices = fPrices.get(aTicker);
+    if ( prices == null ) {
+      long open = 1000 + fRandom.nextInt(20000);
+      prices = new long[] {open, open, open, open, 0};
+      fPrices.put(aTicker, prices);
+    }
+    long step = Math.max(1, prices[LAST] / 200);
+    prices[LAST] = Math.max(1, prices[LAST] + (fRandom.nextInt(3) - 1) * step);
+    prices[HIGH] = Math.max(prices[HIGH], prices[LAST]);
+    prices[LOW] = Math.min(prices[LOW], prices[LAST]);
+    prices[VOLUME] += 100 * (1 + fRandom.nextInt(50));
+    long change = prices[LAST] - prices[OPEN];
+    aRows.append('"').append(aTicker).append("\",");
+    appendCents(aRows, prices[LAST]);
+    aRows.append(",\"N/A\",\"N/A\",").append(change < 0 ? '-' : '+');
+    appendCents(aRows, Math.abs(change));
+    aRows.append(',');
+    appendCents(aRows, prices[OPEN]);
+    aRows.append(',');
+    appendCents(aRows, prices[HIGH]);
+    aRows.append(',');
+    appendCents(aRows, prices[LOW]);
+    aRows.append(',').append(prices[VOLUME]).append('\n');
+  }
+
+  private static void appendCents(StringBuilder aText, long aCents){
+    aText.append(aCents / 100).append('.');
+    long cents = aCents % 100;
+    if ( cents < 10 ) {
+      aText.append('0');
+    }
+    aText.append(cents);
+  }
+
+  private static void closeQuietly(Closeable aCloseable){
+    if ( aCloseable == null ) return;
+    try {
+      aCloseable.close();
+    }
+    catch (IOException ex){
+      //ignore
+    }
+  }
+
+  /** A connected client, and the tickers it has subscribed to. */
+  private static final class Client {
+    Client(Socket aSocket) throws IOException {
+      fSocket = aSocket;
+      fOutput = new OutputStreamWriter(aSocket.getOutputStream(), "US-ASCII");
+    }
+    /** Read subscriptions on a new thread, until the client disconnects. */
+    void start(){
+      Thread reader = new Thread(new Runnable() {
+        @Override public void run() {
+          readSubscriptions();
+        }
+      }, "QuoteFeedSimulator-Client");
+      reader.setDaemon(true);
+      reader.start();
+    }
+    List<String> getTickers(){
+      return fTickers;
+    }
+    /** Return false if the client has gone. */
+    synchronized boolean send(String aRows){
+      try {
+        fOutput.write(aRows);
+        fOutput.flush();
+        return true;
+      }
+      catch (IOException ex){
+        close();
+        return false;
+      }
+    }
+    void close(){
+      closeQuietly(fSocket);
+    }
+    private final Socket fSocket;
+    private final Writer fOutput;
+    private volatile List<String> fTickers = Collections.emptyList();
+    private void readSubscriptions(){
+      try (BufferedReader input = new BufferedReader(new InputStreamReader(fSocket.getInputStream(), "US-ASCII"))) {
+        String line = null;
+        while ( (line = input.readLine()) != null ) {
+          StringTokenizer parser = new StringTokenizer(line);
+          if ( parser.hasMoreTokens() && "SUBSCRIBE".equals(parser.nextToken()) ) {
+            List<String> tickers = new ArrayList<>();
+            while ( parser.hasMoreTokens() ) {
+              tickers.add(parser.nextToken());
+            }
+            fTickers = tickers;
+          }
+        }
+      }
+      catch (IOException ex){
+        //the client has gone
+      }
+      finally {
+        close();
+      }
+    }
+  }
+
+  /**
+  * Developer tool. Runs the simulator on the port given as the first argument,
+  * default 7070, until the process is killed.
+  */
+  private static void main(String... aArgs) throws Exception {
+    int port = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 7070;
+    QuoteFeedSimulator simulator = new QuoteFeedSimulator(port, 1000);
+    simulator.start();
+    System.out.println("Quote feed simulator listening on port " + simulator.getPort());
+    Thread.sleep(Long.MAX_VALUE);
+  }
+}
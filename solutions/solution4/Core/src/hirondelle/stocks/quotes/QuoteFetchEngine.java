@@ -0,0 +1,146 @@
+package hirondelle.stocks.quotes;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
+
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Util;
+import hirondelle.stocks.util.DataAccessException;
+
+/**
+* Fetches quotes for any number of stocks from a single {@link QuoteSource}.
+*
+* <P>The stocks are split into batches of at most
+* {@link QuoteSource#getMaxBatchSize} items. The batches are fetched in parallel
+* on a small, bounded pool of worker threads shared by the whole application,
+* and the results are merged back into the original iteration order.
+*/
+final class QuoteFetchEngine {
+
+  /**
+  * Constructor.
+  *
+  * @param aQuoteSource provides the quotes for each batch.
+  */
+  QuoteFetchEngine(QuoteSource aQuoteSource){
+    Args.checkForNull(aQuoteSource);
+    fQuoteSource = aQuoteSource;
+  }
+
+  /**
+  * Return a {@link Quote} for each element of <tt>aStocks</tt>, in the same
+  * iteration order.
+  *
+  * <P>If any batch fails, then the remaining batches are cancelled, and the
+  * failure is rethrown.
+  *
+  * @param aUseMonitor is honoured only when a single batch is needed, since
+  * several simultaneous progress dialogs would only confuse the user.
+  * @param aListener is passed to each batch, and is called from the worker
+  * threads as each quote arrives.
+  */
+  List<Quote> fetch(
+    Collection<Stock> aStocks, QuotesDAO.UseMonitor aUseMonitor, QuoteListener aListener
+  ) throws DataAccessException {
+    Args.checkForNull(aListener);
+    List<List<Stock>> batches = getBatches(aStocks);
+    if ( batches.isEmpty() ) return Collections.emptyList();
+    if ( batches.size() == 1 ) {
+      return fQuoteSource.fetch(batches.get(0), aUseMonitor, aListener);
+    }
+
+    fLogger.fine(
+      "Fetching " + aStocks.size() + " quotes in " + batches.size() +
+      " batches from " + fQuoteSource.getName()
+    );
+    List<Future<List<Quote>>> futures = new ArrayList<>();
+    for(List<Stock> batch : batches){
+      futures.add(fBatchExecutor.submit(new Batch(batch, aListener)));
+    }
+    List<Quote> result = new ArrayList<>(aStocks.size());
+    try {
+      for(Future<List<Quote>> future : futures){
+        result.addAll(future.get());
+      }
+    }
+    catch (InterruptedException ex){
+      cancelAll(futures);
+      Thread.currentThread().interrupt();
+      throw new DataAccessException("Fetch of quotes was interrupted.", ex);
+    }
+    catch (ExecutionException ex){
+      cancelAll(futures);
+      Throwable cause = ex.getCause();
+      if ( cause instanceof DataAccessException ) {
+        throw (DataAccessException)cause;
+      }
+      throw new DataAccessException("Cannot fetch batch of quotes.", cause);
+    }
+    return result;
+  }
+
+  // PRIVATE
+
+  private final QuoteSource fQuoteSource;
+
+  /** Upper bound on the number of batches fetched at the same time. */
+  private static final int MAX_PARALLEL_BATCHES = 4;
+
+  /**
+  * Shared by all instances, in order to bound the total number of
+  * simultaneous connections. Uses daemon threads, so that it never prevents
+  * the application from exiting.
+  */
+  private static final ExecutorService fBatchExecutor = Executors.newFixedThreadPool(
+    MAX_PARALLEL_BATCHES, new BatchThreadFactory()
+  );
+
+  private static final Logger fLogger = Util.getLogger(QuoteFetchEngine.class);
+
+  private List<List<Stock>> getBatches(Collection<Stock> aStocks){
+    List<List<Stock>> result = new ArrayList<>();
+    int maxBatchSize = fQuoteSource.getMaxBatchSize();
+    List<Stock> batch = new ArrayList<>(Math.min(maxBatchSize, aStocks.size()));
+    for(Stock stock : aStocks){
+      batch.add(stock);
+      if ( batch.size() == maxBatchSize ) {
+        result.add(batch);
+        batch = new ArrayList<>(maxBatchSize);
+      }
+    }
+    if ( ! batch.isEmpty() ) {
+      result.add(batch);
+    }
+    return result;
+  }
+
+  private void cancelAll(List<Future<List<Quote>>> aFutures){
+    for(Future<List<Quote>> future : aFutures){
+      future.cancel(true);
+    }
+  }
+
+  /** Fetches a single batch on a worker thread. */
+  private final class Batch implements Callable<List<Quote>> {
+    Batch(List<Stock> aStocks, QuoteListener aListener){
+      fStocks = aStocks;
+      fListener = aListener;
+    }
+    @Override public List<Quote> call() throws DataAccessException {
+      return fQuoteSource.fetch(fStocks, QuotesDAO.UseMonitor.FALSE, fListener);
+    }
+    private final List<Stock> fStocks;
+    private final QuoteListener fListener;
+  }
+
+  private static final class BatchThreadFactory implements ThreadFactory {
+    @Override public Thread newThread(Runnable aRunnable) {
+      Thread result = new Thread(aRunnable, "QuoteFetch-" + fCount.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    }
+    private final AtomicInteger fCount = new AtomicInteger();
+  }
+}
@@ -0,0 +1,139 @@
+package hirondelle.stocks.quotes;
+
+import java.util.*;
+
+/**
+* Bitmap indexes over the rows of a single {@link QuoteSnapshot}.
+*
+* <P>Built once per snapshot, by {@link QuoteSnapshot#getIndex}, and then shared
+* by every filter applied to that snapshot. Each attribute used for filtering
+* has a <tt>BitSet</tt> per value, in which bit <tt>n</tt> is set only if row
+* <tt>n</tt> has that value. Tickers are indexed by their first character.
+* Price ranges are found by a single pass over the price column of the
+* snapshot, which reads only adjacent <tt>long</tt> values.
+*
+* <P>Every method returns a new <tt>BitSet</tt>, which the caller is free to
+* change, typically by combining it with another using <tt>and</tt>,
+* <tt>or</tt>, and <tt>andNot</tt>.
+*/
+public final class QuoteIndex {
+
+  /** Return the number of rows in the indexed snapshot. */
+  public int size(){
+    return fSize;
+  }
+
+  /** Return all rows. */
+  public BitSet getAll(){
+    BitSet result = new BitSet(fSize);
+    result.set(0, fSize);
+    return result;
+  }
+
+  /** Return the rows whose {@link Stock} trades on <tt>aExchange</tt>. */
+  public BitSet getExchange(Exchange aExchange){
+    BitSet rows = fExchanges.get(aExchange);
+    return rows == null ? new BitSet(fSize) : (BitSet)rows.clone();
+  }
+
+  /** Return the rows whose price change is zero or more. */
+  public BitSet getGainers(){
+    return (BitSet)fGainers.clone();
+  }
+
+  /** Return the rows whose price change is negative. */
+  public BitSet getLosers(){
+    BitSet result = getAll();
+    result.andNot(fGainers);
+    return result;
+  }
+
+  /** Return the rows whose {@link Stock} is an index. */
+  public BitSet getIndexes(){
+    return (BitSet)fIndexes.clone();
+  }
+
+  /** Return the rows whose {@link Stock} is not an index. */
+  public BitSet getNonIndexes(){
+    BitSet result = getAll();
+    result.andNot(fIndexes);
+    return result;
+  }
+
+  /**
+  * Return the rows whose price is at least <tt>aLow</tt>, and less than
+  * <tt>aHigh</tt>. Both are unscaled values, as in {@link QuoteSnapshot#getPrice}.
+  */
+  public BitSet getPriceRange(long aLow, long aHigh){
+    BitSet result = new BitSet(fSize);
+    for(int row = 0; row < fSize; ++row){
+      long price = fSnapshot.getPrice(row);
+      if ( aLow <= price && price < aHigh ) {
+        result.set(row);
+      }
+    }
+    return result;
+  }
+
+  /** Return the rows whose ticker starts with <tt>aPrefix</tt>. */
+  public BitSet getTickerStartsWith(String aPrefix){
+    if ( aPrefix.length() == 0 ) return getAll();
+    BitSet result = new BitSet(fSize);
+    BitSet candidates = fTickerInitials.get(aPrefix.charAt(0));
+    if ( candidates != null ) {
+      for(int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1)){
+        if ( fSnapshot.getStock(row).getTicker().startsWith(aPrefix) ) {
+          result.set(row);
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Return the indexes of the set bits of <tt>aRows</tt>, in ascending order. */
+  public static int[] toRows(BitSet aRows){
+    int[] result = new int[aRows.cardinality()];
+    int count = 0;
+    for(int row = aRows.nextSetBit(0); row >= 0; row = aRows.nextSetBit(row + 1)){
+      result[count++] = row;
+    }
+    return result;
+  }
+
+  // PRIVATE
+
+  private final QuoteSnapshot fSnapshot;
+  private final int fSize;
+  private final Map<Exchange, BitSet> fExchanges = new HashMap<>();
+  private final Map<Character, BitSet> fTickerInitials = new HashMap<>();
+  private final BitSet fGainers;
+  private final BitSet fIndexes;
+
+  /** Called only by QuoteSnapshot. */
+  QuoteIndex(QuoteSnapshot aSnapshot){
+    fSnapshot = aSnapshot;
+    fSize = aSnapshot.size();
+    fGainers = new BitSet(fSize);
+    fIndexes = new BitSet(fSize);
+    for(int row = 0; row < fSize; ++row){
+      Stock stock = aSnapshot.getStock(row);
+      getOrAdd(fExchanges, stock.getExchange()).set(row);
+      getOrAdd(fTickerInitials, stock.getTicker().charAt(0)).set(row);
+      if ( aSnapshot.getChange(row) >= 0 ) {
+        fGainers.set(row);
+      }
+      if ( stock.isIndex() ) {
+        fIndexes.set(row);
+      }
+    }
+  }
+
+  private <K> BitSet getOrAdd(Map<K, BitSet> aIndex, K aKey){
+    BitSet result = aIndex.get(aKey);
+    if ( result == null ) {
+      result = new BitSet(fSize);
+      aIndex.put(aKey, result);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,25 @@
+package hirondelle.stocks.quotes;
+
+/**
+* Receives each {@link Quote} as soon as it has been parsed, before the
+* complete response has been read.
+*
+* <P>Allows the display to start filling while a large fetch is still in
+* progress. Since batches are fetched in parallel, implementations may be called
+* from several worker threads at once, and in no particular order; they must be
+* thread-safe, and must never block.
+*/
+public interface QuoteListener {
+
+  /**
+  * Called once for each {@link Quote} received.
+  */
+  void quoteReceived(Quote aQuote);
+
+  /** Listener which ignores all notifications. */
+  QuoteListener NONE = new QuoteListener() {
+    @Override public void quoteReceived(Quote aQuote) {
+      //do nothing
+    }
+  };
+}
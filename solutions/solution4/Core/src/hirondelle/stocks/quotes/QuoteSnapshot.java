@@ -0,0 +1,274 @@
+package hirondelle.stocks.quotes;
+
+import java.util.*;
+
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Money;
+
+/**
+* Immutable, columnar view of the {@link Quote} objects returned by a single fetch.
+*
+* <P>Built once per fetch, and then shared by the table of quotes, the summary
+* view, and the sorters. Each numeric field is held in its own <tt>long</tt>
+* array, as an unscaled {@link Money} value, so that totals and comparisons
+* over many rows read adjacent primitives, and create no objects. Rows are
+* identified by their index in the original <tt>List</tt>.
+*
+* <P>The original <tt>Quote</tt> objects are retained as well. Their
+* <tt>Money</tt> fields are calculated once, when the <tt>Quote</tt> is
+* constructed, so a table cell may return them directly, without creating
+* a new object while painting.
+*/
+public final class QuoteSnapshot {
+
+  /** Snapshot having no rows. */
+  public static final QuoteSnapshot EMPTY = new QuoteSnapshot(Collections.<Quote>emptyList());
+
+  /**
+  * Constructor.
+  *
+  * @param aQuotes is not <tt>null</tt>; its iteration order defines the row
+  * indexes of this snapshot.
+  */
+  public QuoteSnapshot(List<Quote> aQuotes){
+    Args.checkForNull(aQuotes);
+    int size = aQuotes.size();
+    fQuotes = aQuotes.toArray(new Quote[size]);
+    fPrices = new long[size];
+    fChanges = new long[size];
+    fPercentChanges = new long[size];
+    fBookValues = new long[size];
+    fCurrentValues = new long[size];
+    fProfits = new long[size];
+    fPercentProfits = new long[size];
+    fRowsByStock = new HashMap<>();
+    for(int row = 0; row < size; ++row){
+      setRow(row, fQuotes[row]);
+      fRowsByStock.put(fQuotes[row].getStock(), row);
+    }
+    fStockRanks = calcStockRanks();
+  }
+
+  /**
+  * Return a copy of this snapshot, in which the row of each {@link Stock} in
+  * <tt>aQuotes</tt> holds its new {@link Quote}. Stocks which are not in this
+  * snapshot are ignored.
+  *
+  * <P>Rows keep their indexes and their stock ranks. The rows of the stocks are 
+  * found through an index built once per fetch, and shared by every copy, and 
+  * only the changed rows are recalculated. The columns themselves are copied, 
+  * which is a bulk copy of primitive arrays; no other work depends on the number 
+  * of rows.
+  */
+  public QuoteSnapshot withQuotes(Collection<Quote> aQuotes){
+    Args.checkForNull(aQuotes);
+    QuoteSnapshot result = new QuoteSnapshot(this);
+    for(Quote quote : aQuotes){
+      Integer row = fRowsByStock.get(quote.getStock());
+      if ( row != null ) {
+        result.fQuotes[row] = quote;
+        result.setRow(row, quote);
+      }
+    }
+    return result;
+  }
+
+  /** 
+  * Return <tt>true</tt> only if the rows of this snapshot hold exactly the 
+  * stocks in <tt>aStocks</tt>, one per row.
+  */
+  public boolean isFor(Set<Stock> aStocks){
+    return 
+      aStocks.size() == fQuotes.length && 
+      fRowsByStock.size() == fQuotes.length && 
+      fRowsByStock.keySet().containsAll(aStocks)
+    ;
+  }
+
+  /** Return the number of rows in this snapshot. */
+  public int size(){
+    return fQuotes.length;
+  }
+
+  /** Return the {@link Quote} at <tt>aRow</tt>. */
+  public Quote getQuote(int aRow){
+    return fQuotes[aRow];
+  }
+
+  /** Return the {@link Stock} at <tt>aRow</tt>. */
+  public Stock getStock(int aRow){
+    return fQuotes[aRow].getStock();
+  }
+
+  /** Return {@link Quote#getPrice} for <tt>aRow</tt>, as an unscaled value. */
+  public long getPrice(int aRow){
+    return fPrices[aRow];
+  }
+
+  /** Return {@link Quote#getChange} for <tt>aRow</tt>, as an unscaled value. */
+  public long getChange(int aRow){
+    return fChanges[aRow];
+  }
+
+  /** Return {@link Quote#getPercentChange} for <tt>aRow</tt>, as an unscaled value. */
+  public long getPercentChange(int aRow){
+    return fPercentChanges[aRow];
+  }
+
+  /** Return {@link Stock#getBookValue} for <tt>aRow</tt>, as an unscaled value. */
+  public long getBookValue(int aRow){
+    return fBookValues[aRow];
+  }
+
+  /** Return {@link Quote#getCurrentValue} for <tt>aRow</tt>, as an unscaled value. */
+  public long getCurrentValue(int aRow){
+    return fCurrentValues[aRow];
+  }
+
+  /** Return {@link Quote#getProfit} for <tt>aRow</tt>, as an unscaled value. */
+  public long getProfit(int aRow){
+    return fProfits[aRow];
+  }
+
+  /** Return {@link Quote#getPercentProfit} for <tt>aRow</tt>, as an unscaled value. */
+  public long getPercentProfit(int aRow){
+    return fPercentProfits[aRow];
+  }
+
+  /**
+  * Return the position of the {@link Stock} at <tt>aRow</tt>, in the natural 
+  * ordering of all stocks in this snapshot. Equal stocks have equal ranks.
+  *
+  * <P>Allows the stocks to be ordered by comparing <tt>int</tt> values, 
+  * instead of calling {@link Stock#compareTo} repeatedly.
+  */
+  public int getStockRank(int aRow){
+    return fStockRanks[aRow];
+  }
+
+  /** Return the sum of {@link Stock#getBookValue} over <tt>aRows</tt>. */
+  public Money getTotalBookValue(int[] aRows){
+    return sum(fBookValues, aRows);
+  }
+
+  /** Return the sum of {@link Quote#getCurrentValue} over <tt>aRows</tt>. */
+  public Money getTotalCurrentValue(int[] aRows){
+    return sum(fCurrentValues, aRows);
+  }
+
+  /**
+  * Return the <tt>Quote</tt> objects at <tt>aRows</tt>, in the same order.
+  */
+  public List<Quote> getQuotes(int[] aRows){
+    List<Quote> result = new ArrayList<>(aRows.length);
+    for(int row : aRows){
+      result.add(fQuotes[row]);
+    }
+    return result;
+  }
+
+  /**
+  * Return the {@link QuoteIndex} of this snapshot, used to filter its rows.
+  *
+  * <P>The index is built on first use, and then retained, so that each filter 
+  * applied to this snapshot reuses it.
+  */
+  public QuoteIndex getIndex(){
+    QuoteIndex result = fIndex;
+    if ( result == null ) {
+      //benign race: an index is immutable, and any copy is as good as another
+      result = new QuoteIndex(this);
+      fIndex = result;
+    }
+    return result;
+  }
+
+  /** Return an array of all row indexes, in ascending order. */
+  public int[] getAllRows(){
+    int[] result = new int[fQuotes.length];
+    for(int row = 0; row < result.length; ++row){
+      result[row] = row;
+    }
+    return result;
+  }
+
+  // PRIVATE
+
+  private final Quote[] fQuotes;
+  private final long[] fPrices;
+  private final long[] fChanges;
+  private final long[] fPercentChanges;
+  private final long[] fBookValues;
+  private final long[] fCurrentValues;
+  private final long[] fProfits;
+  private final long[] fPercentProfits;
+  private final int[] fStockRanks;
+  private volatile QuoteIndex fIndex;
+
+  /** 
+  * The row of each stock. Never changed after construction, and shared by 
+  * copies made by withQuotes, whose rows hold the same stocks.
+  */
+  private final Map<Stock, Integer> fRowsByStock;
+
+  /** 
+  * Copy the columns of aOriginal, sharing its stock ranks and its rows by stock, 
+  * but not its QuoteIndex. 
+  */
+  private QuoteSnapshot(QuoteSnapshot aOriginal){
+    fQuotes = aOriginal.fQuotes.clone();
+    fPrices = aOriginal.fPrices.clone();
+    fChanges = aOriginal.fChanges.clone();
+    fPercentChanges = aOriginal.fPercentChanges.clone();
+    fBookValues = aOriginal.fBookValues.clone();
+    fCurrentValues = aOriginal.fCurrentValues.clone();
+    fProfits = aOriginal.fProfits.clone();
+    fPercentProfits = aOriginal.fPercentProfits.clone();
+    fStockRanks = aOriginal.fStockRanks;
+    fRowsByStock = aOriginal.fRowsByStock;
+  }
+
+  private void setRow(int aRow, Quote aQuote){
+    fPrices[aRow] = aQuote.getPrice().getUnscaledValue();
+    fChanges[aRow] = aQuote.getChange().getUnscaledValue();
+    fPercentChanges[aRow] = aQuote.getPercentChange().getUnscaledValue();
+    fBookValues[aRow] = aQuote.getStock().getBookValue().getUnscaledValue();
+    fCurrentValues[aRow] = aQuote.getCurrentValue().getUnscaledValue();
+    fProfits[aRow] = aQuote.getProfit().getUnscaledValue();
+    fPercentProfits[aRow] = aQuote.getPercentProfit().getUnscaledValue();
+  }
+
+  private int[] calcStockRanks(){
+    Integer[] rowsByStock = new Integer[fQuotes.length];
+    for(int row = 0; row < rowsByStock.length; ++row){
+      rowsByStock[row] = row;
+    }
+    Arrays.sort(rowsByStock, new Comparator<Integer>() {
+      @Override public int compare(Integer aThis, Integer aThat) {
+        return fQuotes[aThis].getStock().compareTo(fQuotes[aThat].getStock());
+      }
+    });
+    int[] result = new int[fQuotes.length];
+    int rank = 0;
+    for(int idx = 0; idx < rowsByStock.length; ++idx){
+      if ( idx > 0 && ! getStock(rowsByStock[idx]).equals(getStock(rowsByStock[idx - 1])) ) {
+        rank = idx;
+      }
+      result[rowsByStock[idx]] = rank;
+    }
+    return result;
+  }
+
+  private static Money sum(long[] aColumn, int[] aRows){
+    long result = 0;
+    for(int row : aRows){
+      long value = aColumn[row];
+      long total = result + value;
+      if ( ((result ^ total) & (value ^ total)) < 0 ) {
+        throw new ArithmeticException("Total is too large.");
+      }
+      result = total;
+    }
+    return Money.fromUnscaled(result);
+  }
+}
@@ -0,0 +1,48 @@
+package hirondelle.stocks.quotes;
+
+import java.util.List;
+
+import hirondelle.stocks.util.DataAccessException;
+
+/**
+* Service interface for a provider of current price data.
+*
+* <P>Implementations are registered in the global lookup, using
+* <tt>@ServiceProvider(service=QuoteSource.class)</tt>. {@link QuotesDAO} selects
+* one of the registered providers, and splits each request into batches whose
+* size never exceeds {@link #getMaxBatchSize}. Batches may be fetched in parallel,
+* so implementations must be thread-safe.
+*/
+public interface QuoteSource {
+
+  /**
+  * Return a short, unique name for this provider, such as <tt>yahoo</tt>.
+  *
+  * <P>The name may be passed in the <tt>quotesource</tt> system property, in
+  * order to select this provider explicitly.
+  */
+  String getName();
+
+  /**
+  * Return the maximum number of {@link Stock} objects which may be passed to
+  * a single call to {@link #fetch}; always greater than <tt>0</tt>.
+  */
+  int getMaxBatchSize();
+
+  /**
+  * Fetch current price data for a single batch of stocks.
+  *
+  * @param aStocks is non-empty, and has no more than {@link #getMaxBatchSize}
+  * elements.
+  * @param aUseMonitor indicates if a <tt>ProgressMonitor</tt> may be shown
+  * during the fetch.
+  * @param aListener is informed of each <tt>Quote</tt> as soon as it is
+  * available, before this method returns.
+  * @return List of {@link Quote} objects, whose size and iteration order match
+  * those of <tt>aStocks</tt>; if a ticker is invalid, then it is still included
+  * in the result, but its price will be zero.
+  */
+  List<Quote> fetch(
+    List<Stock> aStocks, QuotesDAO.UseMonitor aUseMonitor, QuoteListener aListener
+  ) throws DataAccessException;
+}
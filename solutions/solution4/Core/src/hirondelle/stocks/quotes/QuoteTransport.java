@@ -0,0 +1,360 @@
+package hirondelle.stocks.quotes;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import hirondelle.stocks.util.Util;
+
+/**
+* Opens the connections used to fetch quote data.
+*
+* <P>For <tt>http:</tt> and <tt>https:</tt> URLs, each request :
+*<ul>
+* <li>has a connect timeout and a read timeout, so that a stalled server causes
+* an <tt>IOException</tt>, instead of blocking the fetch forever
+* <li>asks for a <tt>gzip</tt> or <tt>deflate</tt> response, and decompresses it
+* <li>returns its connection to the keep-alive cache of
+* <tt>HttpURLConnection</tt> when the stream is closed, so that the next request
+* to the same host reuses it, instead of paying for a new TCP connection
+* <li>has its latency logged, both to the first byte and in total
+*</ul>
+*
+* <P>Other URLs, such as <tt>file:</tt>, are simply opened.
+*
+* <P>The timeouts, in milliseconds, may be set with the system properties
+* <tt>quotes.connectTimeout</tt> and <tt>quotes.readTimeout</tt>. The number of
+* idle connections kept per host is controlled by the standard
+* <tt>http.maxConnections</tt> property, whose default of 5 exceeds the number
+* of batches fetched in parallel.
+*/
+final class QuoteTransport {
+
+  /**
+  * Open a stream for reading the response to <tt>aRequest</tt>. The caller
+  * must close the stream.
+  *
+  * @throws IOException if the server does not respond in time, or if its
+  * response has a status other than <tt>200</tt>.
+  */
+  static InputStream open(URL aRequest) throws IOException {
+    URLConnection connection = aRequest.openConnection();
+    if ( !(connection instanceof HttpURLConnection) ) {
+      return connection.getInputStream();
+    }
+    HttpURLConnection http = (HttpURLConnection)connection;
+    http.setConnectTimeout(CONNECT_TIMEOUT);
+    http.setReadTimeout(READ_TIMEOUT);
+    http.setUseCaches(false);
+    http.setRequestProperty("Accept-Encoding", "gzip, deflate");
+    long start = System.nanoTime();
+    int status = 0;
+    try {
+      status = http.getResponseCode();
+    }
+    catch (IOException ex){
+      recordFailure(aRequest, start, ex);
+      throw ex;
+    }
+    if ( status != HttpURLConnection.HTTP_OK ) {
+      discard(http.getErrorStream());
+      IOException ex = new IOException("HTTP status " + status + " for " + aRequest);
+      recordFailure(aRequest, start, ex);
+      throw ex;
+    }
+    InputStream body = new MeasuredStream(http.getInputStream(), aRequest, start);
+    String encoding = http.getContentEncoding();
+    InputStream result = body;
+    if ( "gzip".equalsIgnoreCase(encoding) ) {
+      result = new GZIPInputStream(body);
+    }
+    else if ( "deflate".equalsIgnoreCase(encoding) ) {
+      result = new InflaterInputStream(body);
+    }
+    return result;
+  }
+
+  /**
+  * Return a one-line summary of all requests made so far : their number,
+  * failures, and mean and maximum latency.
+  */
+  static String getStatistics(){
+    long count = fNumRequests.get();
+    long meanMillis = count == 0 ? 0 : fTotalNanos.get() / count / NANOS_PER_MILLI;
+    return
+      "Requests: " + count + ", failures: " + fNumFailures.get() +
+      ", mean: " + meanMillis + "ms, max: " + fMaxNanos.get() / NANOS_PER_MILLI + "ms"
+    ;
+  }
+
+  // PRIVATE
+
+  private static final int CONNECT_TIMEOUT = Integer.getInteger("quotes.connectTimeout", 5000);
+  private static final int READ_TIMEOUT = Integer.getInteger("quotes.readTimeout", 15000);
+  private static final long NANOS_PER_MILLI = 1000000;
+
+  private static final AtomicLong fNumRequests = new AtomicLong();
+  private static final AtomicLong fNumFailures = new AtomicLong();
+  private static final AtomicLong fTotalNanos = new AtomicLong();
+  private static final AtomicLong fMaxNanos = new AtomicLong();
+
+  private static final Logger fLogger = Util.getLogger(QuoteTransport.class);
+
+  /** Disallow object construction. */
+  private QuoteTransport(){
+    throw new AssertionError();
+  }
+
+  private static void recordFailure(URL aRequest, long aStart, IOException aEx){
+    fNumFailures.incrementAndGet();
+    long millis = (System.nanoTime() - aStart) / NANOS_PER_MILLI;
+    fLogger.fine("Failed after " + millis + "ms: " + aRequest.getHost() + " " + aEx);
+  }
+
+  private static void record(URL aRequest, long aFirstByteNanos, long aTotalNanos, long aNumBytes){
+    fNumRequests.incrementAndGet();
+    fTotalNanos.addAndGet(aTotalNanos);
+    long max = fMaxNanos.get();
+    while ( aTotalNanos > max && ! fMaxNanos.compareAndSet(max, aTotalNanos) ) {
+      max = fMaxNanos.get();
+    }
+    fLogger.fine(
+      aRequest.getHost() + ": " + aNumBytes + " bytes, first byte " +
+      aFirstByteNanos / NANOS_PER_MILLI + "ms, total " + aTotalNanos / NANOS_PER_MILLI +
+      "ms. " + getStatistics()
+    );
+  }
+
+  /** Read aStream to its end and close it, so that its connection may be reused. */
+  private static void discard(InputStream aStream) throws IOException {
+    if ( aStream == null ) return;
+    try (InputStream input = aStream) {
+      byte[] buffer = new byte[4096];
+      while ( input.read(buffer) != -1 ) {
+        //ignore
+      }
+    }
+  }
+
+  /**
+  * The raw body of an HTTP response. Records the latency of the request.
+  * When closed, reads any remaining bytes first, since a connection returns to
+  * the keep-alive cache only after its response has been read completely.
+  */
+  private static final class MeasuredStream extends FilterInputStream {
+    MeasuredStream(InputStream aInput, URL aRequest, long aStart){
+      super(aInput);
+      fRequest = aRequest;
+      fStart = aStart;
+    }
+    @Override public int read() throws IOException {
+      int result = super.read();
+      count(result == -1 ? -1 : 1);
+      return result;
+    }
+    @Override public int read(byte[] aBuffer, int aOffset, int aLength) throws IOException {
+      int result = super.read(aBuffer, aOffset, aLength);
+      count(result);
+      return result;
+    }
+    @Override public void close() throws IOException {
+      if ( fIsClosed ) return;
+      fIsClosed = true;
+      try {
+        byte[] buffer = new byte[4096];
+        int numRead = 0;
+        while ( (numRead = super.read(buffer, 0, buffer.length)) != -1 ) {
+          count(numRead);
+        }
+        record(fRequest, fFirstByteNanos, System.nanoTime() - fStart, fNumBytes);
+      }
+      catch (IOException ex){
+        recordFailure(fRequest, fStart, ex);
+      }
+      finally {
+        super.close();
+      }
+    }
+    private void count(int aNumRead){
+      if ( aNumRead > 0 ) {
+        if ( fNumBytes == 0 ) {
+          fFirstByteNanos = System.nanoTime() - fStart;
+        }
+        fNumBytes = fNumBytes + aNumRead;
+      }
+    }
+    private final URL fRequest;
+    private final long fStart;
+    private long fFirstByteNanos;
+    private long fNumBytes;
+    private boolean fIsClosed;
+  }
+
+  /**
+  * Developer tool. Starts a minimal HTTP server on a free local port, and
+  * checks that :
+  *<ul>
+  * <li>gzip and deflate responses are decoded
+  * <li>a series of requests is served over a single connection
+  * <li>a server which never responds causes a timeout
+  * <li>a status other than 200 causes an <tt>IOException</tt>
+  *</ul>
+  */
+  private static void main(String... aArgs) throws Exception {
+    final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+    final AtomicLong numConnections = new AtomicLong();
+    Thread acceptor = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          while ( true ) {
+            final Socket socket = server.accept();
+            numConnections.incrementAndGet();
+            Thread connection = new Thread(new Runnable() {
+              @Override public void run() {
+                serve(socket);
+              }
+            });
+            connection.setDaemon(true);
+            connection.start();
+          }
+        }
+        catch (IOException ex){
+          //server closed
+        }
+      }
+    }, "QuoteTransportServer");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    String base = "http://localhost:" + server.getLocalPort();
+    try {
+      int numRequests = 50;
+      for(int idx = 0; idx < numRequests; ++idx){
+        String query = (idx % 2 == 0) ? "" : "?deflate";
+        try (InputStream input = open(new URL(base + "/quotes" + query))) {
+          QuoteCsvParser parser = new QuoteCsvParser(input);
+          int numRows = 0;
+          while ( parser.nextRow() ) {
+            ++numRows;
+          }
+          if ( numRows != 200 ) {
+            System.out.println("Unexpected number of rows: " + numRows);
+          }
+        }
+      }
+      System.out.println(
+        numRequests + " requests used " + numConnections.get() + " connection(s). " +
+        getStatistics()
+      );
+
+      long start = System.nanoTime();
+      InputStream stalled = null;
+      try {
+        stalled = open(new URL(base + "/stalled"));
+        System.out.println("Stalled server did not time out.");
+      }
+      catch (SocketTimeoutException ex){
+        System.out.println(
+          "Stalled server timed out after " + (System.nanoTime() - start) / NANOS_PER_MILLI + "ms"
+        );
+      }
+      finally {
+        if ( stalled != null ) stalled.close();
+      }
+
+      InputStream missing = null;
+      try {
+        missing = open(new URL(base + "/missing"));
+        System.out.println("Missing resource did not fail.");
+      }
+      catch (IOException ex){
+        System.out.println("Missing resource failed: " + ex.getMessage());
+      }
+      finally {
+        if ( missing != null ) missing.close();
+      }
+    }
+    finally {
+      server.close();
+      System.exit(0);
+    }
+  }
+
+  /**
+  * Answer the requests made over aSocket, for {@link #main}, until the client
+  * closes it. The request has no body, so only its request line and headers are
+  * read.
+  */
+  private static void serve(Socket aSocket){
+    try (Socket socket = aSocket) {
+      BufferedReader reader = new BufferedReader(
+        new InputStreamReader(socket.getInputStream(), "US-ASCII")
+      );
+      OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+      String requestLine = null;
+      while ( (requestLine = reader.readLine()) != null ) {
+        boolean acceptsEncoding = false;
+        String header = null;
+        while ( (header = reader.readLine()) != null && header.length() > 0 ) {
+          if ( header.toLowerCase(Locale.ROOT).startsWith("accept-encoding:") ) {
+            acceptsEncoding = true;
+          }
+        }
+        String path = requestLine.split(" ")[1];
+        if ( path.startsWith("/stalled") ) {
+          Thread.sleep(READ_TIMEOUT + 1000);
+          return;
+        }
+        if ( path.startsWith("/quotes") ) {
+          writeQuotes(output, acceptsEncoding, path.contains("?deflate"));
+        }
+        else {
+          output.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes("US-ASCII"));
+        }
+        output.flush();
+      }
+    }
+    catch (IOException ex){
+      //client has gone
+    }
+    catch (InterruptedException ex){
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Write a response of 200 rows of quote data, compressed if possible. */
+  private static void writeQuotes(
+    OutputStream aOutput, boolean aAcceptsEncoding, boolean aUseDeflate
+  ) throws IOException {
+    String row = "\"SUNW\",4.14,\"12/3/2002\",\"4:00pm\",-0.15,4.56,4.58,4.12,46700\n";
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputStream body = bytes;
+    String encoding = null;
+    if ( aAcceptsEncoding && aUseDeflate ) {
+      encoding = "deflate";
+      body = new DeflaterOutputStream(bytes, new Deflater());
+    }
+    else if ( aAcceptsEncoding ) {
+      encoding = "gzip";
+      body = new GZIPOutputStream(bytes);
+    }
+    for(int idx = 0; idx < 200; ++idx){
+      body.write(row.getBytes("US-ASCII"));
+    }
+    body.close();
+    StringBuilder headers = new StringBuilder("HTTP/1.1 200 OK\r\n");
+    headers.append("Content-Length: ").append(bytes.size()).append("\r\n");
+    if ( encoding != null ) {
+      headers.append("Content-Encoding: ").append(encoding).append("\r\n");
+    }
+    headers.append("\r\n");
+    aOutput.write(headers.toString().getBytes("US-ASCII"));
+    bytes.writeTo(aOutput);
+  }
+}
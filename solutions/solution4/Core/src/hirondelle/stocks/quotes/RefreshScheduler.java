@@ -0,0 +1,230 @@
+package hirondelle.stocks.quotes;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import javax.swing.SwingUtilities;
+
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Util;
+
+/**
+* Decides when quotes are next refreshed, and triggers each refresh.
+*
+* <P>Timing is done on a single background thread, never on the event-dispatch
+* thread. Each refresh simply posts the task passed to the constructor to the
+* event-dispatch thread. The delay before the next refresh is recalculated after
+* each one :
+*<ul>
+* <li>while at least one {@link Exchange} of interest is open, the delay is the
+* shortest {@link Exchange#getRefreshInterval} of the open exchanges, using the
+* interval chosen by the user for those having none of their own
+* <li>while every exchange of interest is closed, refreshes are suspended until
+* the next one opens; see {@link Exchange#getTradingSession}
+* <li>after consecutive failures, the delay is doubled for each failure, up to
+* one hour, and randomized by up to 20 percent either way, so that many clients
+* do not retry a recovering server in step
+*</ul>
+*
+* <P>Intervals are in milliseconds, and may range from a fraction of a second to
+* several hours. This class is thread-safe.
+*/
+final class RefreshScheduler {
+
+  /**
+  * Constructor.
+  *
+  * @param aRefresh run on the event-dispatch thread for each refresh.
+  */
+  RefreshScheduler(Runnable aRefresh){
+    Args.checkForNull(aRefresh);
+    fRefresh = aRefresh;
+  }
+
+  /**
+  * Start refreshing, using <tt>aInterval</tt> milliseconds as the interval
+  * chosen by the user. The first refresh takes place after the first delay.
+  */
+  synchronized void start(long aInterval){
+    fInterval = checkInterval(aInterval);
+    scheduleNext();
+  }
+
+  /**
+  * Change the interval chosen by the user, and recalculate the delay before
+  * the next refresh, starting now.
+  */
+  synchronized void setInterval(long aInterval){
+    fInterval = checkInterval(aInterval);
+    scheduleNext();
+  }
+
+  /**
+  * Set the exchanges whose quotes are of interest, and recalculate the delay
+  * before the next refresh. If there are none, then the interval chosen by the
+  * user is used at all times.
+  */
+  synchronized void setExchanges(Collection<Exchange> aExchanges){
+    fExchanges = new LinkedHashSet<>(aExchanges);
+    if ( fInterval > 0 ) {
+      scheduleNext();
+    }
+  }
+
+  /** Record that a refresh succeeded, ending any backoff. */
+  synchronized void fetchSucceeded(){
+    fNumFailures = 0;
+  }
+
+  /**
+  * Record that a refresh failed, and reschedule the next one, after a longer
+  * delay than before.
+  */
+  synchronized void fetchFailed(){
+    ++fNumFailures;
+    fLogger.fine("Refresh failed " + fNumFailures + " time(s) in a row.");
+    if ( fInterval > 0 ) {
+      scheduleNext();
+    }
+  }
+
+  /** Stop refreshing. */
+  synchronized void stop(){
+    if ( fNext != null ) {
+      fNext.cancel(false);
+      fNext = null;
+    }
+    fInterval = 0;
+  }
+
+  /**
+  * Return the number of milliseconds to wait before the next refresh, if the
+  * current time is <tt>aNow</tt>.
+  */
+  synchronized long getDelay(long aNow){
+    long result = 0;
+    long nextOpen = Long.MAX_VALUE;
+    long cadence = Long.MAX_VALUE;
+    for(Exchange exchange : fExchanges){
+      TradingSession session = exchange.getTradingSession();
+      if ( session.isOpen(aNow) ) {
+        long interval = exchange.getRefreshInterval();
+        cadence = Math.min(cadence, interval > 0 ? interval : fInterval);
+      }
+      else {
+        nextOpen = Math.min(nextOpen, session.getNextOpen(aNow));
+      }
+    }
+    if ( fExchanges.isEmpty() ) {
+      result = fInterval;
+    }
+    else if ( cadence != Long.MAX_VALUE ) {
+      result = cadence;
+    }
+    else {
+      //all closed: refresh once, just after the first one opens
+      result = nextOpen - aNow + OPENING_MARGIN;
+    }
+    if ( fNumFailures > 0 ) {
+      long backoff = Math.min(result << Math.min(fNumFailures, MAX_DOUBLINGS), MAX_BACKOFF);
+      result = Math.max(result, backoff);
+      result = (long)(result * (1 - JITTER + 2 * JITTER * fRandom.nextDouble()));
+    }
+    return Math.max(result, MIN_DELAY);
+  }
+
+  // PRIVATE
+
+  private final Runnable fRefresh;
+  private long fInterval;
+  private Set<Exchange> fExchanges = Collections.emptySet();
+  private int fNumFailures;
+  private ScheduledFuture<?> fNext;
+  private final Random fRandom = new Random();
+
+  private static final long MIN_DELAY = 100;
+  private static final long MAX_BACKOFF = Consts.MILLISECONDS_PER_SECOND * Consts.SECONDS_PER_MINUTE * 60L;
+  private static final int MAX_DOUBLINGS = 16;
+  private static final double JITTER = 0.2;
+
+  /** Allows the first prices of a session to be published before fetching. */
+  private static final long OPENING_MARGIN = Consts.MILLISECONDS_PER_SECOND * 30L;
+
+  /** Uses a daemon thread, so that it never prevents the application from exiting. */
+  private static final ScheduledExecutorService fTimer = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactory() {
+      @Override public Thread newThread(Runnable aRunnable) {
+        Thread result = new Thread(aRunnable, "QuoteRefresh");
+        result.setDaemon(true);
+        return result;
+      }
+    }
+  );
+
+  private static final Logger fLogger = Util.getLogger(RefreshScheduler.class);
+
+  private static long checkInterval(long aInterval){
+    if ( aInterval <= 0 ) {
+      throw new IllegalArgumentException("Refresh interval must be positive: " + aInterval);
+    }
+    return aInterval;
+  }
+
+  /** Replace any pending refresh with one after the current delay. */
+  private void scheduleNext(){
+    if ( fNext != null ) {
+      fNext.cancel(false);
+    }
+    long delay = getDelay(System.currentTimeMillis());
+    fLogger.fine("Next refresh in " + delay + "ms.");
+    fNext = fTimer.schedule(new Runnable() {
+      @Override public void run() {
+        refresh();
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized void refresh(){
+    if ( fInterval == 0 ) return;
+    SwingUtilities.invokeLater(fRefresh);
+    scheduleNext();
+  }
+
+  /**
+  * Developer tool. Prints the delays calculated for a few combinations of
+  * exchanges, times, and failures.
+  */
+  private static void main(String... aArgs){
+    RefreshScheduler scheduler = new RefreshScheduler(new Runnable() {
+      @Override public void run() { }
+    });
+    scheduler.fInterval = Consts.MILLISECONDS_PER_SECOND * Consts.SECONDS_PER_MINUTE;
+    Exchange nyse = Exchange.valueFrom("NYSE Stock Exchanges");
+    Exchange london = Exchange.valueFrom("London Stock Exchange");
+    Exchange pink = Exchange.valueFrom("Pink Sheets");
+    //Wednesday, 15:00 UTC : New York and London both open
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    calendar.clear();
+    calendar.set(2014, Calendar.JANUARY, 15, 15, 0);
+    long both = calendar.getTimeInMillis();
+    //Wednesday, 23:00 UTC : both closed
+    calendar.set(2014, Calendar.JANUARY, 15, 23, 0);
+    long closed = calendar.getTimeInMillis();
+    //Saturday : both closed until Monday
+    calendar.set(2014, Calendar.JANUARY, 18, 12, 0);
+    long weekend = calendar.getTimeInMillis();
+
+    scheduler.fExchanges = new LinkedHashSet<>(Arrays.asList(nyse, london));
+    System.out.println("Both open: " + scheduler.getDelay(both) / 1000 + "s");
+    System.out.println("Both closed, until London opens: " + scheduler.getDelay(closed) / 1000 + "s");
+    System.out.println("Weekend, until Monday: " + scheduler.getDelay(weekend) / 3600000 + "h");
+    scheduler.fExchanges = new LinkedHashSet<>(Arrays.asList(nyse, pink));
+    System.out.println("One exchange without hours: " + scheduler.getDelay(closed) / 1000 + "s");
+    scheduler.fExchanges = new LinkedHashSet<>(Arrays.asList(nyse));
+    for(int failures = 1; failures <= 8; ++failures){
+      scheduler.fNumFailures = failures;
+      System.out.println(failures + " failure(s): " + scheduler.getDelay(both) / 1000 + "s");
+    }
+  }
+}
@@ -5,6 +5,7 @@ import java.util.*;
 import java.util.logging.*;
 import java.math.BigDecimal;
 import hirondelle.stocks.util.Util;
+import hirondelle.stocks.util.Money;
 import hirondelle.stocks.util.HashCodeUtil;
 import hirondelle.stocks.util.EqualsUtil;;
 
@@ -43,6 +44,9 @@ public final class Stock implements Comparable<Stock> {
     fNumShares = aNumShares;
     fAveragePrice = aAveragePrice;
     validateState();
+    fBookValue = Money.valueOf(
+      fAveragePrice.multiply(BigDecimal.valueOf(fNumShares.longValue()))
+    );
   }
 
   /**
@@ -152,6 +156,16 @@ public final class Stock implements Comparable<Stock> {
     return fExchange;
   }
 
+  /**
+  * Return the ticker, followed by a period and the ticker suffix of its 
+  * {@link Exchange}, if it has one, as in <tt>BP.L</tt>. Unlike the ticker 
+  * alone, this identifies a security across all exchanges.
+  */
+  public String getQualifiedTicker() {
+    String suffix = fExchange.getTickerSuffix();
+    return Util.textHasContent(suffix) ? fTicker + "." + suffix : fTicker;
+  }
+
   public Integer getNumShares() {
     return fNumShares;
   }
@@ -161,13 +175,14 @@ public final class Stock implements Comparable<Stock> {
   }
 
   /**
-  * Return the product of {@link #getNumShares} and {@link #getAveragePrice}.
+  * Return the product of {@link #getNumShares} and {@link #getAveragePrice}, 
+  * rounded as described by {@link Money#valueOf}.
   *
   * <P>The book value of a security is simply the cost of its acquisition.
+  * It is calculated only once, when this object is constructed.
   */
-  public BigDecimal getBookValue(){
-    BigDecimal numShares = new BigDecimal(getNumShares().toString());
-    return numShares.multiply(getAveragePrice()) ;
+  public Money getBookValue(){
+    return fBookValue;
   }
 
   /**
@@ -242,6 +257,7 @@ public final class Stock implements Comparable<Stock> {
   private final Exchange fExchange;
   private final Integer fNumShares;
   private final BigDecimal fAveragePrice;
+  private final Money fBookValue;
   private static final Logger fLogger = Util.getLogger(Stock.class);
 
   /**
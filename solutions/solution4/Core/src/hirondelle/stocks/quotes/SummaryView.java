@@ -5,15 +5,17 @@ import java.util.logging.*;
 import javax.swing.*;
 import java.awt.*;
 import java.beans.*;
-import java.math.BigDecimal;
 
 import hirondelle.stocks.table.QuoteFilter;
+import hirondelle.stocks.table.FilteredQuotes;
+import hirondelle.stocks.table.FilteredQuoteView;
 import hirondelle.stocks.util.Args;
 import hirondelle.stocks.util.ui.UiConsts;
 import hirondelle.stocks.util.ui.UiUtil;
 import hirondelle.stocks.table.QuoteFilterFactory;
 import hirondelle.stocks.portfolio.CurrentPortfolio;
 import hirondelle.stocks.util.Util;
+import hirondelle.stocks.util.Money;
 
 /**
  * Component placed on the main screen to present summary information
@@ -28,16 +30,16 @@ public final class SummaryView extends JPanel implements PropertyChangeListener
    * Constructor. 
    * 
    * @param aCurrentPortfolio summarized by this class
-   * @param aQuoteFilterFactory source of a {@link QuoteFilter} used to
-   * limit this summary to only certain items.
+   * @param aFilteredQuoteView source of the items accepted by a 
+   * {@link QuoteFilter}, used to limit this summary to only certain items.
    */
   public SummaryView(
-    CurrentPortfolio aCurrentPortfolio, QuoteFilterFactory aQuoteFilterFactory
+    CurrentPortfolio aCurrentPortfolio, FilteredQuoteView aFilteredQuoteView
   ) {
     Args.checkForNull(aCurrentPortfolio);
     fCurrentPortfolio = aCurrentPortfolio;
-    fQuoteFilterFactory = aQuoteFilterFactory;
-    fQuoteFilterFactory.addPropertyChangeListener(this);
+    fFilteredQuoteView = aFilteredQuoteView;
+    fFilteredQuoteView.addPropertyChangeListener(this);
     LayoutManager layout = new BoxLayout(this, BoxLayout.Y_AXIS);
     setLayout(layout);
     add(getSummaryFields());
@@ -51,7 +53,7 @@ public final class SummaryView extends JPanel implements PropertyChangeListener
    * Update this <tt>SummaryView</tt> in response to selection by user of a new
    * criterion for filtering items.
    * 
-   * <P> Listens to the {@link QuoteFilterFactory} passed to the constructor.
+   * <P> Listens to the {@link FilteredQuoteView} passed to the constructor.
    * @param event processed only if its <tt>getPropertyName</tt> is equal to
    * <tt>QuoteFilterFactory.SELECTED_FILTER</tt>.
    */
@@ -70,14 +72,15 @@ public final class SummaryView extends JPanel implements PropertyChangeListener
 
   /**
    * Display summary information for the {@link CurrentPortfolio}, adding any filtering
-   * according to the {@link QuoteFilterFactory} passed to the constructor.
+   * according to the {@link FilteredQuoteView} passed to the constructor.
    * 
    * <P>Use a {@link ColorTip} to draw the user's attention to the fresh 
    * quote information, by highlighting the time of last update for a few seconds.
    * @param aQuotes contains a {@link Quote} for every
    * {@link Stock} in the {@link CurrentPortfolio}.
    */
-  void setQuotes(Collection<Quote> aQuotes) {
+  void setQuotes(QuoteSnapshot aQuotes) {
+    Args.checkForNull(aQuotes);
     fQuotes = aQuotes;
     ColorTip colorTip = new ColorTip(0, 2, fTimeLastUpdate, Color.yellow);
     colorTip.start();
@@ -98,8 +101,8 @@ public final class SummaryView extends JPanel implements PropertyChangeListener
 
   // PRIVATE
   private CurrentPortfolio fCurrentPortfolio;
-  private QuoteFilterFactory fQuoteFilterFactory;
-  private Collection<Quote> fQuotes;
+  private FilteredQuoteView fFilteredQuoteView;
+  private QuoteSnapshot fQuotes = QuoteSnapshot.EMPTY;
 
   private JLabel fBookValue;
   private JLabel fCurrentValue;
@@ -168,33 +171,23 @@ public final class SummaryView extends JPanel implements PropertyChangeListener
   }
 
   private void updateView() {
-    QuoteFilter filter = fQuoteFilterFactory.getSelectedFilter();
-    Collection<Quote> filteredQuotes = filter.sift(fQuotes);
-
-    fBookValue.setText(getBookValue(filteredQuotes));
-    fCurrentValue.setText(getCurrentValue(filteredQuotes));
-    fProfit.setText(getProfit(filteredQuotes));
-    fPercentageProfit.setText(getPercentageProfit(filteredQuotes));
+    FilteredQuotes filtered = fFilteredQuoteView.filter(fQuotes);
+    Money bookValue = filtered.getTotalBookValue();
+    Money currentValue = filtered.getTotalCurrentValue();
+    Money profit = currentValue.minus(bookValue);
+
+    fBookValue.setText(UiUtil.getLocalizedInteger(bookValue));
+    fCurrentValue.setText(UiUtil.getLocalizedInteger(currentValue));
+    fProfit.setText(UiUtil.getLocalizedInteger(profit));
+    fPercentageProfit.setText(getPercentageProfit(profit, bookValue));
     fTimeLastUpdate.setText(UiUtil.getLocalizedTime(new Date()));
   }
 
-  private String getBookValue(Collection<Quote> aQuotes) {
-    Number value = fCurrentPortfolio.getPortfolio().getBookValue(aQuotes);
-    return UiUtil.getLocalizedInteger(value);
-  }
-
-  private String getCurrentValue(Collection<Quote> aQuotes) {
-    Number value = fCurrentPortfolio.getPortfolio().getCurrentValue(aQuotes);
-    return UiUtil.getLocalizedInteger(value);
+  /** Return profit divided by book value; if the book value is zero, return zero. */
+  private String getPercentageProfit(Money aProfit, Money aBookValue) {
+    double percent = aProfit.percentOf(aBookValue).doubleValue();
+    return UiUtil.getLocalizedPercent(percent / HUNDRED);
   }
 
-  private String getProfit(Collection<Quote> aQuotes) {
-    Number value = fCurrentPortfolio.getPortfolio().getProfit(aQuotes);
-    return UiUtil.getLocalizedInteger(value);
-  }
-
-  private String getPercentageProfit(Collection<Quote> aQuotes) {
-    BigDecimal value = fCurrentPortfolio.getPortfolio().getPercentageProfit(aQuotes);
-    return UiUtil.getLocalizedPercent(value);
-  }
+  private static final double HUNDRED = 100.0;
 }
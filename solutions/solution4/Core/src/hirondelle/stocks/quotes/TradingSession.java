@@ -0,0 +1,125 @@
+package hirondelle.stocks.quotes;
+
+import java.util.*;
+
+import hirondelle.stocks.util.Args;
+
+/**
+* The hours during which an {@link Exchange} trades, Monday to Friday, in its
+* local time zone.
+*
+* <P>Public holidays are not modelled : on such days, an exchange is simply
+* taken to be open. Sessions which span midnight are not supported.
+*
+* <P>Immutable.
+*/
+public final class TradingSession {
+
+  /** A session which never closes, for exchanges whose hours are not known. */
+  public static final TradingSession ALWAYS_OPEN = new TradingSession(null, 0, Integer.MAX_VALUE);
+
+  /**
+  * Parse text of the form <tt>America/New_York 09:30-16:00</tt> : a time zone
+  * identifier, then the opening and closing times, on a 24 hour clock.
+  *
+  * @throws IllegalArgumentException if <tt>aText</tt> does not have that form.
+  */
+  public static TradingSession valueOf(String aText){
+    Args.checkForNull(aText);
+    StringTokenizer parser = new StringTokenizer(aText, " -");
+    if ( parser.countTokens() != 3 ) {
+      throw new IllegalArgumentException("Cannot parse trading session: " + aText);
+    }
+    String zoneId = parser.nextToken();
+    TimeZone zone = TimeZone.getTimeZone(zoneId);
+    if ( ! zone.getID().equals(zoneId) ) {
+      throw new IllegalArgumentException("Unknown time zone: " + zoneId);
+    }
+    int open = parseMinutes(parser.nextToken(), aText);
+    int close = parseMinutes(parser.nextToken(), aText);
+    if ( open >= close ) {
+      throw new IllegalArgumentException("Session must open before it closes: " + aText);
+    }
+    return new TradingSession(zone, open, close);
+  }
+
+  /** Return true only if trading is under way at <tt>aTime</tt>, in milliseconds. */
+  public boolean isOpen(long aTime){
+    if ( fZone == null ) return true;
+    Calendar calendar = getCalendar(aTime);
+    int minutes = calendar.get(Calendar.HOUR_OF_DAY) * MINUTES_PER_HOUR + calendar.get(Calendar.MINUTE);
+    return isTradingDay(calendar) && fOpen <= minutes && minutes < fClose;
+  }
+
+  /**
+  * Return the time, in milliseconds, at which trading next begins, at or after
+  * <tt>aTime</tt>. If the session is open at <tt>aTime</tt>, then return
+  * <tt>aTime</tt> itself.
+  */
+  public long getNextOpen(long aTime){
+    if ( isOpen(aTime) ) return aTime;
+    Calendar calendar = getCalendar(aTime);
+    calendar.set(Calendar.HOUR_OF_DAY, fOpen / MINUTES_PER_HOUR);
+    calendar.set(Calendar.MINUTE, fOpen % MINUTES_PER_HOUR);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    while ( calendar.getTimeInMillis() < aTime || ! isTradingDay(calendar) ) {
+      calendar.add(Calendar.DAY_OF_MONTH, 1);
+    }
+    return calendar.getTimeInMillis();
+  }
+
+  /** Return the text from which this object was parsed, as in {@link #valueOf}. */
+  @Override public String toString(){
+    if ( fZone == null ) return "Always open";
+    return fZone.getID() + " " + formatMinutes(fOpen) + "-" + formatMinutes(fClose);
+  }
+
+  // PRIVATE
+
+  private static final int MINUTES_PER_HOUR = 60;
+
+  /** Null only for ALWAYS_OPEN. */
+  private final TimeZone fZone;
+
+  /** Minutes after midnight, local time. */
+  private final int fOpen;
+  private final int fClose;
+
+  private TradingSession(TimeZone aZone, int aOpen, int aClose){
+    fZone = aZone;
+    fOpen = aOpen;
+    fClose = aClose;
+  }
+
+  private Calendar getCalendar(long aTime){
+    Calendar result = Calendar.getInstance(fZone);
+    result.setTimeInMillis(aTime);
+    return result;
+  }
+
+  private static boolean isTradingDay(Calendar aCalendar){
+    int day = aCalendar.get(Calendar.DAY_OF_WEEK);
+    return day != Calendar.SATURDAY && day != Calendar.SUNDAY;
+  }
+
+  /** Parse text such as 09:30 into minutes after midnight. */
+  private static int parseMinutes(String aTime, String aText){
+    int colon = aTime.indexOf(':');
+    try {
+      int hours = Integer.parseInt(aTime.substring(0, colon));
+      int minutes = Integer.parseInt(aTime.substring(colon + 1));
+      if ( colon < 0 || hours < 0 || hours > 24 || minutes < 0 || minutes >= MINUTES_PER_HOUR ) {
+        throw new IllegalArgumentException("Cannot parse time in trading session: " + aText);
+      }
+      return hours * MINUTES_PER_HOUR + minutes;
+    }
+    catch (NumberFormatException | StringIndexOutOfBoundsException ex){
+      throw new IllegalArgumentException("Cannot parse time in trading session: " + aText, ex);
+    }
+  }
+
+  private static String formatMinutes(int aMinutes){
+    return String.format("%02d:%02d", aMinutes / MINUTES_PER_HOUR, aMinutes % MINUTES_PER_HOUR);
+  }
+}
@@ -0,0 +1,54 @@
+package hirondelle.stocks.quotes;
+
+import java.io.*;
+import java.net.*;
+import javax.swing.ProgressMonitorInputStream;
+
+/**
+* Reads price data in the comma-separated format defined by Yahoo.
+*
+* <P>The format is shared by all {@link QuoteSource} implementations in this
+* package. Each line has these fields, in this order :<br>
+* ticker, last trade, date-last-trade, time-last-trade, change, open, hi, lo, volume<br>
+* as in :<br>
+* "SUNW",4.14,"12/3/2002","4:00pm",-0.15,4.56,4.58,4.12,46700
+*/
+final class YahooQuoteFormat {
+
+  /**
+  * Return the custom stock ticker symbol used by Yahoo, which may contain
+  * a suffix representing the Exchange. (The Exchange suffix is not used for some
+  * common US exchanges.)
+  */
+  static String getYahooTicker(Stock aStock) {
+    return aStock.getQualifiedTicker();
+  }
+
+  /**
+  * Open a stream for reading the response to <tt>aRequest</tt>, using
+  * {@link QuoteTransport}. The caller must close the stream.
+  *
+  * @param aUseMonitor if true, show a <tt>ProgressMonitor</tt> for slow reads.
+  */
+  static InputStream openStream(URL aRequest, boolean aUseMonitor) throws IOException {
+    InputStream result = null;
+    if ( aUseMonitor ){
+      //This error may occur inside an IDE:
+      //java.net.SocketException: Unrecognized Windows Sockets error: 10106: create
+      result = new ProgressMonitorInputStream(
+        null, "Fetching.", QuoteTransport.open(aRequest)
+      );
+    }
+    else {
+      result = QuoteTransport.open(aRequest);
+    }
+    return result;
+  }
+
+  // PRIVATE
+
+  /** Disallow object construction. */
+  private YahooQuoteFormat(){
+    throw new AssertionError();
+  }
+}
@@ -0,0 +1,128 @@
+package hirondelle.stocks.quotes;
+
+import java.util.*;
+import java.util.logging.*;
+import java.net.*;
+import java.io.*;
+
+import org.openide.util.lookup.ServiceProvider;
+
+import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Util;
+import hirondelle.stocks.util.DataAccessException;
+
+/**
+* Default {@link QuoteSource}, which fetches current price data from a Yahoo
+* web service.
+*/
+@ServiceProvider(service = QuoteSource.class, position = 100)
+public final class YahooQuoteSource implements QuoteSource {
+
+  /** Value returned by {@link #getName}. */
+  public static final String NAME = "yahoo";
+
+  @Override public String getName() {
+    return NAME;
+  }
+
+  /** The Yahoo service limits each request to a maximum of 200 quotations. */
+  @Override public int getMaxBatchSize() {
+    return MAX_BATCH_SIZE;
+  }
+
+  @Override public List<Quote> fetch(
+    List<Stock> aStocks, QuotesDAO.UseMonitor aUseMonitor, QuoteListener aListener
+  ) throws DataAccessException {
+    /*
+    * Implementation Notes:
+    * Uses a Yahoo service, which outputs a simple textual (non-html) String
+    * in response to a query regarding stock prices.
+    * Example URL for a single stock (NT.TO symbol in this case): <br>
+    *  http://quote.yahoo.com/d/quotes.csv?s=NT.TO&f=sl1d1t1c1ohgv&e=.csv
+    *
+    * Multiple selections are simply comma-separated as in: <br>
+    *  http://quote.yahoo.com/d/quotes.csv?s=NT.TO,SUNW&f=sl1d1t1c1ohgv&e=.csv <br>
+    *
+    * which outputs the following:<br>
+    * "NT.TO",3.59,"12/2/2002","4:53pm",0.00,N/A,N/A,N/A,0<br>
+    * "SUNW",4.14,"12/3/2002","4:00pm",-0.15,4.56,4.58,4.12,46700<br>
+    *
+    * Indexes begin with a special character, eg "^DJI" is the Dow Jones.
+    * Example currency conversion: "THBMGF=X", which gives a quote between
+    * THB - Thai baht - and MGF  - Malagasy franc. The result of this query is: <br>
+    * "THBMGF=X",149.4387,"1/22/2003","10:19am",N/A,N/A,N/A,N/A,N/A
+    */
+    URL yahooUrl = null;
+    try {
+      yahooUrl = new URL(getYahooUrlText(aStocks));
+    }
+    catch (MalformedURLException ex){
+      throw new DataAccessException("Cannot create Yahoo Url using: " + getYahooUrlText(aStocks), ex);
+    }
+    return getQueryResult(aStocks, yahooUrl, aUseMonitor.getValue(), aListener);
+  }
+
+  // PRIVATE
+
+  private static final int MAX_BATCH_SIZE = 200;
+  private static final String fYAHOO_URL_START = "http://quote.yahoo.com/d/quotes.csv?s=";
+  private static final String fYAHOO_URL_END = "&f=sl1d1t1c1ohgv&e=.csv";
+  private static final Logger fLogger = Util.getLogger(YahooQuoteSource.class);
+
+  /**
+  * Return the HTTP URL to be used for fetching stock data from Yahoo,
+  * represented as a String.
+  */
+  private String getYahooUrlText(List<Stock> aStocks){
+    StringBuilder result = new StringBuilder(fYAHOO_URL_START);
+    Iterator<Stock> stocksIter = aStocks.iterator();
+    while (stocksIter.hasNext()){
+      Stock stock = stocksIter.next();
+      result.append(YahooQuoteFormat.getYahooTicker(stock));
+      if ( stocksIter.hasNext() ) {
+        result.append(Consts.COMMA);
+      }
+    }
+    result.append(fYAHOO_URL_END);
+    return result.toString();
+  }
+
+  /**
+  * Return List of {@link Quote} objects, informing <tt>aListener</tt> of each
+  * one as soon as its row has been read.
+  */
+  private List<Quote> getQueryResult(
+    List<Stock> aStocks, URL aHttpRequest, boolean aUseMonitor, QuoteListener aListener
+  ) throws DataAccessException {
+    /*
+     * This implementation depends on determinate iteration orders.
+     * That is, the iteration
+     * order used here is identical to that used to generate the query.
+     * As well, the order of items in the response must match the order
+     * in the request.
+     * This is necessary only because the exchange mapping is not one-to-one.
+     */
+    List<Quote> result = new ArrayList<>(aStocks.size());
+    try (InputStream input = YahooQuoteFormat.openStream(aHttpRequest, aUseMonitor)) {
+      QuoteCsvParser parser = new QuoteCsvParser(input);
+      for(Stock stock : aStocks){
+        if ( ! parser.nextRow() ) {
+          throw new DataAccessException(
+            "Expected " + aStocks.size() + " lines from Yahoo, but received " + result.size()
+          );
+        }
+        if ( ! parser.tickerStartsWith(stock.getTicker()) ) {
+          fLogger.fine("Unexpected ticker in response for " + stock + ": " + parser.getTicker());
+        }
+        Quote quote = parser.getQuote(stock);
+        result.add(quote);
+        aListener.quoteReceived(quote);
+      }
+    }
+    catch (IOException ex){
+      throw new DataAccessException("Cannot access quote data at " + aHttpRequest, ex);
+    }
+    fLogger.finest("Fetched batch of " + result.size() + " quotes.");
+    return result;
+  }
+}
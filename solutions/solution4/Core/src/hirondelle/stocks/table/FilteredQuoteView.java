@@ -0,0 +1,94 @@
+package hirondelle.stocks.table;
+
+import java.beans.PropertyChangeListener;
+import java.util.logging.*;
+
+import hirondelle.stocks.quotes.QuoteSnapshot;
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.Util;
+
+/**
+* Applies the filter selected in a {@link QuoteFilterFactory} to a
+* {@link QuoteSnapshot}, once, and shares the result.
+*
+* <P>The table of quotes and the summary view both show the same filtered
+* quotes. When a new snapshot arrives, or the user selects a new filter, each
+* of them asks this class for the {@link FilteredQuotes}. The first request
+* evaluates the filter; the others receive the same object. The number of
+* evaluations avoided in this way is logged.
+*
+* <P>Confined to the event-dispatch thread.
+*/
+public final class FilteredQuoteView {
+
+  /**
+  * Constructor.
+  *
+  * @param aQuoteFilterFactory the source of the selected {@link QuoteFilter}.
+  */
+  public FilteredQuoteView(QuoteFilterFactory aQuoteFilterFactory){
+    Args.checkForNull(aQuoteFilterFactory);
+    fQuoteFilterFactory = aQuoteFilterFactory;
+  }
+
+  /**
+  * Return the rows of <tt>aSnapshot</tt> accepted by the currently selected
+  * {@link QuoteFilter}.
+  *
+  * <P>If the same snapshot and filter were used in the previous call, then
+  * the previous result is returned, without evaluating the filter again.
+  */
+  public FilteredQuotes filter(QuoteSnapshot aSnapshot){
+    Args.checkForNull(aSnapshot);
+    QuoteFilter filter = fQuoteFilterFactory.getSelectedFilter();
+    if ( isCurrent(aSnapshot, filter) ) {
+      ++fNumAvoided;
+    }
+    else {
+      fCurrent = new FilteredQuotes(aSnapshot, filter);
+      ++fNumEvaluations;
+      fLogger.fine(
+        "Filter '" + filter + "' accepted " + fCurrent.size() + " of " +
+        aSnapshot.size() + " quotes. Evaluations: " + fNumEvaluations +
+        ", avoided: " + fNumAvoided
+      );
+    }
+    return fCurrent;
+  }
+
+  /**
+  * Register <tt>aListener</tt> to be notified when the user selects a new
+  * {@link QuoteFilter}, using the property name
+  * {@link QuoteFilterFactory#SELECTED_FILTER}.
+  */
+  public void addPropertyChangeListener(PropertyChangeListener aListener){
+    fQuoteFilterFactory.addPropertyChangeListener(aListener);
+  }
+
+  /** Return the number of times a filter has been applied to a snapshot. */
+  public int getNumEvaluations(){
+    return fNumEvaluations;
+  }
+
+  /** Return the number of times a previous result was returned instead. */
+  public int getNumAvoided(){
+    return fNumAvoided;
+  }
+
+  // PRIVATE
+
+  private final QuoteFilterFactory fQuoteFilterFactory;
+  private FilteredQuotes fCurrent;
+  private int fNumEvaluations;
+  private int fNumAvoided;
+
+  private static final Logger fLogger = Util.getLogger(FilteredQuoteView.class);
+
+  private boolean isCurrent(QuoteSnapshot aSnapshot, QuoteFilter aFilter){
+    return
+      fCurrent != null &&
+      fCurrent.getSnapshot() == aSnapshot &&
+      fCurrent.getFilter().equals(aFilter)
+    ;
+  }
+}
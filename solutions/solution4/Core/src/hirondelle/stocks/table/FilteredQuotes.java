@@ -0,0 +1,58 @@
+package hirondelle.stocks.table;
+
+import hirondelle.stocks.quotes.QuoteSnapshot;
+import hirondelle.stocks.util.Money;
+
+/**
+* Immutable result of applying a {@link QuoteFilter} to a {@link QuoteSnapshot}.
+*
+* <P>Returned by {@link FilteredQuoteView}, and shared by every component which
+* displays the same filtered quotes.
+*/
+public final class FilteredQuotes {
+
+  /** Return the snapshot to which the filter was applied. */
+  public QuoteSnapshot getSnapshot(){
+    return fSnapshot;
+  }
+
+  /** Return the filter which was applied. */
+  public QuoteFilter getFilter(){
+    return fFilter;
+  }
+
+  /** Return the number of rows accepted by the filter. */
+  public int size(){
+    return fRows.length;
+  }
+
+  /** Return the sum of the book values of the accepted rows. */
+  public Money getTotalBookValue(){
+    return fSnapshot.getTotalBookValue(fRows);
+  }
+
+  /** Return the sum of the current values of the accepted rows. */
+  public Money getTotalCurrentValue(){
+    return fSnapshot.getTotalCurrentValue(fRows);
+  }
+
+  // PRIVATE
+
+  private final QuoteSnapshot fSnapshot;
+  private final QuoteFilter fFilter;
+  private final int[] fRows;
+
+  FilteredQuotes(QuoteSnapshot aSnapshot, QuoteFilter aFilter){
+    fSnapshot = aSnapshot;
+    fFilter = aFilter;
+    fRows = aFilter.sift(aSnapshot);
+  }
+
+  /**
+  * Return the indexes of the accepted rows of the snapshot, in ascending order.
+  * Not a copy : the caller must not change the returned array.
+  */
+  int[] getRows(){
+    return fRows;
+  }
+}
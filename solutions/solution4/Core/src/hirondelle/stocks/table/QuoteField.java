@@ -1,5 +1,9 @@
 package hirondelle.stocks.table;
 
+import hirondelle.stocks.quotes.Indicators;
+import hirondelle.stocks.quotes.Quote;
+import hirondelle.stocks.util.Money;
+
 /**
 * Enumeration for the fields of the 
 * {@link hirondelle.stocks.quotes.Quote} class.
@@ -10,6 +14,9 @@ package hirondelle.stocks.table;
 * <li> can be used for column names
 * <li> length of <tt>QuoteField.values()</tt> gives the column count
 * </ul>
+*
+* <P>The last fields are technical indicators, taken from 
+* {@link Quote#getIndicators}; see {@link #isIndicator}.
 */
 public enum QuoteField { 
 
@@ -18,12 +25,19 @@ public enum QuoteField {
   Change("Change"),
   PercentChange("%Change"),
   Profit("Profit"),
-  PercentProfit("%Profit");
+  PercentProfit("%Profit"),
+  MovingAverage("SMA"),
+  ExpMovingAverage("EMA"),
+  RelativeStrength("RSI"),
+  DayHigh("High"),
+  DayLow("Low"),
+  VolumeWeightedPrice("VWAP");
 
   /**
   * Return a text representation of the <tt>QuoteField</tt>.
   *
-  * Return values : <tt>Stock, Price, Change, %Change, Profit, %Profit</tt>.
+  * Return values : <tt>Stock, Price, Change, %Change, Profit, %Profit, SMA, EMA, 
+  * RSI, High, Low, VWAP</tt>.
   * @return value contains only letters, and possibly a percent sign.
   */
   @Override public String toString() { 
@@ -44,6 +58,30 @@ public enum QuoteField {
     }
     throw new IllegalArgumentException("Cannot parse into a QuoteField: " + aText);
   }
+
+  /** Return <tt>true</tt> only if this field is a technical indicator. */
+  public boolean isIndicator(){
+    return ordinal() >= MovingAverage.ordinal();
+  }
+
+  /** 
+  * Return the value of this indicator for <tt>aQuote</tt>. 
+  * Called only if {@link #isIndicator} is <tt>true</tt>. 
+  */
+  Money getIndicator(Quote aQuote){
+    Indicators indicators = aQuote.getIndicators();
+    Money result = null;
+    switch(this){
+      case MovingAverage: result = indicators.getMovingAverage(); break;
+      case ExpMovingAverage: result = indicators.getExpMovingAverage(); break;
+      case RelativeStrength: result = indicators.getRelativeStrength(); break;
+      case DayHigh: result = indicators.getDayHigh(); break;
+      case DayLow: result = indicators.getDayLow(); break;
+      case VolumeWeightedPrice: result = indicators.getVolumeWeightedPrice(); break;
+      default: throw new AssertionError("Not an indicator: " + this);
+    }
+    return result;
+  }
   
   private final String fName;
 
@@ -1,6 +1,8 @@
 package hirondelle.stocks.table;
 
 import hirondelle.stocks.quotes.Quote;
+import hirondelle.stocks.quotes.QuoteIndex;
+import hirondelle.stocks.quotes.QuoteSnapshot;
 import java.util.*;
 
 /**
@@ -39,4 +41,30 @@ public abstract class QuoteFilter {
     }
     return result;
   }
+
+  /**
+  * Return the indexes of the rows of <tt>aSnapshot</tt> which satisfy 
+  * {@link #isAcceptable}, in ascending order.
+  */
+  public final int[] sift(QuoteSnapshot aSnapshot){
+    return QuoteIndex.toRows(select(aSnapshot));
+  }
+
+  /**
+  * Return the rows of <tt>aSnapshot</tt> which satisfy {@link #isAcceptable}, 
+  * as a new <tt>BitSet</tt> which the caller may change.
+  *
+  * <P>This default implementation calls {@link #isAcceptable} for every row. 
+  * Subclasses should override it when the same result can be found from 
+  * {@link QuoteSnapshot#getIndex}, as the filters of {@link QuoteFilters} do.
+  */
+  protected BitSet select(QuoteSnapshot aSnapshot){
+    BitSet result = new BitSet(aSnapshot.size());
+    for(int row = 0; row < aSnapshot.size(); ++row){
+      if (isAcceptable(aSnapshot.getQuote(row))) {
+        result.set(row);
+      }
+    }
+    return result;
+  }
 }
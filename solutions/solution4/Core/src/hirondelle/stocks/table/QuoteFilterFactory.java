@@ -2,6 +2,7 @@ package hirondelle.stocks.table;
 
 import java.util.logging.*;
 import java.util.*;
+import java.util.List;
 
 import javax.swing.*;
 import javax.swing.event.*;
@@ -12,6 +13,7 @@ import hirondelle.stocks.quotes.Stock;
 import hirondelle.stocks.quotes.Quote;
 import hirondelle.stocks.quotes.Exchange;
 import hirondelle.stocks.util.Consts;
+import hirondelle.stocks.util.Money;
 import hirondelle.stocks.portfolio.CurrentPortfolio;
 import hirondelle.stocks.util.Util;
 
@@ -19,6 +21,11 @@ import hirondelle.stocks.util.Util;
 * Graphical component which allows the end user to select a 
 * {@link QuoteFilter}, and informs its listeners of changes 
 * to this selection.
+*
+* <P>More than one item may be selected. Items in the same branch are 
+* alternatives, and items in different branches must all be satisfied : 
+* selecting two exchanges and <tt>Gainers</tt> shows the gainers on either 
+* exchange. The combined filter is built with {@link QuoteFilters}.
 * 
 * <P>JDK less than 6.
 *
@@ -62,9 +69,11 @@ public final class QuoteFilterFactory extends JScrollPane implements Observer {
 
   /**
   * Update this component's GUI in response to changes in the 
-  * {@link CurrentPortfolio} passed to the constructor.
+  * {@link CurrentPortfolio} passed to the constructor. Changes to its write status
+  * only are ignored.
   */
   @Override public void update(Observable aObservable, Object aData) {
+    if ( aData == CurrentPortfolio.WRITE_STATUS ) return;
     fSelectedFilter = NO_SELECTION_FILTER;
     synchFilterTreeWithCurrentPortfolio();
   } 
@@ -94,7 +103,7 @@ public final class QuoteFilterFactory extends JScrollPane implements Observer {
   * The {@link QuoteFilter} corresponding to the absence of 
   * any user selection.
   */
-  private QuoteFilter NO_SELECTION_FILTER = new QuoteFilterAcceptAll(Consts.EMPTY_STRING);
+  private QuoteFilter NO_SELECTION_FILTER = QuoteFilters.acceptAll(Consts.EMPTY_STRING);
 
   /*
   * These Strings appear as node names in fFilterSelector.
@@ -103,11 +112,13 @@ public final class QuoteFilterFactory extends JScrollPane implements Observer {
   private static final String FILTER_BY = "Filter By";
   private static final String EXCHANGE = "Exchange";
   private static final String TODAYS_CHANGE = "Today's Change";
-  private static final String GAINERS = "Gainers";
-  private static final String LOSERS = "Losers";
   private static final String TICKER_TYPE = "Ticker Type";
-  private static final String INDEX = "Index";
-  private static final String NON_INDEX = "Non-Index";
+  private static final String PRICE = "Price";
+  private static final String TICKER = "Ticker";
+  
+  /** Boundaries of the price ranges offered under the Price branch. */
+  private static final Money TEN = Money.fromUnscaled(10 * 100);
+  private static final Money HUNDRED = Money.fromUnscaled(100 * 100);
   
   private static final Logger fLogger = Util.getLogger(QuoteFilterFactory.class);  
   
@@ -126,29 +137,43 @@ public final class QuoteFilterFactory extends JScrollPane implements Observer {
   
   private void initFilterTreeModel(){
     DefaultMutableTreeNode exchange =  new DefaultMutableTreeNode( 
-      new QuoteFilterAcceptAll(EXCHANGE) 
+      QuoteFilters.acceptAll(EXCHANGE) 
     );
     //children of exchange depend on current portfolio, and are added a bit later
     
     //note how user objects are critical here, and must be attached to ALL nodes.
     DefaultMutableTreeNode todaysChange =  new DefaultMutableTreeNode(
-      new QuoteFilterAcceptAll(TODAYS_CHANGE) 
+      QuoteFilters.acceptAll(TODAYS_CHANGE) 
     );
-    todaysChange.add( new DefaultMutableTreeNode(new QuoteFilterGainers()) );
-    todaysChange.add( new DefaultMutableTreeNode(new QuoteFilterLosers()) );
+    todaysChange.add( new DefaultMutableTreeNode(QuoteFilters.gainers()) );
+    todaysChange.add( new DefaultMutableTreeNode(QuoteFilters.losers()) );
 
     DefaultMutableTreeNode tickerType =  new DefaultMutableTreeNode(
-      new QuoteFilterAcceptAll(TICKER_TYPE) 
+      QuoteFilters.acceptAll(TICKER_TYPE) 
+    );
+    tickerType.add( new DefaultMutableTreeNode(QuoteFilters.index()) );
+    tickerType.add( new DefaultMutableTreeNode(QuoteFilters.nonIndex()) );
+    
+    DefaultMutableTreeNode price =  new DefaultMutableTreeNode(
+      QuoteFilters.acceptAll(PRICE) 
     );
-    tickerType.add( new DefaultMutableTreeNode(new QuoteFilterIndex()) );
-    tickerType.add( new DefaultMutableTreeNode(new QuoteFilterNonIndex()) );
+    price.add( new DefaultMutableTreeNode(QuoteFilters.priceBelow(TEN)) );
+    price.add( new DefaultMutableTreeNode(QuoteFilters.priceRange(TEN, HUNDRED)) );
+    price.add( new DefaultMutableTreeNode(QuoteFilters.priceAtLeast(HUNDRED)) );
+    
+    DefaultMutableTreeNode ticker =  new DefaultMutableTreeNode(
+      QuoteFilters.acceptAll(TICKER) 
+    );
+    //children of ticker depend on current portfolio, and are added a bit later
     
     DefaultMutableTreeNode filterBy = new DefaultMutableTreeNode(
-      new QuoteFilterAcceptAll(FILTER_BY) 
+      QuoteFilters.acceptAll(FILTER_BY) 
     );
     filterBy.add(exchange);
     filterBy.add(todaysChange);
     filterBy.add(tickerType);
+    filterBy.add(price);
+    filterBy.add(ticker);
     
     fFilterTreeModel = new DefaultTreeModel(filterBy);
   }
@@ -159,7 +184,7 @@ public final class QuoteFilterFactory extends JScrollPane implements Observer {
     fFilterSelector.setShowsRootHandles(true); //recommended by L&F guidelines
     fFilterSelector.setEditable(false); 
     fFilterSelector.getSelectionModel().setSelectionMode(
-      TreeSelectionModel.SINGLE_TREE_SELECTION
+      TreeSelectionModel.DISCONTIGUOUS_TREE_SELECTION
     );
     
     //Note that using a local class hides the fact that this class 
@@ -175,8 +200,10 @@ public final class QuoteFilterFactory extends JScrollPane implements Observer {
   
   /**
   * For each Exchange present in the {@link CurrentPortfolio}, add a single
-  * node to the filter tree (under the Exchange branch), assign a 
-  * {@link QuoteFilterExchange} as the user object, and ensure no item is selected.
+  * node to the filter tree (under the Exchange branch), and likewise for 
+  * each first letter of a ticker (under the Ticker branch). Assign the 
+  * corresponding {@link QuoteFilter} as the user object, and ensure no item 
+  * is selected.
   */
   private void synchFilterTreeWithCurrentPortfolio() {
     DefaultMutableTreeNode filterBy = 
@@ -193,9 +220,22 @@ public final class QuoteFilterFactory extends JScrollPane implements Observer {
       Exchange exchange = stock.getExchange();
       if ( ! exchanges.contains(exchange) ) {
         exchanges.add(exchange);
-        exchangesNode.add(new DefaultMutableTreeNode(new QuoteFilterExchange(exchange))); 
+        exchangesNode.add(new DefaultMutableTreeNode(QuoteFilters.exchange(exchange))); 
       }
     }
+    
+    //DEPENDENCY: the ticker node is the *last* item:
+    DefaultMutableTreeNode tickersNode = 
+      (DefaultMutableTreeNode)filterBy.getLastChild()
+    ;
+    tickersNode.removeAllChildren();
+    Set<String> prefixes = new TreeSet<String>();
+    for(Stock stock: fCurrentPortfolio.getStocks()){
+      prefixes.add(stock.getTicker().substring(0, 1));
+    }
+    for(String prefix : prefixes){
+      tickersNode.add(new DefaultMutableTreeNode(QuoteFilters.tickerStartsWith(prefix)));
+    }
     fFilterTreeModel.reload(); //fires a selection event, but it is suppressed
   }
 
@@ -210,7 +250,7 @@ public final class QuoteFilterFactory extends JScrollPane implements Observer {
     QuoteFilter newSelectedFilter = parseSelectedFilter();
     assert newSelectedFilter != null : "New filter is unexpectedly null.";
     assert newSelectedFilter != NO_SELECTION_FILTER : "New Filter is unexpected value.";
-    if ( fSelectedFilter == newSelectedFilter ) {
+    if ( fSelectedFilter.equals(newSelectedFilter) ) {
       fLogger.fine("No broadcast: user selection does not have a new filter");
     }
     else {
@@ -225,105 +265,54 @@ public final class QuoteFilterFactory extends JScrollPane implements Observer {
   * Return true only if the user has made no filter selection.
   */
   private boolean hasNoSelection(){
-    return (getSelectedNode() == null);
+    return (fFilterSelector.getSelectionPaths() == null);
   }
 
   /**
   * Must call {@link #hasNoSelection} before invoking this method, to ensure that
   * a selection exists and is not null.
-  */
-  private QuoteFilter parseSelectedFilter(){
-    assert getSelectedNode() != null : "Selected Filter unexpectedly null.";
-    return (QuoteFilter)getSelectedNode().getUserObject();
-  }
-  
-  /**
-  * Return value is null if no selection is currently made.
-  */
-  private DefaultMutableTreeNode getSelectedNode(){
-    return (DefaultMutableTreeNode) fFilterSelector.getLastSelectedPathComponent();
-  }
-
-  // All QuoteFilter implementations:
-  
-  /**
-  * No {@link Quote} objects are rejected by this filter.
   *
-  *<P> Since more than one tree node uses this filter, text is 
-  * passed to the constructor to allows for customized display.
+  * <P>A single selected node gives its own filter. Otherwise, the filters 
+  * selected under each branch are combined with <tt>anyOf</tt>, and the 
+  * branches with <tt>allOf</tt>. Selecting a branch itself places no 
+  * restriction on that branch; selecting the root places none at all.
   */
-  static private class QuoteFilterAcceptAll extends QuoteFilter {
-    QuoteFilterAcceptAll(String aText) {
-      fText = aText;
-    }
-    @Override public boolean isAcceptable( Quote aQuote ){
-      return true;
-    }
-    @Override public String toString(){
-      return fText;
-    }
-    private final String fText;
-  }
-  
-  /**
-  * {@link Quote} objects are accepted only if they are from a specific 
-  * {@link Exchange}.
-  */
-  static private final class QuoteFilterExchange extends QuoteFilter {
-    QuoteFilterExchange( Exchange aExchange ) {
-      fTargetExchange = aExchange;
-    }
-    @Override public boolean isAcceptable( Quote aQuote ){
-      return aQuote.getStock().getExchange() == fTargetExchange;
-    }
-    @Override public String toString(){
-      return fTargetExchange.toString();
-    }
-    private Exchange fTargetExchange;
-  }
-  
-  /**
-  * {@link Quote} objects are accepted only if todays price change is 
-  * non-negative.
-  */
-  static private final class QuoteFilterGainers extends QuoteFilter {
-    @Override public boolean isAcceptable(Quote aQuote){
-      return aQuote.getChange().doubleValue() >= 0.0;
+  private QuoteFilter parseSelectedFilter(){
+    TreePath[] paths = fFilterSelector.getSelectionPaths();
+    assert paths != null : "Selected Filter unexpectedly null.";
+    if ( paths.length == 1 ) {
+      return getFilter(paths[0].getLastPathComponent());
     }
-    @Override public String toString(){
-      return GAINERS;
+    
+    Object root = fFilterTreeModel.getRoot();
+    Set<Object> selectedNodes = new HashSet<>();
+    for(TreePath path : paths){
+      selectedNodes.add(path.getLastPathComponent());
     }
-  }
-
-  /** 
-  * {@link Quote} objects are accepted only if todays price change is negative.
-  */
-  static private final class QuoteFilterLosers extends QuoteFilter {
-    @Override public boolean isAcceptable(Quote aQuote){
-      return aQuote.getChange().doubleValue() < 0.0;
+    if ( selectedNodes.contains(root) ) {
+      return getFilter(root);
     }
-    @Override public String toString(){
-      return LOSERS;
+    
+    //visit nodes in tree order, so that equal selections give equal filters
+    List<QuoteFilter> restrictions = new ArrayList<>();
+    for(int idx = 0; idx < fFilterTreeModel.getChildCount(root); ++idx){
+      Object branch = fFilterTreeModel.getChild(root, idx);
+      if ( selectedNodes.contains(branch) ) continue;
+      List<QuoteFilter> alternatives = new ArrayList<>();
+      for(int childIdx = 0; childIdx < fFilterTreeModel.getChildCount(branch); ++childIdx){
+        Object child = fFilterTreeModel.getChild(branch, childIdx);
+        if ( selectedNodes.contains(child) ) {
+          alternatives.add(getFilter(child));
+        }
+      }
+      if ( ! alternatives.isEmpty() ) {
+        restrictions.add(QuoteFilters.anyOf(alternatives));
+      }
     }
+    return restrictions.isEmpty() ? getFilter(root) : QuoteFilters.allOf(restrictions);
   }
   
-  /** {@link Quote} objects are accepted only if it is an index.  */
-  static private final class QuoteFilterIndex extends QuoteFilter {
-    @Override public boolean isAcceptable(Quote aQuote){
-      return aQuote.getStock().isIndex();
-    }
-    @Override public String toString(){
-      return INDEX;
-    }
-  }
-
-  /** {@link Quote} objects are accepted only if it is not an index.  */
-  static private final class QuoteFilterNonIndex extends QuoteFilter {
-    @Override public boolean isAcceptable(Quote aQuote){
-      return !aQuote.getStock().isIndex();
-    }
-    @Override public String toString(){
-      return NON_INDEX;
-    }
+  private QuoteFilter getFilter(Object aNode){
+    return (QuoteFilter)((DefaultMutableTreeNode)aNode).getUserObject();
   }
 }
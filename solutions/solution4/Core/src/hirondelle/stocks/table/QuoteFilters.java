@@ -0,0 +1,478 @@
+package hirondelle.stocks.table;
+
+import java.util.*;
+import java.math.BigDecimal;
+
+import hirondelle.stocks.quotes.Exchange;
+import hirondelle.stocks.quotes.Quote;
+import hirondelle.stocks.quotes.QuoteSnapshot;
+import hirondelle.stocks.quotes.Stock;
+import hirondelle.stocks.util.Args;
+import hirondelle.stocks.util.EqualsUtil;
+import hirondelle.stocks.util.HashCodeUtil;
+import hirondelle.stocks.util.Money;
+
+/**
+* Static factory methods for {@link QuoteFilter} objects, both simple criteria
+* and their combinations.
+*
+* <P>Simple criteria may be combined with {@link #allOf}, {@link #anyOf}, and
+* {@link #not}, to any depth, as in
+*<PRE>
+*  allOf(anyOf(exchange(nyse), exchange(toronto)), gainers(), priceAtLeast(ten))
+*</PRE>
+*
+* <P>When applied to a {@link QuoteSnapshot}, each simple criterion reads its rows
+* directly from {@link QuoteSnapshot#getIndex}, and each combination is evaluated
+* by combining <tt>BitSet</tt> objects, one bit per row. No <tt>Quote</tt>
+* is examined.
+*
+* <P>Filters returned by this class are immutable, and have value semantics :
+* two filters having the same criteria are equal.
+*/
+public final class QuoteFilters {
+
+  /**
+  * Return a filter which accepts all {@link Quote} objects.
+  *
+  * @param aText returned by <tt>toString</tt>, which allows for customized display.
+  */
+  public static QuoteFilter acceptAll(String aText){
+    Args.checkForNull(aText);
+    return new AcceptAll(aText);
+  }
+
+  /** Return a filter accepting {@link Quote} objects from <tt>aExchange</tt> only. */
+  public static QuoteFilter exchange(Exchange aExchange){
+    Args.checkForNull(aExchange);
+    return new ExchangeFilter(aExchange);
+  }
+
+  /** Return a filter accepting {@link Quote} objects whose change is not negative. */
+  public static QuoteFilter gainers(){
+    return GAINERS_FILTER;
+  }
+
+  /** Return a filter accepting {@link Quote} objects whose change is negative. */
+  public static QuoteFilter losers(){
+    return LOSERS_FILTER;
+  }
+
+  /** Return a filter accepting {@link Quote} objects for an index only. */
+  public static QuoteFilter index(){
+    return INDEX_FILTER;
+  }
+
+  /** Return a filter accepting {@link Quote} objects for a non-index only. */
+  public static QuoteFilter nonIndex(){
+    return NON_INDEX_FILTER;
+  }
+
+  /**
+  * Return a filter accepting {@link Quote} objects whose price is at least
+  * <tt>aLow</tt>, and less than <tt>aHigh</tt>.
+  */
+  public static QuoteFilter priceRange(Money aLow, Money aHigh){
+    return new PriceRange(aLow.getUnscaledValue(), aHigh.getUnscaledValue());
+  }
+
+  /** Return a filter accepting {@link Quote} objects whose price is at least <tt>aLow</tt>. */
+  public static QuoteFilter priceAtLeast(Money aLow){
+    return new PriceRange(aLow.getUnscaledValue(), Long.MAX_VALUE);
+  }
+
+  /** Return a filter accepting {@link Quote} objects whose price is less than <tt>aHigh</tt>. */
+  public static QuoteFilter priceBelow(Money aHigh){
+    return new PriceRange(Long.MIN_VALUE, aHigh.getUnscaledValue());
+  }
+
+  /**
+  * Return a filter accepting {@link Quote} objects whose ticker starts with
+  * <tt>aPrefix</tt>. The comparison is case-sensitive.
+  */
+  public static QuoteFilter tickerStartsWith(String aPrefix){
+    Args.checkForNull(aPrefix);
+    return new TickerPrefix(aPrefix);
+  }
+
+  /**
+  * Return a filter accepting only those {@link Quote} objects accepted by every
+  * one of <tt>aFilters</tt>. If <tt>aFilters</tt> has a single item,
+  * then that item is returned.
+  */
+  public static QuoteFilter allOf(List<QuoteFilter> aFilters){
+    return combine(Operator.AND, aFilters);
+  }
+
+  /** Convenience method for {@link #allOf(List)}. */
+  public static QuoteFilter allOf(QuoteFilter... aFilters){
+    return allOf(Arrays.asList(aFilters));
+  }
+
+  /**
+  * Return a filter accepting those {@link Quote} objects accepted by any
+  * one of <tt>aFilters</tt>. If <tt>aFilters</tt> has a single item,
+  * then that item is returned.
+  */
+  public static QuoteFilter anyOf(List<QuoteFilter> aFilters){
+    return combine(Operator.OR, aFilters);
+  }
+
+  /** Convenience method for {@link #anyOf(List)}. */
+  public static QuoteFilter anyOf(QuoteFilter... aFilters){
+    return anyOf(Arrays.asList(aFilters));
+  }
+
+  /** Return a filter accepting only those {@link Quote} objects rejected by <tt>aFilter</tt>. */
+  public static QuoteFilter not(QuoteFilter aFilter){
+    Args.checkForNull(aFilter);
+    return new Not(aFilter);
+  }
+
+  // PRIVATE
+
+  /*
+  * These Strings are returned by toString, and appear as node names in
+  * QuoteFilterFactory.
+  */
+  private static final String GAINERS = "Gainers";
+  private static final String LOSERS = "Losers";
+  private static final String INDEX = "Index";
+  private static final String NON_INDEX = "Non-Index";
+
+  private static final QuoteFilter GAINERS_FILTER = new Gainers();
+  private static final QuoteFilter LOSERS_FILTER = new Losers();
+  private static final QuoteFilter INDEX_FILTER = new IndexFilter();
+  private static final QuoteFilter NON_INDEX_FILTER = new NonIndexFilter();
+
+  /** Disallow object construction. */
+  private QuoteFilters(){
+    throw new AssertionError();
+  }
+
+  private static QuoteFilter combine(Operator aOperator, List<QuoteFilter> aFilters){
+    Args.checkForNull(aFilters);
+    if ( aFilters.isEmpty() ) {
+      throw new IllegalArgumentException("No filters to combine.");
+    }
+    return aFilters.size() == 1 ? aFilters.get(0) : new Combination(aOperator, aFilters);
+  }
+
+  private static final class AcceptAll extends QuoteFilter {
+    AcceptAll(String aText) {
+      fText = aText;
+    }
+    @Override public boolean isAcceptable(Quote aQuote){
+      return true;
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      return aSnapshot.getIndex().getAll();
+    }
+    @Override public String toString(){
+      return fText;
+    }
+    private final String fText;
+  }
+
+  private static final class ExchangeFilter extends QuoteFilter {
+    ExchangeFilter(Exchange aExchange) {
+      fTargetExchange = aExchange;
+    }
+    @Override public boolean isAcceptable(Quote aQuote){
+      return aQuote.getStock().getExchange() == fTargetExchange;
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      return aSnapshot.getIndex().getExchange(fTargetExchange);
+    }
+    @Override public boolean equals(Object aThat){
+      if ( this == aThat ) return true;
+      if ( !(aThat instanceof ExchangeFilter) ) return false;
+      ExchangeFilter that = (ExchangeFilter)aThat;
+      return EqualsUtil.areEqual(this.fTargetExchange, that.fTargetExchange);
+    }
+    @Override public int hashCode(){
+      return HashCodeUtil.hash(HashCodeUtil.SEED, fTargetExchange);
+    }
+    @Override public String toString(){
+      return fTargetExchange.toString();
+    }
+    private final Exchange fTargetExchange;
+  }
+
+  private static final class Gainers extends QuoteFilter {
+    @Override public boolean isAcceptable(Quote aQuote){
+      return aQuote.getChange().signum() >= 0;
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      return aSnapshot.getIndex().getGainers();
+    }
+    @Override public String toString(){
+      return GAINERS;
+    }
+  }
+
+  private static final class Losers extends QuoteFilter {
+    @Override public boolean isAcceptable(Quote aQuote){
+      return aQuote.getChange().signum() < 0;
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      return aSnapshot.getIndex().getLosers();
+    }
+    @Override public String toString(){
+      return LOSERS;
+    }
+  }
+
+  private static final class IndexFilter extends QuoteFilter {
+    @Override public boolean isAcceptable(Quote aQuote){
+      return aQuote.getStock().isIndex();
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      return aSnapshot.getIndex().getIndexes();
+    }
+    @Override public String toString(){
+      return INDEX;
+    }
+  }
+
+  private static final class NonIndexFilter extends QuoteFilter {
+    @Override public boolean isAcceptable(Quote aQuote){
+      return !aQuote.getStock().isIndex();
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      return aSnapshot.getIndex().getNonIndexes();
+    }
+    @Override public String toString(){
+      return NON_INDEX;
+    }
+  }
+
+  /** Lower bound is inclusive, upper bound is exclusive; both are unscaled. */
+  private static final class PriceRange extends QuoteFilter {
+    PriceRange(long aLow, long aHigh) {
+      fLow = aLow;
+      fHigh = aHigh;
+    }
+    @Override public boolean isAcceptable(Quote aQuote){
+      long price = aQuote.getPrice().getUnscaledValue();
+      return fLow <= price && price < fHigh;
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      return aSnapshot.getIndex().getPriceRange(fLow, fHigh);
+    }
+    @Override public boolean equals(Object aThat){
+      if ( this == aThat ) return true;
+      if ( !(aThat instanceof PriceRange) ) return false;
+      PriceRange that = (PriceRange)aThat;
+      return EqualsUtil.areEqual(this.fLow, that.fLow) && EqualsUtil.areEqual(this.fHigh, that.fHigh);
+    }
+    @Override public int hashCode(){
+      int result = HashCodeUtil.SEED;
+      result = HashCodeUtil.hash(result, fLow);
+      result = HashCodeUtil.hash(result, fHigh);
+      return result;
+    }
+    @Override public String toString(){
+      String result = null;
+      if ( fLow == Long.MIN_VALUE ) {
+        result = "Under " + Money.fromUnscaled(fHigh);
+      }
+      else if ( fHigh == Long.MAX_VALUE ) {
+        result = Money.fromUnscaled(fLow) + " and Over";
+      }
+      else {
+        result = Money.fromUnscaled(fLow) + " to " + Money.fromUnscaled(fHigh);
+      }
+      return result;
+    }
+    private final long fLow;
+    private final long fHigh;
+  }
+
+  private static final class TickerPrefix extends QuoteFilter {
+    TickerPrefix(String aPrefix) {
+      fPrefix = aPrefix;
+    }
+    @Override public boolean isAcceptable(Quote aQuote){
+      return aQuote.getStock().getTicker().startsWith(fPrefix);
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      return aSnapshot.getIndex().getTickerStartsWith(fPrefix);
+    }
+    @Override public boolean equals(Object aThat){
+      if ( this == aThat ) return true;
+      if ( !(aThat instanceof TickerPrefix) ) return false;
+      TickerPrefix that = (TickerPrefix)aThat;
+      return EqualsUtil.areEqual(this.fPrefix, that.fPrefix);
+    }
+    @Override public int hashCode(){
+      return HashCodeUtil.hash(HashCodeUtil.SEED, fPrefix);
+    }
+    @Override public String toString(){
+      return fPrefix + "...";
+    }
+    private final String fPrefix;
+  }
+
+  private enum Operator {AND, OR}
+
+  private static final class Combination extends QuoteFilter {
+    Combination(Operator aOperator, List<QuoteFilter> aFilters) {
+      fOperator = aOperator;
+      fFilters = Collections.unmodifiableList(new ArrayList<>(aFilters));
+    }
+    @Override public boolean isAcceptable(Quote aQuote){
+      boolean isAnd = (fOperator == Operator.AND);
+      for(QuoteFilter filter : fFilters){
+        if ( filter.isAcceptable(aQuote) != isAnd ) return !isAnd;
+      }
+      return isAnd;
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      BitSet result = null;
+      for(QuoteFilter filter : fFilters){
+        BitSet rows = filter.select(aSnapshot);
+        if ( result == null ) {
+          result = rows;
+        }
+        else if ( fOperator == Operator.AND ) {
+          result.and(rows);
+        }
+        else {
+          result.or(rows);
+        }
+        //nothing further can change the result
+        if ( fOperator == Operator.AND && result.isEmpty() ) break;
+      }
+      return result;
+    }
+    @Override public boolean equals(Object aThat){
+      if ( this == aThat ) return true;
+      if ( !(aThat instanceof Combination) ) return false;
+      Combination that = (Combination)aThat;
+      return
+        EqualsUtil.areEqual(this.fOperator, that.fOperator) &&
+        EqualsUtil.areEqual(this.fFilters, that.fFilters)
+      ;
+    }
+    @Override public int hashCode(){
+      int result = HashCodeUtil.SEED;
+      result = HashCodeUtil.hash(result, fOperator);
+      result = HashCodeUtil.hash(result, fFilters);
+      return result;
+    }
+    @Override public String toString(){
+      StringBuilder result = new StringBuilder("(");
+      for(QuoteFilter filter : fFilters){
+        if ( result.length() > 1 ) {
+          result.append(fOperator == Operator.AND ? " and " : " or ");
+        }
+        result.append(filter);
+      }
+      return result.append(")").toString();
+    }
+    private final Operator fOperator;
+    private final List<QuoteFilter> fFilters;
+  }
+
+  private static final class Not extends QuoteFilter {
+    Not(QuoteFilter aFilter) {
+      fFilter = aFilter;
+    }
+    @Override public boolean isAcceptable(Quote aQuote){
+      return !fFilter.isAcceptable(aQuote);
+    }
+    @Override protected BitSet select(QuoteSnapshot aSnapshot){
+      BitSet result = fFilter.select(aSnapshot);
+      result.flip(0, aSnapshot.size());
+      return result;
+    }
+    @Override public boolean equals(Object aThat){
+      if ( this == aThat ) return true;
+      if ( !(aThat instanceof Not) ) return false;
+      return EqualsUtil.areEqual(this.fFilter, ((Not)aThat).fFilter);
+    }
+    @Override public int hashCode(){
+      return HashCodeUtil.hash(HashCodeUtil.SEED, fFilter);
+    }
+    @Override public String toString(){
+      return "not " + fFilter;
+    }
+    private final QuoteFilter fFilter;
+  }
+
+  /**
+  * Developer tool. Applies a number of filters to a snapshot of 50,000 quotes,
+  * checks that the indexed result is the same as calling
+  * {@link QuoteFilter#isAcceptable} for each row, and compares their speed.
+  */
+  private static void main(String... aArgs){
+    int numQuotes = 50000;
+    Exchange nyse = Exchange.valueFrom("NYSE Stock Exchanges");
+    Exchange toronto = Exchange.valueFrom("Toronto Stock Exchange");
+    Random random = new Random(1);
+    List<Quote> quotes = new ArrayList<>();
+    for(int idx = 0; idx < numQuotes; ++idx){
+      StringBuilder ticker = new StringBuilder();
+      if ( idx % 50 == 0 ) {
+        ticker.append('^');
+      }
+      for(int value = idx; value > 0 || ticker.length() < 2; value = value / 26){
+        ticker.append((char)('A' + value % 26));
+      }
+      Stock stock = new Stock(
+        "Stock " + idx, ticker.toString(), random.nextBoolean() ? nyse : toronto,
+        random.nextInt(1000), BigDecimal.valueOf(random.nextInt(20000), 2)
+      );
+      quotes.add(new Quote(
+        stock,
+        Money.fromUnscaled(random.nextInt(20000)),
+        Money.fromUnscaled(random.nextInt(400) - 200)
+      ));
+    }
+    Money ten = Money.fromUnscaled(1000);
+    Money hundred = Money.fromUnscaled(10000);
+    List<QuoteFilter> filters = Arrays.asList(
+      gainers(),
+      anyOf(exchange(nyse), index()),
+      allOf(exchange(toronto), losers(), priceRange(ten, hundred)),
+      allOf(not(tickerStartsWith("B")), anyOf(priceBelow(ten), priceAtLeast(hundred)), nonIndex())
+    );
+    for(int round = 0; round < 5; ++round){
+      //a new snapshot each round, so that building the index is included
+      QuoteSnapshot snapshot = new QuoteSnapshot(quotes);
+      long start = System.nanoTime();
+      List<int[]> indexed = new ArrayList<>();
+      for(QuoteFilter filter : filters){
+        indexed.add(filter.sift(snapshot));
+      }
+      long index = System.nanoTime() - start;
+      start = System.nanoTime();
+      for(QuoteFilter filter : filters){
+        indexed.add(filter.sift(snapshot));
+      }
+      long reuse = System.nanoTime() - start;
+      start = System.nanoTime();
+      List<int[]> scanned = new ArrayList<>();
+      for(QuoteFilter filter : filters){
+        int[] rows = new int[numQuotes];
+        int count = 0;
+        for(int row = 0; row < numQuotes; ++row){
+          if ( filter.isAcceptable(snapshot.getQuote(row)) ) {
+            rows[count++] = row;
+          }
+        }
+        scanned.add(Arrays.copyOf(rows, count));
+      }
+      long scan = System.nanoTime() - start;
+      boolean isSame = true;
+      for(int idx = 0; idx < filters.size(); ++idx){
+        isSame = isSame && Arrays.equals(indexed.get(idx), scanned.get(idx));
+      }
+      System.out.println(
+        "Scan: " + scan / 1000 + "us  Index, first use: " + index / 1000 +
+        "us  Index, reused: " + reuse / 1000 + "us  Same rows: " + isSame
+      );
+    }
+  }
+}
@@ -1,7 +1,12 @@
 package hirondelle.stocks.table;
 
-import java.util.Comparator;
+import java.util.*;
+import java.math.BigDecimal;
+
+import hirondelle.stocks.quotes.Exchange;
 import hirondelle.stocks.quotes.Quote;
+import hirondelle.stocks.quotes.Stock;
+import hirondelle.stocks.util.Money;
 
 /**
 * Translates a {@link QuoteField} into a 
@@ -9,6 +14,8 @@ import hirondelle.stocks.quotes.Quote;
 *
 * <P>All returned <tt>Comparator</tt> objects are synchronized with 
 * {@link Quote#equals}; thus, they may all be used with sorted collections.
+* After their own fields, they all end with {@link #compareTieBreaks}, which 
+* compares every other field used by <tt>equals</tt>.
 *
 *<P>There is only one use case for this class:
 <pre>
@@ -37,11 +44,44 @@ public final class QuoteSorterFactory {
     else if ( aField == QuoteField.PercentProfit ) {
       result = PERCENT_PROFIT_SORTER;
     }
+    else if ( aField.isIndicator() ) {
+      result = INDICATOR_SORTERS.get(aField);
+    }
     else {
       throw new AssertionError("Unknown quote field: " + aField);
     }
     return result;
   }
+
+  /**
+  * Compare the fields used by {@link Quote#equals} which are not sorted on
+  * directly : the opening, high, and low prices, the volume, and then each of 
+  * the technical indicators, all from large to small. Quotes for which this 
+  * method returns <tt>0</tt>, and which have the same Stock, Price, and Change, 
+  * are equal.
+  *
+  * <P>Used as the final comparison of every sorter, and by 
+  * {@link QuoteSortEngine} for rows whose other sort keys are all equal.
+  */
+  static int compareTieBreaks(Quote aThis, Quote aThat){
+    int comparison = REVERSE * aThis.getOpen().compareTo(aThat.getOpen());
+    if ( comparison != EQUAL ) return comparison;
+
+    comparison = REVERSE * aThis.getHigh().compareTo(aThat.getHigh());
+    if ( comparison != EQUAL ) return comparison;
+
+    comparison = REVERSE * aThis.getLow().compareTo(aThat.getLow());
+    if ( comparison != EQUAL ) return comparison;
+
+    comparison = REVERSE * Long.compare(aThis.getVolume(), aThat.getVolume());
+    if ( comparison != EQUAL ) return comparison;
+
+    for(QuoteField field : INDICATOR_SORTERS.keySet()){
+      comparison = REVERSE * field.getIndicator(aThis).compareTo(field.getIndicator(aThat));
+      if ( comparison != EQUAL ) return comparison;
+    }
+    return EQUAL;
+  }
   
   // PRIVATE 
   
@@ -61,6 +101,17 @@ public final class QuoteSorterFactory {
     new PercentProfitSorter()
   ;
   
+  private static final Map<QuoteField, Comparator<Quote>> INDICATOR_SORTERS = 
+    new EnumMap<>(QuoteField.class)
+  ;
+  static {
+    for(QuoteField field : QuoteField.values()){
+      if ( field.isIndicator() ) {
+        INDICATOR_SORTERS.put(field, new IndicatorSorter(field));
+      }
+    }
+  }
+  
   private static final int BEFORE = -1;
   private static final int EQUAL = 0;
   private static final int AFTER = 1;
@@ -96,7 +147,8 @@ public final class QuoteSorterFactory {
 
   /*
   * The following three classes perform all the same sorts, but in different
-  * orders; they are named after the first sort performed.
+  * orders; they are named after the first sort performed. Each ends with 
+  * compareTieBreaks.
   */
   
   private static final class StockSorter extends QuoteSorter {
@@ -107,7 +159,10 @@ public final class QuoteSorterFactory {
       comparison = comparePrice(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
-      return compareChange(aThis, aThat);
+      comparison = compareChange(aThis, aThat);
+      if ( comparison != EQUAL ) return comparison;
+
+      return compareTieBreaks(aThis, aThat);
     }
   }
   
@@ -119,7 +174,10 @@ public final class QuoteSorterFactory {
       comparison = compareStock(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
       
-      return compareChange(aThis, aThat);
+      comparison = compareChange(aThis, aThat);
+      if ( comparison != EQUAL ) return comparison;
+
+      return compareTieBreaks(aThis, aThat);
     }
   }
 
@@ -131,7 +189,10 @@ public final class QuoteSorterFactory {
       comparison = compareStock(aThis, aThat);
       if ( comparison != EQUAL ) return comparison;
 
-      return comparePrice(aThis, aThat);
+      comparison = comparePrice(aThis, aThat);
+      if ( comparison != EQUAL ) return comparison;
+
+      return compareTieBreaks(aThis, aThat);
     }
   }
 
@@ -148,16 +209,17 @@ public final class QuoteSorterFactory {
   }
 
   /**
-  * Sort first on a derived field, then sort as <tt>StockSorter</tt>.
+  * Sort first on a derived field or an indicator, then sort as <tt>StockSorter</tt>.
   *
   * <P>Derived fields are special cases.
   * The guiding idea is to maintain synchronization with {@link Quote#equals}. 
   *
-  * <P>{@link Quote#equals} uses Stock, Price, and 
-  * Change, but does not use the derived fields PercentChange, Profit, 
-  * and PercentProfit. Comparisons on derived fields, if performed at all, 
-  * are always performed first, and are always followed by comparisons on 
-  * Stock, Price, and Change. This style maintains synch with <tt>equals</tt>.
+  * <P>{@link Quote#equals} uses Stock, Price, Change, and the fields of 
+  * {@link #compareTieBreaks}, including the technical indicators, but does not 
+  * use the derived fields PercentChange, Profit, and PercentProfit. A sort on one
+  * of these, or on an indicator, compares that field first, and is always 
+  * followed by all the comparisons of <tt>StockSorter</tt>. This style maintains 
+  * synch with <tt>equals</tt>.
   */
   private static abstract class DerivedFieldSorter extends QuoteSorter {
     @Override public final int compareFields(Quote aThis, Quote aThat){
@@ -178,25 +240,54 @@ public final class QuoteSorterFactory {
 
   private static final class PercentProfitSorter extends DerivedFieldSorter {
     @Override public int compareDerivedField(Quote aThis, Quote aThat){
-      if ( 
-        aThis.getPercentProfit().compareTo(aThat.getPercentProfit()) <= 0 
-      ) return AFTER;
-      if ( 
-       aThis.getPercentProfit().compareTo(aThat.getPercentProfit()) > 0 
-      ) return BEFORE;    
-      return EQUAL;
+      return REVERSE * aThis.getPercentProfit().compareTo(aThat.getPercentProfit());
     }
   }
 
   private static final class PercentChangeSorter extends DerivedFieldSorter {
     @Override public int compareDerivedField(Quote aThis, Quote aThat){
-      if ( 
-        aThis.getPercentChange().compareTo(aThat.getPercentChange()) <= 0 
-      ) return AFTER;
-      if ( 
-        aThis.getPercentChange().compareTo(aThat.getPercentChange()) > 0 
-      ) return BEFORE;    
-      return EQUAL;
+      return REVERSE * aThis.getPercentChange().compareTo(aThat.getPercentChange());
+    }
+  }
+
+  private static final class IndicatorSorter extends DerivedFieldSorter {
+    IndicatorSorter(QuoteField aField){
+      fField = aField;
+    }
+    @Override public int compareDerivedField(Quote aThis, Quote aThat){
+      return REVERSE * fField.getIndicator(aThis).compareTo(fField.getIndicator(aThat));
+    }
+    private final QuoteField fField;
+  }
+
+  /**
+  * Developer tool. Times the sorting of 50,000 quotes by each {@link QuoteField}.
+  */
+  private static void main(String... aArgs){
+    int numQuotes = 50000;
+    Exchange exchange = Exchange.valueFrom("NYSE Stock Exchanges");
+    Random random = new Random(1);
+    List<Quote> quotes = new ArrayList<>();
+    for(int idx = 0; idx < numQuotes; ++idx){
+      Stock stock = new Stock(
+        "Stock " + idx, "T" + Integer.toString(idx, Character.MAX_RADIX).replaceAll("[0-9]", "X"),
+        exchange, random.nextInt(1000), BigDecimal.valueOf(random.nextInt(20000), 2)
+      );
+      quotes.add(new Quote(
+        stock, 
+        Money.fromUnscaled(random.nextInt(20000)), 
+        Money.fromUnscaled(random.nextInt(400) - 200)
+      ));
+    }
+    for(int round = 0; round < 5; ++round){
+      StringBuilder line = new StringBuilder();
+      for(QuoteField field : QuoteField.values()){
+        List<Quote> copy = new ArrayList<>(quotes);
+        long start = System.nanoTime();
+        Collections.sort(copy, getSorter(field));
+        line.append(field).append(": ").append((System.nanoTime() - start) / 1000).append("us  ");
+      }
+      System.out.println(line);
     }
   }
 }
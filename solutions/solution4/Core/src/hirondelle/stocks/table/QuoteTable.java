@@ -1,11 +1,16 @@
 package hirondelle.stocks.table;
 
 import java.util.*;
+import java.awt.Point;
 import javax.swing.*;
+import javax.swing.event.*;
 import javax.swing.table.*;
 import java.beans.*;
 
 import hirondelle.stocks.quotes.Quote;
+import hirondelle.stocks.quotes.QuoteSnapshot;
+import hirondelle.stocks.quotes.Stock;
+import hirondelle.stocks.util.Money;
 import hirondelle.stocks.util.Args;
 import hirondelle.stocks.util.ui.UiUtil;
 import hirondelle.stocks.preferences.QuoteTablePreferencesEditor;
@@ -14,7 +19,7 @@ import hirondelle.stocks.preferences.QuoteTablePreferencesEditor;
 * Graphical component which displays the latest quote information for the 
 * {@link hirondelle.stocks.portfolio.CurrentPortfolio}.
 *
-*<P> Listens to a {@link QuoteFilterFactory} and to a 
+*<P> Listens to a {@link FilteredQuoteView} and to a 
 * {@link QuoteTablePreferencesEditor}, for updates on how to display 
 * its information.
 *
@@ -28,17 +33,17 @@ public final class QuoteTable extends JScrollPane
   *  
   * @param aTablePrefsEditor observed by this class to fetch and update 
   * user preferences for the display of this component.
-  * @param aQuoteFilterFactory observed by this class to fetch the 
-  * {@link QuoteFilter} to be applied to this component's data.
+  * @param aFilteredQuoteView observed by this class to fetch the rows 
+  * accepted by the selected {@link QuoteFilter}.
   */
   public QuoteTable(
     QuoteTablePreferencesEditor aTablePrefsEditor, 
-    QuoteFilterFactory aQuoteFilterFactory
+    FilteredQuoteView aFilteredQuoteView
   ){
     fTablePrefsEditor = aTablePrefsEditor;
     fTablePrefsEditor.addObserver(this);
-    fQuoteFilterFactory = aQuoteFilterFactory;
-    fQuoteFilterFactory.addPropertyChangeListener(this);
+    fFilteredQuoteView = aFilteredQuoteView;
+    fFilteredQuoteView.addPropertyChangeListener(this);
     fModel = new QuoteTableModel();
     fTable = new JTable(fModel);
     fTableSortIndicator = new TableSortIndicator(fTable, UP_ICON, DOWN_ICON);
@@ -49,9 +54,22 @@ public final class QuoteTable extends JScrollPane
   /**
   * Update display of this table using new {@link Quote} 
   * objects.
+  *
+  * <P>Only the rows which have changed are repainted. Rows are matched to the 
+  * previous display by their {@link Stock}. If a refresh changes the order of 
+  * the rows, then the whole table is redrawn. In either case, the selected 
+  * stock and the scroll position are retained.
   */
   public void setQuoteTable(List<Quote> aQuotes) {
-    fModel.setQuoteTable(aQuotes);
+    setQuoteTable(new QuoteSnapshot(aQuotes));
+  }
+
+  /**
+  * Update display of this table using a new {@link QuoteSnapshot}, as 
+  * described in {@link #setQuoteTable(List)}.
+  */
+  public void setQuoteTable(QuoteSnapshot aSnapshot) {
+    fModel.setQuoteTable(aSnapshot);
   }
  
   /**
@@ -80,18 +98,39 @@ public final class QuoteTable extends JScrollPane
   * Update the view in response to the selection by the end user of a new 
   * {@link QuoteFilter} for filtering displayed items.
   *
-  * <P>Listens to the <tt>QuoteFilterFactory</tt> passed to the constructor.
+  * <P>Listens to the <tt>FilteredQuoteView</tt> passed to the constructor.
   */
   @Override public void propertyChange(PropertyChangeEvent event) {
     fModel.filterAndSortQuotes();
   }
+
+  /**
+  * Return the {@link Stock} selected by the user, or <tt>null</tt> if no row 
+  * is selected.
+  */
+  public Stock getSelectedStock(){
+    return fSelectedStock;
+  }
+
+  /**
+  * Property name passed to listeners during <tt>PropertyChangeEvent</tt>, when 
+  * the user selects a different {@link Stock}. 
+  *
+  * <P>A refresh of the quotes retains the selected stock, and does not fire 
+  * this event, unless the selected stock is no longer displayed.
+  */
+  public static final String SELECTED_STOCK = "SelectedStock";
   
   // PRIVATE 
   
   private QuoteTablePreferencesEditor fTablePrefsEditor;
-  private QuoteFilterFactory fQuoteFilterFactory;
+  private FilteredQuoteView fFilteredQuoteView;
   private JTable fTable;
   private QuoteTableModel fModel;
+  private Stock fSelectedStock;
+  
+  /** True while the rows are being replaced, and the selection restored. */
+  private boolean fIsReplacingRows;
   
   /**
   * Allows user to select a different sort for the quotes, and provides a visual 
@@ -108,6 +147,13 @@ public final class QuoteTable extends JScrollPane
   private void initGui(){
     fTable.getTableHeader().setReorderingAllowed(false);
     fTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    fTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+      @Override public void valueChanged(ListSelectionEvent aEvent) {
+        if ( ! aEvent.getValueIsAdjusting() && ! fIsReplacingRows ) {
+          synchSelectedStock();
+        }
+      }
+    });
     synchWithPrefs();
     setViewportView( fTable );
   }
@@ -116,12 +162,22 @@ public final class QuoteTable extends JScrollPane
     fTable.setShowHorizontalLines( fTablePrefsEditor.hasHorizontalLines() );
     fTable.setShowVerticalLines ( fTablePrefsEditor.hasVerticalLines() );
     fTable.setRowHeight( fTablePrefsEditor.getRowHeight() );
-    fModel.setColumnMapping( new ArrayList(fTablePrefsEditor.getColumnOrder()) );
+    fModel.setColumnMapping( new ArrayList<>(fTablePrefsEditor.getVisibleColumnOrder()) );
     synchWithTableRendererPrefs();
     int sortIdx = fModel.fColumnMapping.indexOf( fTablePrefsEditor.getSortField() );
+    if ( sortIdx < 0 ) {
+      //the sort field is an indicator, and indicators are hidden
+      sortIdx = 0;
+    }
     fTableSortIndicator.setSortBy( new SortBy(SortOrder.DESCENDING, sortIdx) ) ;
   }
   
+  private void synchSelectedStock(){
+    Stock oldSelectedStock = fSelectedStock;
+    fSelectedStock = fModel.getSelectedStock();
+    firePropertyChange(SELECTED_STOCK, oldSelectedStock, fSelectedStock);
+  }
+
   private void synchWithTableRendererPrefs(){
     for (int idx = 0; idx < fTable.getColumnCount(); ++idx) {
       String colName = fTable.getColumnName(idx);
@@ -134,7 +190,7 @@ public final class QuoteTable extends JScrollPane
       ) {
         fTable.getColumnModel().getColumn(idx).setCellRenderer(new RenderRedGreen());
       }
-      else if ( field == QuoteField.Price ) {
+      else if ( field == QuoteField.Price || (field.isIndicator() && field != QuoteField.RelativeStrength) ) {
         fTable.getColumnModel().getColumn(idx).setCellRenderer(new RenderPrice());
       }
       else if ( field == QuoteField.Stock ){
@@ -146,19 +202,20 @@ public final class QuoteTable extends JScrollPane
   // TABLE MODEL 
   private final class QuoteTableModel extends AbstractTableModel {
     QuoteTableModel(){
-      setColumnMapping(new ArrayList(fTablePrefsEditor.getColumnOrder()));
+      setColumnMapping(new ArrayList<>(fTablePrefsEditor.getVisibleColumnOrder()));
       //needed for startup: fQuoteTable can never be null, or the 
       //rendering of the table will throw NPE.
-      fQuoteTable =  Collections.emptyList();
-      fFilteredSortedQuoteTable = Collections.emptyList();
+      fQuoteTable = QuoteSnapshot.EMPTY;
+      fDisplayedQuotes = new ArrayList<>();
     }
     /**
     * @param aColumnMapping is a list of {@link QuoteField} 
-    * objects, the order of which defines the presentation order of columns.
+    * objects, the order of which defines the presentation order of columns. 
+    * Need not include every field, since indicator columns are optional.
     */
     void setColumnMapping(List<QuoteField> aColumnMapping ){
-      if (aColumnMapping == null || aColumnMapping.size() != QuoteField.values().length ){
-        throw new IllegalArgumentException( "Column mapping null or of unexpected size.");
+      if (aColumnMapping == null || aColumnMapping.isEmpty() ){
+        throw new IllegalArgumentException( "Column mapping null or empty.");
       }
       fColumnMapping = Collections.unmodifiableList(aColumnMapping);
       fireTableStructureChanged();
@@ -166,23 +223,25 @@ public final class QuoteTable extends JScrollPane
     /**
     * Set the quotes which are to be displayed to the user. 
     */
-    void setQuoteTable( List<Quote> aQuoteTable ){
+    void setQuoteTable( QuoteSnapshot aQuoteTable ){
       Args.checkForNull(aQuoteTable);
-      fQuoteTable = Collections.unmodifiableList(aQuoteTable);
-      filterAndSortQuotes();
+      fQuoteTable = aQuoteTable;
+      List<Quote> quotes = fQuoteTable.getQuotes(getFilteredSortedRows());
+      if ( ! updateChangedRows(quotes) ) {
+        replaceAllRows(quotes);
+      }
     }
     @Override public String getColumnName(int aColumnIdx) { 
       return getField(aColumnIdx).toString();
     }
     @Override public Class<?> getColumnClass(int aColumnIdx) {
-      Object value = getValueAt(0, aColumnIdx);
-      return value.getClass();
+      return getField(aColumnIdx) == QuoteField.Stock ? Stock.class : Money.class;
     }
     @Override public int getColumnCount() {
       return fColumnMapping.size();
     }  
     @Override public int getRowCount() {
-      return fFilteredSortedQuoteTable.size();
+      return fDisplayedQuotes.size();
     }
     @Override public Object getValueAt(int aRowIdx, int aColumnIdx) {
       if (aRowIdx < 0 || aRowIdx > getRowCount()-1) {
@@ -191,7 +250,7 @@ public final class QuoteTable extends JScrollPane
       if (aColumnIdx < 0 || aColumnIdx > getColumnCount()-1) {
         throw new IllegalArgumentException("Column index is out of range: " + aColumnIdx);
       }
-      Quote quote = (Quote)fFilteredSortedQuoteTable.get(aRowIdx);
+      Quote quote = fDisplayedQuotes.get(aRowIdx);
       //decide which field to grab based on configured mapping
       QuoteField field = getField(aColumnIdx);
       return getFieldValue( quote, field );
@@ -200,19 +259,21 @@ public final class QuoteTable extends JScrollPane
     // PRIVATE
 
     /**
-    * List containing {@link Quote} objects.
+    * Snapshot containing {@link Quote} objects.
     *
     *<p>It is not compulsory that all items in <tt>fQuoteTable</tt> be displayed; 
     * if the the user has selected a particular filter, then only a portion of 
     * <tt>fQuoteTable</tt> will be displayed. 
     */
-    private List<Quote> fQuoteTable;
+    private QuoteSnapshot fQuoteTable;
 
     /**
-    * The elements of <tt>fQuoteTable</tt> which the user wishes to display, and in 
-    * the desired order.
+    * The quotes currently seen by the <tt>JTable</tt>: the rows of 
+    * <tt>fQuoteTable</tt> which the user wishes to display, in the desired order. 
+    * Passes through intermediate states while a refresh is translated into 
+    * fine-grained events.
     */
-    private List<Quote> fFilteredSortedQuoteTable;
+    private List<Quote> fDisplayedQuotes;
 
     /**
     * A list of {@link QuoteField} 
@@ -221,18 +282,127 @@ public final class QuoteTable extends JScrollPane
     private List<QuoteField> fColumnMapping;
 
     private void filterAndSortQuotes(){
-      fFilteredSortedQuoteTable = fQuoteFilterFactory.getSelectedFilter().sift(fQuoteTable);
-      Collections.sort(fFilteredSortedQuoteTable, getQuoteSorter());
-      if (fTableSortIndicator.getSortBy().getOrder() == SortOrder.ASCENDING) {
-        Collections.reverse(fFilteredSortedQuoteTable);
-      }
-      fireTableDataChanged();
+      replaceAllRows(fQuoteTable.getQuotes(getFilteredSortedRows()));
     }
-    
-    private Comparator<Quote> getQuoteSorter(){
+
+    private int[] getFilteredSortedRows(){
+      int[] rows = fFilteredQuoteView.filter(fQuoteTable).getRows();
       SortBy sortBy = fTableSortIndicator.getSortBy();
-      QuoteField quoteField = fModel.getField( sortBy.getColumn() );
-      return QuoteSorterFactory.getSorter( quoteField );
+      QuoteField quoteField = getField( sortBy.getColumn() );
+      return QuoteSortEngine.sort(fQuoteTable, rows, quoteField, sortBy.getOrder());
+    }
+
+    /**
+    * Replace all rows with a single event, retaining the selected stock and the
+    * scroll position.
+    */
+    private void replaceAllRows(List<Quote> aQuotes){
+      Stock selectedStock = getSelectedStock();
+      Point viewPosition = getViewport().getViewPosition();
+      fDisplayedQuotes = new ArrayList<>(aQuotes);
+      fIsReplacingRows = true;
+      try {
+        fireTableDataChanged();
+        if (selectedStock != null) {
+          selectStock(selectedStock);
+        }
+      }
+      finally {
+        fIsReplacingRows = false;
+      }
+      synchSelectedStock();
+      int maxY = Math.max(
+        0, aQuotes.size() * fTable.getRowHeight() - getViewport().getExtentSize().height
+      );
+      viewPosition.y = Math.min(viewPosition.y, maxY);
+      getViewport().setViewPosition(viewPosition);
+    }
+
+    /**
+    * Translate the change from the displayed quotes to <tt>aQuotes</tt> into 
+    * events for deleted, inserted, and updated rows only. The <tt>JTable</tt> 
+    * itself retains the selection and scroll position across such events.
+    *
+    * <P>Returns <tt>false</tt>, and does nothing, if the stocks present both 
+    * before and after have changed their relative order; such changes cannot be 
+    * expressed as insertions and deletions alone.
+    */
+    private boolean updateChangedRows(List<Quote> aQuotes){
+      Map<Stock, Integer> newRows = new HashMap<>();
+      for (int row = 0; row < aQuotes.size(); ++row) {
+        newRows.put(aQuotes.get(row).getStock(), row);
+      }
+      int lastNewRow = -1;
+      for (Quote quote : fDisplayedQuotes) {
+        Integer newRow = newRows.get(quote.getStock());
+        if (newRow != null) {
+          if (newRow < lastNewRow) return false;
+          lastNewRow = newRow;
+        }
+      }
+
+      //deletions, from the bottom up, so that earlier indexes remain valid
+      Set<Stock> retained = new HashSet<>();
+      int row = fDisplayedQuotes.size() - 1;
+      while (row >= 0) {
+        int end = row;
+        while (row >= 0 && ! newRows.containsKey(fDisplayedQuotes.get(row).getStock())) {
+          --row;
+        }
+        if (row < end) {
+          fDisplayedQuotes.subList(row + 1, end + 1).clear();
+          fireTableRowsDeleted(row + 1, end);
+        }
+        if (row >= 0) {
+          retained.add(fDisplayedQuotes.get(row).getStock());
+          --row;
+        }
+      }
+
+      //insertions, from the top down; the retained rows are already in order
+      row = 0;
+      while (row < aQuotes.size()) {
+        int start = row;
+        while (row < aQuotes.size() && ! retained.contains(aQuotes.get(row).getStock())) {
+          ++row;
+        }
+        if (row > start) {
+          fDisplayedQuotes.addAll(start, aQuotes.subList(start, row));
+          fireTableRowsInserted(start, row - 1);
+        }
+        ++row;
+      }
+
+      //updates, for rows whose price data has changed
+      row = 0;
+      while (row < aQuotes.size()) {
+        int start = row;
+        while (row < aQuotes.size() && ! fDisplayedQuotes.get(row).equals(aQuotes.get(row))) {
+          fDisplayedQuotes.set(row, aQuotes.get(row));
+          ++row;
+        }
+        if (row > start) {
+          fireTableRowsUpdated(start, row - 1);
+        }
+        ++row;
+      }
+      return true;
+    }
+
+    private Stock getSelectedStock(){
+      int row = fTable.getSelectedRow();
+      return row < 0 || row >= fDisplayedQuotes.size() ? 
+        null : fDisplayedQuotes.get(row).getStock()
+      ;
+    }
+
+    private void selectStock(Stock aStock){
+      for (int row = 0; row < fDisplayedQuotes.size(); ++row) {
+        if (fDisplayedQuotes.get(row).getStock().equals(aStock)) {
+          fTable.setRowSelectionInterval(row, row);
+          return;
+        }
+      }
     }
     
     private QuoteField getField( int aColumnIdx ){
@@ -262,6 +432,9 @@ public final class QuoteTable extends JScrollPane
       else if (aField == QuoteField.PercentProfit) {
         result = aQuote.getPercentProfit();
       }
+      else if (aField.isIndicator()) {
+        result = aField.getIndicator(aQuote);
+      }
       else {
         throw new AssertionError("Unknown field: " + aField);
       }
@@ -0,0 +1,245 @@
+package hirondelle.stocks.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+* Immutable, fixed-point amount of money, held as a whole number of cents.
+*
+* <P>The scale is always {@link Consts#MONEY_DECIMAL_PLACES}, and all rounding
+* uses {@link Consts#MONEY_ROUNDING_STYLE} (half-even). Addition, subtraction,
+* and multiplication by a quantity are exact, and use only <tt>long</tt>
+* arithmetic; a <tt>BigDecimal</tt> is created only when explicitly requested
+* by {@link #toBigDecimal}, or when a value is too large for the fast path.
+*
+* <P>Percentages, such as a percent change in price, have the same scale and
+* rounding, and are also represented by this class.
+*
+* <P>Extends <tt>Number</tt>, so that instances may be passed directly to the
+* table renderers and formatting methods which accept any <tt>Number</tt>.
+*/
+public final class Money extends Number implements Comparable<Money> {
+
+  /** The number of decimal places held by every <tt>Money</tt> object. */
+  public static final int SCALE = Consts.MONEY_DECIMAL_PLACES;
+
+  /** Zero, in the scale of this class. */
+  public static final Money ZERO = new Money(0);
+
+  /**
+  * Return <tt>aAmount</tt>, rounded to {@link #SCALE} decimal places.
+  *
+  * @throws ArithmeticException if <tt>aAmount</tt> is too large to be held as a
+  * <tt>long</tt> number of cents.
+  */
+  public static Money valueOf(BigDecimal aAmount){
+    BigInteger unscaled = aAmount.setScale(SCALE, Consts.MONEY_ROUNDING_STYLE).unscaledValue();
+    if ( unscaled.bitLength() > MAX_BITS ) {
+      throw new ArithmeticException("Too large for Money: " + aAmount);
+    }
+    return fromUnscaled(unscaled.longValue());
+  }
+
+  /**
+  * Return the amount whose value is <tt>aUnscaledValue</tt> divided by
+  * 10<sup>{@link #SCALE}</sup>; for example, <tt>1250</tt> is <tt>12.50</tt>.
+  */
+  public static Money fromUnscaled(long aUnscaledValue){
+    return aUnscaledValue == 0 ? ZERO : new Money(aUnscaledValue);
+  }
+
+  /**
+  * Return the value of this object multiplied by 10<sup>{@link #SCALE}</sup>;
+  * for example, <tt>12.50</tt> returns <tt>1250</tt>.
+  */
+  public long getUnscaledValue(){
+    return fUnscaled;
+  }
+
+  /** Return {@link #SCALE}. */
+  public int getScale(){
+    return SCALE;
+  }
+
+  public Money plus(Money aThat){
+    return fromUnscaled(add(fUnscaled, aThat.fUnscaled));
+  }
+
+  public Money minus(Money aThat){
+    return fromUnscaled(add(fUnscaled, -aThat.fUnscaled));
+  }
+
+  /**
+  * Return this amount multiplied by <tt>aQuantity</tt>, such as a number of
+  * shares. The result is exact.
+  */
+  public Money times(long aQuantity){
+    long result = fUnscaled * aQuantity;
+    if ( aQuantity != 0 && result / aQuantity != fUnscaled ) {
+      throw new ArithmeticException("Money overflow: " + this + " * " + aQuantity);
+    }
+    return fromUnscaled(result);
+  }
+
+  public Money negate(){
+    return fromUnscaled(-fUnscaled);
+  }
+
+  /** Return <tt>-1</tt>, <tt>0</tt>, or <tt>1</tt>, according to the sign of this amount. */
+  public int signum(){
+    return Long.signum(fUnscaled);
+  }
+
+  public boolean isZero(){
+    return fUnscaled == 0;
+  }
+
+  /**
+  * Return this amount as a percentage of <tt>aBase</tt>, rounded to {@link #SCALE}
+  * decimal places; if <tt>aBase</tt> is zero, return zero.
+  *
+  * <P>Example: this=0.20 and aBase=0.80, returns a value of 25.00.
+  */
+  public Money percentOf(Money aBase){
+    if ( aBase.isZero() ) return ZERO;
+    if ( Math.abs(fUnscaled) <= MAX_FAST_PERCENT ) {
+      return fromUnscaled(divideRounded(fUnscaled * PERCENT_FACTOR, aBase.fUnscaled));
+    }
+    BigDecimal result = toBigDecimal().multiply(HUNDRED).divide(
+      aBase.toBigDecimal(), SCALE, Consts.MONEY_ROUNDING_STYLE
+    );
+    return valueOf(result);
+  }
+
+  /**
+  * Return this amount as a <tt>BigDecimal</tt> having {@link #SCALE} decimal
+  * places.
+  */
+  public BigDecimal toBigDecimal(){
+    return BigDecimal.valueOf(fUnscaled, SCALE);
+  }
+
+  @Override public int intValue() {
+    return (int)longValue();
+  }
+
+  /** Return the whole part of this amount, truncating any cents. */
+  @Override public long longValue() {
+    return fUnscaled / UNITS_PER_WHOLE;
+  }
+
+  @Override public float floatValue() {
+    return (float)doubleValue();
+  }
+
+  @Override public double doubleValue() {
+    return fUnscaled / (double)UNITS_PER_WHOLE;
+  }
+
+  @Override public int compareTo(Money aThat) {
+    return Long.compare(fUnscaled, aThat.fUnscaled);
+  }
+
+  @Override public boolean equals(Object aThat) {
+    if ( this == aThat ) return true;
+    if ( !(aThat instanceof Money) ) return false;
+    Money that = (Money)aThat;
+    return this.fUnscaled == that.fUnscaled;
+  }
+
+  @Override public int hashCode() {
+    return HashCodeUtil.hash(HashCodeUtil.SEED, fUnscaled);
+  }
+
+  /**
+  * Return the amount in the same form as <tt>BigDecimal.toPlainString</tt>,
+  * as in <tt>12.50</tt>.
+  */
+  @Override public String toString() {
+    return toBigDecimal().toPlainString();
+  }
+
+  // PRIVATE
+
+  private final long fUnscaled;
+
+  private static final long UNITS_PER_WHOLE = 100;
+  private static final long PERCENT_FACTOR = 100 * UNITS_PER_WHOLE;
+  private static final long MAX_FAST_PERCENT = Long.MAX_VALUE / PERCENT_FACTOR;
+  private static final int MAX_BITS = 63;
+  private static final BigDecimal HUNDRED = new BigDecimal("100");
+
+  private static final long serialVersionUID = 1L;
+
+  private Money(long aUnscaled){
+    fUnscaled = aUnscaled;
+  }
+
+  private static long add(long aThis, long aThat){
+    long result = aThis + aThat;
+    if ( ((aThis ^ result) & (aThat ^ result)) < 0 ) {
+      throw new ArithmeticException("Money overflow.");
+    }
+    return result;
+  }
+
+  /** Divide, rounding half-even, as in Consts.MONEY_ROUNDING_STYLE. */
+  private static long divideRounded(long aNumerator, long aDenominator){
+    long result = aNumerator / aDenominator;
+    long remainder = aNumerator % aDenominator;
+    if ( remainder != 0 ) {
+      long excess = Math.abs(remainder);
+      long shortfall = Math.abs(aDenominator) - excess;
+      boolean isNegative = (aNumerator < 0) != (aDenominator < 0);
+      if ( excess > shortfall || (excess == shortfall && result % 2 != 0) ) {
+        result = isNegative ? result - 1 : result + 1;
+      }
+    }
+    return result;
+  }
+
+  /**
+  * Developer tool. Compares the cost of the per-row calculations made when a
+  * table of quotes is rendered - current value, profit, and percent profit -
+  * using this class, and using the older <tt>BigDecimal</tt> arithmetic.
+  */
+  private static void main(String... aArgs){
+    int numRows = 100000;
+    long[] shares = new long[numRows];
+    Money[] prices = new Money[numRows];
+    Money[] bookValues = new Money[numRows];
+    BigDecimal[] bigPrices = new BigDecimal[numRows];
+    BigDecimal[] bigBookValues = new BigDecimal[numRows];
+    for(int idx = 0; idx < numRows; ++idx){
+      shares[idx] = 10 + idx % 1000;
+      prices[idx] = fromUnscaled(100 + idx % 50000);
+      bookValues[idx] = fromUnscaled(500 + idx % 70000).times(shares[idx]);
+      bigPrices[idx] = prices[idx].toBigDecimal();
+      bigBookValues[idx] = bookValues[idx].toBigDecimal();
+    }
+    for(int round = 0; round < 10; ++round){
+      long start = System.nanoTime();
+      Money total = ZERO;
+      for(int idx = 0; idx < numRows; ++idx){
+        Money profit = prices[idx].times(shares[idx]).minus(bookValues[idx]);
+        total = total.plus(profit).plus(profit.percentOf(bookValues[idx]));
+      }
+      long fixedPoint = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      BigDecimal bigTotal = Consts.ZERO_MONEY_WITH_DECIMAL;
+      for(int idx = 0; idx < numRows; ++idx){
+        BigDecimal numShares = new BigDecimal(Long.toString(shares[idx]));
+        BigDecimal profit = numShares.multiply(bigPrices[idx]).subtract(bigBookValues[idx]);
+        BigDecimal percent = profit.divide(bigBookValues[idx], 4, Consts.MONEY_ROUNDING_STYLE);
+        percent = percent.multiply(HUNDRED).setScale(SCALE, Consts.MONEY_ROUNDING_STYLE);
+        bigTotal = bigTotal.add(profit).add(percent);
+      }
+      long bigDecimal = System.nanoTime() - start;
+      System.out.println(
+        "Money: " + fixedPoint / 1000 + "us  BigDecimal: " + bigDecimal / 1000 +
+        "us  Same result: " + total.toBigDecimal().equals(bigTotal)
+      );
+    }
+  }
+}